@@ -24,6 +24,8 @@ import simpledb.transaction.TransactionId;
 
 public class Parser {
     static boolean explain = false;
+    // workers for the parallel parts of query plans; 0 picks per query
+    static int parallelism = 1;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -288,6 +290,7 @@ public class Parser {
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
         query.setLogicalPlan(lp);
+        query.setParallelism(parallelism);
 
         if (physicalPlan != null) {
             Class<?> c;
@@ -581,7 +584,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-parallel workers] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -602,6 +605,25 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-parallel")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected number of workers after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    try {
+                        parallelism = Integer.parseInt(argv[i]);
+                    } catch (NumberFormatException e) {
+                        parallelism = -1;
+                    }
+                    if (parallelism < 0) {
+                        System.out.println("Expected a number of workers after -parallel, not "
+                                + argv[i] + "\n" + usage);
+                        System.exit(0);
+                    }
+                    System.out.println("Parallel execution with "
+                            + (parallelism == Query.AUTO_PARALLELISM ? "a degree chosen per query"
+                            : parallelism + " workers") + ".");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -4,6 +4,8 @@ package simpledb.common;
 
 import simpledb.common.Type;
 
+import simpledb.index.SecondaryIndex;
+
 import simpledb.storage.DbFile;
 
 import simpledb.storage.HeapFile;
@@ -24,6 +26,8 @@ import java.util.*;
 
 import java.util.concurrent.ConcurrentHashMap;
 
+import java.util.concurrent.CopyOnWriteArrayList;
+
 
 
 /**
@@ -55,6 +59,12 @@ public class Catalog {
 
     private ConcurrentHashMap<Integer, String> fileIdtoPKeyField;
 
+    // the secondary indexes of each table
+    private ConcurrentHashMap<Integer, List<SecondaryIndex>> tableIdtoIndexes;
+
+    // the catalog file the tables were loaded from, if any
+    private volatile String catalogFile;
+
     /**
 
      * Constructor.
@@ -70,6 +80,7 @@ public class Catalog {
     	fileNametoFileId = new ConcurrentHashMap<>();
     	fileIdtoFileName = new ConcurrentHashMap<>();
     	fileIdtoPKeyField = new ConcurrentHashMap<>();
+    	tableIdtoIndexes = new ConcurrentHashMap<>();
 
     }
 
@@ -243,6 +254,34 @@ public class Catalog {
 
 
 
+    /**
+     * Register a secondary index of a table already in the catalog. From then
+     * on, the buffer pool keeps it up to date as tuples are inserted into and
+     * deleted from the table, and queries may read the table through it.
+     * The index's B+ tree can be found by {@link #getDatabaseFile} under its
+     * own id, but it is not listed as a table.
+     * @param index the index, over a table in the catalog
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void addIndex(SecondaryIndex index) {
+        if (!fileIdtoFile.containsKey(index.getTableId())) {
+            throw new NoSuchElementException("table doesn't exist.");
+        }
+        fileIdtoFile.put(index.getFile().getId(), index.getFile());
+        tableIdtoIndexes.computeIfAbsent(index.getTableId(), id -> new CopyOnWriteArrayList<>()).add(index);
+    }
+
+    /**
+     * @return the secondary indexes of the specified table, in the order they
+     *         were added; empty if it has none
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        List<SecondaryIndex> indexes = tableIdtoIndexes.get(tableid);
+        return indexes == null ? Collections.emptyList() : Collections.unmodifiableList(indexes);
+    }
+
+
+
     public String getPrimaryKey(int tableid) {
 
         // some code goes here
@@ -286,11 +325,21 @@ public class Catalog {
         fileIdtoFileName.clear();
 
         fileIdtoPKeyField.clear();
+        tableIdtoIndexes.clear();
+        catalogFile = null;
 
     }
 
     
 
+    /**
+     * @return the catalog file passed to {@link #loadSchema}, or null if the
+     *         tables were added by hand
+     */
+    public String getCatalogFile() {
+        return catalogFile;
+    }
+
     /**
 
      * Reads the schema from a file and creates the appropriate tables in the database.
@@ -301,6 +350,7 @@ public class Catalog {
 
     public void loadSchema(String catalogFile) {
 
+        this.catalogFile = catalogFile;
         String line = "";
 
         String baseFolder=new File(new File(catalogFile).getAbsolutePath()).getParent();
@@ -6,6 +6,7 @@ import simpledb.storage.IntField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Class representing a type in SimpleDB.
@@ -41,7 +42,7 @@ public enum Type implements Serializable {
                 byte[] bs = new byte[strLen];
                 dis.read(bs);
                 dis.skipBytes(STRING_LEN-strLen);
-                return new StringField(new String(bs), STRING_LEN);
+                return new StringField(new String(bs, StandardCharsets.ISO_8859_1), STRING_LEN);
             } catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
             }
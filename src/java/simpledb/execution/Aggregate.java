@@ -1,6 +1,7 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
+import simpledb.common.Type;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
@@ -17,6 +18,14 @@ public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    // introduced variables to store the child, the fields and the op
+    private OpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    // the groups computed on open
+    private OpIterator results;
+
     /**
      * Constructor.
      * <p>
@@ -32,6 +41,10 @@ public class Aggregate extends Operator {
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
         // some code goes here
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
     }
 
     /**
@@ -41,7 +54,7 @@ public class Aggregate extends Operator {
      */
     public int groupField() {
         // some code goes here
-        return -1;
+        return gfield;
     }
 
     /**
@@ -51,7 +64,10 @@ public class Aggregate extends Operator {
      */
     public String groupFieldName() {
         // some code goes here
-        return null;
+        if (gfield == Aggregator.NO_GROUPING) {
+            return null;
+        }
+        return child.getTupleDesc().getFieldName(gfield);
     }
 
     /**
@@ -59,7 +75,7 @@ public class Aggregate extends Operator {
      */
     public int aggregateField() {
         // some code goes here
-        return -1;
+        return afield;
     }
 
     /**
@@ -68,7 +84,7 @@ public class Aggregate extends Operator {
      */
     public String aggregateFieldName() {
         // some code goes here
-        return null;
+        return nameOfAggregatorOp(aop) + " (" + child.getTupleDesc().getFieldName(afield) + ")";
     }
 
     /**
@@ -76,7 +92,7 @@ public class Aggregate extends Operator {
      */
     public Aggregator.Op aggregateOp() {
         // some code goes here
-        return null;
+        return aop;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -86,6 +102,19 @@ public class Aggregate extends Operator {
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         // some code goes here
+        TupleDesc childTd = child.getTupleDesc();
+        Type gtype = gfield == Aggregator.NO_GROUPING ? null : childTd.getFieldType(gfield);
+        Aggregator aggregator = childTd.getFieldType(afield) == Type.INT_TYPE
+                ? new IntegerAggregator(gfield, gtype, afield, aop)
+                : new StringAggregator(gfield, gtype, afield, aop);
+
+        child.open();
+        while (child.hasNext()) {
+            aggregator.mergeTupleIntoGroup(child.next());
+        }
+        results = aggregator.iterator();
+        results.open();
+        super.open();
     }
 
     /**
@@ -97,18 +126,22 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
+        if (results != null && results.hasNext()) {
+            return results.next();
+        }
         return null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        results.rewind();
     }
 
     /**
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
      * this will have one field - the aggregate column. If there is a group by
      * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * the aggregate value column. SUM_COUNT adds a count column after the sum.
      * <p>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -117,22 +150,44 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        if (aop == Aggregator.Op.SUM_COUNT) {
+            // the sum and then the count
+            String cname = nameOfAggregatorOp(Aggregator.Op.COUNT) + " ("
+                    + child.getTupleDesc().getFieldName(afield) + ")";
+            if (gfield == Aggregator.NO_GROUPING) {
+                return new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                        new String[]{aggregateFieldName(), cname});
+            }
+            return new TupleDesc(new Type[]{child.getTupleDesc().getFieldType(gfield), Type.INT_TYPE,
+                    Type.INT_TYPE}, new String[]{groupFieldName(), aggregateFieldName(), cname});
+        }
+        if (gfield == Aggregator.NO_GROUPING) {
+            return new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{aggregateFieldName()});
+        }
+        return new TupleDesc(new Type[]{child.getTupleDesc().getFieldType(gfield), Type.INT_TYPE},
+                new String[]{groupFieldName(), aggregateFieldName()});
     }
 
     public void close() {
         // some code goes here
+        super.close();
+        child.close();
+        if (results != null) {
+            results.close();
+            results = null;
+        }
     }
 
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new OpIterator[]{this.child};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        this.child = children[0];
     }
 
 }
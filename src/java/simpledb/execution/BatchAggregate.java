@@ -0,0 +1,187 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+
+/**
+ * BatchAggregate is the batch implementation of {@link Aggregate}, with the
+ * same output schema and semantics. The distinct group values are kept in a
+ * columnar table with a chained hash index over it, and the running count,
+ * sum, min and max of each group in long arrays, so no objects are created
+ * per input row.
+ */
+public class BatchAggregate implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    // one row per group, in order of first appearance
+    private transient TupleBatch keys;
+    private transient int[] heads;
+    private transient int[] next;
+    private transient long[] count, sum, min, max;
+    private transient int numGroups;
+    private transient boolean done;
+
+    /**
+     * @param child the iterator that feeds rows to the aggregate
+     * @param afield the column over which the aggregate is computed
+     * @param gfield the column to group by, or {@link Aggregator#NO_GROUPING}
+     * @param aop the aggregation operator
+     */
+    public BatchAggregate(BatchOpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        TupleDesc childTd = child.getTupleDesc();
+        if (childTd.getFieldType(afield) != Type.INT_TYPE && aop != Aggregator.Op.COUNT)
+            throw new IllegalArgumentException("unsupported aggregate " + aop + " over strings");
+        if (aop == Aggregator.Op.SUM_COUNT || aop == Aggregator.Op.SC_AVG)
+            throw new IllegalArgumentException("unsupported aggregate " + aop);
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+
+        String aname = Aggregate.nameOfAggregatorOp(aop) + " (" + childTd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{aname});
+        else
+            td = new TupleDesc(new Type[]{childTd.getFieldType(gfield), Type.INT_TYPE},
+                    new String[]{childTd.getFieldName(gfield), aname});
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        numGroups = 0;
+        count = new long[16];
+        sum = new long[16];
+        min = new long[16];
+        max = new long[16];
+        if (gfield != Aggregator.NO_GROUPING) {
+            TupleDesc childTd = child.getTupleDesc();
+            keys = new TupleBatch(new TupleDesc(new Type[]{childTd.getFieldType(gfield)}));
+            heads = new int[64];
+            Arrays.fill(heads, -1);
+            next = new int[16];
+        }
+        done = false;
+    }
+
+    private int newGroup() {
+        if (numGroups == count.length) {
+            int n = numGroups * 2;
+            count = Arrays.copyOf(count, n);
+            sum = Arrays.copyOf(sum, n);
+            min = Arrays.copyOf(min, n);
+            max = Arrays.copyOf(max, n);
+            if (next != null)
+                next = Arrays.copyOf(next, n);
+        }
+        min[numGroups] = Long.MAX_VALUE;
+        max[numGroups] = Long.MIN_VALUE;
+        return numGroups++;
+    }
+
+    private void rehash() {
+        heads = new int[heads.length * 2];
+        Arrays.fill(heads, -1);
+        TupleBatch.Column key = keys.column(0);
+        for (int g = numGroups - 1; g >= 0; g--) {
+            int h = key.hash(g) & (heads.length - 1);
+            next[g] = heads[h];
+            heads[h] = g;
+        }
+    }
+
+    // the group of physical row r of batch, created if it is new
+    private int group(TupleBatch batch, int r) {
+        TupleBatch.Column col = batch.column(gfield);
+        TupleBatch.Column key = keys.column(0);
+        int h = col.hash(r) & (heads.length - 1);
+        for (int g = heads[h]; g >= 0; g = next[g]) {
+            if (key.equalsAt(g, col, r))
+                return g;
+        }
+        int g = newGroup();
+        key.appendFrom(col, r);
+        keys.addRow(null);
+        next[g] = heads[h];
+        heads[h] = g;
+        if (numGroups > heads.length / 2)
+            rehash();
+        return g;
+    }
+
+    private void consume(TupleBatch batch) {
+        int rows = batch.numRows();
+        boolean ints = batch.getTupleDesc().getFieldType(afield) == Type.INT_TYPE;
+        TupleBatch.IntColumn values = ints ? batch.intColumn(afield) : null;
+        for (int k = 0; k < rows; k++) {
+            int r = batch.row(k);
+            int g;
+            if (gfield == Aggregator.NO_GROUPING)
+                g = numGroups == 0 ? newGroup() : 0;
+            else
+                g = group(batch, r);
+            count[g]++;
+            if (ints) {
+                int v = values.get(r);
+                sum[g] += v;
+                if (v < min[g])
+                    min[g] = v;
+                if (v > max[g])
+                    max[g] = v;
+            }
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (count == null)
+            throw new IllegalStateException("aggregate not open");
+        if (done)
+            return null;
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null)
+            consume(batch);
+        done = true;
+        if (numGroups == 0)
+            return null;
+
+        TupleBatch out = new TupleBatch(td, numGroups);
+        int agg = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        for (int g = 0; g < numGroups; g++) {
+            if (agg == 1)
+                out.column(0).appendFrom(keys.column(0), g);
+            out.intColumn(agg).append(IntegerAggregator.finalValue(aop, count[g], sum[g],
+                    min[g], max[g]));
+            out.addRow(null);
+        }
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // recompute the groups from a fresh pass over the child
+        close();
+        open();
+    }
+
+    public void close() {
+        child.close();
+        keys = null;
+        heads = null;
+        next = null;
+        count = sum = min = max = null;
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchFilter is the batch implementation of {@link Filter}. Rows are not
+ * copied: the filter narrows the selection vector of each batch it passes on.
+ * Integer predicates are evaluated directly on the int column.
+ */
+public class BatchFilter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private final BatchOpIterator child;
+    private transient int[] sel;
+
+    /**
+     * @param p the predicate to filter rows with
+     * @param child the iterator that feeds rows to this filter
+     */
+    public BatchFilter(Predicate p, BatchOpIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        sel = new int[TupleBatch.DEFAULT_CAPACITY];
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (sel == null)
+            throw new IllegalStateException("filter not open");
+        TupleBatch batch = child.nextBatch();
+        if (batch == null)
+            return null;
+        if (sel.length < batch.size())
+            sel = new int[batch.size()];
+
+        int n;
+        if (batch.getTupleDesc().getFieldType(p.getField()) == Type.INT_TYPE)
+            n = filterInts(batch);
+        else
+            n = filterFields(batch);
+        // sel is rewritten on the next call, after the batch has been consumed
+        batch.setSelection(sel, n);
+        return batch;
+    }
+
+    private int filterInts(TupleBatch batch) {
+        TupleBatch.IntColumn col = batch.intColumn(p.getField());
+        int v = ((IntField) p.getOperand()).getValue();
+        int rows = batch.numRows();
+        int n = 0;
+        switch (p.getOp()) {
+        case EQUALS:
+        case LIKE:
+            for (int k = 0; k < rows; k++) {
+                int r = batch.row(k);
+                if (col.get(r) == v)
+                    sel[n++] = r;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int k = 0; k < rows; k++) {
+                int r = batch.row(k);
+                if (col.get(r) != v)
+                    sel[n++] = r;
+            }
+            break;
+        case GREATER_THAN:
+            for (int k = 0; k < rows; k++) {
+                int r = batch.row(k);
+                if (col.get(r) > v)
+                    sel[n++] = r;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int k = 0; k < rows; k++) {
+                int r = batch.row(k);
+                if (col.get(r) >= v)
+                    sel[n++] = r;
+            }
+            break;
+        case LESS_THAN:
+            for (int k = 0; k < rows; k++) {
+                int r = batch.row(k);
+                if (col.get(r) < v)
+                    sel[n++] = r;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int k = 0; k < rows; k++) {
+                int r = batch.row(k);
+                if (col.get(r) <= v)
+                    sel[n++] = r;
+            }
+            break;
+        }
+        return n;
+    }
+
+    // strings keep the semantics of StringField.compare
+    private int filterFields(TupleBatch batch) {
+        TupleBatch.Column col = batch.column(p.getField());
+        int rows = batch.numRows();
+        int n = 0;
+        for (int k = 0; k < rows; k++) {
+            int r = batch.row(k);
+            if (col.getField(r).compare(p.getOp(), p.getOperand()))
+                sel[n++] = r;
+        }
+        return n;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+        sel = null;
+    }
+}
@@ -0,0 +1,161 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+
+/**
+ * BatchHashEquiJoin is the batch implementation of {@link HashEquiJoin}. The
+ * rows of child1 are copied into one columnar build table, hashed into a
+ * chained hash table made of two int arrays; child2 is then streamed through
+ * it a batch at a time.
+ * <p>
+ * Output rows are the concatenation of the matching child1 and child2 rows,
+ * as with HashEquiJoin.
+ */
+public class BatchHashEquiJoin implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final BatchOpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int capacity;
+
+    // the rows of child1
+    private transient TupleBatch build;
+    // heads[h] is the first build row with hash bucket h, next[r] the row
+    // after r in the same bucket; -1 ends a chain
+    private transient int[] heads;
+    private transient int[] next;
+    private transient int mask;
+
+    private transient TupleBatch out;
+    // probe position, kept across calls when the output batch fills up
+    private transient TupleBatch probe;
+    private transient int probePos;
+    private transient int chain;
+
+    /**
+     * @param p the predicate to join on; its operator must be EQUALS
+     * @param child1 the build side
+     * @param child2 the probe side
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchOpIterator child1, BatchOpIterator child2) {
+        this(p, child1, child2, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    public BatchHashEquiJoin(JoinPredicate p, BatchOpIterator child1, BatchOpIterator child2,
+                             int capacity) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("not an equi-join: " + p);
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.capacity = capacity;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        buildTable();
+        out = new TupleBatch(comboTD, capacity);
+        probe = null;
+        chain = -1;
+    }
+
+    private void buildTable() throws DbException, TransactionAbortedException {
+        build = new TupleBatch(child1.getTupleDesc(), capacity);
+        TupleBatch b;
+        while ((b = child1.nextBatch()) != null) {
+            for (int k = 0; k < b.numRows(); k++)
+                build.appendRow(b, b.row(k));
+        }
+
+        int rows = build.size();
+        int buckets = Integer.highestOneBit(Math.max(2, rows) * 2 - 1);
+        mask = buckets - 1;
+        heads = new int[buckets];
+        Arrays.fill(heads, -1);
+        next = new int[rows];
+        TupleBatch.Column key = build.column(pred.getField1());
+        // insert back to front so that chains list rows in child1 order
+        for (int r = rows - 1; r >= 0; r--) {
+            int h = key.hash(r) & mask;
+            next[r] = heads[h];
+            heads[h] = r;
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null)
+            throw new IllegalStateException("join not open");
+        out.clear();
+        TupleBatch.Column buildKey = build.column(pred.getField1());
+        int leftFields = build.getTupleDesc().numFields();
+        while (!out.isFull()) {
+            if (chain < 0) {
+                // advance to the next probe row that has a bucket
+                if (probe == null || probePos >= probe.numRows()) {
+                    probe = child2.nextBatch();
+                    probePos = 0;
+                    if (probe == null)
+                        break;
+                    continue;
+                }
+                int r2 = probe.row(probePos);
+                chain = heads[probe.column(pred.getField2()).hash(r2) & mask];
+                if (chain < 0) {
+                    probePos++;
+                    continue;
+                }
+            }
+
+            int r2 = probe.row(probePos);
+            TupleBatch.Column probeKey = probe.column(pred.getField2());
+            while (chain >= 0 && !out.isFull()) {
+                int r1 = chain;
+                chain = next[chain];
+                if (!buildKey.equalsAt(r1, probeKey, r2))
+                    continue;
+                for (int i = 0; i < leftFields; i++)
+                    out.column(i).appendFrom(build.column(i), r1);
+                for (int i = 0; i < probe.getTupleDesc().numFields(); i++)
+                    out.column(leftFields + i).appendFrom(probe.column(i), r2);
+                out.addRow(null);
+            }
+            if (chain < 0)
+                probePos++;
+        }
+        return out.size() == 0 ? null : out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the build table is kept
+        child2.rewind();
+        probe = null;
+        chain = -1;
+    }
+
+    public void close() {
+        child2.close();
+        child1.close();
+        build = null;
+        heads = null;
+        next = null;
+        out = null;
+        probe = null;
+    }
+}
@@ -0,0 +1,55 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+
+/**
+ * BatchOpIterator is the iterator interface of the vectorized operators.
+ * Instead of one tuple at a time, these operators exchange {@link TupleBatch}es
+ * of up to {@link TupleBatch#DEFAULT_CAPACITY} rows, so that per-row work is
+ * done in tight loops over primitive columns.
+ * <p>
+ * As with {@link OpIterator}, the methods other than getTupleDesc may only
+ * be called between open and close, and should throw IllegalStateException
+ * otherwise.
+ *
+ * @see BatchPlanner
+ */
+public interface BatchOpIterator extends Serializable {
+    /**
+     * Opens the iterator, and its children.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows. The batch may be empty, i.e. have no
+     * selected rows, and it belongs to the operator: it is only valid until
+     * the next call, after which the operator may reuse it.
+     *
+     * @return the next batch, or null if there are no more rows.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows in the batches of this iterator.
+     */
+    TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator, and its children.
+     */
+    void close();
+}
@@ -0,0 +1,93 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+
+/**
+ * BatchPlanner turns a tuple-at-a-time plan into a batch plan. SeqScan,
+ * Filter, Project, HashEquiJoin and Aggregate are replaced by their batch
+ * implementations; every other operator keeps running a tuple at a time,
+ * connected to batch children and parents through
+ * {@link BatchToTupleIterator} and {@link TupleToBatchIterator}.
+ * <p>
+ * Operators that are not converted get new children through
+ * {@link Operator#setChildren}, so the row plan passed in should not be run
+ * on its own once it has been converted.
+ */
+public class BatchPlanner {
+
+    private BatchPlanner() {
+    }
+
+    /**
+     * @return an OpIterator that produces the same tuples as plan, running
+     *         as much of it as possible in batches
+     */
+    public static OpIterator plan(OpIterator plan) {
+        if (plan instanceof BatchToTupleIterator)
+            return plan;
+        if (isBatchable(plan))
+            return new BatchToTupleIterator(vectorize(plan));
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            OpIterator[] children = op.getChildren();
+            if (children != null && children.length > 0) {
+                OpIterator[] converted = new OpIterator[children.length];
+                for (int i = 0; i < children.length; i++)
+                    converted[i] = plan(children[i]);
+                // the inner child of an index join is probed, never read
+                if (op instanceof IndexNestedLoopJoin)
+                    converted[1] = children[1];
+                op.setChildren(converted);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * @return a batch iterator that produces the same rows as plan
+     */
+    public static BatchOpIterator vectorize(OpIterator plan) {
+        if (plan instanceof BatchToTupleIterator)
+            return ((BatchToTupleIterator) plan).getChild();
+        if (plan instanceof SeqScan)
+            return new BatchSeqScan((SeqScan) plan);
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            return new BatchFilter(f.getPredicate(), vectorize(f.getChildren()[0]));
+        }
+        if (plan instanceof Project) {
+            Project p = (Project) plan;
+            return new BatchProject(p.getOutFieldIds(), p.getTupleDesc(),
+                    vectorize(p.getChildren()[0]));
+        }
+        if (plan instanceof HashEquiJoin && isBatchable(plan)) {
+            HashEquiJoin j = (HashEquiJoin) plan;
+            OpIterator[] children = j.getChildren();
+            return new BatchHashEquiJoin(j.getJoinPredicate(), vectorize(children[0]),
+                    vectorize(children[1]));
+        }
+        if (plan instanceof Aggregate && isBatchable(plan)) {
+            Aggregate a = (Aggregate) plan;
+            return new BatchAggregate(vectorize(a.getChildren()[0]), a.aggregateField(),
+                    a.groupField(), a.aggregateOp());
+        }
+        return new TupleToBatchIterator(plan(plan));
+    }
+
+    private static boolean isBatchable(OpIterator plan) {
+        if (plan instanceof SeqScan || plan instanceof Filter || plan instanceof Project
+                || plan instanceof BatchToTupleIterator)
+            return true;
+        if (plan instanceof HashEquiJoin)
+            return ((HashEquiJoin) plan).getJoinPredicate().getOperator() == Predicate.Op.EQUALS;
+        if (plan instanceof Aggregate) {
+            Aggregate a = (Aggregate) plan;
+            Aggregator.Op aop = a.aggregateOp();
+            if (aop == Aggregator.Op.SUM_COUNT || aop == Aggregator.Op.SC_AVG)
+                return false;
+            Type atype = a.getChildren()[0].getTupleDesc().getFieldType(a.aggregateField());
+            return atype == Type.INT_TYPE || aop == Aggregator.Op.COUNT;
+        }
+        return false;
+    }
+}
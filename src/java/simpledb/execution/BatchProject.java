@@ -0,0 +1,56 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.List;
+
+/**
+ * BatchProject is the batch implementation of {@link Project}. It copies no
+ * values: each output batch is a view over the projected columns of the
+ * child's batch.
+ */
+public class BatchProject implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private final TupleDesc td;
+    private final int[] fields;
+
+    /**
+     * @param fieldList the ids of the fields of the child's TupleDesc to project out
+     * @param td the TupleDesc of the output, as computed by Project
+     * @param child the child iterator
+     */
+    public BatchProject(List<Integer> fieldList, TupleDesc td, BatchOpIterator child) {
+        this.child = child;
+        this.td = td;
+        this.fields = new int[fieldList.size()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = fieldList.get(i);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch = child.nextBatch();
+        return batch == null ? null : batch.project(fields, td);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchSeqScan is the batch implementation of {@link SeqScan}. Heap file
+ * pages are decoded straight into the columns of a batch (see
+ * {@link HeapPage#appendTo}); other kinds of files are read through their
+ * tuple iterator.
+ */
+public class BatchSeqScan implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SeqScan scan;
+    private final int capacity;
+    private final TupleDesc td;
+    // reads files that are not heap files
+    private TupleToBatchIterator fallback;
+    private transient TupleBatch batch;
+    private int nextPage;
+    private boolean open = false;
+
+    public BatchSeqScan(SeqScan scan) {
+        this(scan, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param scan the row scan to run in batches; it provides the table, the
+     *        transaction and the aliased field names
+     * @param capacity the number of rows after which a batch is handed on
+     */
+    public BatchSeqScan(SeqScan scan, int capacity) {
+        this.scan = scan;
+        this.capacity = capacity;
+        this.td = scan.getTupleDesc();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (file instanceof HeapFile) {
+            batch = new TupleBatch(td, capacity);
+            nextPage = 0;
+        } else {
+            fallback = new TupleToBatchIterator(scan, capacity);
+            fallback.open();
+        }
+        open = true;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!open)
+            throw new IllegalStateException("scan not open");
+        if (fallback != null)
+            return fallback.nextBatch();
+
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        BufferPool bufferPool = Database.getBufferPool();
+        int numPages = file.numPages();
+        batch.clear();
+        while (!batch.isFull() && nextPage < numPages) {
+            HeapPageId pid = new HeapPageId(file.getId(), nextPage++);
+            bufferPool.getPrefetcher().accessed(pid, numPages);
+            HeapPage page = (HeapPage) bufferPool.getPage(scan.getTransactionId(), pid,
+                    Permissions.READ_ONLY);
+            page.appendTo(batch);
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (fallback != null)
+            fallback.rewind();
+        nextPage = 0;
+    }
+
+    public void close() {
+        if (fallback != null) {
+            fallback.close();
+            fallback = null;
+        }
+        batch = null;
+        open = false;
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Adapts a {@link BatchOpIterator} to the tuple-at-a-time {@link OpIterator}
+ * interface, materializing one Tuple per selected row. This is how batch
+ * plans are run by {@link Query} and plugged under row operators.
+ */
+public class BatchToTupleIterator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private transient TupleBatch batch;
+    // the position of the next row in batch
+    private transient int pos;
+
+    public BatchToTupleIterator(BatchOpIterator child) {
+        this.child = child;
+    }
+
+    /** @return the batch iterator that rows are read from */
+    public BatchOpIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        batch = null;
+        pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+        pos = 0;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos >= batch.numRows()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(batch.row(pos++));
+    }
+
+    /**
+     * The batch plan below this iterator is not made of OpIterators, so it
+     * has no children.
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (children.length != 0)
+            throw new UnsupportedOperationException("a batch plan has no row children");
+    }
+}
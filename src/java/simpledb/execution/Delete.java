@@ -20,6 +20,12 @@ public class Delete extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    // introduced the state of the delete; done is set once the count is returned
+    private final TransactionId tid;
+    private OpIterator child;
+    private final TupleDesc td;
+    private boolean done;
+
     /**
      * Constructor specifying the transaction that this delete belongs to as
      * well as the child to read from.
@@ -31,23 +37,33 @@ public class Delete extends Operator {
      */
     public Delete(TransactionId t, OpIterator child) {
         // some code goes here
+        this.tid = t;
+        this.child = child;
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE });
     }
 
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        return td;
     }
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
+        child.open();
+        done = false;
+        super.open();
     }
 
     public void close() {
         // some code goes here
+        super.close();
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        child.rewind();
+        done = false;
     }
 
     /**
@@ -61,18 +77,33 @@ public class Delete extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return null;
+        if (done)
+            return null;
+        done = true;
+        int count = 0;
+        while (child.hasNext()) {
+            try {
+                Database.getBufferPool().deleteTuple(tid, child.next());
+            } catch (IOException e) {
+                throw new DbException("delete failed: " + e.getMessage());
+            }
+            count++;
+        }
+        Tuple result = new Tuple(td);
+        result.setField(0, new IntField(count));
+        return result;
     }
 
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new OpIterator[] { child };
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        this.child = children[0];
     }
 
 }
@@ -0,0 +1,245 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exchange gathers the tuples of several branches of a plan that run at the
+ * same time, each on a thread of a shared worker pool. The branches must
+ * produce tuples of the same TupleDesc; their tuples are returned in the
+ * order they arrive, interleaved in chunks of up to {@link #CHUNK_SIZE}.
+ * <p>
+ * Each worker opens or rewinds its own branch, so expensive opens such as
+ * hash join builds run in parallel too. The branches are closed by the
+ * thread using the exchange once the workers have stopped; workers still
+ * running at that point are interrupted. A branch that fails stops the whole
+ * exchange, and its exception is thrown from the exchange's next call to
+ * hasNext or next.
+ */
+public class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of tuples a worker hands over at once. */
+    public static final int CHUNK_SIZE = 256;
+
+    /** Number of chunks per branch that may wait to be read. */
+    static final int CHUNKS_PER_BRANCH = 4;
+
+    // marks the end of a branch's tuples
+    private static final List<Tuple> END = Collections.emptyList();
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    // a worker blocks while its consumer is busy, so workers are added
+    // rather than queued: a queued branch could wait on a blocked one
+    private static final ExecutorService workers = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+            30, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+                Thread t = new Thread(r, "simpledb-worker-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+
+    /** The workers started by one open or rewind of the exchange. */
+    private static final class Run {
+        final BlockingQueue<List<Tuple>> queue;
+        final List<Future<?>> futures = new ArrayList<>();
+        volatile boolean cancelled;
+        volatile Throwable failure;
+        // workers inside produce, guarded by this
+        int active;
+
+        Run(int capacity) {
+            queue = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+
+    private OpIterator[] branches;
+    private final TupleDesc td;
+
+    private transient Run run;
+    private transient Iterator<Tuple> chunk;
+    private transient int live;
+
+    /**
+     * @param branches the plans to run in parallel; at least one, all with
+     *        the same TupleDesc
+     */
+    public Exchange(OpIterator... branches) {
+        if (branches.length == 0)
+            throw new IllegalArgumentException("an exchange needs at least one branch");
+        for (OpIterator b : branches) {
+            if (!b.getTupleDesc().equals(branches[0].getTupleDesc()))
+                throw new IllegalArgumentException("branches produce different tuples");
+        }
+        this.branches = branches;
+        this.td = branches[0].getTupleDesc();
+    }
+
+    /** @return the pool the branches of exchanges run on */
+    static ExecutorService workers() {
+        return workers;
+    }
+
+    /** @return the number of branches run in parallel */
+    public int getDegree() {
+        return branches.length;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        start(false);
+        super.open();
+    }
+
+    private void start(boolean rewind) {
+        Run r = new Run(CHUNKS_PER_BRANCH * branches.length);
+        run = r;
+        chunk = null;
+        live = branches.length;
+        for (OpIterator b : branches)
+            r.futures.add(workers.submit(() -> produce(r, b, rewind)));
+    }
+
+    // run on a worker: open the branch and hand its tuples over in chunks,
+    // unless the run was stopped before the worker got to it
+    private static void produce(Run run, OpIterator branch, boolean rewind) {
+        synchronized (run) {
+            if (run.cancelled)
+                return;
+            run.active++;
+        }
+        try {
+            if (rewind)
+                branch.rewind();
+            else
+                branch.open();
+            List<Tuple> out = new ArrayList<>(CHUNK_SIZE);
+            while (!run.cancelled && branch.hasNext()) {
+                out.add(branch.next());
+                if (out.size() == CHUNK_SIZE) {
+                    run.queue.put(out);
+                    out = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+            if (!out.isEmpty())
+                run.queue.put(out);
+            run.queue.put(END);
+        } catch (InterruptedException e) {
+            // stopped while waiting for room in the queue
+        } catch (Throwable e) {
+            if (!run.cancelled) {
+                run.failure = e;
+                run.cancelled = true;
+                try {
+                    run.queue.put(END);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        } finally {
+            synchronized (run) {
+                run.active--;
+                run.notifyAll();
+            }
+        }
+    }
+
+    // stop the workers and wait until none of them touches a branch
+    private void stop() {
+        Run r = run;
+        if (r == null)
+            return;
+        synchronized (r) {
+            r.cancelled = true;
+        }
+        for (Future<?> f : r.futures)
+            f.cancel(true);
+        boolean interrupted = false;
+        synchronized (r) {
+            while (r.active > 0) {
+                try {
+                    r.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        run = null;
+        chunk = null;
+    }
+
+    private void rethrow() throws DbException, TransactionAbortedException {
+        Throwable e = run.failure;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        throw new DbException("exchange branch failed: " + e);
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (chunk == null || !chunk.hasNext()) {
+            if (run.failure != null)
+                rethrow();
+            if (live == 0)
+                return null;
+            List<Tuple> next;
+            try {
+                next = run.queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for tuples");
+            }
+            if (next == END)
+                live--;
+            chunk = next.iterator();
+        }
+        return chunk.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        start(true);
+    }
+
+    public void close() {
+        super.close();
+        stop();
+        for (OpIterator b : branches)
+            b.close();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return branches;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.branches = children;
+    }
+}
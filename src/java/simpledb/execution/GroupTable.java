@@ -0,0 +1,166 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+
+import java.util.Arrays;
+
+/**
+ * GroupTable numbers the distinct group-by values of an aggregate densely,
+ * in order of first appearance, and holds the running count, sum, min and
+ * max of each group in columnar arrays.
+ * <p>
+ * Values are found through an open-addressing hash table with linear
+ * probing whose slots hold group numbers. Int keys are kept in an int
+ * array; string keys keep their hash in an int array and their bytes in a
+ * string column, and are compared straight against the bytes of the tuple,
+ * so no Field is created per row. Without grouping there is a single group.
+ */
+final class GroupTable {
+
+    // estimated bytes per group: two slots, the hash or int key and the
+    // four accumulators, besides the bytes of a string key
+    static final int GROUP_BYTES = 2 * 4 + 4 + 4 * 8;
+
+    private final Type keyType;
+    // group number + 1 per slot, 0 for an empty slot
+    private int[] slots;
+    // int keys, or the hashes of string keys
+    private int[] keys;
+    private TupleBatch.StringColumn strings;
+    private long stringBytes;
+    private int numGroups;
+
+    long[] count, sum, min, max;
+
+    /**
+     * @param keyType the type of the group-by values, or null without
+     *        grouping
+     */
+    GroupTable(Type keyType) {
+        this.keyType = keyType;
+        slots = new int[64];
+        keys = new int[16];
+        count = new long[16];
+        sum = new long[16];
+        min = new long[16];
+        max = new long[16];
+        if (keyType == Type.STRING_TYPE)
+            strings = new TupleBatch.StringColumn(16);
+    }
+
+    int numGroups() {
+        return numGroups;
+    }
+
+    /** @return the estimated memory taken by the groups, in bytes */
+    long bytes() {
+        return (long) numGroups * GROUP_BYTES + stringBytes;
+    }
+
+    /**
+     * @return the hash of the group-by value in field of t; slots are picked
+     *         by its low bits
+     */
+    int hash(Tuple t, int field) {
+        if (keyType == null)
+            return 0;
+        if (keyType == Type.INT_TYPE)
+            return mix(t.getInt(field));
+        return mix(t.hashString(field));
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean matches(int g, Tuple t, int field) {
+        if (keyType == Type.INT_TYPE)
+            return keys[g] == t.getInt(field);
+        return t.stringEquals(field, strings, g);
+    }
+
+    /**
+     * @return the group of the value in field of t, or -1 if it has none
+     * @param hash the value's {@link #hash}
+     */
+    int find(Tuple t, int field, int hash) {
+        if (keyType == null)
+            return numGroups == 0 ? -1 : 0;
+        int mask = slots.length - 1;
+        for (int s = hash & mask; slots[s] != 0; s = (s + 1) & mask) {
+            int g = slots[s] - 1;
+            if ((keyType == Type.INT_TYPE || keys[g] == hash) && matches(g, t, field))
+                return g;
+        }
+        return -1;
+    }
+
+    /**
+     * Create the group of the value in field of t, which must not have one
+     * yet.
+     *
+     * @return the new group
+     */
+    int add(Tuple t, int field, int hash) {
+        if (numGroups == count.length) {
+            int n = numGroups * 2;
+            keys = Arrays.copyOf(keys, n);
+            count = Arrays.copyOf(count, n);
+            sum = Arrays.copyOf(sum, n);
+            min = Arrays.copyOf(min, n);
+            max = Arrays.copyOf(max, n);
+        }
+        int g = numGroups++;
+        min[g] = Long.MAX_VALUE;
+        max[g] = Long.MIN_VALUE;
+        if (keyType == null)
+            return g;
+        if (keyType == Type.INT_TYPE) {
+            keys[g] = t.getInt(field);
+        } else {
+            keys[g] = hash;
+            t.appendStringTo(field, strings);
+            stringBytes += strings.length(g);
+        }
+        insert(g, hash);
+        if (numGroups > slots.length / 2)
+            rehash();
+        return g;
+    }
+
+    private void insert(int g, int hash) {
+        int mask = slots.length - 1;
+        int s = hash & mask;
+        while (slots[s] != 0)
+            s = (s + 1) & mask;
+        slots[s] = g + 1;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        for (int g = 0; g < numGroups; g++)
+            insert(g, keyType == Type.INT_TYPE ? mix(keys[g]) : keys[g]);
+    }
+
+    /** @return the group-by value of group g */
+    Field key(int g) {
+        if (keyType == Type.INT_TYPE)
+            return new IntField(keys[g]);
+        return strings.getField(g);
+    }
+
+    /** Add a value to the accumulators of group g. */
+    void accumulate(int g, long n, int value) {
+        count[g] += n;
+        sum[g] += value;
+        if (value < min[g])
+            min[g] = value;
+        if (value > max[g])
+            max[g] = value;
+    }
+}
@@ -0,0 +1,303 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleSpillFile;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * HashAggregator is the common part of {@link IntegerAggregator} and
+ * {@link StringAggregator}: it groups tuples through a {@link GroupTable}
+ * and spills groups that do not fit in memory.
+ * <p>
+ * Once the groups take more than the memory budget, tuples of values that
+ * already have a group are still aggregated in memory, but tuples of new
+ * values are written to one of {@link #NUM_PARTITIONS} spill files, chosen
+ * by the hash of the value, keeping only the fields the aggregate needs.
+ * All tuples of a value thus end up either in memory or in the same
+ * partition. When the results are read, the groups in memory come first,
+ * and then each partition is aggregated on its own, spilling again with
+ * other bits of the hash up to {@link #MAX_DEPTH} times, after which the
+ * budget is ignored.
+ */
+abstract class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of partitions the groups that do not fit are spilled to. */
+    static final int NUM_PARTITIONS = 16;
+
+    /** Number of times the groups of a partition are spilled again. */
+    static final int MAX_DEPTH = 3;
+
+    /** Default memory budget for the groups, in bytes. */
+    public static final long DEFAULT_MEMORY_BUDGET = 32L << 20;
+
+    final int gbfield;
+    final Type gbfieldtype;
+    final int afield;
+    private final int depth;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    final transient GroupTable groups;
+    private transient TupleSpillFile[] partitions;
+    private transient boolean partitionsRead, discarded;
+    private long spilledTuples;
+
+    /**
+     * @param depth the number of times the tuples being aggregated have been
+     *        spilled already
+     */
+    HashAggregator(int gbfield, Type gbfieldtype, int afield, int depth) {
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfield == NO_GROUPING ? null : gbfieldtype;
+        this.afield = afield;
+        this.depth = depth;
+        this.groups = new GroupTable(this.gbfieldtype);
+    }
+
+    /** @return the memory budget for the groups, in bytes */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Set the memory budget for the groups; groups of values first seen
+     * once the budget is used up are spilled.
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.memoryBudget = bytes;
+    }
+
+    /** @return the number of tuples written to spill files at this level */
+    public long getSpilledTuples() {
+        return spilledTuples;
+    }
+
+    /** Add the aggregated values of tup to group g. */
+    abstract void accumulate(int g, Tuple tup);
+
+    /**
+     * @return the schema of spilled tuples: the group-by value, followed by
+     *         the values {@link #copyValues} writes
+     */
+    abstract TupleDesc spillTupleDesc();
+
+    /** Copy the aggregated values of tup into a spilled tuple, from field 1. */
+    abstract void copyValues(Tuple tup, Tuple spilled);
+
+    /**
+     * @return an aggregator with the same operator over spilled tuples,
+     *         grouping by field 0, at the specified depth
+     */
+    abstract HashAggregator forPartition(int depth);
+
+    /** @return the types of the aggregate fields of a result tuple */
+    abstract Type[] aggregateTypes();
+
+    /** Set the aggregate fields of result tuple t of group g, from field i. */
+    abstract void setAggregates(Tuple t, int i, int g);
+
+    // the partition of a value; each depth uses different bits of its hash
+    private int partition(int hash) {
+        return (hash >>> (28 - 4 * depth)) & (NUM_PARTITIONS - 1);
+    }
+
+    public void mergeTupleIntoGroup(Tuple tup) {
+        if (partitionsRead)
+            throw new IllegalStateException("spilled groups have been read already");
+        int hash = groups.hash(tup, gbfield);
+        int g = groups.find(tup, gbfield, hash);
+        if (g < 0) {
+            if (groups.numGroups() > 0 && groups.bytes() >= memoryBudget && depth < MAX_DEPTH) {
+                spill(tup, hash);
+                return;
+            }
+            g = groups.add(tup, gbfield, hash);
+        }
+        accumulate(g, tup);
+    }
+
+    private void spill(Tuple tup, int hash) {
+        try {
+            if (partitions == null)
+                partitions = new TupleSpillFile[NUM_PARTITIONS];
+            int p = partition(hash);
+            if (partitions[p] == null)
+                partitions[p] = new TupleSpillFile(spillTupleDesc());
+            Tuple spilled = new Tuple(partitions[p].getTupleDesc());
+            spilled.copyField(0, tup, gbfield);
+            copyValues(tup, spilled);
+            partitions[p].add(spilled);
+            spilledTuples++;
+        } catch (IOException e) {
+            throw new RuntimeException("could not spill aggregate groups: " + e.getMessage(), e);
+        }
+    }
+
+    // close the partitions for writing, once
+    private void finishPartitions() throws DbException {
+        if (partitions == null || partitionsRead)
+            return;
+        try {
+            for (TupleSpillFile f : partitions) {
+                if (f != null)
+                    f.finish();
+            }
+        } catch (IOException e) {
+            throw new DbException("could not spill aggregate groups: " + e.getMessage());
+        }
+        partitionsRead = true;
+    }
+
+    private void deletePartitions() {
+        if (partitions == null)
+            return;
+        for (TupleSpillFile f : partitions) {
+            if (f != null)
+                f.delete();
+        }
+        partitions = null;
+    }
+
+    private TupleDesc resultTupleDesc() {
+        Type[] aggs = aggregateTypes();
+        int k = gbfield == NO_GROUPING ? 0 : 1;
+        Type[] types = new Type[k + aggs.length];
+        if (k == 1)
+            types[0] = gbfieldtype;
+        System.arraycopy(aggs, 0, types, k, aggs.length);
+        return new TupleDesc(types);
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results. Groups that were
+     * spilled are aggregated as they are reached; no more tuples can be
+     * merged into an aggregator whose spilled groups have been read, and its
+     * spill files are deleted when the iterator is closed.
+     *
+     * @return a OpIterator whose tuples are the pair (groupVal,
+     *         aggregateVal) if using group, or a single (aggregateVal) if no
+     *         grouping. The aggregateVal is determined by the type of
+     *         aggregate specified in the constructor.
+     */
+    public OpIterator iterator() {
+        return new GroupIterator(resultTupleDesc());
+    }
+
+    /** Reads the groups in memory, then those of each spilled partition. */
+    private class GroupIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc td;
+        private boolean open = false;
+        private int group;
+        private int partition;
+        private OpIterator spilled;
+        private HashAggregator spilledAggregator;
+
+        GroupIterator(TupleDesc td) {
+            this.td = td;
+        }
+
+        public void open() throws DbException {
+            if (discarded)
+                throw new IllegalStateException("spilled groups have been deleted");
+            finishPartitions();
+            group = 0;
+            partition = -1;
+            open = true;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                return false;
+            if (group < groups.numGroups())
+                return true;
+            while (spilled == null || !spilled.hasNext()) {
+                closeSpilled();
+                if (partitions == null)
+                    return false;
+                do {
+                    partition++;
+                } while (partition < NUM_PARTITIONS && partitions[partition] == null);
+                if (partition == NUM_PARTITIONS)
+                    return false;
+                spilled = aggregate(partitions[partition]);
+            }
+            return true;
+        }
+
+        // aggregate the tuples of a spilled partition
+        private OpIterator aggregate(TupleSpillFile file) throws DbException, TransactionAbortedException {
+            HashAggregator a = forPartition(depth + 1);
+            a.setMemoryBudget(memoryBudget);
+            spilledAggregator = a;
+            try (TupleSpillFile.Reader r = file.reader()) {
+                Tuple t;
+                while ((t = r.next()) != null)
+                    a.mergeTupleIntoGroup(t);
+            } catch (IOException e) {
+                throw new DbException("could not read aggregate groups: " + e.getMessage());
+            }
+            OpIterator it = a.iterator();
+            it.open();
+            return it;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            if (group == groups.numGroups())
+                return spilled.next();
+            int g = group++;
+            Tuple t = new Tuple(td);
+            int i = 0;
+            if (gbfield != NO_GROUPING)
+                t.setField(i++, groups.key(g));
+            setAggregates(t, i, g);
+            return t;
+        }
+
+        // done with the current partition
+        private void closeSpilled() {
+            if (spilled != null) {
+                spilled.close();
+                spilled = null;
+                spilledAggregator.discard();
+                spilledAggregator = null;
+            }
+        }
+
+        public void rewind() throws DbException {
+            closeSpilled();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            closeSpilled();
+            if (partitionsRead)
+                discard();
+            open = false;
+        }
+    }
+
+    /** Delete the spill files; spilled groups cannot be read afterwards. */
+    private void discard() {
+        deletePartitions();
+        partitionsRead = true;
+        discarded = true;
+    }
+}
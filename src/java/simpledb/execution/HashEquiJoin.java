@@ -2,27 +2,165 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleSpillFile;
 
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join. The tuples of child1 (the build side)
+ * are hashed into {@link #NUM_PARTITIONS} partitions. As long as they fit in
+ * the memory budget all partitions stay resident; once the budget is
+ * exceeded, the largest resident partition is written to a spill file and
+ * the rest of its build tuples follow it there. child2 (the probe side) is
+ * then read once: tuples of resident partitions are joined straight away,
+ * tuples of spilled partitions are written to the partition's probe spill
+ * file. Finally the spilled partitions are joined one at a time. A spilled
+ * partition that is still too large is partitioned again with a different
+ * hash function, up to {@link #MAX_DEPTH} times, after which it is joined in
+ * budget-sized chunks of its build side.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for the build side, in bytes. */
+    public static final long DEFAULT_MEMORY_BUDGET = 32L << 20;
+
+    /** Number of partitions the inputs are hashed into at each level. */
+    public static final int NUM_PARTITIONS = 16;
+
+    /** Number of times a partition is re-partitioned before it is joined in chunks. */
+    public static final int MAX_DEPTH = 3;
+
+    // estimated memory per build tuple besides its values
+    static final int TUPLE_OVERHEAD = 48;
+
+    /** Counters describing the work done by a join since it was opened. */
+    public static class JoinStats implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        long buildTuples, probeTuples, resultTuples;
+        long spilledBuildTuples, spilledProbeTuples, spillBytes;
+        int spilledPartitions, repartitions, chunkedPartitions, maxDepth;
+        long peakMemory;
+
+        /** @return the number of tuples read from child1 */
+        public long getBuildTuples() {
+            return buildTuples;
+        }
+
+        /** @return the number of tuples read from child2 */
+        public long getProbeTuples() {
+            return probeTuples;
+        }
+
+        /** @return the number of tuples produced */
+        public long getResultTuples() {
+            return resultTuples;
+        }
+
+        /** @return the number of build tuples written to spill files, at any depth */
+        public long getSpilledBuildTuples() {
+            return spilledBuildTuples;
+        }
+
+        /** @return the number of probe tuples written to spill files, at any depth */
+        public long getSpilledProbeTuples() {
+            return spilledProbeTuples;
+        }
+
+        /** @return the number of bytes written to spill files */
+        public long getSpillBytes() {
+            return spillBytes;
+        }
+
+        /** @return the number of partitions that were spilled at the first level */
+        public int getSpilledPartitions() {
+            return spilledPartitions;
+        }
+
+        /** @return the number of spilled partitions that were partitioned again */
+        public int getRepartitions() {
+            return repartitions;
+        }
+
+        /** @return the number of partitions joined in chunks of the build side */
+        public int getChunkedPartitions() {
+            return chunkedPartitions;
+        }
+
+        /** @return the deepest level of re-partitioning */
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+
+        /** @return the largest estimated size of the build tuples held in memory */
+        public long getPeakMemory() {
+            return peakMemory;
+        }
+
+        @Override
+        public String toString() {
+            return "build=" + buildTuples + " probe=" + probeTuples + " result=" + resultTuples
+                    + " spilledPartitions=" + spilledPartitions
+                    + " spilledBuild=" + spilledBuildTuples + " spilledProbe=" + spilledProbeTuples
+                    + " spillBytes=" + spillBytes + " repartitions=" + repartitions
+                    + " chunked=" + chunkedPartitions + " maxDepth=" + maxDepth
+                    + " peakMemory=" + peakMemory;
+        }
+    }
+
+    /** A spilled partition of both inputs that still has to be joined. */
+    private static final class Partition {
+        final TupleSpillFile build;
+        final TupleSpillFile probe;
+        final int depth;
+
+        Partition(TupleSpillFile build, TupleSpillFile probe, int depth) {
+            this.build = build;
+            this.probe = probe;
+            this.depth = depth;
+        }
+
+        void delete() {
+            build.delete();
+            probe.delete();
+        }
+    }
+
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
-    transient private Tuple t1 = null;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private JoinStats stats = new JoinStats();
+
+    // the hash table being probed
+    transient private Map<Field, List<Tuple>> table;
+    // first pass: the spill files of the partitions that did not fit, or null
+    transient private TupleSpillFile[] buildSpill;
+    transient private TupleSpillFile[] probeSpill;
+    transient private boolean firstPass;
+    // later passes: the partitions still to be joined, and the current one
+    transient private Deque<Partition> pending;
+    transient private Partition current;
+    transient private TupleSpillFile.Reader probeReader;
+    // the rest of the build side of a partition joined in chunks
+    transient private TupleSpillFile.Reader chunkReader;
+
     transient private Tuple t2 = null;
+    transient private Iterator<Tuple> listIt = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -44,7 +182,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -54,48 +192,307 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+    /** @return the memory budget for the build side, in bytes */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Set the memory budget for the build side; takes effect on the next
+     * open or rewind.
+     *
+     * @param bytes the estimated size of the build tuples that may be held
+     *        in memory at once
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.memoryBudget = bytes;
+    }
+
+    /** @return the counters of the current or last run of this join */
+    public JoinStats getStats() {
+        return stats;
+    }
+
+    // the estimated memory taken by a build tuple
+    private long tupleBytes() {
+        return child1.getTupleDesc().getSize() + TUPLE_OVERHEAD;
+    }
+
+    /**
+     * @return the partition of a key at the specified depth; each depth uses
+     *         a different hash function
+     */
+    static int partition(Field key, int depth) {
+        int h = key.hashCode() ^ (depth * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % NUM_PARTITIONS;
+    }
+
+    private static void insert(Map<Field, List<Tuple>> table, Field key, Tuple t) {
+        table.computeIfAbsent(key, k -> new ArrayList<>()).add(t);
+    }
+
+    /**
+     * Read child1, keeping as many partitions in memory as the budget allows,
+     * and hash the resident ones.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        int f1 = pred.getField1();
+        long perTuple = tupleBytes();
+        List<List<Tuple>> resident = new ArrayList<>(Collections.nCopies(NUM_PARTITIONS, (List<Tuple>) null));
+        long[] residentBytes = new long[NUM_PARTITIONS];
+        long used = 0;
+        buildSpill = new TupleSpillFile[NUM_PARTITIONS];
+        probeSpill = new TupleSpillFile[NUM_PARTITIONS];
+
+        try {
+            while (child1.hasNext()) {
+                Tuple t = child1.next();
+                stats.buildTuples++;
+                int p = partition(t.getField(f1), 0);
+                if (buildSpill[p] != null) {
+                    buildSpill[p].add(t);
+                    stats.spilledBuildTuples++;
+                    continue;
+                }
+                if (resident.get(p) == null)
+                    resident.set(p, new ArrayList<>());
+                resident.get(p).add(t);
+                residentBytes[p] += perTuple;
+                used += perTuple;
+                stats.peakMemory = Math.max(stats.peakMemory, used);
+
+                // spill the largest resident partitions until the rest fits
+                while (used > memoryBudget) {
+                    int victim = -1;
+                    for (int i = 0; i < NUM_PARTITIONS; i++) {
+                        if (resident.get(i) != null && (victim < 0 || residentBytes[i] > residentBytes[victim]))
+                            victim = i;
+                    }
+                    if (victim < 0)
+                        break;
+                    buildSpill[victim] = new TupleSpillFile(child1.getTupleDesc());
+                    probeSpill[victim] = new TupleSpillFile(child2.getTupleDesc());
+                    for (Tuple s : resident.get(victim))
+                        buildSpill[victim].add(s);
+                    stats.spilledBuildTuples += resident.get(victim).size();
+                    stats.spilledPartitions++;
+                    used -= residentBytes[victim];
+                    resident.set(victim, null);
+                    residentBytes[victim] = 0;
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not spill join partition: " + e.getMessage());
         }
-        return cnt > 0;
 
+        table = new HashMap<>();
+        for (List<Tuple> tuples : resident) {
+            if (tuples == null)
+                continue;
+            for (Tuple t : tuples)
+                insert(table, t.getField(f1), t);
+        }
+        firstPass = true;
+        pending = new ArrayDeque<>();
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        stats = new JoinStats();
+        build();
         super.open();
     }
 
+    // delete all spill files and drop the hash table
+    private void cleanup() {
+        closeReaders();
+        if (buildSpill != null) {
+            for (int i = 0; i < NUM_PARTITIONS; i++) {
+                if (buildSpill[i] != null) {
+                    buildSpill[i].delete();
+                    probeSpill[i].delete();
+                }
+            }
+        }
+        if (pending != null) {
+            for (Partition p : pending)
+                p.delete();
+        }
+        if (current != null)
+            current.delete();
+        buildSpill = null;
+        probeSpill = null;
+        pending = null;
+        current = null;
+        table = null;
+        t2 = null;
+        listIt = null;
+    }
+
+    private void closeReaders() {
+        try {
+            if (probeReader != null)
+                probeReader.close();
+            if (chunkReader != null)
+                chunkReader.close();
+        } catch (IOException e) {
+            // only reading; nothing is lost
+        }
+        probeReader = null;
+        chunkReader = null;
+    }
+
     public void close() {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        cleanup();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        cleanup();
         child1.rewind();
         child2.rewind();
+        stats = new JoinStats();
+        build();
+    }
+
+    /**
+     * @return the next probe tuple to look up in the current hash table,
+     *         loading the next spilled partition when the current one is
+     *         done, or null when the join is complete
+     */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException, IOException {
+        int f2 = pred.getField2();
+        while (true) {
+            if (firstPass) {
+                while (child2.hasNext()) {
+                    Tuple t = child2.next();
+                    stats.probeTuples++;
+                    int p = partition(t.getField(f2), 0);
+                    if (probeSpill[p] == null)
+                        return t;
+                    probeSpill[p].add(t);
+                    stats.spilledProbeTuples++;
+                }
+                firstPass = false;
+                table = null;
+                for (int p = 0; p < NUM_PARTITIONS; p++) {
+                    if (buildSpill[p] != null)
+                        schedule(new Partition(buildSpill[p], probeSpill[p], 0));
+                }
+                buildSpill = null;
+                probeSpill = null;
+                continue;
+            }
+
+            if (probeReader != null) {
+                Tuple t = probeReader.next();
+                if (t != null)
+                    return t;
+                probeReader.close();
+                probeReader = null;
+                if (chunkReader != null && loadChunk()) {
+                    probeReader = current.probe.reader();
+                    continue;
+                }
+                closeReaders();
+                current.delete();
+                current = null;
+                table = null;
+            }
+
+            if (pending.isEmpty())
+                return null;
+            current = pending.pop();
+            long bytes = current.build.size() * tupleBytes();
+            if (bytes <= memoryBudget) {
+                table = new HashMap<>();
+                try (TupleSpillFile.Reader r = current.build.reader()) {
+                    Tuple t;
+                    while ((t = r.next()) != null)
+                        insert(table, t.getField(pred.getField1()), t);
+                }
+                stats.peakMemory = Math.max(stats.peakMemory, bytes);
+            } else if (current.depth < MAX_DEPTH) {
+                repartition(current);
+                current.delete();
+                current = null;
+                continue;
+            } else {
+                // most likely a single heavily duplicated key
+                stats.chunkedPartitions++;
+                chunkReader = current.build.reader();
+                loadChunk();
+            }
+            probeReader = current.probe.reader();
+        }
     }
 
-    transient Iterator<Tuple> listIt = null;
+    // queue a partition for joining, or drop it if it cannot produce results
+    private void schedule(Partition p) throws IOException {
+        p.build.finish();
+        p.probe.finish();
+        stats.spillBytes += p.build.bytesWritten() + p.probe.bytesWritten();
+        if (p.build.size() == 0 || p.probe.size() == 0)
+            p.delete();
+        else
+            pending.push(p);
+    }
+
+    /** Split a partition into sub-partitions with the next level's hash function. */
+    private void repartition(Partition part) throws IOException {
+        int depth = part.depth + 1;
+        stats.repartitions++;
+        stats.maxDepth = Math.max(stats.maxDepth, depth);
+        TupleSpillFile[] builds = new TupleSpillFile[NUM_PARTITIONS];
+        TupleSpillFile[] probes = new TupleSpillFile[NUM_PARTITIONS];
+        for (int i = 0; i < NUM_PARTITIONS; i++) {
+            builds[i] = new TupleSpillFile(part.build.getTupleDesc());
+            probes[i] = new TupleSpillFile(part.probe.getTupleDesc());
+        }
+        try (TupleSpillFile.Reader r = part.build.reader()) {
+            Tuple t;
+            while ((t = r.next()) != null) {
+                builds[partition(t.getField(pred.getField1()), depth)].add(t);
+                stats.spilledBuildTuples++;
+            }
+        }
+        try (TupleSpillFile.Reader r = part.probe.reader()) {
+            Tuple t;
+            while ((t = r.next()) != null) {
+                probes[partition(t.getField(pred.getField2()), depth)].add(t);
+                stats.spilledProbeTuples++;
+            }
+        }
+        for (int i = 0; i < NUM_PARTITIONS; i++)
+            schedule(new Partition(builds[i], probes[i], depth));
+    }
+
+    /**
+     * Load the next budget-sized chunk of the build side of the current
+     * partition into the hash table.
+     *
+     * @return false if the build side is exhausted
+     */
+    private boolean loadChunk() throws IOException {
+        long max = Math.max(1, memoryBudget / tupleBytes());
+        table = new HashMap<>();
+        Tuple t = null;
+        for (long n = 0; n < max && (t = chunkReader.next()) != null; n++)
+            insert(table, t.getField(pred.getField1()), t);
+        return !table.isEmpty();
+    }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -111,53 +508,29 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
-
-    }
-
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+        try {
+            while (true) {
+                if (listIt != null && listIt.hasNext()) {
+                    stats.resultTuples++;
+                    // the combined tuple is a copy of both tuples' values
+                    return Tuple.merge(comboTD, listIt.next(), t2);
+                }
+                listIt = null;
+                t2 = nextProbe();
+                if (t2 == null)
+                    return null;
+                List<Tuple> l = table.get(t2.getField(pred.getField2()));
+                if (l != null)
+                    listIt = l.iterator();
+            }
+        } catch (IOException e) {
+            throw new DbException("could not read join partition: " + e.getMessage());
         }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
-        }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
-        }
-
-        return null;
     }
 
     @Override
@@ -170,5 +543,5 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 }
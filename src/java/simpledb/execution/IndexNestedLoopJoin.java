@@ -0,0 +1,257 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.HashFile;
+import simpledb.index.HashScan;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins each tuple of child1 with the tuples of a B+
+ * tree file that match it, found by probing the tree with an
+ * {@link IndexPredicate} on its key instead of scanning the file. A hash
+ * file is probed the same way, for equality joins on its key.
+ * <p>
+ * child2 is a scan of the indexed file, possibly below filters, whose key
+ * field is the second join field. It supplies the file, the transaction and
+ * the filters applied to the probed tuples, but is never read itself. The
+ * key range of a {@link BTreeScan}, or the key of a {@link HashScan}, is
+ * applied to the probed tuples as well.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+    private int tableId;
+    private TransactionId tid;
+    private String tableName;
+    private List<Predicate> filters;
+    // the operator comparing the key of a probed tuple with the outer field
+    private final Predicate.Op probeOp;
+    private long probes;
+
+    transient private Tuple outer;
+    transient private DbFileIterator matches;
+
+    /**
+     * Constructor. Accepts the outer child, a scan of the inner B+ tree file
+     * and the predicate to join them on.
+     *
+     * @param p
+     *            The predicate to use to join the children; its second field
+     *            must be the key of the B+ tree
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            A scan of the right(inner) B+ tree file, possibly filtered
+     * @throws IllegalArgumentException
+     *             if child2 cannot be probed for p (see {@link #canProbe})
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!canProbe(p, child2))
+            throw new IllegalArgumentException("cannot probe " + child2.getTupleDesc()
+                    + " for " + p + " through an index");
+        this.pred = p;
+        this.probeOp = swap(p.getOperator());
+        setChildren(new OpIterator[] { child1, child2 });
+    }
+
+    /**
+     * @return true if the inner side of a join on p is a sequential or
+     *         index scan, possibly filtered, of a B+ tree file keyed on the
+     *         second join field, and p is an equality or a range comparison,
+     *         or of a hash file keyed on it, and p is an equality
+     */
+    public static boolean canProbe(JoinPredicate p, OpIterator inner) {
+        switch (p.getOperator()) {
+        case EQUALS:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            break;
+        default:
+            return false;
+        }
+        while (inner instanceof Filter)
+            inner = ((Filter) inner).getChildren()[0];
+        int tableId;
+        if (inner instanceof SeqScan)
+            tableId = ((SeqScan) inner).getTableId();
+        else if (inner instanceof BTreeScan)
+            tableId = ((BTreeScan) inner).getTableId();
+        else if (inner instanceof HashScan)
+            tableId = ((HashScan) inner).getTableId();
+        else
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (f instanceof HashFile)
+            return p.getOperator() == Predicate.Op.EQUALS && ((HashFile) f).keyField() == p.getField2();
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == p.getField2();
+    }
+
+    // "outer op key" is "key swap(op) outer"
+    private static Predicate.Op swap(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    /** @return the name of the table whose index is probed */
+    public String getIndexTableName() {
+        return tableName;
+    }
+
+    /** @return the number of index lookups since the join was opened */
+    public long getNumProbes() {
+        return probes;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        probes = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeMatches();
+        child1.close();
+        outer = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeMatches();
+        child1.rewind();
+        outer = null;
+    }
+
+    private void closeMatches() {
+        if (matches != null) {
+            matches.close();
+            matches = null;
+        }
+    }
+
+    private boolean passesFilters(Tuple t) {
+        for (Predicate f : filters) {
+            if (!f.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: each tuple of child1 joined with the tuples the index
+     * finds for it that pass the filters of child2.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        while (true) {
+            if (matches != null) {
+                while (matches.hasNext()) {
+                    Tuple inner = matches.next();
+                    if (passesFilters(inner))
+                        return Tuple.merge(comboTD, outer, inner);
+                }
+                closeMatches();
+            }
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            IndexPredicate ipred = new IndexPredicate(probeOp, outer.getField(pred.getField1()));
+            if (file instanceof HashFile)
+                matches = ((HashFile) file).indexIterator(tid, ipred);
+            else
+                matches = ((BTreeFile) file).indexIterator(tid, ipred);
+            matches.open();
+            probes++;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        filters = new ArrayList<>();
+        OpIterator inner = child2;
+        while (inner instanceof Filter) {
+            filters.add(((Filter) inner).getPredicate());
+            inner = ((Filter) inner).getChildren()[0];
+        }
+        if (inner instanceof BTreeScan) {
+            BTreeScan scan = (BTreeScan) inner;
+            tableId = scan.getTableId();
+            tid = scan.getTransactionId();
+            tableName = scan.getTableName();
+            int key = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableId)).keyField();
+            for (IndexPredicate range : new IndexPredicate[] { scan.getIndexPredicate(), scan.getUpperBound() }) {
+                if (range != null)
+                    filters.add(new Predicate(key, range.getOp(), range.getField()));
+            }
+        } else if (inner instanceof HashScan) {
+            HashScan scan = (HashScan) inner;
+            tableId = scan.getTableId();
+            tid = scan.getTransactionId();
+            tableName = scan.getTableName();
+            IndexPredicate ipred = scan.getIndexPredicate();
+            if (ipred != null) {
+                int key = ((HashFile) Database.getCatalog().getDatabaseFile(tableId)).keyField();
+                filters.add(new Predicate(key, ipred.getOp(), ipred.getField()));
+            }
+        } else {
+            SeqScan scan = (SeqScan) inner;
+            tableId = scan.getTableId();
+            tid = scan.getTransactionId();
+            tableName = scan.getTableName();
+        }
+    }
+
+}
@@ -1,18 +1,31 @@
 package simpledb.execution;
 
 import simpledb.common.Type;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * SUM_COUNT produces the sum and the count of each group as two fields, and
+ * SC_AVG averages tuples in that form, reading the sum from the aggregate
+ * field and the count from the field after it. Together they compute an
+ * average from partial aggregates, see {@link ParallelAggregate}.
+ * <p>
+ * Groups are kept in a {@link GroupTable}, and spilled to disk once they
+ * exceed the memory budget (see {@link HashAggregator}).
  */
-public class IntegerAggregator implements Aggregator {
+public class IntegerAggregator extends HashAggregator {
 
     private static final long serialVersionUID = 1L;
 
+    // introduced variable to store the op
+    private final Op what;
+
     /**
      * Aggregate constructor
-     * 
+     *
      * @param gbfield
      *            the 0-based index of the group-by field in the tuple, or
      *            NO_GROUPING if there is no grouping
@@ -27,31 +40,76 @@ public class IntegerAggregator implements Aggregator {
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
+        this(gbfield, gbfieldtype, afield, what, 0);
     }
 
-    /**
-     * Merge a new tuple into the aggregate, grouping as indicated in the
-     * constructor
-     * 
-     * @param tup
-     *            the Tuple containing an aggregate field and a group-by field
-     */
-    public void mergeTupleIntoGroup(Tuple tup) {
-        // some code goes here
+    private IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int depth) {
+        super(gbfield, gbfieldtype, afield, depth);
+        this.what = what;
+    }
+
+    @Override
+    void accumulate(int g, Tuple tup) {
+        // a partial sum carries its count
+        groups.accumulate(g, what == Op.SC_AVG ? tup.getInt(afield + 1) : 1, tup.getInt(afield));
+    }
+
+    @Override
+    TupleDesc spillTupleDesc() {
+        if (what == Op.SC_AVG)
+            return new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE, Type.INT_TYPE});
+        return new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
+    }
+
+    @Override
+    void copyValues(Tuple tup, Tuple spilled) {
+        spilled.setInt(1, tup.getInt(afield));
+        if (what == Op.SC_AVG)
+            spilled.setInt(2, tup.getInt(afield + 1));
+    }
+
+    @Override
+    HashAggregator forPartition(int depth) {
+        return new IntegerAggregator(0, gbfieldtype, 1, what, depth);
     }
 
     /**
-     * Create a OpIterator over group aggregate results.
-     * 
-     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
-     *         if using group, or a single (aggregateVal) if no grouping. The
-     *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     * @return the final value of an aggregate from its count, sum, min and max
      */
-    public OpIterator iterator() {
-        // some code goes here
-        throw new
-        UnsupportedOperationException("please implement me for lab2");
+    static int finalValue(Op what, long count, long sum, long min, long max) {
+        switch (what) {
+        case MIN:
+            return (int) min;
+        case MAX:
+            return (int) max;
+        case SUM:
+            return (int) sum;
+        case AVG:
+        case SC_AVG:
+            return (int) (sum / count);
+        case COUNT:
+            return (int) count;
+        default:
+            throw new IllegalStateException("unsupported aggregate " + what);
+        }
+    }
+
+    @Override
+    Type[] aggregateTypes() {
+        if (what == Op.SUM_COUNT)
+            return new Type[]{Type.INT_TYPE, Type.INT_TYPE};
+        return new Type[]{Type.INT_TYPE};
+    }
+
+    @Override
+    void setAggregates(Tuple t, int i, int g) {
+        if (what == Op.SUM_COUNT) {
+            t.setField(i, new IntField((int) groups.sum[g]));
+            t.setField(i + 1, new IntField((int) groups.count[g]));
+        } else {
+            t.setField(i, new IntField(finalValue(what, groups.count[g], groups.sum[g],
+                    groups.min[g], groups.max[g])));
+        }
     }
 
 }
@@ -14,6 +14,14 @@ public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    // introduced variables to store the predicate, the children and the
+    // current outer tuple
+    private final JoinPredicate p;
+    private OpIterator child1;
+    private OpIterator child2;
+    private TupleDesc comboTD;
+    transient private Tuple outer = null;
+
     /**
      * Constructor. Accepts two children to join and the predicate to join them
      * on
@@ -27,11 +35,15 @@ public class Join extends Operator {
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
         // some code goes here
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
     public JoinPredicate getJoinPredicate() {
         // some code goes here
-        return null;
+        return p;
     }
 
     /**
@@ -41,7 +53,7 @@ public class Join extends Operator {
      * */
     public String getJoinField1Name() {
         // some code goes here
-        return null;
+        return child1.getTupleDesc().getFieldName(p.getField1());
     }
 
     /**
@@ -51,7 +63,7 @@ public class Join extends Operator {
      * */
     public String getJoinField2Name() {
         // some code goes here
-        return null;
+        return child2.getTupleDesc().getFieldName(p.getField2());
     }
 
     /**
@@ -60,20 +72,30 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        return comboTD;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        child1.open();
+        child2.open();
+        super.open();
     }
 
     public void close() {
         // some code goes here
+        super.close();
+        child2.close();
+        child1.close();
+        outer = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        child1.rewind();
+        child2.rewind();
+        outer = null;
     }
 
     /**
@@ -96,18 +118,41 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return null;
+        while (true) {
+            if (outer == null) {
+                if (!child1.hasNext()) {
+                    return null;
+                }
+                outer = child1.next();
+            }
+            while (child2.hasNext()) {
+                Tuple inner = child2.next();
+                if (p.filter(outer, inner)) {
+                    return merge(outer, inner);
+                }
+            }
+            // the inner side is exhausted: move on to the next outer tuple
+            child2.rewind();
+            outer = null;
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        return Tuple.merge(comboTD, t1, t2);
     }
 
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new OpIterator[]{this.child1, this.child2};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
 }
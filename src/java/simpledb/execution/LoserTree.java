@@ -0,0 +1,95 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleSpillFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * LoserTree merges k sorted runs with about log2(k) comparisons per tuple.
+ * Each internal node of the tree remembers the run that lost the match
+ * played there, so replacing the winner only replays the matches on its
+ * path to the root. Ties are won by the run with the lower index, which
+ * keeps the merge stable when runs are numbered in input order.
+ */
+class LoserTree implements Closeable {
+
+    private final int k;
+    private final TupleSpillFile.Reader[] runs;
+    private final Comparator<Tuple> cmp;
+    // the current first tuple of each run, null once the run is exhausted
+    private final Tuple[] heads;
+    // tree[0] is the overall winner, tree[1..k-1] the losers of the matches
+    private final int[] tree;
+
+    /**
+     * @param runs readers over the sorted runs
+     * @param cmp the order of the runs
+     */
+    LoserTree(TupleSpillFile.Reader[] runs, Comparator<Tuple> cmp) throws IOException {
+        this.k = runs.length;
+        this.runs = runs;
+        this.cmp = cmp;
+        this.heads = new Tuple[k];
+        this.tree = new int[Math.max(1, k)];
+        for (int i = 0; i < k; i++)
+            heads[i] = runs[i].next();
+        // index k stands for a run that beats everything, so the initial
+        // passes fill the tree with real losers
+        Arrays.fill(tree, k);
+        for (int i = k - 1; i >= 0; i--)
+            adjust(i);
+    }
+
+    // true if run a's head comes before run b's head
+    private boolean beats(int a, int b) {
+        if (b == k)
+            return false;
+        if (a == k)
+            return true;
+        Tuple ha = heads[a], hb = heads[b];
+        if (ha == null)
+            return hb == null && a < b;
+        if (hb == null)
+            return true;
+        int c = cmp.compare(ha, hb);
+        return c != 0 ? c < 0 : a < b;
+    }
+
+    // replay the matches from run s's leaf up to the root
+    private void adjust(int s) {
+        for (int t = (s + k) / 2; t > 0; t /= 2) {
+            if (beats(tree[t], s)) {
+                int loser = s;
+                s = tree[t];
+                tree[t] = loser;
+            }
+        }
+        tree[0] = s;
+    }
+
+    /**
+     * @return the smallest remaining tuple of all runs, or null if all runs
+     *         are exhausted
+     */
+    Tuple next() throws IOException {
+        if (k == 0)
+            return null;
+        int w = tree[0];
+        Tuple result = heads[w];
+        if (result == null)
+            return null;
+        heads[w] = runs[w].next();
+        adjust(w);
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (TupleSpillFile.Reader r : runs)
+            r.close();
+    }
+}
@@ -2,29 +2,65 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Field;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleSpillFile;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * The child's tuples are sorted within a memory budget. If they all fit, they
+ * are sorted in memory. Otherwise OrderBy runs an external merge sort:
+ * budget-sized chunks are sorted and written out as runs (see
+ * {@link TupleSpillFile}), and the runs are merged with a {@link LoserTree},
+ * in several passes if there are more runs than can be merged at once.
+ * <p>
+ * When only the first <code>limit</code> tuples are wanted and they fit in
+ * the budget, a bounded heap keeps the best <code>limit</code> tuples seen so
+ * far instead, so the child is read once and nothing is written to disk.
+ * The sort is stable.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for the tuples being sorted, in bytes. */
+    public static final long DEFAULT_MEMORY_BUDGET = 32L << 20;
+
+    /** Largest number of runs merged at once. */
+    public static final int MAX_FAN_IN = 64;
+
+    /** No limit on the number of tuples returned. */
+    public static final int NO_LIMIT = -1;
+
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
     private final int orderByField;
     private final String orderByFieldName;
-    private Iterator<Tuple> it;
     private final boolean asc;
+    private final int limit;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    // the sorted tuples, if they fit in memory
+    private transient List<Tuple> childTups;
+    private transient Iterator<Tuple> it;
+    // the sorted runs left for the final merge, if they did not
+    private transient List<TupleSpillFile> runs;
+    private transient LoserTree merger;
+    private transient int returned;
+    // statistics of the last sort
+    private int numRuns;
+    private int numMergePasses;
+    private boolean topN;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
-     * 
+     *
      * @param orderbyField
      *            the field to which the sort is applied.
      * @param asc
@@ -33,64 +69,274 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, NO_LIMIT);
+    }
+
+    /**
+     * Creates a new OrderBy node that returns the first tuples of the sorted
+     * order only.
+     *
+     * @param limit
+     *            the number of tuples to return, or {@link #NO_LIMIT}
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int limit) {
+        if (limit < 0 && limit != NO_LIMIT)
+            throw new IllegalArgumentException("negative limit " + limit);
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.limit = limit;
     }
-    
+
     public boolean isASC()
     {
 	return this.asc;
     }
-    
+
     public int getOrderByField()
     {
         return this.orderByField;
     }
-    
+
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
-    
+
+    /** @return the number of tuples returned at most, or {@link #NO_LIMIT} */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** @return the memory budget for the tuples being sorted, in bytes */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Set the memory budget for the tuples being sorted; takes effect on the
+     * next open.
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.memoryBudget = bytes;
+    }
+
+    /** @return the number of sorted runs written by the last sort; 0 if it was in memory */
+    public int getNumRuns() {
+        return numRuns;
+    }
+
+    /** @return the number of merge passes that wrote new runs in the last sort */
+    public int getNumMergePasses() {
+        return numMergePasses;
+    }
+
+    /** @return true if the last sort used the bounded heap for a limit */
+    public boolean usedTopN() {
+        return topN;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    // the estimated memory taken by a tuple being sorted
+    private long tupleBytes() {
+        return td.getSize() + HashEquiJoin.TUPLE_OVERHEAD;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        numRuns = 0;
+        numMergePasses = 0;
+        topN = false;
+        Comparator<Tuple> cmp = new TupleComparator(orderByField, asc);
+        long capacity = Math.max(1, memoryBudget / tupleBytes());
+        try {
+            if (limit != NO_LIMIT && limit <= capacity)
+                sortTopN(cmp);
+            else
+                sort(cmp, capacity);
+        } catch (IOException e) {
+            deleteRuns();
+            throw new DbException("external sort failed: " + e.getMessage());
+        }
+        returned = 0;
         super.open();
     }
 
+    /**
+     * Keep the first limit tuples in a heap whose root is the worst of
+     * them. Each tuple is tagged with its input position so that ties keep
+     * their input order.
+     */
+    private void sortTopN(final Comparator<Tuple> cmp) throws DbException, TransactionAbortedException {
+        topN = true;
+        final Map<Tuple, Long> seq = new IdentityHashMap<>();
+        Comparator<Tuple> stable = (a, b) -> {
+            int c = cmp.compare(a, b);
+            return c != 0 ? c : Long.compare(seq.get(a), seq.get(b));
+        };
+        PriorityQueue<Tuple> heap = new PriorityQueue<>(Math.max(1, limit), stable.reversed());
+        long n = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (limit == 0)
+                continue;
+            seq.put(t, n++);
+            if (heap.size() < limit) {
+                heap.add(t);
+            } else if (stable.compare(t, heap.peek()) < 0) {
+                seq.remove(heap.poll());
+                heap.add(t);
+            } else {
+                seq.remove(t);
+            }
+        }
+        childTups = new ArrayList<>(heap);
+        childTups.sort(stable);
+        it = childTups.iterator();
+    }
+
+    private void sort(Comparator<Tuple> cmp, long capacity)
+            throws DbException, TransactionAbortedException, IOException {
+        List<Tuple> buffer = new ArrayList<>();
+        runs = new ArrayList<>();
+        while (child.hasNext()) {
+            buffer.add(child.next());
+            if (buffer.size() >= capacity) {
+                runs.add(writeRun(buffer, cmp));
+                buffer.clear();
+            }
+        }
+        if (runs.isEmpty()) {
+            // everything fits
+            runs = null;
+            buffer.sort(cmp);
+            childTups = buffer;
+            it = childTups.iterator();
+            return;
+        }
+        if (!buffer.isEmpty())
+            runs.add(writeRun(buffer, cmp));
+        numRuns = runs.size();
+        childTups = null;
+
+        // each run being merged holds one page in memory
+        int fanIn = (int) Math.max(2, Math.min(MAX_FAN_IN,
+                memoryBudget / BufferPool.getPageSize()));
+        while (runs.size() > fanIn) {
+            numMergePasses++;
+            List<TupleSpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<TupleSpillFile> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                TupleSpillFile out = new TupleSpillFile(td);
+                try (LoserTree tree = openMerge(group, cmp)) {
+                    Tuple t;
+                    while ((t = tree.next()) != null)
+                        out.add(t);
+                }
+                out.finish();
+                for (TupleSpillFile run : group)
+                    run.delete();
+                merged.add(out);
+            }
+            runs = merged;
+        }
+        merger = openMerge(runs, cmp);
+    }
+
+    private TupleSpillFile writeRun(List<Tuple> buffer, Comparator<Tuple> cmp) throws IOException {
+        buffer.sort(cmp);
+        TupleSpillFile run = new TupleSpillFile(td);
+        for (Tuple t : buffer)
+            run.add(t);
+        run.finish();
+        return run;
+    }
+
+    private static LoserTree openMerge(List<TupleSpillFile> group, Comparator<Tuple> cmp)
+            throws IOException {
+        TupleSpillFile.Reader[] readers = new TupleSpillFile.Reader[group.size()];
+        for (int i = 0; i < readers.length; i++)
+            readers[i] = group.get(i).reader();
+        return new LoserTree(readers, cmp);
+    }
+
+    private void closeMerge() {
+        if (merger != null) {
+            try {
+                merger.close();
+            } catch (IOException e) {
+                // only reading; nothing is lost
+            }
+            merger = null;
+        }
+    }
+
+    private void deleteRuns() {
+        closeMerge();
+        if (runs != null) {
+            for (TupleSpillFile run : runs)
+                run.delete();
+            runs = null;
+        }
+    }
+
     public void close() {
         super.close();
+        child.close();
+        deleteRuns();
+        childTups = null;
         it = null;
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        returned = 0;
+        if (runs != null) {
+            closeMerge();
+            try {
+                merger = openMerge(runs, new TupleComparator(orderByField, asc));
+            } catch (IOException e) {
+                throw new DbException("could not reopen sorted runs: " + e.getMessage());
+            }
+        } else {
+            it = childTups.iterator();
+        }
     }
 
     /**
      * Operator.fetchNext implementation. Returns tuples from the child operator
      * in order
-     * 
+     *
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        if (limit != NO_LIMIT && returned >= limit)
             return null;
+        Tuple t = null;
+        if (merger != null) {
+            try {
+                t = merger.next();
+            } catch (IOException e) {
+                throw new DbException("could not read sorted run: " + e.getMessage());
+            }
+        } else if (it != null && it.hasNext()) {
+            t = it.next();
+        }
+        if (t != null)
+            returned++;
+        return t;
     }
 
     @Override
@@ -115,14 +361,12 @@ class TupleComparator implements Comparator<Tuple> {
     }
 
     public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
+        int c;
+        if (o1.getTupleDesc().getFieldType(field) == Type.INT_TYPE)
+            c = Integer.compare(o1.getInt(field), o2.getInt(field));
         else
-            return asc ? -1 : 1;
+            c = o1.getString(field).compareTo(o2.getString(field));
+        return asc ? c : -c;
     }
-    
+
 }
@@ -0,0 +1,134 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * ParallelAggregate computes the same result as an {@link Aggregate} over
+ * the union of several branches that run in parallel. Each branch is
+ * pre-aggregated on its own worker, and the partial groups are gathered by
+ * an {@link Exchange} and merged by a final aggregate:
+ * <ul>
+ * <li>MIN, MAX and SUM merge the partial results with the same operator,</li>
+ * <li>COUNT sums the partial counts,</li>
+ * <li>AVG computes partial sums and counts with SUM_COUNT and averages them
+ * with SC_AVG.</li>
+ * </ul>
+ */
+public class ParallelAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+    private Exchange partials;
+    private Aggregate merge;
+
+    /**
+     * @param branches the plans whose tuples together are the input of the
+     *        aggregate; all with the same TupleDesc
+     * @param afield the column over which the aggregate is computed
+     * @param gfield the column to group by, or {@link Aggregator#NO_GROUPING}
+     * @param aop the aggregation operator; not SUM_COUNT or SC_AVG
+     */
+    public ParallelAggregate(OpIterator[] branches, int afield, int gfield, Aggregator.Op aop) {
+        if (!isSupported(aop))
+            throw new IllegalArgumentException("unsupported aggregate " + aop);
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.td = new Aggregate(branches[0], afield, gfield, aop).getTupleDesc();
+        setChildren(branches);
+    }
+
+    /** @return true if aop can be computed from partial aggregates */
+    public static boolean isSupported(Aggregator.Op aop) {
+        return aop != Aggregator.Op.SUM_COUNT && aop != Aggregator.Op.SC_AVG;
+    }
+
+    // the operator computing the partial aggregate of a branch
+    private Aggregator.Op partialOp() {
+        return aop == Aggregator.Op.AVG ? Aggregator.Op.SUM_COUNT : aop;
+    }
+
+    // the operator merging the partial aggregates
+    private Aggregator.Op mergeOp() {
+        switch (aop) {
+        case AVG:
+            return Aggregator.Op.SC_AVG;
+        case COUNT:
+            return Aggregator.Op.SUM;
+        default:
+            return aop;
+        }
+    }
+
+    /** @return the number of branches aggregated in parallel */
+    public int getDegree() {
+        return partials.getDegree();
+    }
+
+    public int groupField() {
+        return gfield;
+    }
+
+    public int aggregateField() {
+        return afield;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        merge.open();
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (!merge.hasNext())
+            return null;
+        Tuple t = merge.next();
+        // the merged tuples carry the names of the partial aggregates
+        t.resetTupleDesc(td);
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        merge.rewind();
+    }
+
+    public void close() {
+        super.close();
+        merge.close();
+    }
+
+    /** @return the branches feeding the aggregate */
+    @Override
+    public OpIterator[] getChildren() {
+        OpIterator[] partial = partials.getChildren();
+        OpIterator[] branches = new OpIterator[partial.length];
+        for (int i = 0; i < partial.length; i++)
+            branches[i] = ((Aggregate) partial[i]).getChildren()[0];
+        return branches;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        OpIterator[] partial = new OpIterator[children.length];
+        for (int i = 0; i < children.length; i++)
+            partial[i] = new Aggregate(children[i], afield, gfield, partialOp());
+        partials = new Exchange(partial);
+        boolean grouped = gfield != Aggregator.NO_GROUPING;
+        merge = new Aggregate(partials, grouped ? 1 : 0,
+                grouped ? 0 : Aggregator.NO_GROUPING, mergeOp());
+    }
+}
@@ -0,0 +1,206 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * ParallelHashEquiJoin is a partitioned parallel hash join. Both inputs are
+ * given as branches that are read in parallel; each branch's tuples are
+ * hashed on the join field into one partition per degree of parallelism.
+ * Matching tuples end up in the same partition, so the partitions are then
+ * joined independently, each by a {@link HashEquiJoin} on its own worker,
+ * and the results are gathered by an {@link Exchange}.
+ * <p>
+ * The partitions are held in memory between the two phases; each partition
+ * join gets an equal share of {@link HashEquiJoin#DEFAULT_MEMORY_BUDGET} for
+ * its build side and spills beyond it as usual.
+ */
+public class ParallelHashEquiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final int degree;
+    private OpIterator[] children1, children2;
+    private final TupleDesc comboTD;
+
+    private transient Exchange joins;
+
+    /**
+     * @param p the equality predicate to join on
+     * @param children1 the branches of the build (outer) input
+     * @param children2 the branches of the probe (inner) input
+     * @param degree the number of partitions joined in parallel
+     */
+    public ParallelHashEquiJoin(JoinPredicate p, OpIterator[] children1, OpIterator[] children2,
+                                int degree) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash joins need an equality predicate");
+        if (degree <= 0)
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        this.pred = p;
+        this.degree = degree;
+        this.children1 = children1;
+        this.children2 = children2;
+        this.comboTD = TupleDesc.merge(children1[0].getTupleDesc(), children2[0].getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /** @return the number of partitions joined in parallel */
+    public int getDegree() {
+        return degree;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /**
+     * @return the partition of a join key; a different hash than the one
+     *         HashEquiJoin partitions with, so a partition's join does not
+     *         put all its keys in one of its own partitions
+     */
+    static int partition(Field key, int degree) {
+        int h = key.hashCode() * 0x9E3779B1;
+        h ^= h >>> 15;
+        return (h & 0x7fffffff) % degree;
+    }
+
+    /**
+     * Drain a branch into one list of tuples per partition.
+     */
+    private List<List<Tuple>> split(OpIterator branch, int field)
+            throws DbException, TransactionAbortedException {
+        List<List<Tuple>> parts = new ArrayList<>(degree);
+        for (int i = 0; i < degree; i++)
+            parts.add(new ArrayList<>());
+        while (branch.hasNext()) {
+            Tuple t = branch.next();
+            parts.get(partition(t.getField(field), degree)).add(t);
+        }
+        return parts;
+    }
+
+    /**
+     * Partition both inputs in parallel, and set up the joins of the
+     * partitions.
+     */
+    private void partitionInputs() throws DbException, TransactionAbortedException {
+        List<Future<List<List<Tuple>>>> builds = new ArrayList<>();
+        List<Future<List<List<Tuple>>>> probes = new ArrayList<>();
+        for (OpIterator b : children1)
+            builds.add(Exchange.workers().submit(() -> split(b, pred.getField1())));
+        for (OpIterator b : children2)
+            probes.add(Exchange.workers().submit(() -> split(b, pred.getField2())));
+        List<List<List<Tuple>>> built = collect(builds);
+        List<List<List<Tuple>>> probed = collect(probes);
+
+        OpIterator[] parts = new OpIterator[degree];
+        for (int p = 0; p < degree; p++) {
+            HashEquiJoin j = new HashEquiJoin(pred,
+                    new TupleIterator(children1[0].getTupleDesc(), gather(built, p)),
+                    new TupleIterator(children2[0].getTupleDesc(), gather(probed, p)));
+            j.setMemoryBudget(Math.max(1, HashEquiJoin.DEFAULT_MEMORY_BUDGET / degree));
+            parts[p] = j;
+        }
+        joins = new Exchange(parts);
+    }
+
+    // wait for all the tasks, then throw the first failure if there was one
+    private static <T> List<T> collect(List<Future<T>> tasks)
+            throws DbException, TransactionAbortedException {
+        List<T> results = new ArrayList<>();
+        Throwable failure = null;
+        for (Future<T> f : tasks) {
+            try {
+                results.add(f.get());
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while partitioning join input");
+            }
+        }
+        if (failure instanceof DbException)
+            throw (DbException) failure;
+        if (failure instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) failure;
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (failure != null)
+            throw new DbException("join partitioning failed: " + failure);
+        return results;
+    }
+
+    // the tuples of partition p from all branches
+    private static List<Tuple> gather(List<List<List<Tuple>>> branches, int p) {
+        int n = 0;
+        for (List<List<Tuple>> b : branches)
+            n += b.get(p).size();
+        List<Tuple> tuples = new ArrayList<>(n);
+        for (List<List<Tuple>> b : branches)
+            tuples.addAll(b.get(p));
+        return tuples;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        for (OpIterator b : children1)
+            b.open();
+        for (OpIterator b : children2)
+            b.open();
+        partitionInputs();
+        joins.open();
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return joins.hasNext() ? joins.next() : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the partitions are kept, so only the joins start over
+        joins.rewind();
+    }
+
+    public void close() {
+        super.close();
+        if (joins != null) {
+            joins.close();
+            joins = null;
+        }
+        for (OpIterator b : children1)
+            b.close();
+        for (OpIterator b : children2)
+            b.close();
+    }
+
+    /** @return the branches of the build input followed by those of the probe input */
+    @Override
+    public OpIterator[] getChildren() {
+        OpIterator[] children = new OpIterator[children1.length + children2.length];
+        System.arraycopy(children1, 0, children, 0, children1.length);
+        System.arraycopy(children2, 0, children, children1.length, children2.length);
+        return children;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        int n1 = children1.length;
+        children1 = Arrays.copyOfRange(children, 0, n1);
+        children2 = Arrays.copyOfRange(children, n1, children.length);
+    }
+}
@@ -0,0 +1,177 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ParallelPlanner spreads a tuple-at-a-time plan over several workers.
+ * Pipelines of {@link Filter}s and {@link Project}s over a {@link SeqScan}
+ * of a heap file are copied once per worker, with the scan replaced by a
+ * {@link ParallelSeqScan} taking its share of the file's morsels. Such
+ * pipelines become
+ * <ul>
+ * <li>the input of a {@link ParallelAggregate} if an {@link Aggregate}
+ * reads them,</li>
+ * <li>the inputs of a {@link ParallelHashEquiJoin} if both inputs of an
+ * equality {@link HashEquiJoin} are pipelines,</li>
+ * <li>the branches of an {@link Exchange} otherwise.</li>
+ * </ul>
+ * Every other operator keeps running on the thread that runs the query, and
+ * gets new children through {@link Operator#setChildren}, so the plan passed
+ * in should not be run on its own once it has been converted.
+ */
+public class ParallelPlanner {
+
+    /** Number of heap file pages that makes another worker worthwhile. */
+    public static final int PAGES_PER_WORKER = 64;
+
+    private static volatile int maxDegree = Runtime.getRuntime().availableProcessors();
+
+    private ParallelPlanner() {
+    }
+
+    /** @return the largest degree of parallelism {@link #chooseDegree} picks */
+    public static int getMaxDegree() {
+        return maxDegree;
+    }
+
+    /**
+     * Set the largest degree of parallelism {@link #chooseDegree} picks,
+     * usually the number of cores.
+     */
+    public static void setMaxDegree(int degree) {
+        if (degree <= 0)
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        maxDegree = degree;
+    }
+
+    /**
+     * @return the degree of parallelism for a plan: one worker per
+     *         {@link #PAGES_PER_WORKER} pages of the largest heap file it
+     *         scans, between 1 and {@link #getMaxDegree()}
+     */
+    public static int chooseDegree(OpIterator plan) {
+        long pages = largestScan(plan);
+        return (int) Math.max(1, Math.min(maxDegree, pages / PAGES_PER_WORKER));
+    }
+
+    private static long largestScan(OpIterator plan) {
+        if (plan instanceof SeqScan) {
+            DbFile file = Database.getCatalog().getDatabaseFile(((SeqScan) plan).getTableId());
+            return file instanceof HeapFile ? ((HeapFile) file).numPages() : 0;
+        }
+        long pages = 0;
+        if (plan instanceof Operator) {
+            OpIterator[] children = ((Operator) plan).getChildren();
+            if (children != null) {
+                for (OpIterator child : children) {
+                    if (child != null)
+                        pages = Math.max(pages, largestScan(child));
+                }
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * @return an OpIterator that produces the same tuples as plan, in no
+     *         particular order where parts of it run in parallel
+     * @param degree the number of workers each parallel part of the plan
+     *        runs on; 1 leaves the plan as it is
+     */
+    public static OpIterator plan(OpIterator plan, int degree) {
+        if (degree <= 0)
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        if (degree == 1)
+            return plan;
+        if (isPipeline(plan))
+            return new Exchange(branches(plan, degree));
+        if (plan instanceof Aggregate) {
+            Aggregate a = (Aggregate) plan;
+            OpIterator child = a.getChildren()[0];
+            if (isPipeline(child) && isParallelAggregate(a))
+                return new ParallelAggregate(branches(child, degree), a.aggregateField(),
+                        a.groupField(), a.aggregateOp());
+        }
+        if (plan instanceof HashEquiJoin) {
+            HashEquiJoin j = (HashEquiJoin) plan;
+            OpIterator[] children = j.getChildren();
+            if (j.getJoinPredicate().getOperator() == Predicate.Op.EQUALS
+                    && isPipeline(children[0]) && isPipeline(children[1]))
+                return new ParallelHashEquiJoin(j.getJoinPredicate(), branches(children[0], degree),
+                        branches(children[1], degree), degree);
+        }
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            OpIterator[] children = op.getChildren();
+            if (children != null && children.length > 0) {
+                OpIterator[] converted = new OpIterator[children.length];
+                for (int i = 0; i < children.length; i++)
+                    converted[i] = plan(children[i], degree);
+                // the inner child of an index join is probed, never read
+                if (op instanceof IndexNestedLoopJoin)
+                    converted[1] = children[1];
+                op.setChildren(converted);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * @return true if plan is a chain of filters and projections over a
+     *         sequential scan of a heap file
+     */
+    static boolean isPipeline(OpIterator plan) {
+        while (plan instanceof Filter || plan instanceof Project)
+            plan = ((Operator) plan).getChildren()[0];
+        return plan instanceof SeqScan && Database.getCatalog()
+                .getDatabaseFile(((SeqScan) plan).getTableId()) instanceof HeapFile;
+    }
+
+    private static boolean isParallelAggregate(Aggregate a) {
+        if (!ParallelAggregate.isSupported(a.aggregateOp()))
+            return false;
+        Type atype = a.getChildren()[0].getTupleDesc().getFieldType(a.aggregateField());
+        return atype == Type.INT_TYPE || a.aggregateOp() == Aggregator.Op.COUNT;
+    }
+
+    /**
+     * @return one copy of a pipeline per worker, sharing the morsels of its
+     *         scan
+     */
+    static OpIterator[] branches(OpIterator pipeline, int degree) {
+        List<OpIterator> stages = new ArrayList<>();
+        OpIterator op = pipeline;
+        while (op instanceof Filter || op instanceof Project) {
+            stages.add(op);
+            op = ((Operator) op).getChildren()[0];
+        }
+        SeqScan scan = (SeqScan) op;
+        ParallelSeqScan.Morsels morsels = new ParallelSeqScan.Morsels(scan.getTableId(),
+                ParallelSeqScan.DEFAULT_MORSEL_PAGES);
+
+        OpIterator[] branches = new OpIterator[degree];
+        for (int w = 0; w < degree; w++) {
+            OpIterator branch = new ParallelSeqScan(scan, morsels);
+            for (int i = stages.size() - 1; i >= 0; i--) {
+                OpIterator stage = stages.get(i);
+                if (stage instanceof Filter) {
+                    branch = new Filter(((Filter) stage).getPredicate(), branch);
+                } else {
+                    Project p = (Project) stage;
+                    Type[] types = new Type[p.getTupleDesc().numFields()];
+                    for (int f = 0; f < types.length; f++)
+                        types[f] = p.getTupleDesc().getFieldType(f);
+                    branch = new Project(p.getOutFieldIds(), types, branch);
+                }
+            }
+            branches[w] = branch;
+        }
+        return branches;
+    }
+}
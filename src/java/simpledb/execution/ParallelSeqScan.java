@@ -0,0 +1,153 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * ParallelSeqScan is one worker's share of a sequential scan of a heap file.
+ * The file is split into morsels, ranges of consecutive pages, that the
+ * scans sharing a {@link Morsels} claim one at a time as they finish the
+ * previous one, so faster workers simply read more of the file. Together the
+ * scans return every tuple of the file once, in no particular order.
+ * <p>
+ * Opening or rewinding a scan starts a new round over the file; the first
+ * scan to claim a morsel in a round starts the file over for all of them.
+ * The scans sharing morsels are therefore opened and rewound together, with
+ * none of them being read from an earlier round.
+ */
+public class ParallelSeqScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of pages in a morsel. */
+    public static final int DEFAULT_MORSEL_PAGES = 16;
+
+    /** Hands out the morsels of one heap file to the scans of a query. */
+    public static class Morsels {
+        private final int tableId;
+        private final int morselPages;
+        // guarded by this
+        private int round, nextPage;
+
+        /**
+         * @param tableId the heap file to split
+         * @param morselPages the number of pages in a morsel
+         */
+        public Morsels(int tableId, int morselPages) {
+            if (morselPages <= 0)
+                throw new IllegalArgumentException("morsel size must be positive");
+            this.tableId = tableId;
+            this.morselPages = morselPages;
+        }
+
+        public int getTableId() {
+            return tableId;
+        }
+
+        /**
+         * @return the first page of the next morsel of the specified round
+         */
+        synchronized int claim(int round) {
+            if (round != this.round) {
+                this.round = round;
+                nextPage = 0;
+            }
+            int first = nextPage;
+            nextPage += morselPages;
+            return first;
+        }
+
+        int getMorselPages() {
+            return morselPages;
+        }
+    }
+
+    private final SeqScan scan;
+    private final Morsels morsels;
+    private final TupleDesc td;
+    private transient Iterator<Tuple> pageTuples;
+    private transient int page, morselEnd;
+    private transient int round;
+    private transient boolean open = false;
+
+    /**
+     * @param scan the scan of the whole file; it provides the table, the
+     *        transaction and the aliased field names
+     * @param morsels the morsels shared with the other workers' scans
+     */
+    public ParallelSeqScan(SeqScan scan, Morsels morsels) {
+        if (!(Database.getCatalog().getDatabaseFile(scan.getTableId()) instanceof HeapFile))
+            throw new IllegalArgumentException("only heap files can be scanned in parallel");
+        if (morsels.getTableId() != scan.getTableId())
+            throw new IllegalArgumentException("morsels are of another table");
+        this.scan = scan;
+        this.morsels = morsels;
+        this.td = scan.getTupleDesc();
+    }
+
+    /** @return the serial scan this scan takes a share of */
+    public SeqScan getSeqScan() {
+        return scan;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        round++;
+        pageTuples = null;
+        page = morselEnd = 0;
+        open = true;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!open)
+            return false;
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        while (pageTuples == null || !pageTuples.hasNext()) {
+            int numPages = file.numPages();
+            if (page >= morselEnd) {
+                page = morsels.claim(round);
+                morselEnd = page + morsels.getMorselPages();
+            }
+            if (page >= numPages) {
+                pageTuples = null;
+                return false;
+            }
+            HeapPageId pid = new HeapPageId(file.getId(), page++);
+            BufferPool bufferPool = Database.getBufferPool();
+            bufferPool.getPrefetcher().accessed(pid, numPages);
+            pageTuples = ((HeapPage) bufferPool.getPage(scan.getTransactionId(), pid,
+                    Permissions.READ_ONLY)).iterator();
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return pageTuples.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        pageTuples = null;
+        open = false;
+    }
+}
@@ -1,53 +1,46 @@
 package simpledb.execution;
-import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.CostCard;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to join a given set of tables.  Sets of tables are bitsets: the
+ * optimizer numbers the tables of a query, and table i is bit i. */
 public class PlanCache {
-    final Map<Set<LogicalJoinNode>,List<LogicalJoinNode>> bestOrders= new HashMap<>();
-    final Map<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<>();
-    final Map<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<>();
-    
-    /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
+    final Map<Long,CostCard> bestPlans = new HashMap<>();
+
+    /** Add a new plan for a particular set of tables.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
-        specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
-        @param cost the estimated cost of the specified plan
-        @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
+        specified set
+        @param s the set of tables for which a new plan is being added
+        @param plan the cost, cardinality and root join of the plan
     */
-    public void addPlan(Set<LogicalJoinNode> s, double cost, int card, List<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
+    public void addPlan(long s, CostCard plan) {
+        bestPlans.put(s, plan);
     }
-    
-    /** Find the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+
+    /** Find the best plan in the cache for the specified set of tables
+        @param s the set of tables to look up the best plan for
+        @return the best plan for s in the cache, or null if there is none
     */
-    public List<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    public CostCard getPlan(long s) {
+        return bestPlans.get(s);
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cost for
-        @return the cost of the best order for s in the cache
+
+    /** Find the cost of the best plan in the cache for the specified set of tables
+        @param s the set of tables to look up the best cost for
+        @return the cost of the best plan for s in the cache
     */
-    public double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    public double getCost(long s) {
+        return bestPlans.get(s).cost;
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cardinality for
-        @return the cardinality of the best order for s in the cache
+
+    /** Find the cardinality of the best plan in the cache for the specified set of tables
+        @param s the set of tables to look up the best cardinality for
+        @return the cardinality of the best plan for s in the cache
     */
-    public int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    public int getCard(long s) {
+        return bestPlans.get(s).card;
     }
 }
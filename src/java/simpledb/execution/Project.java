@@ -48,6 +48,14 @@ public class Project extends Operator {
         return td;
     }
 
+    /**
+     * @return the ids of the fields of the child's TupleDesc that are
+     *         projected out
+     */
+    public List<Integer> getOutFieldIds() {
+        return outFieldIds;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
@@ -76,7 +84,7 @@ public class Project extends Operator {
         Tuple newTuple = new Tuple(td);
         newTuple.setRecordId(t.getRecordId());
         for (int i = 0; i < td.numFields(); i++) {
-            newTuple.setField(i, t.getField(outFieldIds.get(i)));
+            newTuple.copyField(i, t, outFieldIds.get(i));
         }
         return newTuple;
     }
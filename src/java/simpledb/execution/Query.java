@@ -23,7 +23,19 @@ public class Query implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * How a query plan is run: a tuple at a time, or in batches of rows
+     * wherever the plan's operators have batch implementations.
+     *
+     * @see BatchPlanner
+     */
+    public enum ExecutionMode {
+        TUPLE, BATCH
+    }
+
     transient private OpIterator op;
+    transient private ExecutionMode mode = ExecutionMode.TUPLE;
+    transient private int parallelism = 1;
     transient private LogicalPlan logicalPlan;
     final TransactionId tid;
     transient private boolean started = false;
@@ -48,6 +60,44 @@ public class Query implements Serializable {
         return this.op;
     }
 
+    public ExecutionMode getExecutionMode() {
+        return this.mode;
+    }
+
+    /**
+     * Set how the physical plan is run; takes effect on the next start.
+     */
+    public void setExecutionMode(ExecutionMode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Degree of parallelism that lets {@link ParallelPlanner#chooseDegree}
+     * pick one for each run of the query.
+     */
+    public static final int AUTO_PARALLELISM = 0;
+
+    /**
+     * @return the number of workers parallel parts of the plan run on, or
+     *         {@link #AUTO_PARALLELISM}
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Set the number of workers that the parallel parts of the physical plan
+     * run on in {@link ExecutionMode#TUPLE} mode; 1 runs the whole plan on
+     * the calling thread. Takes effect on the next start.
+     *
+     * @see ParallelPlanner
+     */
+    public void setParallelism(int degree) {
+        if (degree < 0)
+            throw new IllegalArgumentException("negative degree of parallelism " + degree);
+        this.parallelism = degree;
+    }
+
     public Query(TransactionId t) {
         tid = t;
     }
@@ -59,6 +109,14 @@ public class Query implements Serializable {
 
     public void start() throws DbException,
             TransactionAbortedException {
+        if (mode == ExecutionMode.BATCH) {
+            // converting a plan that already runs in batches changes nothing
+            op = BatchPlanner.plan(op);
+        } else if (parallelism != 1) {
+            int degree = parallelism == AUTO_PARALLELISM
+                    ? ParallelPlanner.chooseDegree(op) : parallelism;
+            op = ParallelPlanner.plan(op, degree);
+        }
         op.open();
 
         started = true;
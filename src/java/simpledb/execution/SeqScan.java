@@ -70,6 +70,20 @@ public class SeqScan implements OpIterator {
     	return this.tableAlias;
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.transactionId;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -0,0 +1,204 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.DbFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children on equality of one field of each by
+ * reading both in order of the join field and merging them.
+ * <p>
+ * A child that is already sorted on its join field (see
+ * {@link #isSortedOn}) is read as it is; any other child is sorted by an
+ * {@link OrderBy}, which spills to disk when the child does not fit in its
+ * memory budget. The tuples of child2 that share the current key are kept in
+ * memory, so that every tuple of child1 with that key can be joined with
+ * them. The result is sorted on both join fields.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+    // the children in order of their join fields
+    private OpIterator sorted1, sorted2;
+
+    // the current tuple of child1, and the tuples of child2 with its key
+    transient private Tuple left;
+    transient private List<Tuple> group;
+    transient private int groupPos;
+    // the next tuple of child2 after group
+    transient private Tuple right;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on, which must be an equality.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("sort-merge join needs an equality, not " + p.getOperator());
+        this.pred = p;
+        setChildren(new OpIterator[] { child1, child2 });
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /** @return true if child1 is sorted before it is merged */
+    public boolean sortsChild1() {
+        return sorted1 != child1;
+    }
+
+    /** @return true if child2 is sorted before it is merged */
+    public boolean sortsChild2() {
+        return sorted2 != child2;
+    }
+
+    /**
+     * @return true if the tuples of the iterator come in ascending order of
+     *         the given field: a sequential or B+ tree scan of a B+ tree
+     *         file keyed on it, an ascending OrderBy on it, a sort-merge join
+     *         on it, a filter over one of those, or a nested-loop join whose
+     *         outer child is one
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        while (it instanceof Filter)
+            it = ((Filter) it).getChildren()[0];
+        if (it instanceof SeqScan) {
+            DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) it).getTableId());
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+        } else if (it instanceof BTreeScan) {
+            DbFile f = Database.getCatalog().getDatabaseFile(((BTreeScan) it).getTableId());
+            return ((BTreeFile) f).keyField() == field;
+        } else if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (it instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) it;
+            return field == j.pred.getField1()
+                    || field == j.child1.getTupleDesc().numFields() + j.pred.getField2();
+        } else if (it instanceof Join || it instanceof IndexNestedLoopJoin) {
+            // nested loops keep the order of their outer child
+            OpIterator outer = ((Operator) it).getChildren()[0];
+            return field < outer.getTupleDesc().numFields() && isSortedOn(outer, field);
+        }
+        return false;
+    }
+
+    private static int compare(Tuple t1, int f1, Tuple t2, int f2) {
+        if (t1.getTupleDesc().getFieldType(f1) == Type.INT_TYPE)
+            return Integer.compare(t1.getInt(f1), t2.getInt(f2));
+        return t1.getString(f1).compareTo(t2.getString(f2));
+    }
+
+    private Tuple nextRight() throws DbException, TransactionAbortedException {
+        return sorted2.hasNext() ? sorted2.next() : null;
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        left = null;
+        group = new ArrayList<>();
+        groupPos = 0;
+        right = nextRight();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        sorted1.open();
+        sorted2.open();
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        sorted2.close();
+        sorted1.close();
+        left = right = null;
+        group = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        sorted1.rewind();
+        sorted2.rewind();
+        reset();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the tuples of child1 in order, each joined with the
+     * tuples of child2 that have the same key.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (left != null && groupPos < group.size())
+                return Tuple.merge(comboTD, left, group.get(groupPos++));
+            if (!sorted1.hasNext())
+                return null;
+            Tuple next = sorted1.next();
+            int f1 = pred.getField1(), f2 = pred.getField2();
+            // a run of equal keys in child1 is joined with the same group
+            boolean sameKey = left != null && compare(next, f1, left, f1) == 0;
+            left = next;
+            groupPos = 0;
+            if (sameKey)
+                continue;
+            group.clear();
+            while (right != null && compare(left, f1, right, f2) > 0)
+                right = nextRight();
+            while (right != null && compare(left, f1, right, f2) == 0) {
+                group.add(right);
+                right = nextRight();
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        sorted1 = isSortedOn(child1, pred.getField1()) ? child1
+                : new OrderBy(pred.getField1(), true, child1);
+        sorted2 = isSortedOn(child2, pred.getField2()) ? child2
+                : new OrderBy(pred.getField2(), true, child2);
+    }
+
+}
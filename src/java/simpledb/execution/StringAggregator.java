@@ -1,12 +1,17 @@
 package simpledb.execution;
 
 import simpledb.common.Type;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
+ * <p>
+ * Groups are kept in a {@link GroupTable}, and spilled to disk once they
+ * exceed the memory budget (see {@link HashAggregator}).
  */
-public class StringAggregator implements Aggregator {
+public class StringAggregator extends HashAggregator {
 
     private static final long serialVersionUID = 1L;
 
@@ -21,27 +26,44 @@ public class StringAggregator implements Aggregator {
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
+        this(gbfield, gbfieldtype, afield, what, 0);
     }
 
-    /**
-     * Merge a new tuple into the aggregate, grouping as indicated in the constructor
-     * @param tup the Tuple containing an aggregate field and a group-by field
-     */
-    public void mergeTupleIntoGroup(Tuple tup) {
-        // some code goes here
+    private StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int depth) {
+        super(gbfield, gbfieldtype, afield, depth);
+        if (what != Op.COUNT) {
+            throw new IllegalArgumentException("strings only support COUNT, not " + what);
+        }
     }
 
-    /**
-     * Create a OpIterator over group aggregate results.
-     *
-     * @return a OpIterator whose tuples are the pair (groupVal,
-     *   aggregateVal) if using group, or a single (aggregateVal) if no
-     *   grouping. The aggregateVal is determined by the type of
-     *   aggregate specified in the constructor.
-     */
-    public OpIterator iterator() {
-        // some code goes here
-        throw new UnsupportedOperationException("please implement me for lab2");
+    @Override
+    void accumulate(int g, Tuple tup) {
+        groups.count[g]++;
+    }
+
+    @Override
+    TupleDesc spillTupleDesc() {
+        // a count only needs the group
+        return new TupleDesc(new Type[]{gbfieldtype});
+    }
+
+    @Override
+    void copyValues(Tuple tup, Tuple spilled) {
+    }
+
+    @Override
+    HashAggregator forPartition(int depth) {
+        return new StringAggregator(0, gbfieldtype, 0, Op.COUNT, depth);
+    }
+
+    @Override
+    Type[] aggregateTypes() {
+        return new Type[]{Type.INT_TYPE};
+    }
+
+    @Override
+    void setAggregates(Tuple t, int i, int g) {
+        t.setField(i, new IntField((int) groups.count[g]));
     }
 
 }
@@ -0,0 +1,69 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Adapts a tuple-at-a-time {@link OpIterator} to the {@link BatchOpIterator}
+ * interface, so that operators without a batch implementation can feed
+ * batch operators.
+ */
+public class TupleToBatchIterator implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private final int capacity;
+    private transient TupleBatch batch;
+    private boolean open = false;
+
+    public TupleToBatchIterator(OpIterator child) {
+        this(child, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param child the iterator to read tuples from
+     * @param capacity the number of tuples per batch
+     */
+    public TupleToBatchIterator(OpIterator child, int capacity) {
+        this.child = child;
+        this.capacity = capacity;
+    }
+
+    /** @return the iterator that tuples are read from */
+    public OpIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(child.getTupleDesc(), capacity);
+        open = true;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!open)
+            throw new IllegalStateException("iterator not open");
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.appendTuple(child.next());
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+        open = false;
+    }
+}
@@ -0,0 +1,427 @@
+package simpledb.index;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BTreeBulkLoader builds a B+ tree bottom-up from a stream of tuples in any
+ * order, instead of inserting them one by one.
+ * <p>
+ * The tuples are sorted on the key field by an external sort
+ * ({@link OrderBy}) within a memory budget, and counted on the way. From the
+ * count, the shape of the whole tree is fixed before any page is written:
+ * the number of leaves, such that each is filled up to the fill factor, and
+ * above them as many levels of internal pages as needed, each page holding
+ * up to the fill factor of its entries. Tuples and children are spread
+ * evenly over the pages of a level, never below the half-full occupancy the
+ * B+ tree maintains, so every page number, sibling and parent is known in
+ * advance. The pages are then written once each, sequentially: the leaves
+ * as the sorted tuples stream by, then each internal level from the smallest
+ * keys of the level below, and the root last.
+ * <p>
+ * With variable-length keys (see {@link BTreeInternalPage#isVariableLength}),
+ * the keys copied up are truncated to the shortest key that separates two
+ * leaves, and the internal pages are filled by space rather than by number
+ * of entries. Their shape is then only known once the leaves are written, so
+ * the root pointer and the parent pointers of the leaves are filled in last.
+ * <p>
+ * The key can be of any type. Like {@link BTreeFileEncoder}, the loader
+ * writes the file directly, bypassing the buffer pool and the log, so the
+ * tree must be empty and not in use by any transaction.
+ */
+public class BTreeBulkLoader {
+
+	/** Default fraction of each page filled, leaving room for later inserts. */
+	public static final double DEFAULT_FILL_FACTOR = 0.9;
+
+	private final BTreeFile bf;
+	private double fillFactor = DEFAULT_FILL_FACTOR;
+	private long memoryBudget = OrderBy.DEFAULT_MEMORY_BUDGET;
+
+	// the shape of the last tree loaded: number of pages per level, leaves first
+	private int[] levelPages = new int[0];
+	// the number of children of each page of each level above the leaves
+	private List<int[]> upperLevels = new ArrayList<>();
+	private long numTuples;
+
+	/**
+	 * @param bf - the empty B+ tree to load
+	 */
+	public BTreeBulkLoader(BTreeFile bf) {
+		this.bf = bf;
+	}
+
+	/** @return the fraction of each page filled by the loader */
+	public double getFillFactor() {
+		return fillFactor;
+	}
+
+	/**
+	 * Set the fraction of each page filled by the loader.  Pages are still
+	 * filled at least half, as the B+ tree requires.
+	 */
+	public void setFillFactor(double fillFactor) {
+		if (!(fillFactor > 0 && fillFactor <= 1))
+			throw new IllegalArgumentException("fill factor must be in (0, 1]");
+		this.fillFactor = fillFactor;
+	}
+
+	/** @return the memory budget of the sort, in bytes */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/** Set the memory budget of the sort; see {@link OrderBy#setMemoryBudget}. */
+	public void setMemoryBudget(long bytes) {
+		if (bytes <= 0)
+			throw new IllegalArgumentException("memory budget must be positive");
+		this.memoryBudget = bytes;
+	}
+
+	/** @return the number of tuples loaded by the last load */
+	public long getNumTuples() {
+		return numTuples;
+	}
+
+	/** @return the number of leaf pages written by the last load */
+	public int getNumLeafPages() {
+		return levelPages.length == 0 ? 0 : levelPages[0];
+	}
+
+	/** @return the number of internal pages written by the last load */
+	public int getNumInternalPages() {
+		int n = 0;
+		for (int i = 1; i < levelPages.length; i++)
+			n += levelPages[i];
+		return n;
+	}
+
+	/** @return the number of levels of the tree built by the last load, leaves included */
+	public int getHeight() {
+		return levelPages.length;
+	}
+
+	/**
+	 * Load the tuples of source into the tree.
+	 *
+	 * @param source - the tuples to load, of the tree's TupleDesc; it is
+	 *                 opened and closed by the loader
+	 * @throws DbException if the tree is not empty, or a tuple does not
+	 *                     match its TupleDesc
+	 */
+	public void load(DbFileIterator source) throws DbException, TransactionAbortedException, IOException {
+		checkEmpty();
+		TupleDesc td = bf.getTupleDesc();
+		CountingIterator counted = new CountingIterator(source, td);
+		OrderBy sorted = new OrderBy(bf.keyField(), true, counted);
+		sorted.setMemoryBudget(memoryBudget);
+		sorted.open();
+		boolean pointersPending;
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(bf.getFile()), 1 << 16)) {
+			// the sort read all of its input on open
+			numTuples = counted.count;
+			pointersPending = write(sorted, out);
+		} finally {
+			sorted.close();
+		}
+		if (pointersPending)
+			writePointers();
+		// drop whatever the buffer pool still holds of the empty tree
+		BufferPool pool = Database.getBufferPool();
+		pool.discardPage(BTreeRootPtrPage.getId(bf.getId()));
+		int pages = getNumLeafPages() + getNumInternalPages();
+		for (int i = 1; i <= pages; i++) {
+			pool.discardPage(new BTreePageId(bf.getId(), i, BTreePageId.LEAF));
+			pool.discardPage(new BTreePageId(bf.getId(), i, BTreePageId.INTERNAL));
+		}
+	}
+
+	// the tree may only hold the root pointer and an empty root leaf
+	private void checkEmpty() throws DbException {
+		int pages = bf.numPages();
+		if (pages == 0)
+			return;
+		if (pages == 1) {
+			BTreeLeafPage root = (BTreeLeafPage) bf.readPage(new BTreePageId(bf.getId(), 1, BTreePageId.LEAF));
+			if (root.getNumTuples() == 0)
+				return;
+		}
+		throw new DbException("bulk load needs an empty B+ tree");
+	}
+
+	/**
+	 * @return the number of pages to spread count items over, at most
+	 *         perPage and, unless there is a single page, at least
+	 *         minPerPage items each
+	 */
+	static int numPages(long count, int perPage, int minPerPage) {
+		long pages = Math.max(1, (count + perPage - 1) / perPage);
+		if (pages > 1)
+			pages = Math.max(1, Math.min(pages, count / minPerPage));
+		return (int) pages;
+	}
+
+	// the number of items of page i when count items are spread evenly over pages
+	private static int itemsOf(int i, long count, int pages) {
+		return (int) (count / pages + (i < count % pages ? 1 : 0));
+	}
+
+	/**
+	 * Write the tree.
+	 *
+	 * @return whether the root pointer and the parent pointers of the leaves
+	 *         are still to be written
+	 */
+	private boolean write(OrderBy sorted, OutputStream out)
+			throws DbException, TransactionAbortedException, IOException {
+		int tableid = bf.getId();
+		int keyField = bf.keyField();
+		TupleDesc td = bf.getTupleDesc();
+		Type keyType = td.getFieldType(keyField);
+		int pageSize = BufferPool.getPageSize();
+		Type[] types = new Type[td.numFields()];
+		for (int i = 0; i < types.length; i++)
+			types[i] = td.getFieldType(i);
+
+		// the shape of the tree
+		int maxTuples = new BTreeLeafPage(new BTreePageId(tableid, 1, BTreePageId.LEAF),
+				BTreePage.createEmptyPageData(), keyField).getMaxTuples();
+		BTreeInternalPage internal = new BTreeInternalPage(new BTreePageId(tableid, 1, BTreePageId.INTERNAL),
+				BTreePage.createEmptyPageData(), keyField);
+		int tuplesPerLeaf = Math.max(1, (int) (maxTuples * fillFactor));
+		int numLeaves = numPages(numTuples, tuplesPerLeaf, Math.max(1, maxTuples / 2));
+		boolean variableLength = internal.isVariableLength();
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		int[] leafParents = null;
+		if (variableLength) {
+			// filled in once the shape is known
+			out.write(BTreeFileEncoder.convertToRootPtrPage(0, BTreePageId.LEAF, 0));
+		}
+		else {
+			setShape(numLeaves, levelsByEntries(numLeaves, internal.getMaxEntries()));
+			out.write(rootPtrPage());
+			leafParents = parentIndexes(0);
+		}
+
+		// the leaves, keeping the key that separates each from the one before
+		Field[] minKeys = new Field[numLeaves];
+		List<Tuple> tuples = new ArrayList<>();
+		Field lastKey = null;
+		for (int i = 0; i < numLeaves; i++) {
+			int n = itemsOf(i, numTuples, numLeaves);
+			tuples.clear();
+			while (tuples.size() < n)
+				tuples.add(sorted.next());
+			if (n > 0) {
+				Field firstKey = tuples.get(0).getField(keyField);
+				minKeys[i] = lastKey == null ? firstKey : BTreeInternalPage.separator(lastKey, firstKey);
+				lastKey = tuples.get(n - 1).getField(keyField);
+			}
+			BTreePageId pid = new BTreePageId(tableid, 1 + i, BTreePageId.LEAF);
+			BTreeLeafPage page = new BTreeLeafPage(pid,
+					BTreeFileEncoder.convertToLeafPage(tuples, pageSize, types.length, types, keyField), keyField);
+			if (leafParents != null)
+				page.setParentId(pageId(1, leafParents[i], rootPtrId));
+			if (i > 0)
+				page.setLeftSiblingId(new BTreePageId(tableid, pid.getPageNumber() - 1, BTreePageId.LEAF));
+			if (i < numLeaves - 1)
+				page.setRightSiblingId(new BTreePageId(tableid, pid.getPageNumber() + 1, BTreePageId.LEAF));
+			out.write(page.getPageData());
+		}
+		if (variableLength)
+			setShape(numLeaves, levelsBySpace(minKeys, internal));
+
+		// the internal levels, from the bottom up
+		for (int l = 1; l < levelPages.length; l++) {
+			int[] children = upperLevels.get(l - 1);
+			int childCategory = l == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL;
+			int[] parents = parentIndexes(l);
+			Field[] parentMinKeys = new Field[levelPages[l]];
+			List<BTreeEntry> entries = new ArrayList<>();
+			for (int p = 0, child = 0; p < levelPages[l]; p++) {
+				int n = children[p];
+				parentMinKeys[p] = minKeys[child];
+				entries.clear();
+				for (int c = child + 1; c < child + n; c++) {
+					entries.add(new BTreeEntry(minKeys[c],
+							new BTreePageId(tableid, firstPage(l - 1) + c - 1, childCategory),
+							new BTreePageId(tableid, firstPage(l - 1) + c, childCategory)));
+				}
+				child += n;
+				BTreePageId pid = new BTreePageId(tableid, firstPage(l) + p, BTreePageId.INTERNAL);
+				BTreeInternalPage page = new BTreeInternalPage(pid,
+						BTreeFileEncoder.convertToInternalPage(entries, pageSize, keyType, childCategory), keyField);
+				page.setParentId(pageId(l + 1, parents == null ? 0 : parents[p], rootPtrId));
+				out.write(page.getPageData());
+			}
+			minKeys = parentMinKeys;
+		}
+		return variableLength;
+	}
+
+	// write the root pointer and the parent pointers of the leaves over the placeholders
+	private void writePointers() throws IOException {
+		try (RandomAccessFile rf = new RandomAccessFile(bf.getFile(), "rw")) {
+			rf.write(rootPtrPage());
+			int[] parents = parentIndexes(0);
+			if (parents == null)
+				return;
+			for (int i = 0; i < parents.length; i++) {
+				// the parent pointer comes first in a leaf page
+				rf.seek(BTreeRootPtrPage.getPageSize() + (long) i * BufferPool.getPageSize());
+				rf.writeInt(firstPage(1) + parents[i]);
+			}
+		}
+	}
+
+	private void setShape(int numLeaves, List<int[]> upperLevels) {
+		this.upperLevels = upperLevels;
+		levelPages = new int[upperLevels.size() + 1];
+		levelPages[0] = numLeaves;
+		for (int l = 1; l < levelPages.length; l++)
+			levelPages[l] = upperLevels.get(l - 1).length;
+	}
+
+	// the number of the first page of level l, leaves being level 0
+	private int firstPage(int l) {
+		int first = 1;
+		for (int i = 0; i < l; i++)
+			first += levelPages[i];
+		return first;
+	}
+
+	private byte[] rootPtrPage() throws IOException {
+		int height = levelPages.length;
+		int rootCategory = height == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL;
+		return BTreeFileEncoder.convertToRootPtrPage(firstPage(height - 1), rootCategory, 0);
+	}
+
+	/**
+	 * @return the index of the parent of each page of level l, or null at the root
+	 */
+	private int[] parentIndexes(int l) {
+		if (l >= upperLevels.size())
+			return null;
+		int[] parents = new int[levelPages[l]];
+		int[] sizes = upperLevels.get(l);
+		for (int p = 0, child = 0; p < sizes.length; p++)
+			for (int c = 0; c < sizes[p]; c++)
+				parents[child++] = p;
+		return parents;
+	}
+
+	// the id of page i of level l, or the root pointer above the root
+	private BTreePageId pageId(int l, int i, BTreePageId rootPtrId) {
+		if (l == levelPages.length)
+			return rootPtrId;
+		return new BTreePageId(bf.getId(), firstPage(l) + i, BTreePageId.INTERNAL);
+	}
+
+	/**
+	 * The levels above the leaves, each page with the same number of children
+	 * up to the fill factor of the entries of a page.
+	 *
+	 * @return the number of children of each page of each level
+	 */
+	private List<int[]> levelsByEntries(int numLeaves, int maxEntries) {
+		int childrenPerPage = Math.max(2, Math.min(maxEntries + 1, (int) (maxEntries * fillFactor) + 1));
+		List<int[]> levels = new ArrayList<>();
+		for (int children = numLeaves; children > 1; ) {
+			int pages = numPages(children, childrenPerPage, Math.max(2, maxEntries / 2 + 1));
+			int[] sizes = new int[pages];
+			for (int p = 0; p < pages; p++)
+				sizes[p] = itemsOf(p, children, pages);
+			levels.add(sizes);
+			children = pages;
+		}
+		return levels;
+	}
+
+	/**
+	 * The levels above the leaves, each page with about the same space taken
+	 * by its keys, up to the fill factor of the space of a page, and
+	 * (unless there is a single page) at least a quarter of it.
+	 *
+	 * @param keys - the key separating each leaf from the one before
+	 * @param internal - an internal page of the tree, to measure entries with
+	 * @return the number of children of each page of each level
+	 */
+	private List<int[]> levelsBySpace(Field[] keys, BTreeInternalPage internal) {
+		int capacity = internal.getCapacity();
+		int maxEntry = internal.getEntrySize(null);
+		long target = Math.max(maxEntry, Math.min((long) (capacity * fillFactor), capacity - maxEntry));
+		List<int[]> levels = new ArrayList<>();
+		while (keys.length > 1) {
+			long[] space = new long[keys.length];
+			for (int i = 1; i < keys.length; i++)
+				space[i] = space[i - 1] + internal.getEntrySize(keys[i]);
+			long total = space[keys.length - 1];
+			long pages = Math.max(1, (total + target - 1) / target);
+			if (pages > 1)
+				pages = Math.max(1, Math.min(pages, total / (capacity / 4 + 2 * maxEntry)));
+			int[] sizes = new int[(int) pages];
+			for (int i = 0; i < keys.length; i++)
+				sizes[(int) Math.min(pages - 1, space[i] * pages / total)]++;
+			levels.add(sizes);
+
+			Field[] parentKeys = new Field[sizes.length];
+			for (int p = 0, child = 0; p < sizes.length; child += sizes[p++])
+				parentKeys[p] = keys[child];
+			keys = parentKeys;
+		}
+		return levels;
+	}
+
+	/** Feeds a DbFileIterator to the sort, counting its tuples. */
+	private static class CountingIterator implements OpIterator {
+
+		private static final long serialVersionUID = 1L;
+
+		private final DbFileIterator source;
+		private final TupleDesc td;
+		long count;
+
+		CountingIterator(DbFileIterator source, TupleDesc td) {
+			this.source = source;
+			this.td = td;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			source.open();
+			count = 0;
+		}
+
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			return source.hasNext();
+		}
+
+		public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+			Tuple t = source.next();
+			if (t.getTupleDesc() != td && !t.getTupleDesc().equals(td))
+				throw new DbException("tuple " + t + " does not match the B+ tree's TupleDesc");
+			count++;
+			return t;
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			source.rewind();
+			count = 0;
+		}
+
+		public TupleDesc getTupleDesc() {
+			return td;
+		}
+
+		public void close() {
+			source.close();
+		}
+	}
+}
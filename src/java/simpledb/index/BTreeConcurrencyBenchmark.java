@@ -0,0 +1,129 @@
+package simpledb.index;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeUtility.BTreeDeleter;
+import simpledb.index.BTreeUtility.BTreeInserter;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Measures the throughput of concurrent inserts and deletes on one B+ tree as
+ * the number of threads grows. Each thread alternates between inserting a
+ * random tuple with a {@link BTreeInserter} and deleting a tuple inserted
+ * before with a {@link BTreeDeleter}, each in a transaction of its own, and
+ * retries the transactions aborted to break deadlocks.
+ * <p>
+ * Usage: {@code java simpledb.index.BTreeConcurrencyBenchmark [tuples]
+ * [operations per thread] [max threads]}
+ */
+public class BTreeConcurrencyBenchmark {
+
+	/** The outcome of one run. */
+	public static class Result {
+		public final int threads;
+		public final long operations;
+		public final long aborts;
+		public final long millis;
+		public final long descentRestarts;
+		public final long exclusiveDescents;
+
+		Result(int threads, long operations, long aborts, long millis, long descentRestarts,
+				long exclusiveDescents) {
+			this.threads = threads;
+			this.operations = operations;
+			this.aborts = aborts;
+			this.millis = millis;
+			this.descentRestarts = descentRestarts;
+			this.exclusiveDescents = exclusiveDescents;
+		}
+
+		/** @return the committed operations per second */
+		public double throughput() {
+			return operations * 1000.0 / Math.max(1, millis);
+		}
+
+		public String toString() {
+			return String.format("%3d threads: %8.1f ops/s, %6d aborts, %6d restarts, %6d exclusive descents",
+					threads, throughput(), aborts, descentRestarts, exclusiveDescents);
+		}
+	}
+
+	/**
+	 * Run operationsPerThread inserts and deletes in each of the given number
+	 * of threads.
+	 *
+	 * @param bf - the B+ tree, of two int fields
+	 * @param tuples - the tuples in the tree; deleted tuples are taken from
+	 *                 it, and inserted ones added to it
+	 * @param seed - the seed of the random tuples inserted
+	 */
+	public static Result run(final BTreeFile bf, final BlockingQueue<List<Integer>> tuples, int threads,
+			final int operationsPerThread, long seed) throws InterruptedException {
+		final AtomicLong aborts = new AtomicLong();
+		final AtomicLong committed = new AtomicLong();
+		final Random seeds = new Random(seed);
+		long restartsBefore = bf.getDescentRestartCount();
+		long exclusiveBefore = bf.getExclusiveDescentCount();
+		List<Thread> workers = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			final Random r = new Random(seeds.nextLong());
+			workers.add(new Thread(() -> {
+				BTreeInserter inserter = new BTreeInserter(bf, randomTuple(r), tuples);
+				BTreeDeleter deleter = new BTreeDeleter(bf, tuples);
+				for (int op = 0; op < operationsPerThread; op++) {
+					boolean insert = op % 2 == 0;
+					int[] tuple = randomTuple(r);
+					while (true) {
+						if (insert) {
+							inserter.rerun(bf, tuple, tuples);
+						} else {
+							deleter.rerun(bf, tuples);
+						}
+						if (insert ? inserter.succeeded() : deleter.succeeded()) {
+							break;
+						}
+						Exception e = insert ? inserter.getError() : deleter.getError();
+						if (!(e instanceof TransactionAbortedException)) {
+							// not worth retrying; the helper printed it
+							return;
+						}
+						aborts.incrementAndGet();
+					}
+					committed.incrementAndGet();
+				}
+			}));
+		}
+		long start = System.currentTimeMillis();
+		for (Thread t : workers) {
+			t.start();
+		}
+		for (Thread t : workers) {
+			t.join();
+		}
+		return new Result(threads, committed.get(), aborts.get(), System.currentTimeMillis() - start,
+				bf.getDescentRestartCount() - restartsBefore, bf.getExclusiveDescentCount() - exclusiveBefore);
+	}
+
+	private static int[] randomTuple(Random r) {
+		return new int[]{r.nextInt(BTreeUtility.MAX_RAND_VALUE), r.nextInt(BTreeUtility.MAX_RAND_VALUE)};
+	}
+
+	public static void main(String[] args) throws Exception {
+		int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		int operations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			Database.reset();
+			List<List<Integer>> tuples = new ArrayList<>();
+			BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, numTuples, null, tuples, 0);
+			Database.resetBufferPool(2000);
+			BlockingQueue<List<Integer>> queue = new ArrayBlockingQueue<>(numTuples + threads * operations);
+			queue.addAll(tuples);
+			System.out.println(run(bf, queue, threads, operations, threads));
+		}
+	}
+}
@@ -2,14 +2,20 @@ package simpledb.index;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
 import simpledb.common.Database;
+import simpledb.common.DeadlockException;
 import simpledb.common.Permissions;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.Predicate.Op;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.storage.*;
+import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -19,6 +25,27 @@ import simpledb.transaction.TransactionId;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * <p>
+ * Leaf pages are locked like any other page, until the end of the transaction.
+ * Internal pages and the root pointer are only read under short-duration
+ * latches instead: a descent latches each page in shared mode, and releases
+ * its parent as soon as the child is latched ("crabbing"). A page is only
+ * changed under an exclusive lock and, for the rest of the insert or delete,
+ * an exclusive latch. A descent that finds a page latched by another thread,
+ * or locked exclusively by another transaction, releases its latches, waits
+ * for the lock, and starts over; it never blocks while holding a latch.
+ * <p>
+ * Inserts and deletes are optimistic: they latch their way down in shared
+ * mode and only lock the leaf. Only when the leaf has to be split, or would
+ * fall below half full, do they start over, locking the path from the root
+ * exclusively and releasing every page above one that the split or merge
+ * cannot reach.
+ * <p>
+ * Splits (splitLeafPage, splitInternalPage), merges (mergeLeafPages,
+ * mergeInternalPages) and redistribution between siblings (the stealFrom
+ * methods) only change pages fetched READ_WRITE through getPage, so every
+ * page they touch, including new pages and siblings, is locked and latched
+ * exclusively until the insert or delete that caused them is done.
  * 
  * @see BTreeLeafPage#BTreeLeafPage
  * @see BTreeInternalPage#BTreeInternalPage
@@ -33,6 +60,16 @@ public class BTreeFile implements DbFile {
 	private final int tableid ;
 	private final int keyField;
 
+	// short-duration latches on the pages of this file, by page number; only
+	// the latches in use are kept. Guarded by itself
+	private final Map<Integer, PageLatch> latches = new HashMap<>();
+	// the exclusive latches held by the insert or delete running in each thread
+	private final ThreadLocal<List<PageLatch>> heldLatches = new ThreadLocal<>();
+	// how long a descent waits for a latch held by another thread of its own transaction
+	private static final long LATCH_WAIT_MILLIS = 1000;
+	private final AtomicLong descentRestarts = new AtomicLong();
+	private final AtomicLong exclusiveDescents = new AtomicLong();
+
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
 	 * 
@@ -169,49 +206,376 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-	 * the left-most page possibly containing the key field f. It locks all internal
-	 * nodes along the path to the leaf node with READ_ONLY permission, and locks the 
-	 * leaf node with permission perm.
+	 * @return the number of times a descent found a page being changed by
+	 * another transaction, waited for it and started over
+	 */
+	public long getDescentRestartCount() {
+		return descentRestarts.get();
+	}
+
+	/**
+	 * @return the number of inserts and deletes that had to lock their path
+	 * exclusively for a split, merge or redistribution
+	 */
+	public long getExclusiveDescentCount() {
+		return exclusiveDescents.get();
+	}
+
+	/**
+	 * @return the number of page latches in use; latches are dropped once no
+	 * thread holds or waits for them
+	 */
+	public int getLatchCount() {
+		synchronized (latches) {
+			return latches.size();
+		}
+	}
+
+	/**
+	 * Load the tuples of source into this B+ tree, which must be empty,
+	 * bottom-up with the default fill factor and memory budget.
+	 * 
+	 * @see BTreeBulkLoader
+	 */
+	public void bulkLoad(DbFileIterator source)
+			throws DbException, TransactionAbortedException, IOException {
+		new BTreeBulkLoader(this).load(source);
+	}
+
+	/**
+	 * Find and lock the leaf page in the B+ tree corresponding to the left-most page
+	 * possibly containing the key field f. The root pointer and the internal pages
+	 * along the path are only latched, each until its child is; the leaf is locked
+	 * with permission perm.
 	 * 
 	 * If f is null, it finds the left-most leaf page -- used for the iterator
 	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
-	 * @param pid - the current page being searched
 	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f - the field to search for
-	 * @return the left-most leaf page possibly containing the key field f
+	 * @param forInsert - if true, a leaf without an empty slot is not locked
+	 * @return the left-most leaf page possibly containing the key field f, or null if
+	 * forInsert and that page is full
 	 * 
 	 */
-	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
-                                       Field f)
+	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, Permissions perm,
+                                       Field f, boolean forInsert)
 					throws DbException, TransactionAbortedException {
-		// some code goes here
-        return null;
+		BufferPool pool = Database.getBufferPool();
+		while (true) {
+			BTreePageId pid = BTreeRootPtrPage.getId(tableid);
+			PageLatch latched = tryLatchShared(tid, pid);
+			boolean leafLatched = false;
+			boolean full = false;
+			boolean locked = false;
+			try {
+				if (latched != null) {
+					pid = ((BTreeRootPtrPage) pool.getUnlockedPage(pid)).getRootId();
+					PageLatch child;
+					while ((pid.pgcateg() == BTreePageId.INTERNAL || forInsert)
+							&& (child = tryLatchShared(tid, pid)) != null) {
+						// the child is latched, so the parent can go
+						unlatchShared(latched);
+						latched = child;
+						if (pid.pgcateg() == BTreePageId.LEAF) {
+							leafLatched = true;
+							full = ((BTreeLeafPage) pool.getUnlockedPage(pid)).getNumEmptySlots() == 0;
+							break;
+						}
+						pid = childFor((BTreeInternalPage) pool.getUnlockedPage(pid), f);
+					}
+					if (pid.pgcateg() == BTreePageId.LEAF && (!forInsert || leafLatched && !full)) {
+						locked = pool.getLockManager().tryAcquire(tid, pid, perm);
+					}
+				}
+			} finally {
+				if (latched != null) {
+					unlatchShared(latched);
+				}
+			}
+			if (full) {
+				return null;
+			}
+			if (locked) {
+				return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+			}
+			awaitWriter(tid, pid, pid.pgcateg() == BTreePageId.LEAF ? perm : Permissions.READ_ONLY);
+		}
 	}
-	
+
 	/**
-	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
-	 * Used by the BTreeFile iterator.
-	 * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)
+	 * Find and lock the leaf page possibly containing the key field f, for
+	 * reading. Used by the BTreeFile iterators.
+	 * @see #findLeafPage(TransactionId, Map, Permissions, Field, boolean)
 	 * 
 	 * @param tid - the transaction id
-	 * @param pid - the current page being searched
-	 * @param f - the field to search for
+	 * @param f - the field to search for, or null for the left-most leaf page
 	 * @return the left-most leaf page possibly containing the key field f
 	 * 
 	 */
-	BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid,
-                               Field f)
+	BTreeLeafPage findLeafPage(TransactionId tid, Field f)
 					throws DbException, TransactionAbortedException {
-		return findLeafPage(tid, new HashMap<>(), pid, Permissions.READ_ONLY, f);
+		return findLeafPage(tid, new HashMap<>(), Permissions.READ_ONLY, f, false);
+	}
+
+	/**
+	 * Lock the path from the root pointer down to the leaf page possibly
+	 * containing the key field f with READ_WRITE permission, for an insert
+	 * that has to split pages or a delete that has to merge or redistribute
+	 * them. Whenever a page is safe, so that the changes below it cannot reach
+	 * the pages above, those are released again, unless the transaction held
+	 * them before.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param f - the field to search for
+	 * @param forInsert - whether a page is safe when it has an empty slot, or else when
+	 * it can lose an entry without falling below minimum occupancy
+	 * @param leafId - the leaf page to lock at the bottom of the path, or null for the
+	 * left-most leaf page possibly containing f
+	 * @return the leaf page
+	 */
+	private BTreeLeafPage findLeafPageExclusive(TransactionId tid, Map<PageId, Page> dirtypages, Field f,
+			boolean forInsert, BTreePageId leafId) throws DbException, TransactionAbortedException {
+		exclusiveDescents.incrementAndGet();
+		LockManager lockManager = Database.getBufferPool().getLockManager();
+		List<BTreePageId> releasable = new ArrayList<>();
+		BTreePageId pid = BTreeRootPtrPage.getId(tableid);
+		boolean held = lockManager.holdsLock(tid, pid);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+		if (!held) {
+			releasable.add(pid);
+		}
+		pid = rootPtr.getRootId();
+		while (pid.pgcateg() == BTreePageId.INTERNAL) {
+			held = lockManager.holdsLock(tid, pid);
+			BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+			if (isSafe(page, forInsert)) {
+				releasePages(tid, dirtypages, releasable);
+			}
+			if (!held) {
+				releasable.add(pid);
+			}
+			pid = childFor(page, f);
+		}
+		BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, leafId != null ? leafId : pid,
+				Permissions.READ_WRITE);
+		if (forInsert && leaf.getNumEmptySlots() > 0) {
+			// another transaction split it in the meantime
+			releasePages(tid, dirtypages, releasable);
+		}
+		return leaf;
+	}
+
+	// whether a change below an internal page cannot reach the pages above it
+	private static boolean isSafe(BTreeInternalPage page, boolean forInsert) {
+		if (forInsert) {
+			return page.hasRoomFor(null);
+		}
+		if (page.getParentId().pgcateg() == BTreePageId.ROOT_PTR) {
+			return page.getNumEntries() > 1;
+		}
+		return page.canLoseEntry();
+	}
+
+	// the child of an internal page to descend to in search of the key field f
+	private static BTreePageId childFor(BTreeInternalPage page, Field f) throws DbException {
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry entry = null;
+		while (it.hasNext()) {
+			entry = it.next();
+			// descend left as soon as the key is not larger than f, so that
+			// the left-most page possibly holding f is found
+			if (f == null || entry.getKey().compare(Op.GREATER_THAN_OR_EQ, f)) {
+				return entry.getLeftChild();
+			}
+		}
+		if (entry == null) {
+			throw new DbException("internal page " + page.getId() + " has no entries");
+		}
+		return entry.getRightChild();
+	}
+
+	/** The latch of one page, with the number of threads using it. */
+	private static final class PageLatch extends ReentrantReadWriteLock {
+		private static final long serialVersionUID = 1L;
+
+		final int pageNumber;
+		// guarded by the map of latches
+		int users;
+
+		PageLatch(int pageNumber) {
+			this.pageNumber = pageNumber;
+		}
+	}
+
+	// the latch of a page, in use until it is given back with unuseLatch
+	private PageLatch useLatch(PageId pid) {
+		synchronized (latches) {
+			PageLatch latch = latches.computeIfAbsent(pid.getPageNumber(), PageLatch::new);
+			latch.users++;
+			return latch;
+		}
+	}
+
+	// give back a latch; the last thread to give it back drops it
+	private void unuseLatch(PageLatch latch) {
+		synchronized (latches) {
+			if (--latch.users == 0) {
+				latches.remove(latch.pageNumber);
+			}
+		}
+	}
+
+	// release a latch taken with tryLatchShared
+	private void unlatchShared(PageLatch latch) {
+		latch.readLock().unlock();
+		unuseLatch(latch);
+	}
+
+	/**
+	 * Latch a page in shared mode, to read it without locking it, if that is
+	 * possible without waiting: no other thread may hold its exclusive latch,
+	 * and no other transaction an exclusive lock, as its changes to the page
+	 * are not committed.
+	 * 
+	 * @return the latch, to release with unlatchShared once the page is read,
+	 *         or null
+	 */
+	private PageLatch tryLatchShared(TransactionId tid, PageId pid) {
+		PageLatch latch = useLatch(pid);
+		if (!latch.readLock().tryLock()) {
+			unuseLatch(latch);
+			return null;
+		}
+		TransactionId writer = Database.getBufferPool().getLockManager().getExclusiveHolder(pid);
+		if (writer != null && !writer.equals(tid)) {
+			unlatchShared(latch);
+			return null;
+		}
+		return latch;
+	}
+
+	/**
+	 * Wait, holding no latch, until the transaction changing a page is done
+	 * with it, before a descent starts over. Waiting for its lock rather than
+	 * for the latch lets the lock manager detect deadlocks; only when this
+	 * transaction holds the lock itself does it wait for the latch.
+	 */
+	private void awaitWriter(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
+		descentRestarts.incrementAndGet();
+		LockManager lockManager = Database.getBufferPool().getLockManager();
+		if (lockManager.holdsLock(tid, pid)) {
+			// another thread of this transaction has it latched: block until
+			// that thread's insert or delete releases the latch. Two threads of
+			// one transaction can wait for each other's latches, which the lock
+			// manager cannot see, so a wait that times out aborts.
+			PageLatch latch = useLatch(pid);
+			try {
+				if (!latch.readLock().tryLock(LATCH_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+					throw new TransactionAbortedException();
+				}
+				latch.readLock().unlock();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new TransactionAbortedException();
+			} finally {
+				unuseLatch(latch);
+			}
+			return;
+		}
+		try {
+			lockManager.acquire(tid, pid, perm);
+		} catch (DeadlockException e) {
+			throw new TransactionAbortedException();
+		}
+		lockManager.release(tid, pid);
+	}
+
+	/**
+	 * Read a page under a shared latch, without locking it.
+	 * 
+	 * @param read - extracts what is needed from the page while it is latched
+	 */
+	private <T> T readLatched(TransactionId tid, BTreePageId pid, Function<Page, T> read)
+			throws DbException, TransactionAbortedException {
+		while (true) {
+			PageLatch latched = tryLatchShared(tid, pid);
+			if (latched != null) {
+				try {
+					return read.apply(Database.getBufferPool().getUnlockedPage(pid));
+				} finally {
+					unlatchShared(latched);
+				}
+			}
+			awaitWriter(tid, pid, Permissions.READ_ONLY);
+		}
+	}
+
+	// latch a page exclusively until the end of the insert or delete running in this thread
+	private void latchExclusive(PageId pid) {
+		List<PageLatch> held = heldLatches.get();
+		if (held == null) {
+			return;
+		}
+		PageLatch latch = useLatch(pid);
+		if (latch.isWriteLockedByCurrentThread()) {
+			unuseLatch(latch);
+		} else {
+			latch.writeLock().lock();
+			held.add(latch);
+		}
+	}
+
+	// unlatch and unlock pages that were locked for a change that turned out not to reach them
+	private void releasePages(TransactionId tid, Map<PageId, Page> dirtypages, List<BTreePageId> pids) {
+		List<PageLatch> held = heldLatches.get();
+		for (BTreePageId pid : pids) {
+			dirtypages.remove(pid);
+			if (held != null) {
+				for (Iterator<PageLatch> it = held.iterator(); it.hasNext(); ) {
+					PageLatch latch = it.next();
+					if (latch.pageNumber == pid.getPageNumber()) {
+						it.remove();
+						latch.writeLock().unlock();
+						unuseLatch(latch);
+						break;
+					}
+				}
+			}
+			Database.getBufferPool().unsafeReleasePage(tid, pid);
+		}
+		pids.clear();
 	}
 
+	/**
+	 * Run an insert or delete, releasing the exclusive latches it takes once it is done.
+	 */
+	private List<Page> latched(LatchedOperation op)
+			throws DbException, IOException, TransactionAbortedException {
+		List<PageLatch> held = new ArrayList<>();
+		heldLatches.set(held);
+		try {
+			return op.run();
+		} finally {
+			heldLatches.remove();
+			for (PageLatch latch : held) {
+				latch.writeLock().unlock();
+				unuseLatch(latch);
+			}
+		}
+	}
+
+	private interface LatchedOperation {
+		List<Page> run() throws DbException, IOException, TransactionAbortedException;
+	}
+	
 	/**
 	 * Split a leaf page to make room for new tuples and recursively split the parent node
 	 * as needed to accommodate a new entry. The new entry should have a key matching the key field
-	 * of the first tuple in the right-hand page (the key is "copied up"), and child pointers 
+	 * of the first tuple in the right-hand page (the key is "copied up"), truncated to the shortest
+	 * key that still separates the two pages, and child pointers 
 	 * pointing to the two leaf pages resulting from the split.  Update sibling pointers and parent 
 	 * pointers as needed.  
 	 * 
@@ -231,16 +595,39 @@ public class BTreeFile implements DbFile {
 	 */
 	public BTreeLeafPage splitLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLeafPage page, Field field)
 			throws DbException, IOException, TransactionAbortedException {
-		// some code goes here
-        //
-        // Split the leaf page by adding a new page on the right of the existing
-		// page and moving half of the tuples to the new page.  Copy the middle key up
-		// into the parent page, and recursively split the parent as needed to accommodate
-		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
-		// the sibling pointers of all the affected leaf pages.  Return the page into which a 
-		// tuple with the given key field should be inserted.
-        return null;
-		
+		// move the upper half of the tuples to a new page on the right
+		BTreeLeafPage rightPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+		List<Tuple> moving = new ArrayList<>();
+		Iterator<Tuple> it = page.reverseIterator();
+		int numMoving = page.getNumTuples() / 2;
+		while (moving.size() < numMoving && it.hasNext()) {
+			moving.add(it.next());
+		}
+		for (Tuple t : moving) {
+			page.deleteTuple(t);
+			rightPage.insertTuple(t);
+		}
+
+		// link the new page into the leaf chain
+		BTreePageId oldRightId = page.getRightSiblingId();
+		rightPage.setLeftSiblingId(page.getId());
+		rightPage.setRightSiblingId(oldRightId);
+		page.setRightSiblingId(rightPage.getId());
+		if (oldRightId != null) {
+			BTreeLeafPage oldRight = (BTreeLeafPage) getPage(tid, dirtypages, oldRightId, Permissions.READ_WRITE);
+			oldRight.setLeftSiblingId(rightPage.getId());
+		}
+
+		// copy the first key of the right page up into the parent, or only as
+		// much of it as tells it apart from the last key of the left page
+		Field splitKey = BTreeInternalPage.separator(page.reverseIterator().next().getField(keyField),
+				rightPage.iterator().next().getField(keyField));
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), splitKey);
+		parent.insertEntry(new BTreeEntry(splitKey, page.getId(), rightPage.getId()));
+		page.setParentId(parent.getId());
+		rightPage.setParentId(parent.getId());
+
+		return field.compare(Op.GREATER_THAN, splitKey) ? rightPage : page;
 	}
 	
 	/**
@@ -268,16 +655,35 @@ public class BTreeFile implements DbFile {
 	public BTreeInternalPage splitInternalPage(TransactionId tid, Map<PageId, Page> dirtypages,
 			BTreeInternalPage page, Field field) 
 					throws DbException, IOException, TransactionAbortedException {
-		// some code goes here
-        //
-        // Split the internal page by adding a new page on the right of the existing
-		// page and moving half of the entries to the new page.  Push the middle key up
-		// into the parent page, and recursively split the parent as needed to accommodate
-		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
-		// the parent pointers of all the children moving to the new page.  updateParentPointers()
-		// will be useful here.  Return the page into which an entry with the given key field
-		// should be inserted.
-		return null;
+		// move the upper half of the entries to a new page on the right, in
+		// reverse order so that each one shares a child with the one before
+		BTreeInternalPage rightPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+		List<BTreeEntry> moving = new ArrayList<>();
+		Iterator<BTreeEntry> it = page.reverseIterator();
+		int usedSpace = page.getUsedSpace();
+		int movingSpace = 0;
+		BTreeEntry middle = it.next();
+		// move half of the space, which is half of the entries if keys are of fixed length
+		while (2 * (movingSpace + page.getEntrySize(middle.getKey())) <= usedSpace && it.hasNext()) {
+			moving.add(middle);
+			movingSpace += page.getEntrySize(middle.getKey());
+			middle = it.next();
+		}
+		for (BTreeEntry e : moving) {
+			page.deleteKeyAndRightChild(e);
+			rightPage.insertEntry(e);
+		}
+		updateParentPointers(tid, dirtypages, rightPage);
+
+		// push the middle key up into the parent
+		page.deleteKeyAndRightChild(middle);
+		Field splitKey = middle.getKey();
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), splitKey);
+		parent.insertEntry(new BTreeEntry(splitKey, page.getId(), rightPage.getId()));
+		page.setParentId(parent.getId());
+		rightPage.setParentId(parent.getId());
+
+		return field.compare(Op.GREATER_THAN, splitKey) ? rightPage : page;
 	}
 	
 	/**
@@ -324,7 +730,7 @@ public class BTreeFile implements DbFile {
 		}
 
 		// split the parent if needed
-		if(parent.getNumEmptySlots() == 0) {
+		if(!parent.hasRoomFor(field)) {
 			parent = splitInternalPage(tid, dirtypages, parent, field);
 		}
 
@@ -384,7 +790,8 @@ public class BTreeFile implements DbFile {
 	 * Method to encapsulate the process of locking/fetching a page.  First the method checks the local 
 	 * cache ("dirtypages"), and if it can't find the requested page there, it fetches it from the buffer pool.  
 	 * It also adds pages to the dirtypages cache if they are fetched with read-write permission, since 
-	 * presumably they will soon be dirtied by this transaction.
+	 * presumably they will soon be dirtied by this transaction, and latches them exclusively until the
+	 * end of the insert or delete.
 	 * 
 	 * This method is needed to ensure that page updates are not lost if the same pages are
 	 * accessed multiple times.
@@ -407,6 +814,7 @@ public class BTreeFile implements DbFile {
 		else {
 			Page p = Database.getBufferPool().getPage(tid, pid, perm);
 			if(perm == Permissions.READ_WRITE) {
+				latchExclusive(pid);
 				dirtypages.put(pid, p);
 			}
 			return p;
@@ -425,23 +833,32 @@ public class BTreeFile implements DbFile {
 	 */
 	public List<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
-		Map<PageId, Page> dirtypages = new HashMap<>();
+		return latched(() -> insert(tid, t));
+	}
 
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
+	private List<Page> insert(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		Field key = t.getField(keyField);
 
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
-			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-			rootPtr.setRootId(rootId);
+		createIfEmpty();
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		if(readLatched(tid, rootPtrId, p -> ((BTreeRootPtrPage) p).getRootId()) == null) {
+			// the root has just been created, so set the root pointer to point to it
+			BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE);
+			if(rootPtr.getRootId() == null) {
+				rootPtr.setRootId(new BTreePageId(tableid, numPages(), BTreePageId.LEAF));
+			}
 		}
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+		// find and lock the left-most leaf page corresponding to the key field. If it
+		// is full, lock the path to it and split the leaf page
+		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, key, true);
+		if(leafPage == null) {
+			leafPage = findLeafPageExclusive(tid, dirtypages, key, true, null);
+			if(leafPage.getNumEmptySlots() == 0) {
+				leafPage = splitLeafPage(tid, dirtypages, leafPage, key);
+			}
 		}
 
 		// insert the tuple into the leaf page
@@ -552,7 +969,7 @@ public class BTreeFile implements DbFile {
 	/**
 	 * Steal tuples from a sibling and copy them to the given page so that both pages are at least
 	 * half full.  Update the parent's entry so that the key matches the key field of the first
-	 * tuple in the right-hand page.
+	 * tuple in the right-hand page, truncated to the shortest key that still separates the pages.
 	 * 
 	 * @param page - the leaf page which is less than half full
 	 * @param sibling - the sibling which has tuples to spare
@@ -564,11 +981,34 @@ public class BTreeFile implements DbFile {
 	 */
 	public void stealFromLeafPage(BTreeLeafPage page, BTreeLeafPage sibling,
 			BTreeInternalPage parent, BTreeEntry entry, boolean isRightSibling) throws DbException {
-		// some code goes here
-        //
-        // Move some of the tuples from the sibling to the page so
-		// that the tuples are evenly distributed. Be sure to update
-		// the corresponding parent entry.
+		int numMoving = (sibling.getNumTuples() - page.getNumTuples()) / 2;
+		// the tuples to move, and the first one to stay
+		List<Tuple> moving = new ArrayList<>();
+		Iterator<Tuple> it = isRightSibling ? sibling.iterator() : sibling.reverseIterator();
+		while (moving.size() <= numMoving && it.hasNext()) {
+			moving.add(it.next());
+		}
+		
+		// the key in the parent separates the two pages. Move fewer tuples if
+		// the parent has no room for it
+		Field key = null;
+		for (; numMoving > 0; numMoving--) {
+			Field moved = moving.get(numMoving - 1).getField(keyField);
+			Field staying = moving.get(numMoving).getField(keyField);
+			key = isRightSibling ? BTreeInternalPage.separator(moved, staying)
+					: BTreeInternalPage.separator(staying, moved);
+			if (parent.canUpdateKey(entry, key)) {
+				break;
+			}
+		}
+		for (Tuple t : moving.subList(0, numMoving)) {
+			sibling.deleteTuple(t);
+			page.insertTuple(t);
+		}
+		if (numMoving > 0) {
+			entry.setKey(key);
+			parent.updateEntry(entry);
+		}
 	}
 
 	/**
@@ -598,12 +1038,11 @@ public class BTreeFile implements DbFile {
 		if(leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
 		if(rightEntry != null) rightSiblingId = rightEntry.getRightChild();
 		
-		int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries()/2; // ceiling
 		if(leftSiblingId != null) {
 			BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(!leftSibling.hasEntriesToSpare()) {
 				mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
 			}
 			else {
@@ -614,7 +1053,7 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(!rightSibling.hasEntriesToSpare()) {
 				mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
 			}
 			else {
@@ -643,11 +1082,23 @@ public class BTreeFile implements DbFile {
 	public void stealFromLeftInternalPage(TransactionId tid, Map<PageId, Page> dirtypages,
 			BTreeInternalPage page, BTreeInternalPage leftSibling, BTreeInternalPage parent,
 			BTreeEntry parentEntry) throws DbException, TransactionAbortedException {
-		// some code goes here
-        // Move some of the entries from the left sibling to the page so
-		// that the entries are evenly distributed. Be sure to update
-		// the corresponding parent entry. Be sure to update the parent
-		// pointers of all children in the entries that were moved.
+		List<BTreeEntry> moving = entriesToSteal(page, leftSibling, leftSibling.reverseIterator(),
+				parent, parentEntry);
+
+		// rotate the keys through the parent entry: its key comes down in front
+		// of the page, and the last key of the sibling goes up in its place
+		BTreePageId firstChild = page.iterator().next().getLeftChild();
+		for (BTreeEntry e : moving) {
+			page.insertEntry(new BTreeEntry(parentEntry.getKey(), e.getRightChild(), firstChild));
+			leftSibling.deleteKeyAndRightChild(e);
+			parentEntry.setKey(e.getKey());
+			firstChild = e.getRightChild();
+		}
+		if (moving.isEmpty()) {
+			return;
+		}
+		parent.updateEntry(parentEntry);
+		updateParentPointers(tid, dirtypages, page);
 	}
 	
 	/**
@@ -670,13 +1121,54 @@ public class BTreeFile implements DbFile {
 	public void stealFromRightInternalPage(TransactionId tid, Map<PageId, Page> dirtypages,
 			BTreeInternalPage page, BTreeInternalPage rightSibling, BTreeInternalPage parent,
 			BTreeEntry parentEntry) throws DbException, TransactionAbortedException {
-		// some code goes here
-        // Move some of the entries from the right sibling to the page so
-		// that the entries are evenly distributed. Be sure to update
-		// the corresponding parent entry. Be sure to update the parent
-		// pointers of all children in the entries that were moved.
+		List<BTreeEntry> moving = entriesToSteal(page, rightSibling, rightSibling.iterator(),
+				parent, parentEntry);
+
+		// rotate the keys through the parent entry: its key comes down at the
+		// end of the page, and the first key of the sibling goes up in its place
+		BTreePageId lastChild = page.reverseIterator().next().getRightChild();
+		for (BTreeEntry e : moving) {
+			page.insertEntry(new BTreeEntry(parentEntry.getKey(), lastChild, e.getLeftChild()));
+			rightSibling.deleteKeyAndLeftChild(e);
+			parentEntry.setKey(e.getKey());
+			lastChild = e.getLeftChild();
+		}
+		if (moving.isEmpty()) {
+			return;
+		}
+		parent.updateEntry(parentEntry);
+		updateParentPointers(tid, dirtypages, page);
 	}
 	
+	/**
+	 * Choose the entries of a sibling to move to a page below minimum occupancy: as many
+	 * as it takes to even out the space the two use, which is half of the difference in
+	 * entries if keys are of fixed length. The key of the last one moved replaces the
+	 * key of the parent entry, so fewer are moved if the parent has no room for it.
+	 * 
+	 * @param it - iterates over the entries of the sibling, starting next to the page
+	 */
+	private static List<BTreeEntry> entriesToSteal(BTreeInternalPage page, BTreeInternalPage sibling,
+			Iterator<BTreeEntry> it, BTreeInternalPage parent, BTreeEntry parentEntry) {
+		List<BTreeEntry> moving = new ArrayList<>();
+		int pageSpace = page.getUsedSpace();
+		int siblingSpace = sibling.getUsedSpace();
+		while (it.hasNext()) {
+			BTreeEntry e = it.next();
+			int size = page.getEntrySize(e.getKey());
+			if (pageSpace + size > siblingSpace - size) {
+				break;
+			}
+			moving.add(e);
+			pageSpace += size;
+			siblingSpace -= size;
+		}
+		while (!moving.isEmpty() && !parent.canUpdateKey(parentEntry, moving.get(moving.size() - 1).getKey())) {
+			moving.remove(moving.size() - 1);
+		}
+		return moving;
+	}
+
 	/**
 	 * Merge two leaf pages by moving all tuples from the right page to the left page. 
 	 * Delete the corresponding key and right child pointer from the parent, and recursively 
@@ -699,12 +1191,26 @@ public class BTreeFile implements DbFile {
 			BTreeLeafPage leftPage, BTreeLeafPage rightPage, BTreeInternalPage parent, BTreeEntry parentEntry) 
 					throws DbException, IOException, TransactionAbortedException {
 
-		// some code goes here
-        //
-		// Move all the tuples from the right page to the left page, update
-		// the sibling pointers, and make the right page available for reuse.
-		// Delete the entry in the parent corresponding to the two pages that are merging -
-		// deleteParentEntry() will be useful here
+		List<Tuple> moving = new ArrayList<>();
+		Iterator<Tuple> it = rightPage.iterator();
+		while (it.hasNext()) {
+			moving.add(it.next());
+		}
+		for (Tuple t : moving) {
+			rightPage.deleteTuple(t);
+			leftPage.insertTuple(t);
+		}
+
+		// unlink the right page from the leaf chain
+		BTreePageId nextId = rightPage.getRightSiblingId();
+		leftPage.setRightSiblingId(nextId);
+		if (nextId != null) {
+			BTreeLeafPage next = (BTreeLeafPage) getPage(tid, dirtypages, nextId, Permissions.READ_WRITE);
+			next.setLeftSiblingId(leftPage.getId());
+		}
+
+		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
 
 	/**
@@ -731,13 +1237,22 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage leftPage, BTreeInternalPage rightPage, BTreeInternalPage parent, BTreeEntry parentEntry) 
 					throws DbException, IOException, TransactionAbortedException {
 		
-		// some code goes here
-        //
-        // Move all the entries from the right page to the left page, update
-		// the parent pointers of the children in the entries that were moved, 
-		// and make the right page available for reuse
-		// Delete the entry in the parent corresponding to the two pages that are merging -
-		// deleteParentEntry() will be useful here
+		// pull the key of the parent entry down between the two pages
+		BTreePageId lastChild = leftPage.reverseIterator().next().getRightChild();
+		List<BTreeEntry> moving = new ArrayList<>();
+		Iterator<BTreeEntry> it = rightPage.iterator();
+		while (it.hasNext()) {
+			moving.add(it.next());
+		}
+		leftPage.insertEntry(new BTreeEntry(parentEntry.getKey(), lastChild, moving.get(0).getLeftChild()));
+		for (BTreeEntry e : moving) {
+			rightPage.deleteKeyAndLeftChild(e);
+			leftPage.insertEntry(e);
+		}
+		updateParentPointers(tid, dirtypages, leftPage);
+
+		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
 	
 	/**
@@ -766,8 +1281,7 @@ public class BTreeFile implements DbFile {
 		// the parent is below minimum occupancy, get some tuples from its siblings
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
-		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
-		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
+		if(parent.getNumEntries() == 0) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged 
 			// page will become the new root
@@ -782,7 +1296,7 @@ public class BTreeFile implements DbFile {
 			// release the parent page for reuse
 			setEmptyPage(tid, dirtypages, parent.getId().getPageNumber());
 		}
-		else if(parent.getNumEmptySlots() > maxEmptySlots) { 
+		else if(parent.isUnderfull()) { 
 			handleMinOccupancyPage(tid, dirtypages, parent);
 		}
 	}
@@ -800,16 +1314,27 @@ public class BTreeFile implements DbFile {
 	 */
 	public List<Page> deleteTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
+		return latched(() -> delete(tid, t));
+	}
+
+	private List<Page> delete(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
 		Map<PageId, Page> dirtypages = new HashMap<>();
 
 		BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
 				BTreePageId.LEAF);
 		BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
+
+		// if the page will fall below minimum occupancy, lock the path to it first. The
+		// page itself stays locked, so that the tuple cannot move in the meantime
+		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
+		if(page.getNumEmptySlots() + 1 > maxEmptySlots && page.getParentId().pgcateg() != BTreePageId.ROOT_PTR) {
+			page = findLeafPageExclusive(tid, dirtypages, t.getField(keyField), false, pageId);
+		}
 		page.deleteTuple(t);
 
 		// if the page is below minimum occupancy, get some tuples from its siblings
 		// or merge with one of the siblings
-		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
 		if(page.getNumEmptySlots() > maxEmptySlots) { 
 			handleMinOccupancyPage(tid, dirtypages, page);
 		}
@@ -829,6 +1354,14 @@ public class BTreeFile implements DbFile {
 	 * @throws TransactionAbortedException
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
+		createIfEmpty();
+
+		// get a read lock on the root pointer page
+		return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+	}
+
+	// create the root pointer page and the root page of a new file
+	private void createIfEmpty() throws IOException {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
@@ -841,9 +1374,6 @@ public class BTreeFile implements DbFile {
 				bw.close();
 			}
 		}
-
-		// get a read lock on the root pointer page
-		return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
 	}
 
 	/**
@@ -860,9 +1390,10 @@ public class BTreeFile implements DbFile {
 	 */
 	public int getEmptyPageNo(TransactionId tid, Map<PageId, Page> dirtypages)
 			throws DbException, IOException, TransactionAbortedException {
-		// get a read lock on the root pointer page and use it to locate the first header page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId headerId = rootPtr.getHeaderId();
+		// read the root pointer page under a latch and use it to locate the first header page
+		createIfEmpty();
+		BTreePageId headerId = readLatched(tid, BTreeRootPtrPage.getId(tableid),
+				p -> ((BTreeRootPtrPage) p).getHeaderId());
 		int emptyPageNo = 0;
 
 		if(headerId != null) {
@@ -977,17 +1508,19 @@ public class BTreeFile implements DbFile {
 //			}
 //		}
 
-		// otherwise, get a read lock on the root pointer page and use it to locate 
+		// otherwise, read the root pointer page under a latch and use it to locate 
 		// the first header page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId headerId = rootPtr.getHeaderId();
+		createIfEmpty();
+		BTreePageId headerId = readLatched(tid, BTreeRootPtrPage.getId(tableid),
+				p -> ((BTreeRootPtrPage) p).getHeaderId());
 		BTreePageId prevId = null;
 		int headerPageCount = 0;
 
 		// if there are no header pages, create the first header page and update
 		// the header pointer in the BTreeRootPtrPage
 		if(headerId == null) {
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+			BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid),
+					Permissions.READ_WRITE);
 			
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
 			headerId = headerPage.getId();
@@ -1038,7 +1571,22 @@ public class BTreeFile implements DbFile {
 	 * @return an iterator for the filtered tuples
 	 */
 	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
-		return new BTreeSearchIterator(this, tid, ipred);
+		return new BTreeSearchIterator(this, tid, ipred, null);
+	}
+
+	/**
+	 * get the tuples from the file whose keys match ipred and an upper bound,
+	 * such as the keys in a range, on behalf of the specified transaction. The
+	 * search ends at the first key above the bound, and does not read ahead
+	 * past the leaf that holds it.
+	 * 
+	 * @param tid - the transaction id
+	 * @param ipred - the index predicate value to filter on
+	 * @param upper - the upper bound; its op is LESS_THAN or LESS_THAN_OR_EQ
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred, IndexPredicate upper) {
+		return new BTreeSearchIterator(this, tid, ipred, upper);
 	}
 
 	/**
@@ -1053,6 +1601,48 @@ public class BTreeFile implements DbFile {
 		return new BTreeFileIterator(this, tid);
 	}
 
+	/**
+	 * Start reading ahead along the leaf chain to the right of the given leaf
+	 * page, for a scan that is moving from leaf to leaf. Read-ahead stops at
+	 * the first leaf the scan will not move past, so that a scan with an
+	 * upper bound reads no more leaves than it would without read-ahead.
+	 * 
+	 * @param leaf - the leaf the scan has just moved to
+	 * @param ipred - the predicate of the scan, or null if it reads every leaf
+	 * @return the number of leaves the scan can move on before it should read
+	 * ahead again
+	 */
+	static int readAheadLeaves(BTreeLeafPage leaf, IndexPredicate ipred) {
+		if (!scanMovesPast(leaf, ipred))
+			return 1;
+		int window = Database.getBufferPool().getPrefetcher().followChain(leaf.getRightSiblingId(),
+				p -> scanMovesPast((BTreeLeafPage) p, ipred) ? ((BTreeLeafPage) p).getRightSiblingId() : null);
+		return Math.max(1, window / 2);
+	}
+
+	/**
+	 * @return false if a scan with the given predicate ends on the given leaf,
+	 * because its last key is above the predicate's upper bound
+	 */
+	private static boolean scanMovesPast(BTreeLeafPage leaf, IndexPredicate ipred) {
+		if (ipred == null)
+			return true;
+		Op op;
+		switch (ipred.getOp()) {
+		case EQUALS:
+		case LESS_THAN_OR_EQ:
+			op = Op.LESS_THAN_OR_EQ;
+			break;
+		case LESS_THAN:
+			op = Op.LESS_THAN;
+			break;
+		default:
+			return true;
+		}
+		Iterator<Tuple> it = leaf.reverseIterator();
+		return !it.hasNext() || it.next().getField(leaf.keyField).compare(op, ipred.getField());
+	}
+
 }
 
 /**
@@ -1062,6 +1652,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	// leaves left before the next read-ahead along the leaf chain
+	int leavesUntilReadAhead = 0;
 
 	final TransactionId tid;
 	final BTreeFile f;
@@ -1080,10 +1672,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, null);
+		curp = f.findLeafPage(tid, null);
+		leavesUntilReadAhead = 0;
 		it = curp.iterator();
 	}
 
@@ -1106,6 +1696,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				// the scan spans several leaves; keep the next ones coming
+				if (--leavesUntilReadAhead <= 0)
+					leavesUntilReadAhead = BTreeFile.readAheadLeaves(curp, null);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1143,21 +1736,27 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	// leaves left before the next read-ahead along the leaf chain
+	int leavesUntilReadAhead = 0;
 
 	final TransactionId tid;
 	final BTreeFile f;
 	final IndexPredicate ipred;
+	// an upper bound the keys also match, or null
+	final IndexPredicate upper;
 
 	/**
 	 * Constructor for this iterator
 	 * @param f - the BTreeFile containing the tuples
 	 * @param tid - the transaction id
 	 * @param ipred - the predicate to filter on
+	 * @param upper - an upper bound to filter on as well, or null
 	 */
-	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred, IndexPredicate upper) {
 		this.f = f;
 		this.tid = tid;
 		this.ipred = ipred;
+		this.upper = upper;
 	}
 
 	/**
@@ -1165,16 +1764,14 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, ipred.getField());
+			curp = f.findLeafPage(tid, ipred.getField());
 		}
 		else {
-			curp = f.findLeafPage(tid, root, null);
+			curp = f.findLeafPage(tid, null);
 		}
+		leavesUntilReadAhead = 0;
 		it = curp.iterator();
 	}
 
@@ -1191,6 +1788,10 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 			while (it.hasNext()) {
 				Tuple t = it.next();
+				if (upper != null && !t.getField(f.keyField()).compare(upper.getOp(), upper.getField())) {
+					// past the upper bound, which no later key matches either
+					return null;
+				}
 				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
 					return t;
 				}
@@ -1215,6 +1816,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				// the scan spans several leaves; keep the next ones coming
+				if (--leavesUntilReadAhead <= 0)
+					leavesUntilReadAhead = BTreeFile.readAheadLeaves(curp, upper != null ? upper : ipred);
 				it = curp.iterator();
 			}
 		}
@@ -621,6 +621,8 @@ public class BTreeFileEncoder {
 	public static byte[] convertToInternalPage(List<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
+		if (BTreeInternalPage.isVariableLength(keyType))
+			return convertToVariableLengthInternalPage(entries, npagebytes, childPageCategory);
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
@@ -694,6 +696,57 @@ public class BTreeFileEncoder {
 
 	}
 
+	/**
+	 * Convert a set of entries with variable-length keys to a byte array in the
+	 * format of a BTreeInternalPage: the header, the prefix common to all keys,
+	 * and then the first child pointer and each key without the prefix, with
+	 * its right child pointer.
+	 * 
+	 * @throws IOException if the entries do not fit on a page
+	 */
+	private static byte[] convertToVariableLengthInternalPage(List<BTreeEntry> entries, int npagebytes,
+			int childPageCategory) throws IOException {
+		int keylengthbytes = BTreeInternalPage.KEY_LENGTH_SIZE;
+		int nentrybytes = keylengthbytes + BTreeInternalPage.INDEX_SIZE;
+		// pointerbytes: one extra child pointer, parent pointer, child page category, prefix length
+		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1 + keylengthbytes;
+		int nentries = (npagebytes * 8 - pointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		int nheaderbytes = (nentries + 1) / 8;
+		if (nheaderbytes * 8 < nentries + 1)
+			nheaderbytes++;  //ceiling
+		if (entries.size() > nentries)
+			throw new IOException("too many entries for an internal page: " + entries.size());
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+		DataOutputStream dos = new DataOutputStream(baos);
+		dos.writeInt(0); // parent pointer
+		dos.writeByte((byte) childPageCategory);
+		byte[] header = new byte[nheaderbytes];
+		for (int i = 0; i < entries.size() + 1; i++)
+			header[i / 8] |= 1 << (i % 8);
+		dos.write(header);
+
+		entries.sort(new EntryComparator());
+		String first = ((StringField) entries.get(0).getKey()).getValue();
+		String last = ((StringField) entries.get(entries.size() - 1).getKey()).getValue();
+		int prefix = 0;
+		while (prefix < first.length() && prefix < last.length() && first.charAt(prefix) == last.charAt(prefix))
+			prefix++;
+		dos.writeShort(prefix);
+		dos.writeBytes(first.substring(0, prefix));
+		dos.writeInt(entries.get(0).getLeftChild().getPageNumber());
+		for (BTreeEntry e : entries) {
+			String suffix = ((StringField) e.getKey()).getValue().substring(prefix);
+			dos.writeShort(suffix.length());
+			dos.writeBytes(suffix);
+			dos.writeInt(e.getRightChild().getPageNumber());
+		}
+		if (dos.size() > npagebytes)
+			throw new IOException("entries do not fit on an internal page");
+		dos.write(new byte[npagebytes - dos.size()]);
+		return baos.toByteArray();
+	}
+
 	/**
 	 * Create a byte array in the format of a BTreeRootPtrPage
 	 * 
@@ -2,6 +2,7 @@ package simpledb.index;
 
 import java.util.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 
 import simpledb.common.Catalog;
 import simpledb.common.Database;
@@ -13,16 +14,29 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Keys of a fixed-length type take the same space in every slot. Keys of a
+ * variable-length type (strings) are stored with their length and only as
+ * many bytes as they hold, after dropping the prefix common to all keys of
+ * the page, which is stored once. Such a page is full when its bytes are,
+ * rather than its slots, and below minimum occupancy when less than a
+ * quarter of its bytes are used; see {@link #hasRoomFor(Field)} and
+ * {@link #isUnderfull()}.
  *
  * @see BTreeFile
  * @see BufferPool
  *
  */
 public class BTreeInternalPage extends BTreePage {
+	// the bytes holding the length of a variable-length key, or of the common prefix
+	static final int KEY_LENGTH_SIZE = 2;
+
+	private final boolean variableLength;
 	private final byte[] header;
 	private final Field[] keys;
 	private final int[] children;
@@ -43,7 +57,7 @@ public class BTreeInternalPage extends BTreePage {
 
         assert null == upperBound || null == prev || (prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
 
-        assert !checkOccupancy || depth <= 0 || (getNumEntries() >= getMaxEntries() / 2);
+        assert !checkOccupancy || depth <= 0 || !isUnderfull();
 	}
 	
 	/**
@@ -62,6 +76,10 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * With a variable-length key type, the header is followed by the common
+	 * prefix of the keys, and then by the key and child pointer of each used
+	 * slot; unused slots take no space. The number of slots is then the
+	 * number of entries with empty keys that fit in the page.
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -72,6 +90,7 @@ public class BTreeInternalPage extends BTreePage {
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
+		this.variableLength = isVariableLength(td.getFieldType(keyField));
 		this.numSlots = getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -92,24 +111,29 @@ public class BTreeInternalPage extends BTreePage {
 			header[i] = dis.readByte();
 
 		keys = new Field[numSlots];
-		try{
-			// allocate and read the keys of this page
-			// start from 1 because the first key slot is not used
-			// since a node with m keys has m+1 pointers
-			keys[0] = null;
-			for (int i=1; i<keys.length; i++)
-				keys[i] = readNextKey(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
+		children = new int[numSlots];
+		if (variableLength) {
+			readVariableLengthEntries(dis);
 		}
+		else {
+			try{
+				// allocate and read the keys of this page
+				// start from 1 because the first key slot is not used
+				// since a node with m keys has m+1 pointers
+				keys[0] = null;
+				for (int i=1; i<keys.length; i++)
+					keys[i] = readNextKey(dis,i);
+			}catch(NoSuchElementException e){
+				e.printStackTrace();
+			}
 
-		children = new int[numSlots];
-		try{
-			// allocate and read the child pointers of this page
-			for (int i=0; i<children.length; i++)
-				children[i] = readNextChild(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
+			try{
+				// allocate and read the child pointers of this page
+				for (int i=0; i<children.length; i++)
+					children[i] = readNextChild(dis,i);
+			}catch(NoSuchElementException e){
+				e.printStackTrace();
+			}
 		}
 		dis.close();
 
@@ -120,14 +144,183 @@ public class BTreeInternalPage extends BTreePage {
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
 	public int getMaxEntries() {        
-		int keySize = td.getFieldType(keyField).getLen();
+		// variable-length keys take at least their length
+		int keySize = variableLength ? KEY_LENGTH_SIZE : td.getFieldType(keyField).getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
-		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1;
+		// and, with variable-length keys, the length of their common prefix
+		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1 + (variableLength ? KEY_LENGTH_SIZE * 8 : 0);
         return (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader;
 	}
 
+	/**
+	 * @return whether internal pages store keys of the given type in the
+	 * variable-length layout
+	 */
+	public static boolean isVariableLength(Type keyType) {
+		return keyType == Type.STRING_TYPE;
+	}
+
+	/**
+	 * @return whether this page stores its keys in the variable-length layout
+	 */
+	public boolean isVariableLength() {
+		return variableLength;
+	}
+
+	/**
+	 * @return the number of bytes of this page available to its entries (key +
+	 * child pointer), besides the first child pointer
+	 */
+	public int getCapacity() {
+		if (!variableLength)
+			return getMaxEntries() * getEntrySize(null);
+		return BufferPool.getPageSize() - 2 * INDEX_SIZE - 1 - getHeaderSize() - KEY_LENGTH_SIZE;
+	}
+
+	/**
+	 * @param key - the key of the entry, or null for the longest key possible
+	 * @return the number of bytes an entry with the given key takes on this
+	 * page, before the prefix it shares with the other keys is dropped
+	 */
+	public int getEntrySize(Field key) {
+		if (!variableLength)
+			return td.getFieldType(keyField).getLen() + INDEX_SIZE;
+		return INDEX_SIZE + KEY_LENGTH_SIZE + (key == null ? Type.STRING_LEN : keyLength(key));
+	}
+
+	/**
+	 * @return the number of bytes taken by the entries of this page, before
+	 * their common prefix is dropped
+	 */
+	public int getUsedSpace() {
+		int used = 0;
+		for (int i=1; i<numSlots; i++)
+			if (isSlotUsed(i))
+				used += getEntrySize(keys[i]);
+		return used;
+	}
+
+	/**
+	 * @param key - the key of the entry, or null for any key
+	 * @return whether an entry with the given key can be inserted into this page
+	 */
+	public boolean hasRoomFor(Field key) {
+		if (getNumEmptySlots() == 0)
+			return false;
+		if (!variableLength)
+			return true;
+		if (key == null)
+			return getUsedSpace() + getEntrySize(null) <= getCapacity();
+		return spaceWith(key, 0) <= getCapacity();
+	}
+
+	/**
+	 * @return whether the key of the given entry of this page can be replaced
+	 * by another, which may be longer
+	 */
+	public boolean canUpdateKey(BTreeEntry e, Field key) {
+		return !variableLength || spaceWith(key, e.getRecordId().getTupleNumber()) <= getCapacity();
+	}
+
+	/**
+	 * @return whether this page is below minimum occupancy: half of its
+	 * entries, or a quarter of its bytes with variable-length keys
+	 */
+	public boolean isUnderfull() {
+		if (!variableLength) {
+			int maxEmptySlots = getMaxEntries() - getMaxEntries()/2; // ceiling
+			return getNumEmptySlots() > maxEmptySlots;
+		}
+		return getUsedSpace() < getCapacity() / 4;
+	}
+
+	/**
+	 * @return whether this page stays at minimum occupancy after losing any
+	 * of its entries
+	 */
+	public boolean canLoseEntry() {
+		if (!variableLength) {
+			int maxEmptySlots = getMaxEntries() - getMaxEntries()/2; // ceiling
+			return getNumEmptySlots() < maxEmptySlots;
+		}
+		return getUsedSpace() - getEntrySize(null) >= getCapacity() / 4;
+	}
+
+	/**
+	 * @return whether this page has entries to spare for a sibling below
+	 * minimum occupancy. Otherwise the two can be merged
+	 */
+	public boolean hasEntriesToSpare() {
+		return variableLength ? getUsedSpace() >= getCapacity() / 2 : canLoseEntry();
+	}
+
+	/**
+	 * Find the shortest key that separates two adjacent pages, so that it is
+	 * greater than or equal to the keys on the left and less than or equal to
+	 * those on the right (suffix truncation). For fixed-length keys, this is
+	 * the smallest key on the right.
+	 * 
+	 * @param leftMax - the largest key on the left
+	 * @param rightMin - the smallest key on the right
+	 */
+	public static Field separator(Field leftMax, Field rightMin) {
+		if (!(rightMin instanceof StringField) || !leftMax.compare(Op.LESS_THAN, rightMin))
+			return rightMin;
+		String left = ((StringField) leftMax).getValue();
+		String right = ((StringField) rightMin).getValue();
+		// the first character that differs is enough, as it is the larger one
+		int n = commonPrefixLength(left, right);
+		if (n + 1 >= right.length())
+			return rightMin;
+		return new StringField(right.substring(0, n + 1), Type.STRING_LEN);
+	}
+
+	private static int keyLength(Field key) {
+		return ((StringField) key).getValue().length();
+	}
+
+	private static int commonPrefixLength(String a, String b) {
+		int n = 0;
+		while (n < a.length() && n < b.length() && a.charAt(n) == b.charAt(n))
+			n++;
+		return n;
+	}
+
+	// the prefix shared by all keys of this page
+	private String commonPrefix() {
+		return commonPrefix(null, 0);
+	}
+
+	// the prefix shared by all keys of this page, with key added, or put in slot replace if it is not 0
+	private String commonPrefix(Field key, int replace) {
+		String min = key == null ? null : ((StringField) key).getValue();
+		String max = min;
+		for (int i=1; i<numSlots; i++) {
+			if (!isSlotUsed(i) || (i == replace && key != null))
+				continue;
+			String s = ((StringField) keys[i]).getValue();
+			if (min == null || s.compareTo(min) < 0)
+				min = s;
+			if (max == null || s.compareTo(max) > 0)
+				max = s;
+		}
+		return min == null ? "" : min.substring(0, commonPrefixLength(min, max));
+	}
+
+	// the bytes the entries of this page take once their common prefix is
+	// stored only once, with key added, or put in slot replace if it is not 0
+	private int spaceWith(Field key, int replace) {
+		int prefix = commonPrefix(key, replace).length();
+		int used = prefix;
+		for (int i=1; i<numSlots; i++) {
+			if (isSlotUsed(i) && i != replace)
+				used += getEntrySize(keys[i]) - prefix;
+		}
+		return used + getEntrySize(key) - prefix;
+	}
+
 	/**
 	 * Computes the number of bytes in the header of a B+ internal page with each entry occupying entrySize bytes
 	 * @return the number of bytes in the header
@@ -194,6 +387,27 @@ public class BTreeInternalPage extends BTreePage {
 		return f;
 	}
 
+	/**
+	 * Read the common prefix of the keys, and then the key and child pointer of each
+	 * used slot, in the variable-length layout.
+	 */
+	private void readVariableLengthEntries(DataInputStream dis) throws IOException {
+		byte[] prefix = new byte[dis.readUnsignedShort()];
+		dis.readFully(prefix);
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				children[i] = -1;
+				continue;
+			}
+			if (i > 0) {
+				byte[] bs = Arrays.copyOf(prefix, prefix.length + dis.readUnsignedShort());
+				dis.readFully(bs, prefix.length, bs.length - prefix.length);
+				keys[i] = new StringField(new String(bs, StandardCharsets.ISO_8859_1), Type.STRING_LEN);
+			}
+			children[i] = dis.readInt();
+		}
+	}
+
 	/**
 	 * Read child pointers from the source file.
 	 */
@@ -266,6 +480,17 @@ public class BTreeInternalPage extends BTreePage {
             }
         }
 
+		if (variableLength) {
+			try {
+				writeVariableLengthEntries(dos);
+				dos.write(new byte[len - dos.size()]);
+				dos.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return baos.toByteArray();
+		}
+
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
@@ -337,6 +562,26 @@ public class BTreeInternalPage extends BTreePage {
 		return baos.toByteArray();
 	}
 
+	/**
+	 * Write the common prefix of the keys, and then the key without it and the
+	 * child pointer of each used slot.
+	 */
+	private void writeVariableLengthEntries(DataOutputStream dos) throws IOException {
+		String prefix = commonPrefix();
+		dos.writeShort(prefix.length());
+		dos.writeBytes(prefix);
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i))
+				continue;
+			if (i > 0) {
+				String suffix = ((StringField) keys[i]).getValue().substring(prefix.length());
+				dos.writeShort(suffix.length());
+				dos.writeBytes(suffix);
+			}
+			dos.writeInt(children[i]);
+		}
+	}
+
 	/**
 	 * Delete the specified entry (key + 1 child pointer) from the page. The recordId
 	 * is used to find the specified entry, so it must not be null. After deletion, the 
@@ -413,6 +658,8 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("tried to update entry on invalid page or table");
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to update null entry.");
+		if (!canUpdateKey(e, e.getKey()))
+			throw new DbException("no room on page for updated key " + e.getKey());
 		
 		for(int i = rid.getTupleNumber() + 1; i < numSlots; i++) {
 			if(isSlotUsed(i)) {
@@ -440,14 +687,18 @@ public class BTreeInternalPage extends BTreePage {
 	/**
 	 * Adds the specified entry to the page; the entry's recordId should be updated to 
 	 * reflect that it is now stored on this page.
-	 * @throws DbException if the page is full (no empty slots) or key field type,
-	 *         table id, or child page category is a mismatch, or the entry is invalid
+	 * @throws DbException if the page is full (no empty slots, or no room for the key)
+	 *         or key field type, table id, or child page category is a mismatch, or the
+	 *         entry is invalid
 	 * @param e The entry to add.
 	 */
 	public void insertEntry(BTreeEntry e) throws DbException {
 		if (!e.getKey().getType().equals(td.getFieldType(keyField)))
 			throw new DbException("key field type mismatch, in insertEntry");
 
+		if (variableLength && spaceWith(e.getKey(), 0) > getCapacity())
+			throw new DbException("called insertEntry on page with no room for key " + e.getKey());
+
 		if(e.getLeftChild().getTableId() != pid.getTableId() || e.getRightChild().getTableId() != pid.getTableId())
 			throw new DbException("table id mismatch in insertEntry");
 
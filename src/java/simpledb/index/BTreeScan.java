@@ -5,6 +5,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -15,7 +16,7 @@ import java.util.*;
 
 /**
  * BTreeScan is an operator which reads tuples in sorted order 
- * according to a predicate
+ * according to a predicate, optionally stopping at an upper bound on the key
  */
 public class BTreeScan implements OpIterator {
 
@@ -25,6 +26,9 @@ public class BTreeScan implements OpIterator {
 	private final TransactionId tid;
 	private TupleDesc myTd;
 	private IndexPredicate ipred = null;
+	// a LESS_THAN(_OR_EQ) bound after which the scan stops, or null
+	private IndexPredicate upper = null;
+	private int tableid;
 	private transient DbFileIterator it;
 	private String tablename;
 	private String alias;
@@ -54,6 +58,51 @@ public class BTreeScan implements OpIterator {
 		reset(tableid,tableAlias);
 	}
 
+	/**
+	 * Creates a B+ tree scan of the keys that match ipred and upper, such as
+	 * the keys in a range between a lower bound (ipred) and an upper bound.
+	 * The scan starts where ipred does and stops at the first key above
+	 * upper, instead of reading the rest of the tree.
+	 *
+	 * @param ipred
+	 *            The index predicate to match. If null, upper alone is matched
+	 * @param upper
+	 *            A LESS_THAN or LESS_THAN_OR_EQ predicate on the key
+	 */
+	public BTreeScan(TransactionId tid, int tableid, String tableAlias,
+			IndexPredicate ipred, IndexPredicate upper) {
+		if (upper.getOp() != Predicate.Op.LESS_THAN && upper.getOp() != Predicate.Op.LESS_THAN_OR_EQ)
+			throw new IllegalArgumentException("not an upper bound: " + upper.getOp());
+		this.tid = tid;
+		if (ipred == null) {
+			this.ipred = upper;
+		} else {
+			this.ipred = ipred;
+			this.upper = upper;
+		}
+		reset(tableid,tableAlias);
+	}
+
+	/** @return the id of the table the operator scans */
+	public int getTableId() {
+		return this.tableid;
+	}
+
+	/** @return the transaction the scan runs as a part of */
+	public TransactionId getTransactionId() {
+		return this.tid;
+	}
+
+	/** @return the predicate the keys match, or null if the scan reads every tuple */
+	public IndexPredicate getIndexPredicate() {
+		return this.ipred;
+	}
+
+	/** @return the upper bound the keys also match, or null if there is none */
+	public IndexPredicate getUpperBound() {
+		return this.upper;
+	}
+
 	/**
 	 * @return
 	 *       return the table name of the table the operator scans. This should
@@ -86,12 +135,14 @@ public class BTreeScan implements OpIterator {
 	public void reset(int tableid, String tableAlias) {
 		this.isOpen=false;
 		this.alias = tableAlias;
+		this.tableid = tableid;
 		this.tablename = Database.getCatalog().getTableName(tableid);
 		if(ipred == null) {
 			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
 		}
 		else {
-			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
+			BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(tableid);
+			this.it = upper == null ? f.indexIterator(tid, ipred) : f.indexIterator(tid, ipred, upper);
 		}
 		myTd = Database.getCatalog().getTupleDesc(tableid);
 		String[] newNames = new String[myTd.numFields()];
@@ -0,0 +1,311 @@
+package simpledb.index;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of HashBucketPage stores data for one page of a bucket of a
+ * HashFile and implements the Page interface that is used by BufferPool. A
+ * bucket is a primary page and a chain of overflow pages, linked through
+ * their next pointers. Free overflow pages are chained the same way, from
+ * the meta page.
+ *
+ * @see HashFile
+ * @see BufferPool
+ */
+public class HashBucketPage implements Page {
+
+	private final static int INDEX_SIZE = Type.INT_TYPE.getLen();
+
+	private volatile boolean dirty = false;
+	private volatile TransactionId dirtier = null;
+
+	private final HashPageId pid;
+	private final TupleDesc td;
+	private final byte[] header;
+	private final Tuple[] tuples;
+	private final int numSlots;
+
+	private int nextPage; // overflow page or 0
+
+	private byte[] oldData;
+	private final Object oldDataLock = new Object();
+
+	/**
+	 * Create a HashBucketPage from a set of bytes of data read from disk.
+	 * The format of a HashBucketPage is the page number of the next page in
+	 * the chain (0 if there is none), a set of header bytes indicating the
+	 * slots of the page that are in use, and some number of tuple slots.
+	 *  Specifically, the number of tuples is equal to: <p>
+	 *          floor((BufferPool.getPageSize()*8 - 32) / (tuple size * 8 + 1))
+	 * <p> where tuple size is the size of tuples in this
+	 * database table, which can be determined via {@link Catalog#getTupleDesc}.
+	 * The number of 8-bit header words is equal to:
+	 * <p>
+	 *      ceiling(no. tuple slots / 8)
+	 * <p>
+	 * @see Database#getCatalog
+	 * @see Catalog#getTupleDesc
+	 * @see BufferPool#getPageSize()
+	 *
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 */
+	public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.numSlots = getMaxTuples();
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+		nextPage = dis.readInt();
+		header = new byte[(numSlots + 7) / 8];
+		dis.readFully(header);
+
+		tuples = new Tuple[numSlots];
+		for (int i = 0; i < numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				dis.skipBytes(td.getSize());
+				continue;
+			}
+			Tuple t = new Tuple(td);
+			t.setRecordId(new RecordId(pid, i));
+			try {
+				for (int j = 0; j < td.numFields(); j++)
+					t.setField(j, td.getFieldType(j).parse(dis));
+			} catch (java.text.ParseException e) {
+				throw new IOException("parsing error in hash bucket page " + pid, e);
+			}
+			tuples[i] = t;
+		}
+		dis.close();
+
+		setBeforeImage();
+	}
+
+	/**
+	 * Retrieve the maximum number of tuples this page can hold.
+	 */
+	public int getMaxTuples() {
+		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
+		// extraBits are: next page pointer
+		int extraBits = INDEX_SIZE * 8;
+		return (BufferPool.getPageSize() * 8 - extraBits) / bitsPerTupleIncludingHeader;
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * HashBucketPage.
+	 *
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()]; //all 0
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this page.
+	 * Used to serialize this page to disk.
+	 * <p>
+	 * The invariant here is that it should be possible to pass the byte
+	 * array generated by getPageData to the HashBucketPage constructor and
+	 * have it produce an identical HashBucketPage object.
+	 *
+	 * @see #HashBucketPage
+	 * @return A byte array corresponding to the bytes of this page.
+	 */
+	public byte[] getPageData() {
+		int len = BufferPool.getPageSize();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(nextPage);
+			dos.write(header);
+			byte[] empty = new byte[td.getSize()];
+			for (int i = 0; i < numSlots; i++) {
+				if (!isSlotUsed(i)) {
+					dos.write(empty);
+					continue;
+				}
+				for (int j = 0; j < td.numFields(); j++)
+					tuples[i].getField(j).serialize(dos);
+			}
+			dos.write(new byte[len - (INDEX_SIZE + header.length + td.getSize() * numSlots)]);
+			dos.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashPageId getId() {
+		return pid;
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		if (dirty) this.dirtier = tid;
+	}
+
+	public TransactionId isDirty() {
+		if (this.dirty)
+			return this.dirtier;
+		else
+			return null;
+	}
+
+	/** Return a view of this page before it was modified
+        -- used by recovery */
+	public HashBucketPage getBeforeImage() {
+		try {
+			byte[] oldDataRef;
+			synchronized (oldDataLock) {
+				oldDataRef = oldData;
+			}
+			return new HashBucketPage(pid, oldDataRef);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public void setBeforeImage() {
+		synchronized (oldDataLock) {
+			oldData = getPageData().clone();
+		}
+	}
+
+	/**
+	 * Get the id of the next page in the chain of this page
+	 * @return the id of the next page, or null if this is the last one
+	 */
+	public HashPageId getNextPageId() {
+		if (nextPage == 0)
+			return null;
+		return new HashPageId(pid.getTableId(), nextPage);
+	}
+
+	/**
+	 * Set the id of the next page in the chain of this page
+	 * @param id - the id of the next page, or null if this is the last one
+	 * @throws DbException if the id is not valid
+	 */
+	public void setNextPageId(HashPageId id) throws DbException {
+		if (id == null) {
+			nextPage = 0;
+			return;
+		}
+		if (id.getTableId() != pid.getTableId())
+			throw new DbException("table id mismatch in setNextPageId");
+		if (id.isMetaPage())
+			throw new DbException("the meta page cannot be in a bucket chain");
+		nextPage = id.getPageNumber();
+	}
+
+	/**
+	 * Adds the specified tuple to the first empty slot of the page; the
+	 * tuple is updated to reflect that it is now stored on this page.
+	 * @throws DbException if the page is full (no empty slots) or tupledesc
+	 *         is mismatch.
+	 * @param t The tuple to add.
+	 */
+	public void insertTuple(Tuple t) throws DbException {
+		if (!t.getTupleDesc().equals(td))
+			throw new DbException("type mismatch, in insertTuple");
+		for (int i = 0; i < numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				markSlotUsed(i, true);
+				t.setRecordId(new RecordId(pid, i));
+				tuples[i] = t;
+				return;
+			}
+		}
+		throw new DbException("called insertTuple on page with no empty slots.");
+	}
+
+	/**
+	 * Delete the specified tuple from the page; the tuple is updated to
+	 * reflect that it is no longer stored on any page.
+	 * @throws DbException if this tuple is not on this page, or tuple slot is
+	 *         already empty.
+	 * @param t The tuple to delete
+	 */
+	public void deleteTuple(Tuple t) throws DbException {
+		RecordId rid = t.getRecordId();
+		if (rid == null)
+			throw new DbException("tried to delete tuple with null rid");
+		if (!pid.equals(rid.getPageId()))
+			throw new DbException("tried to delete tuple on invalid page or table");
+		if (!isSlotUsed(rid.getTupleNumber()))
+			throw new DbException("tried to delete null tuple.");
+		markSlotUsed(rid.getTupleNumber(), false);
+		t.setRecordId(null);
+	}
+
+	/**
+	 * Remove every tuple from the page, and return them
+	 */
+	public List<Tuple> clear() {
+		List<Tuple> removed = new ArrayList<>();
+		for (int i = 0; i < numSlots; i++) {
+			if (isSlotUsed(i)) {
+				removed.add(tuples[i]);
+				markSlotUsed(i, false);
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Returns the number of empty slots on this page.
+	 */
+	public int getNumEmptySlots() {
+		int empty = 0;
+		for (int i = 0; i < numSlots; i++) {
+			if (!isSlotUsed(i))
+				empty++;
+		}
+		return empty;
+	}
+
+	/**
+	 * Returns true if associated slot on this page is filled.
+	 */
+	public boolean isSlotUsed(int i) {
+		return (header[i / 8] & (1 << (i % 8))) != 0;
+	}
+
+	private void markSlotUsed(int i, boolean value) {
+		if (value)
+			header[i / 8] |= (byte) (1 << (i % 8));
+		else {
+			header[i / 8] &= (byte) ~(1 << (i % 8));
+			tuples[i] = null;
+		}
+	}
+
+	/**
+	 * @return an iterator over all tuples on this page (calling remove on
+	 * this iterator throws an UnsupportedOperationException)
+	 */
+	public Iterator<Tuple> iterator() {
+		List<Tuple> used = new ArrayList<>();
+		for (int i = 0; i < numSlots; i++) {
+			if (isSlotUsed(i))
+				used.add(tuples[i]);
+		}
+		return Collections.unmodifiableList(used).iterator();
+	}
+
+}
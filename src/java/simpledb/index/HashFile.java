@@ -0,0 +1,503 @@
+package simpledb.index;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * HashFile is an implementation of a DbFile that stores a linear hashing
+ * index on one field of its tuples. Tuples are stored in buckets, chosen by
+ * the hash of their key, so finding the tuples with one key reads a single
+ * bucket: its primary page, and its overflow pages if it has any. Page 0 of
+ * the file is a {@link HashMetaPage} that records the number of buckets and
+ * where their primary pages are; every other page is a
+ * {@link HashBucketPage}.
+ * <p>
+ * The file grows one bucket at a time. Whenever an insert has to chain an
+ * overflow page to a full bucket, the bucket the split pointer is at is
+ * split: its tuples are rehashed over it and a new bucket at the end of the
+ * file, and the split pointer moves on. Once every bucket has been split the
+ * number of buckets has doubled and the pointer starts over. Overflow pages
+ * emptied by a split are kept on a free list for later overflows; the file
+ * never shrinks.
+ * <p>
+ * The meta page is only locked while a key is hashed to its bucket and the
+ * bucket's primary page is locked, unless the transaction changes it. A
+ * bucket's pages are locked until the end of the transaction like any other
+ * page; since a split locks both of the buckets it changes, a transaction
+ * that has read or changed a bucket keeps its keys from moving, and keeps
+ * other transactions from adding tuples with the keys it looked up.
+ *
+ * @see HashMetaPage#HashMetaPage
+ * @see HashBucketPage#HashBucketPage
+ */
+public class HashFile implements DbFile {
+
+	/** The number of buckets a hash file starts with, unless told otherwise. */
+	public static final int DEFAULT_INITIAL_BUCKETS = 4;
+
+	private final File f;
+	private final TupleDesc td;
+	private final int tableid;
+	private final int keyField;
+	private final int initialBuckets;
+
+	/**
+	 * Constructs a hash file backed by the specified file, which starts with
+	 * {@link #DEFAULT_INITIAL_BUCKETS} buckets if it is empty.
+	 *
+	 * @param f - the file that stores the on-disk backing store for this
+	 *            hash file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 */
+	public HashFile(File f, int key, TupleDesc td) {
+		this(f, key, td, DEFAULT_INITIAL_BUCKETS);
+	}
+
+	/**
+	 * Constructs a hash file backed by the specified file.
+	 *
+	 * @param f - the file that stores the on-disk backing store for this
+	 *            hash file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param initialBuckets - the number of buckets the file starts with, if
+	 *            it is empty; an existing file keeps the number it started with
+	 * @throws IllegalArgumentException if key is not a field of td, or
+	 *            initialBuckets is not positive
+	 */
+	public HashFile(File f, int key, TupleDesc td, int initialBuckets) {
+		if (key < 0 || key >= td.numFields())
+			throw new IllegalArgumentException("no field " + key + " in " + td);
+		if (initialBuckets < 1)
+			throw new IllegalArgumentException("a hash file needs at least one bucket");
+		this.f = f;
+		this.tableid = f.getAbsoluteFile().hashCode();
+		this.keyField = key;
+		this.td = td;
+		this.initialBuckets = initialBuckets;
+	}
+
+	/**
+	 * Returns the File backing this HashFile on disk.
+	 */
+	public File getFile() {
+		return f;
+	}
+
+	/**
+	 * Returns an ID uniquely identifying this HashFile: the hash of the
+	 * absolute file name of the file underlying it.
+	 *
+	 * @return an ID uniquely identifying this HashFile.
+	 */
+	public int getId() {
+		return tableid;
+	}
+
+	/**
+	 * Returns the TupleDesc of the table stored in this DbFile.
+	 *
+	 * @return TupleDesc of this DbFile.
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	/**
+	 * Returns the index of the field that this hash file is keyed on
+	 */
+	public int keyField() {
+		return keyField;
+	}
+
+	/**
+	 * Returns the number of pages in this HashFile, including its meta page.
+	 */
+	public int numPages() {
+		return (int) (f.length() / BufferPool.getPageSize());
+	}
+
+	/**
+	 * The hash of a key. The bits of the key's hash code are mixed, so that
+	 * keys that differ in their high bits only still end up in different
+	 * buckets.
+	 *
+	 * @param key - a key
+	 * @return its hash
+	 */
+	public static int hash(Field key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * Read a page from the file on disk. This should not be called directly
+	 * but should be called from the BufferPool via getPage()
+	 *
+	 * @param pid - the id of the page to read from disk
+	 * @return the page constructed from the contents on disk
+	 * @throws IllegalArgumentException if the page does not exist in this file.
+	 */
+	public Page readPage(PageId pid) {
+		HashPageId id = (HashPageId) pid;
+		int pageSize = BufferPool.getPageSize();
+		try (RandomAccessFile rf = new RandomAccessFile(f, "r")) {
+			long offset = (long) id.getPageNumber() * pageSize;
+			if (id.getPageNumber() < 0 || offset + pageSize > rf.length())
+				throw new IllegalArgumentException("page " + id.getPageNumber() + " does not exist in " + f);
+			byte[] pageBuf = new byte[pageSize];
+			rf.seek(offset);
+			rf.readFully(pageBuf);
+			if (id.isMetaPage())
+				return new HashMetaPage(id, pageBuf);
+			return new HashBucketPage(id, pageBuf);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Write a page to disk.  This should not be called directly but should
+	 * be called from the BufferPool when pages are flushed to disk
+	 *
+	 * @param page - the page to write to disk
+	 */
+	public void writePage(Page page) throws IOException {
+		try (RandomAccessFile rf = new RandomAccessFile(f, "rw")) {
+			rf.seek((long) page.getId().getPageNumber() * BufferPool.getPageSize());
+			rf.write(page.getPageData());
+		}
+	}
+
+	// create the meta page and the primary pages of the initial buckets of a new file
+	private void createIfEmpty() throws IOException {
+		synchronized (this) {
+			if (f.length() == 0) {
+				try (BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true))) {
+					bw.write(HashMetaPage.createPageData(initialBuckets));
+					for (int i = 0; i < initialBuckets; i++)
+						bw.write(HashBucketPage.createEmptyPageData());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Append empty pages to the end of the file.
+	 *
+	 * @param n - the number of pages to append
+	 * @return the page number of the first of them
+	 */
+	private synchronized int appendPages(int n) throws IOException {
+		int start = numPages();
+		try (BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true))) {
+			for (int i = 0; i < n; i++)
+				bw.write(HashBucketPage.createEmptyPageData());
+		}
+		return start;
+	}
+
+	/**
+	 * Lock the primary page of the bucket that holds a key. The meta page is
+	 * only locked while the bucket is looked up, unless the transaction
+	 * already held a lock on it.
+	 *
+	 * @param tid - the transaction id
+	 * @param key - the key
+	 * @param perm - the permissions to lock the primary page with
+	 * @return the primary page of the bucket
+	 */
+	HashBucketPage findBucket(TransactionId tid, Field key, Permissions perm)
+			throws DbException, IOException, TransactionAbortedException {
+		createIfEmpty();
+		BufferPool bufferPool = Database.getBufferPool();
+		HashPageId metaId = HashMetaPage.getId(tableid);
+		boolean alreadyLocked = bufferPool.holdsLock(tid, metaId);
+		HashMetaPage meta = (HashMetaPage) bufferPool.getPage(tid, metaId, Permissions.READ_ONLY);
+		HashPageId bucketId = new HashPageId(tableid, meta.getPrimaryPageNo(meta.bucketOf(hash(key))));
+		HashBucketPage page = (HashBucketPage) bufferPool.getPage(tid, bucketId, perm);
+		// the bucket cannot be split while it is locked, so the key stays in it
+		if (!alreadyLocked)
+			bufferPool.unsafeReleasePage(tid, metaId);
+		return page;
+	}
+
+	/**
+	 * Lock a page of a bucket chain for writing, and note it as dirty. A page
+	 * already dirtied by the operation is taken from dirtypages, since the
+	 * buffer pool may have evicted it before it is marked dirty.
+	 */
+	private HashBucketPage getDirtyPage(TransactionId tid, Map<PageId, Page> dirtypages, HashPageId pid)
+			throws DbException, TransactionAbortedException {
+		Page page = dirtypages.get(pid);
+		if (page == null) {
+			page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+			dirtypages.put(pid, page);
+		}
+		return (HashBucketPage) page;
+	}
+
+	/**
+	 * Insert a tuple into the bucket of its key. If every page of the bucket
+	 * is full, chain an overflow page to it and split the next bucket.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple to insert
+	 * @return a list of all pages that were dirtied by this operation
+	 * @see #splitBucket(TransactionId, Map, HashMetaPage)
+	 */
+	public List<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Map<PageId, Page> dirtypages = new LinkedHashMap<>();
+		HashBucketPage page = findBucket(tid, t.getField(keyField), Permissions.READ_WRITE);
+		while (true) {
+			if (page.getNumEmptySlots() > 0) {
+				page.insertTuple(t);
+				dirtypages.put(page.getId(), page);
+				return new ArrayList<>(dirtypages.values());
+			}
+			HashPageId nextId = page.getNextPageId();
+			if (nextId == null)
+				break;
+			page = (HashBucketPage) Database.getBufferPool().getPage(tid, nextId, Permissions.READ_WRITE);
+		}
+
+		dirtypages.put(page.getId(), page);
+		HashMetaPage meta = (HashMetaPage) Database.getBufferPool().getPage(tid,
+				HashMetaPage.getId(tableid), Permissions.READ_WRITE);
+		dirtypages.put(meta.getId(), meta);
+		HashBucketPage overflow = getOverflowPage(tid, dirtypages, meta);
+		page.setNextPageId(overflow.getId());
+		overflow.insertTuple(t);
+		splitBucket(tid, dirtypages, meta);
+		return new ArrayList<>(dirtypages.values());
+	}
+
+	/**
+	 * Delete a tuple from the page it is on. Pages left empty stay in their
+	 * bucket until it is split.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple to delete
+	 * @return a list of all pages that were dirtied by this operation
+	 */
+	public List<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		if (rid == null || !(rid.getPageId() instanceof HashPageId) || rid.getPageId().getTableId() != tableid)
+			throw new DbException("tuple is not a member of this file");
+		Map<PageId, Page> dirtypages = new LinkedHashMap<>();
+		HashBucketPage page = getDirtyPage(tid, dirtypages, (HashPageId) rid.getPageId());
+		page.deleteTuple(t);
+		return new ArrayList<>(dirtypages.values());
+	}
+
+	/**
+	 * Get an empty page to chain to a bucket: the first free overflow page,
+	 * or a new page at the end of the file.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param meta - the meta page, locked for writing
+	 * @return the empty page, locked for writing
+	 */
+	private HashBucketPage getOverflowPage(TransactionId tid, Map<PageId, Page> dirtypages, HashMetaPage meta)
+			throws DbException, IOException, TransactionAbortedException {
+		int pgNo = meta.getFreeHead();
+		if (pgNo == 0) {
+			pgNo = appendPages(1);
+			return getDirtyPage(tid, dirtypages, new HashPageId(tableid, pgNo));
+		}
+		HashBucketPage page = getDirtyPage(tid, dirtypages, new HashPageId(tableid, pgNo));
+		HashPageId nextFree = page.getNextPageId();
+		meta.setFreeHead(nextFree == null ? 0 : nextFree.getPageNumber());
+		page.setNextPageId(null);
+		return page;
+	}
+
+	/**
+	 * Split the bucket the split pointer is at: rehash its tuples over it and
+	 * a new bucket, allocating the primary pages of a new bucket group if the
+	 * new bucket is the first of its group, and advance the pointer.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param meta - the meta page, locked for writing
+	 */
+	private void splitBucket(TransactionId tid, Map<PageId, Page> dirtypages, HashMetaPage meta)
+			throws DbException, IOException, TransactionAbortedException {
+		int bucket = meta.getNext();
+		int newBucket = bucket + (meta.getInitialBuckets() << meta.getLevel());
+		int group = HashMetaPage.groupOf(newBucket, meta.getInitialBuckets());
+		if (group >= meta.getNumGroups()) {
+			int groupSize = HashMetaPage.firstBucketOf(group + 1, meta.getInitialBuckets()) - newBucket;
+			meta.addGroup(appendPages(groupSize));
+		}
+
+		// lock the whole chain of the bucket, and take its tuples out
+		List<HashBucketPage> chain = new ArrayList<>();
+		List<Tuple> tuples = new ArrayList<>();
+		HashPageId pid = new HashPageId(tableid, meta.getPrimaryPageNo(bucket));
+		while (pid != null) {
+			HashBucketPage page = getDirtyPage(tid, dirtypages, pid);
+			chain.add(page);
+			tuples.addAll(page.clear());
+			pid = page.getNextPageId();
+		}
+		HashBucketPage newPage = getDirtyPage(tid, dirtypages,
+				new HashPageId(tableid, meta.getPrimaryPageNo(newBucket)));
+		meta.advanceSplit();
+
+		List<Tuple> staying = new ArrayList<>();
+		List<Tuple> moving = new ArrayList<>();
+		for (Tuple t : tuples)
+			(meta.bucketOf(hash(t.getField(keyField))) == bucket ? staying : moving).add(t);
+		fill(tid, dirtypages, meta, chain, staying);
+		fill(tid, dirtypages, meta, new ArrayList<>(Collections.singletonList(newPage)), moving);
+	}
+
+	/**
+	 * Insert tuples into a chain of empty pages, chaining overflow pages to
+	 * it if they do not fit, and putting the pages that are not needed on
+	 * the free list.
+	 */
+	private void fill(TransactionId tid, Map<PageId, Page> dirtypages, HashMetaPage meta,
+			List<HashBucketPage> chain, List<Tuple> tuples)
+			throws DbException, IOException, TransactionAbortedException {
+		int used = 0;
+		HashBucketPage page = chain.get(0);
+		for (Tuple t : tuples) {
+			if (page.getNumEmptySlots() == 0) {
+				if (++used == chain.size()) {
+					HashBucketPage overflow = getOverflowPage(tid, dirtypages, meta);
+					page.setNextPageId(overflow.getId());
+					chain.add(overflow);
+				}
+				page = chain.get(used);
+			}
+			page.insertTuple(t);
+		}
+		// free the pages after the last one used
+		for (int i = chain.size() - 1; i > used; i--) {
+			HashBucketPage free = chain.get(i);
+			free.setNextPageId(meta.getFreeHead() == 0 ? null : new HashPageId(tableid, meta.getFreeHead()));
+			meta.setFreeHead(free.getId().getPageNumber());
+		}
+		page.setNextPageId(null);
+	}
+
+	/**
+	 * Get the tuples that match an index predicate. An equality reads the
+	 * bucket of its key only; any other comparison reads every bucket.
+	 *
+	 * @param tid - the transaction id
+	 * @param ipred - the index predicate value to filter on
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+		return new HashFileIterator(this, tid, ipred);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this hash file, bucket by bucket. The
+	 * meta page stays locked until the end of the transaction, so that no
+	 * bucket is split under the scan.
+	 *
+	 * @param tid - the transaction id
+	 * @return an iterator for all the tuples in this file
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new HashFileIterator(this, tid, null);
+	}
+
+	/**
+	 * Helper class that implements the DbFileIterator for the tuples of a
+	 * hash file that match an optional index predicate
+	 */
+	private static class HashFileIterator extends AbstractDbFileIterator {
+
+		private final HashFile f;
+		private final TransactionId tid;
+		private final IndexPredicate ipred;
+
+		private Iterator<Tuple> it = null;
+		private HashBucketPage curp = null;
+		// the buckets of a full scan, and the next one to read
+		private int numBuckets;
+		private int nextBucket;
+		private HashMetaPage meta;
+
+		HashFileIterator(HashFile f, TransactionId tid, IndexPredicate ipred) {
+			this.f = f;
+			this.tid = tid;
+			this.ipred = ipred;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			try {
+				if (ipred != null && ipred.getOp() == Op.EQUALS) {
+					curp = f.findBucket(tid, ipred.getField(), Permissions.READ_ONLY);
+					numBuckets = nextBucket = 0;
+				} else {
+					f.createIfEmpty();
+					meta = (HashMetaPage) Database.getBufferPool().getPage(tid,
+							HashMetaPage.getId(f.getId()), Permissions.READ_ONLY);
+					numBuckets = meta.getNumBuckets();
+					nextBucket = 0;
+					curp = null;
+				}
+			} catch (IOException e) {
+				throw new DbException("could not open hash file " + f.getFile() + ": " + e.getMessage());
+			}
+			it = curp == null ? null : curp.iterator();
+		}
+
+		@Override
+		protected Tuple readNext() throws DbException, TransactionAbortedException {
+			while (true) {
+				while (it != null && it.hasNext()) {
+					Tuple t = it.next();
+					if (ipred == null || t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField()))
+						return t;
+				}
+				HashPageId nextp = curp == null ? null : curp.getNextPageId();
+				if (nextp == null) {
+					if (nextBucket >= numBuckets)
+						return null;
+					nextp = new HashPageId(f.getId(), meta.getPrimaryPageNo(nextBucket++));
+				}
+				curp = (HashBucketPage) Database.getBufferPool().getPage(tid, nextp, Permissions.READ_ONLY);
+				it = curp.iterator();
+			}
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			super.close();
+			it = null;
+			curp = null;
+			meta = null;
+			numBuckets = nextBucket = 0;
+		}
+	}
+
+}
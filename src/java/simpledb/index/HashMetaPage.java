@@ -0,0 +1,276 @@
+package simpledb.index;
+
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+
+/**
+ * HashMetaPage is page 0 of a HashFile. It holds the state of the linear
+ * hashing scheme: how many buckets there are, where each bucket's primary
+ * page is, and the list of free overflow pages.
+ * <p>
+ * The buckets of a file with N initial buckets form groups: group 0 holds
+ * buckets [0, N) and group k &gt; 0 holds buckets [N*2^(k-1), N*2^k). The
+ * primary pages of a group are a contiguous range of the file, allocated
+ * when its first bucket is split off, so the meta page only records the
+ * first page of each group.
+ *
+ * @see HashFile
+ * @see BufferPool
+ */
+public class HashMetaPage implements Page {
+
+	private final static int INDEX_SIZE = 4;
+	// level, next, initial buckets, free list head, number of groups
+	private final static int FIXED_INTS = 5;
+
+	private volatile boolean dirty = false;
+	private volatile TransactionId dirtier = null;
+
+	private final HashPageId pid;
+
+	private int level;
+	private int next;
+	private int initialBuckets;
+	private int freeHead;
+	private int[] groupStart;
+
+	private byte[] oldData;
+
+	/**
+	 * Constructor.
+	 * Construct the HashMetaPage from a set of bytes of data read from disk.
+	 * The format of a HashMetaPage is a sequence of integers: the level of
+	 * the file, the next bucket to split, the number of initial buckets, the
+	 * page number of the first free overflow page (0 if there is none), the
+	 * number of bucket groups, and the page number of the first primary
+	 * page of each group. The rest of the page is unused.
+	 *
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 */
+	public HashMetaPage(HashPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		level = dis.readInt();
+		next = dis.readInt();
+		initialBuckets = dis.readInt();
+		freeHead = dis.readInt();
+		int numGroups = dis.readInt();
+		if (numGroups < 0 || numGroups > getMaxGroups())
+			throw new IOException("corrupt hash meta page: " + numGroups + " groups");
+		groupStart = new int[numGroups];
+		for (int i = 0; i < numGroups; i++)
+			groupStart[i] = dis.readInt();
+		setBeforeImage();
+	}
+
+	/**
+	 * @return the maximum number of bucket groups a meta page can record
+	 */
+	public static int getMaxGroups() {
+		return BufferPool.getPageSize() / INDEX_SIZE - FIXED_INTS;
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to the meta page
+	 * of a new hash file, whose primary pages for group 0 follow it.
+	 *
+	 * @param initialBuckets - the number of buckets the file starts with
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createPageData(int initialBuckets) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(0);
+			dos.writeInt(0);
+			dos.writeInt(initialBuckets);
+			dos.writeInt(0);
+			dos.writeInt(1);
+			dos.writeInt(1);
+			dos.write(new byte[BufferPool.getPageSize() - (FIXED_INTS + 1) * INDEX_SIZE]);
+			dos.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this page.
+	 * Used to serialize this page to disk.
+	 * <p>
+	 * The invariant here is that it should be possible to pass the byte
+	 * array generated by getPageData to the HashMetaPage constructor and
+	 * have it produce an identical HashMetaPage object.
+	 *
+	 * @return A byte array corresponding to the bytes of this page.
+	 */
+	public byte[] getPageData() {
+		int len = BufferPool.getPageSize();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(level);
+			dos.writeInt(next);
+			dos.writeInt(initialBuckets);
+			dos.writeInt(freeHead);
+			dos.writeInt(groupStart.length);
+			for (int start : groupStart)
+				dos.writeInt(start);
+			dos.write(new byte[len - (FIXED_INTS + groupStart.length) * INDEX_SIZE]);
+			dos.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashPageId getId() {
+		return pid;
+	}
+
+	/**
+	 * There is only one meta page per hash file. This static method is
+	 * separate from getId() in order to maintain the Page interface
+	 * @param tableid - the tableid of this file
+	 * @return the meta page id for the given file
+	 */
+	public static HashPageId getId(int tableid) {
+		return new HashPageId(tableid, 0);
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		if (dirty) this.dirtier = tid;
+	}
+
+	public TransactionId isDirty() {
+		if (this.dirty)
+			return this.dirtier;
+		else
+			return null;
+	}
+
+	/** Return a view of this page before it was modified
+        -- used by recovery */
+	public HashMetaPage getBeforeImage() {
+		try {
+			return new HashMetaPage(pid, oldData);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public void setBeforeImage() {
+		oldData = getPageData().clone();
+	}
+
+	/** @return the number of times the number of buckets has doubled */
+	public int getLevel() {
+		return level;
+	}
+
+	/** @return the next bucket to split */
+	public int getNext() {
+		return next;
+	}
+
+	/** @return the number of buckets the file started with */
+	public int getInitialBuckets() {
+		return initialBuckets;
+	}
+
+	/** @return the number of buckets in the file */
+	public int getNumBuckets() {
+		return (initialBuckets << level) + next;
+	}
+
+	/**
+	 * @param hash - the hash of a key, as computed by {@link HashFile#hash}
+	 * @return the bucket that holds the keys with this hash
+	 */
+	public int bucketOf(int hash) {
+		int h = hash & Integer.MAX_VALUE;
+		int bucket = h % (initialBuckets << level);
+		if (bucket < next)
+			bucket = h % (initialBuckets << (level + 1));
+		return bucket;
+	}
+
+	/** @return the group of a bucket */
+	static int groupOf(int bucket, int initialBuckets) {
+		if (bucket < initialBuckets)
+			return 0;
+		return 32 - Integer.numberOfLeadingZeros(bucket / initialBuckets);
+	}
+
+	/** @return the first bucket of a group */
+	static int firstBucketOf(int group, int initialBuckets) {
+		return group == 0 ? 0 : initialBuckets << (group - 1);
+	}
+
+	/**
+	 * @param bucket - a bucket of the file
+	 * @return the page number of the primary page of the bucket
+	 */
+	public int getPrimaryPageNo(int bucket) {
+		int group = groupOf(bucket, initialBuckets);
+		return groupStart[group] + bucket - firstBucketOf(group, initialBuckets);
+	}
+
+	/** @return the number of bucket groups whose pages are allocated */
+	public int getNumGroups() {
+		return groupStart.length;
+	}
+
+	/**
+	 * Record the pages of a new bucket group
+	 * @param start - the page number of the first primary page of the group
+	 * @throws DbException if the meta page cannot record another group
+	 */
+	public void addGroup(int start) throws DbException {
+		if (groupStart.length >= getMaxGroups())
+			throw new DbException("hash file " + pid.getTableId() + " cannot grow any further");
+		int[] groups = new int[groupStart.length + 1];
+		System.arraycopy(groupStart, 0, groups, 0, groupStart.length);
+		groups[groupStart.length] = start;
+		groupStart = groups;
+	}
+
+	/**
+	 * Advance the split pointer past the bucket that has just been split,
+	 * starting a new level once every bucket of this one has been split.
+	 */
+	public void advanceSplit() {
+		next++;
+		if (next == initialBuckets << level) {
+			level++;
+			next = 0;
+		}
+	}
+
+	/** @return the page number of the first free overflow page, or 0 if there is none */
+	public int getFreeHead() {
+		return freeHead;
+	}
+
+	/**
+	 * Set the first free overflow page
+	 * @param pgNo - its page number, or 0 if there is none
+	 */
+	public void setFreeHead(int pgNo) {
+		this.freeHead = pgNo;
+	}
+
+}
@@ -0,0 +1,165 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexOpIterator;
+import simpledb.execution.IndexPredicate;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * HashScan is an operator which reads the tuples of a hash file that match
+ * an index predicate. An equality on the key reads the bucket of that key
+ * only; the scan can be reopened with another predicate, such as the next
+ * key to look up.
+ */
+public class HashScan implements IndexOpIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean isOpen = false;
+	private final TransactionId tid;
+	private final int tableid;
+	private final String tablename;
+	private final String alias;
+	private final TupleDesc myTd;
+	private IndexPredicate ipred;
+	private transient DbFileIterator it;
+
+	/**
+	 * Creates a scan of a hash file as a part of the specified transaction.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param tableid
+	 *            the hash file to scan.
+	 * @param tableAlias
+	 *            the alias of this table (needed by the parser); the returned
+	 *            tupleDesc has fields with name tableAlias.fieldName
+	 * @param ipred
+	 *            The index predicate to match. If null, the scan returns all
+	 *            tuples of the file
+	 */
+	public HashScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+		if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HashFile))
+			throw new IllegalArgumentException("table " + tableid + " is not a hash file");
+		this.tid = tid;
+		this.tableid = tableid;
+		this.alias = tableAlias;
+		this.ipred = ipred;
+		this.tablename = Database.getCatalog().getTableName(tableid);
+		TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+		String[] newNames = new String[td.numFields()];
+		Type[] newTypes = new Type[td.numFields()];
+		for (int i = 0; i < td.numFields(); i++) {
+			newNames[i] = tableAlias + "." + td.getFieldName(i);
+			newTypes[i] = td.getFieldType(i);
+		}
+		this.myTd = new TupleDesc(newTypes, newNames);
+	}
+
+	public HashScan(TransactionId tid, int tableid, IndexPredicate ipred) {
+		this(tid, tableid, Database.getCatalog().getTableName(tableid), ipred);
+	}
+
+	/** @return the id of the table the operator scans */
+	public int getTableId() {
+		return tableid;
+	}
+
+	/** @return the transaction the scan runs as a part of */
+	public TransactionId getTransactionId() {
+		return tid;
+	}
+
+	/** @return the predicate the keys match, or null if the scan reads every tuple */
+	public IndexPredicate getIndexPredicate() {
+		return ipred;
+	}
+
+	/**
+	 * @return the table name of the table the operator scans. This should
+	 *         be the actual name of the table in the catalog of the database
+	 */
+	public String getTableName() {
+		return tablename;
+	}
+
+	/** @return the alias of the table this operator scans */
+	public String getAlias() {
+		return alias;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+
+		HashFile f = (HashFile) Database.getCatalog().getDatabaseFile(tableid);
+		it = ipred == null ? f.iterator(tid) : f.indexIterator(tid, ipred);
+		it.open();
+		isOpen = true;
+	}
+
+	/**
+	 * Open the scan for the tuples that match another predicate.
+	 *
+	 * @param ipred
+	 *            The predicate to match, or null to read every tuple
+	 */
+	public void open(IndexPredicate ipred) throws NoSuchElementException, DbException,
+			TransactionAbortedException {
+		this.ipred = ipred;
+		open();
+	}
+
+	/**
+	 * Returns the TupleDesc with field names from the underlying HashFile,
+	 * prefixed with the tableAlias string from the constructor.
+	 */
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		return it.hasNext();
+	}
+
+	public Tuple next() throws NoSuchElementException,
+	TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+
+		return it.next();
+	}
+
+	public void close() {
+		if (it != null)
+			it.close();
+		isOpen = false;
+	}
+
+	public void rewind() throws DbException, NoSuchElementException,
+	TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * Restart the scan for the tuples that match another predicate.
+	 *
+	 * @param ipred
+	 *            The predicate to match, or null to read every tuple
+	 */
+	public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		close();
+		open(ipred);
+	}
+}
@@ -0,0 +1,416 @@
+package simpledb.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * SecondaryIndex is a B+ tree over a {@link HeapFile} table. It maps the
+ * values of one or more key fields, and a copy of any other fields it
+ * includes, to the RecordId of each tuple of the table.
+ * <p>
+ * Each entry of the tree holds the key fields, then the included fields,
+ * then the page and slot numbers of the tuple. With a single key field, the
+ * tree is keyed on that field. A composite key is encoded into one string
+ * that sorts like the key fields do, in order (see {@link #encode}), which
+ * is stored at the start of each entry and keys the tree. The encoded keys
+ * of a table share long prefixes, which internal pages store once. An
+ * encoded key that does not fit in a string field is truncated, so that
+ * entries with the same truncated key are in no particular order; lookups
+ * compare the key fields of the entries themselves and stay exact.
+ * <p>
+ * A lookup answers equality predicates on a prefix of the key fields, and
+ * range predicates on the next key field, by a search of the tree. Any other
+ * predicate on a field the entries hold filters the entries, before a tuple
+ * is read. An index whose entries hold every field a query uses covers the
+ * query, which can then be answered from the entries alone
+ * ({@link SecondaryIndexScan}).
+ * <p>
+ * Once registered with {@link Catalog#addIndex}, the index is kept up to
+ * date by {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple}.
+ */
+public class SecondaryIndex {
+
+	private final String name;
+	private final int tableid;
+	private final BTreeFile bf;
+	private final int[] keyFields;
+	private final int[] includedFields;
+	// whether the entries start with an encoded composite key
+	private final boolean composite;
+	// the fields of the table held by the entries, in order
+	private final int[] heldFields;
+	// the position in the entries of each field of the table, or -1
+	private final int[] entryFields;
+
+	/**
+	 * Create a secondary index of a table. The index is empty until it is
+	 * registered with the catalog, and then {@link #build} and the tuples
+	 * inserted into the table fill it.
+	 *
+	 * @param name - the name of the index
+	 * @param f - the file that stores the B+ tree of the index
+	 * @param table - the table indexed
+	 * @param keyFields - the fields of the table the index is keyed on, in order
+	 * @param includedFields - other fields of the table copied into the entries
+	 * @throws IllegalArgumentException if there is no key field, or a field
+	 *         is not in the table or repeated
+	 */
+	public SecondaryIndex(String name, File f, HeapFile table, int[] keyFields, int[] includedFields) {
+		TupleDesc td = table.getTupleDesc();
+		if (keyFields.length == 0)
+			throw new IllegalArgumentException("an index needs a key field");
+		this.name = name;
+		this.tableid = table.getId();
+		this.keyFields = keyFields.clone();
+		this.includedFields = includedFields.clone();
+		this.composite = keyFields.length > 1;
+		this.entryFields = new int[td.numFields()];
+		Arrays.fill(entryFields, -1);
+		this.heldFields = new int[keyFields.length + includedFields.length];
+		int offset = composite ? 1 : 0;
+		for (int i = 0; i < heldFields.length; i++) {
+			int field = i < keyFields.length ? keyFields[i] : includedFields[i - keyFields.length];
+			if (field < 0 || field >= td.numFields())
+				throw new IllegalArgumentException("no field " + field + " in the table");
+			if (entryFields[field] >= 0)
+				throw new IllegalArgumentException("field " + field + " is indexed twice");
+			heldFields[i] = field;
+			entryFields[field] = offset + i;
+		}
+
+		int n = offset + heldFields.length + 2;
+		Type[] types = new Type[n];
+		String[] names = new String[n];
+		if (composite)
+			types[0] = Type.STRING_TYPE;
+		for (int i = 0; i < heldFields.length; i++) {
+			types[offset + i] = td.getFieldType(heldFields[i]);
+			names[offset + i] = td.getFieldName(heldFields[i]);
+		}
+		types[n - 2] = Type.INT_TYPE;
+		types[n - 1] = Type.INT_TYPE;
+		this.bf = new BTreeFile(f, 0, new TupleDesc(types, names));
+	}
+
+	/** @return the name of the index */
+	public String getName() {
+		return name;
+	}
+
+	/** @return the id of the table the index is over */
+	public int getTableId() {
+		return tableid;
+	}
+
+	/** @return the B+ tree that stores the entries */
+	public BTreeFile getFile() {
+		return bf;
+	}
+
+	/** @return the TupleDesc of the entries */
+	public TupleDesc getEntryDesc() {
+		return bf.getTupleDesc();
+	}
+
+	/** @return the fields of the table the index is keyed on, in order */
+	public int[] getKeyFields() {
+		return keyFields.clone();
+	}
+
+	/** @return the other fields of the table the entries hold */
+	public int[] getIncludedFields() {
+		return includedFields.clone();
+	}
+
+	/** @return the fields of the table the entries hold: the key fields, then the included ones */
+	public int[] getHeldFields() {
+		return heldFields.clone();
+	}
+
+	/**
+	 * @return the position in the entries of the given field of the table, or
+	 *         -1 if the entries do not hold it
+	 */
+	public int entryField(int field) {
+		return entryFields[field];
+	}
+
+	/** @return whether the entries hold all of the given fields of the table */
+	public boolean covers(Collection<Integer> fields) {
+		for (int field : fields) {
+			if (entryFields[field] < 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Encode a key field so that encoded keys compare as strings like their
+	 * fields do, one field after another: an int as eight hex digits of its
+	 * value with the sign bit flipped, and a string as its characters, with
+	 * the two lowest escaped, ended by the lowest character.
+	 */
+	public static String encode(Field f) {
+		if (f.getType() == Type.INT_TYPE) {
+			String hex = Integer.toHexString(((IntField) f).getValue() ^ Integer.MIN_VALUE);
+			return "00000000".substring(hex.length()) + hex;
+		}
+		String s = ((StringField) f).getValue();
+		StringBuilder sb = new StringBuilder(s.length() + 1);
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c <= '\u0001')
+				sb.append('\u0001').append((char) (c + 1));
+			else
+				sb.append(c);
+		}
+		return sb.append('\u0000').toString();
+	}
+
+	/** @return the entry of the index for a tuple of the table */
+	public Tuple toEntry(Tuple t) {
+		TupleDesc td = getEntryDesc();
+		Tuple entry = new Tuple(td);
+		int offset = 0;
+		if (composite) {
+			StringBuilder key = new StringBuilder();
+			for (int field : keyFields)
+				key.append(encode(t.getField(field)));
+			entry.setField(0, new StringField(key.toString(), Type.STRING_LEN));
+			offset = 1;
+		}
+		for (int i = 0; i < heldFields.length; i++)
+			entry.copyField(offset + i, t, heldFields[i]);
+		RecordId rid = t.getRecordId();
+		entry.setInt(td.numFields() - 2, rid.getPageId().getPageNumber());
+		entry.setInt(td.numFields() - 1, rid.getTupleNumber());
+		return entry;
+	}
+
+	/** @return the RecordId of the tuple an entry of the index points to */
+	public RecordId getRecordId(Tuple entry) {
+		int n = getEntryDesc().numFields();
+		return new RecordId(new HeapPageId(tableid, entry.getInt(n - 2)), entry.getInt(n - 1));
+	}
+
+	/**
+	 * Add the entry of a tuple just inserted into the table.
+	 *
+	 * @return the pages of the index that were modified
+	 */
+	public List<Page> insertEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		return bf.insertTuple(tid, toEntry(t));
+	}
+
+	/**
+	 * Remove the entry of a tuple deleted from the table.
+	 *
+	 * @return the pages of the index that were modified
+	 * @throws DbException if the index has no entry for the tuple
+	 */
+	public List<Page> deleteEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		List<Predicate> key = new ArrayList<>();
+		for (int field : keyFields)
+			key.add(new Predicate(field, Op.EQUALS, t.getField(field)));
+		RecordId rid = t.getRecordId();
+		int page = rid.getPageId().getPageNumber();
+		int n = getEntryDesc().numFields();
+		Tuple found = null;
+		DbFileIterator it = lookup(tid, key);
+		it.open();
+		try {
+			while (found == null && it.hasNext()) {
+				Tuple entry = it.next();
+				if (entry.getInt(n - 2) == page && entry.getInt(n - 1) == rid.getTupleNumber())
+					found = entry;
+			}
+		} finally {
+			it.close();
+		}
+		if (found == null)
+			throw new DbException("index " + name + " has no entry for " + rid);
+		return bf.deleteTuple(tid, found);
+	}
+
+	/**
+	 * Fill the index with the entries of the tuples already in the table,
+	 * with {@link BTreeFile#bulkLoad}. The index must be registered with the
+	 * catalog and empty, and the table must not change until it is built.
+	 */
+	public void build(TransactionId tid) throws DbException, TransactionAbortedException, IOException {
+		final DbFileIterator tuples = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+		bf.bulkLoad(new AbstractDbFileIterator() {
+			public void open() throws DbException, TransactionAbortedException {
+				tuples.open();
+			}
+
+			public void rewind() throws DbException, TransactionAbortedException {
+				super.close();
+				tuples.rewind();
+			}
+
+			public void close() {
+				super.close();
+				tuples.close();
+			}
+
+			@Override
+			protected Tuple readNext() throws DbException, TransactionAbortedException {
+				return tuples.hasNext() ? toEntry(tuples.next()) : null;
+			}
+		});
+	}
+
+	/**
+	 * Find the entries of the tuples that match all of the given predicates,
+	 * in the order of the key.
+	 *
+	 * @param preds - predicates on fields of the table the entries hold
+	 * @return an iterator over the matching entries
+	 * @throws IllegalArgumentException if the entries do not hold the field
+	 *         of a predicate
+	 */
+	public DbFileIterator lookup(TransactionId tid, List<Predicate> preds) {
+		List<Predicate> filters = new ArrayList<>();
+		for (Predicate p : preds) {
+			if (entryFields[p.getField()] < 0)
+				throw new IllegalArgumentException("index " + name + " does not hold field " + p.getField());
+			filters.add(new Predicate(entryFields[p.getField()], p.getOp(), p.getOperand()));
+		}
+
+		// the search: equalities on a prefix of the key fields, and the
+		// tightest bounds on the next one
+		List<Predicate> bounds = new ArrayList<>();
+		StringBuilder prefix = new StringBuilder();
+		Predicate lower = null;
+		for (int field : keyFields) {
+			Predicate eq = null, upper = null;
+			for (Predicate p : filters) {
+				if (p.getField() != entryFields[field])
+					continue;
+				switch (p.getOp()) {
+				case EQUALS:
+					eq = p;
+					break;
+				case GREATER_THAN:
+				case GREATER_THAN_OR_EQ:
+					if (lower == null || p.getOperand().compare(Op.GREATER_THAN, lower.getOperand()))
+						lower = p;
+					break;
+				case LESS_THAN:
+				case LESS_THAN_OR_EQ:
+					if (upper == null || p.getOperand().compare(Op.LESS_THAN, upper.getOperand()))
+						upper = p;
+					break;
+				default:
+					break;
+				}
+			}
+			if (eq != null) {
+				bounds.add(eq);
+				prefix.append(encode(eq.getOperand()));
+				lower = null;
+				continue;
+			}
+			if (upper != null)
+				bounds.add(upper);
+			break;
+		}
+
+		DbFileIterator entries;
+		String stopPrefix = null;
+		if (composite) {
+			stopPrefix = new StringField(prefix.toString(), Type.STRING_LEN).getValue();
+			if (lower != null)
+				prefix.append(encode(lower.getOperand()));
+			entries = prefix.length() == 0 ? bf.iterator(tid) : bf.indexIterator(tid,
+					new IndexPredicate(Op.GREATER_THAN_OR_EQ, new StringField(prefix.toString(), Type.STRING_LEN)));
+		} else if (!bounds.isEmpty() && bounds.get(0).getOp() == Op.EQUALS) {
+			entries = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, bounds.get(0).getOperand()));
+		} else if (lower != null) {
+			entries = bf.indexIterator(tid, new IndexPredicate(lower.getOp(), lower.getOperand()));
+		} else {
+			entries = bf.iterator(tid);
+		}
+		return new LookupIterator(entries, filters, bounds, stopPrefix);
+	}
+
+	/**
+	 * Filters the entries from the start of a search, and ends at the first
+	 * one past its bounds.
+	 */
+	private static class LookupIterator extends AbstractDbFileIterator {
+		private final DbFileIterator child;
+		private final List<Predicate> filters;
+		// predicates that no entry after the first to fail one can pass
+		private final List<Predicate> bounds;
+		// the (truncated) encoded prefix every matching composite key starts with
+		private final String stopPrefix;
+
+		LookupIterator(DbFileIterator child, List<Predicate> filters, List<Predicate> bounds, String stopPrefix) {
+			this.child = child;
+			this.filters = filters;
+			this.bounds = bounds;
+			this.stopPrefix = stopPrefix;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			child.open();
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			super.close();
+			child.rewind();
+		}
+
+		public void close() {
+			super.close();
+			child.close();
+		}
+
+		private boolean past(Tuple entry) {
+			if (stopPrefix != null) {
+				String key = entry.getString(0);
+				if (!key.startsWith(stopPrefix))
+					return true;
+				// entries with the same truncated key are not in the order of their fields
+				if (key.length() >= Type.STRING_LEN)
+					return false;
+			}
+			for (Predicate p : bounds) {
+				if (!p.filter(entry))
+					return true;
+			}
+			return false;
+		}
+
+		@Override
+		protected Tuple readNext() throws DbException, TransactionAbortedException {
+			while (child.hasNext()) {
+				Tuple entry = child.next();
+				if (past(entry))
+					return null;
+				boolean matches = true;
+				for (Predicate p : filters)
+					matches = matches && p.filter(entry);
+				if (matches)
+					return entry;
+			}
+			return null;
+		}
+	}
+}
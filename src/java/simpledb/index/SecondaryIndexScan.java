@@ -0,0 +1,168 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * SecondaryIndexScan reads the tuples of a heap file table that match a set
+ * of predicates through one of its {@link SecondaryIndex}es, in the order of
+ * the index key. It either reads each matching tuple from the table, or,
+ * when the index covers the query, returns only the fields the entries hold
+ * without reading the table at all (an index-only scan).
+ */
+public class SecondaryIndexScan implements OpIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean isOpen = false;
+	private final TransactionId tid;
+	private final SecondaryIndex index;
+	private final List<Predicate> preds;
+	private final boolean indexOnly;
+	private final String tablename;
+	private final String alias;
+	private final TupleDesc myTd;
+	// the position in the entries of each field returned by an index-only scan
+	private final int[] entryPositions;
+	private transient DbFileIterator it;
+
+	/**
+	 * Creates a scan of a table through one of its secondary indexes.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param index
+	 *            the index to read the table through
+	 * @param tableAlias
+	 *            the alias of the table; the returned tupleDesc has fields
+	 *            named tableAlias.fieldName
+	 * @param preds
+	 *            predicates on fields of the table the index holds, which
+	 *            every tuple returned matches
+	 * @param indexOnly
+	 *            if true, return the fields the index holds, in the order of
+	 *            {@link SecondaryIndex#getHeldFields}, rather than the
+	 *            tuples of the table
+	 */
+	public SecondaryIndexScan(TransactionId tid, SecondaryIndex index, String tableAlias,
+			List<Predicate> preds, boolean indexOnly) {
+		this.tid = tid;
+		this.index = index;
+		this.preds = new ArrayList<>(preds);
+		this.indexOnly = indexOnly;
+		this.alias = tableAlias;
+		this.tablename = Database.getCatalog().getTableName(index.getTableId());
+		TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+		int[] fields = new int[td.numFields()];
+		for (int i = 0; i < fields.length; i++)
+			fields[i] = i;
+		if (indexOnly)
+			fields = index.getHeldFields();
+		Type[] types = new Type[fields.length];
+		String[] names = new String[fields.length];
+		this.entryPositions = new int[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			entryPositions[i] = index.entryField(fields[i]);
+			types[i] = td.getFieldType(fields[i]);
+			names[i] = tableAlias + "." + td.getFieldName(fields[i]);
+		}
+		this.myTd = new TupleDesc(types, names);
+	}
+
+	/** @return the index the scan reads */
+	public SecondaryIndex getIndex() {
+		return index;
+	}
+
+	/** @return the id of the table the operator scans */
+	public int getTableId() {
+		return index.getTableId();
+	}
+
+	/**
+	 * @return the table name of the table the operator scans. This should
+	 *         be the actual name of the table in the catalog of the database
+	 */
+	public String getTableName() {
+		return tablename;
+	}
+
+	/** @return the alias of the table this operator scans */
+	public String getAlias() {
+		return alias;
+	}
+
+	/** @return the predicates the tuples returned match */
+	public List<Predicate> getPredicates() {
+		return Collections.unmodifiableList(preds);
+	}
+
+	/** @return whether the scan returns the fields of the entries without reading the table */
+	public boolean isIndexOnly() {
+		return indexOnly;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+
+		it = index.lookup(tid, preds);
+		it.open();
+		isOpen = true;
+	}
+
+	/**
+	 * @return the fields of the table, or the fields the index holds for an
+	 *         index-only scan, prefixed with the table alias
+	 */
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		return it.hasNext();
+	}
+
+	public Tuple next() throws NoSuchElementException,
+	TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+
+		Tuple entry = it.next();
+		if (indexOnly) {
+			Tuple t = new Tuple(myTd);
+			for (int i = 0; i < myTd.numFields(); i++)
+				t.copyField(i, entry, entryPositions[i]);
+			return t;
+		}
+		RecordId rid = index.getRecordId(entry);
+		HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+		Tuple t = page.getTuple(rid.getTupleNumber());
+		if (t == null)
+			throw new DbException("index " + index.getName() + " points to an empty slot " + rid);
+		return t;
+	}
+
+	public void close() {
+		if (it != null)
+			it.close();
+		isOpen = false;
+	}
+
+	public void rewind() throws DbException, NoSuchElementException,
+	TransactionAbortedException {
+		close();
+		open();
+	}
+}
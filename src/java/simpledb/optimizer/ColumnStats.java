@@ -0,0 +1,572 @@
+package simpledb.optimizer;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Statistics about the values of one column of a table:
+ * <ul>
+ * <li>a list of the most common values (MCVs) and how many rows hold each;</li>
+ * <li>an equi-depth histogram over the other values, whose buckets hold
+ * about the same number of rows each, so skewed data gets narrow buckets
+ * where the values are dense;</li>
+ * <li>an estimate of the number of distinct values, from a
+ * {@link HyperLogLog} sketch.</li>
+ * </ul>
+ * String values are kept as they are in the MCV list; the histogram orders
+ * them by their first four characters, as {@link StringHistogram} does.
+ * <p>
+ * ColumnStats are built from {@link Sketch}es, which can be computed over
+ * parts of a table in parallel and merged. Row counts are in rows of the
+ * table, scaled up from the sample. A ColumnStats can also be kept up to
+ * date as values are added and removed; it is not thread-safe.
+ */
+public class ColumnStats {
+
+    /** Number of values a sketch keeps in its random sample. */
+    public static final int SAMPLE_SIZE = 10000;
+
+    /** Largest number of most common values kept. */
+    public static final int MAX_MCVS = 64;
+
+    private final Type type;
+    // the most common values in ascending order, and their row counts
+    private int[] mcvInts;
+    private String[] mcvStrings;
+    private double[] mcvCounts;
+    private double mcvTotal;
+    // the histogram of the other values: bucket i covers the values (or
+    // string codes) in [bounds[i], bounds[i + 1]]
+    private int[] bounds;
+    private double[] bucketCounts;
+    private double histTotal;
+    // distinct values, as estimated when built and by the sketch since
+    private double ndv;
+    private final HyperLogLog hll;
+    private boolean hllChanged;
+
+    private ColumnStats(Type type, HyperLogLog hll) {
+        this.type = type;
+        this.hll = hll;
+    }
+
+    /**
+     * A mergeable summary of the values of a column seen in part of a table:
+     * a uniform random sample of at most {@link #SAMPLE_SIZE} values
+     * (reservoir sampling) and a HyperLogLog sketch of all of them.
+     */
+    public static class Sketch {
+        private final Type type;
+        private final HyperLogLog hll = new HyperLogLog();
+        private int[] ints;
+        private String[] strings;
+        private int size;
+        private long seen;
+
+        public Sketch(Type type) {
+            this.type = type;
+            if (type == Type.INT_TYPE)
+                ints = new int[16];
+            else
+                strings = new String[16];
+        }
+
+        // the slot for the next value, or -1 if it is not sampled
+        private int slot(Random random) {
+            seen++;
+            if (size < SAMPLE_SIZE) {
+                if (ints != null && size == ints.length)
+                    ints = Arrays.copyOf(ints, Math.min(SAMPLE_SIZE, size * 2));
+                else if (strings != null && size == strings.length)
+                    strings = Arrays.copyOf(strings, Math.min(SAMPLE_SIZE, size * 2));
+                return size++;
+            }
+            long j = (long) (random.nextDouble() * seen);
+            return j < SAMPLE_SIZE ? (int) j : -1;
+        }
+
+        public void addInt(int v) {
+            hll.addInt(v);
+            int i = slot(ThreadLocalRandom.current());
+            if (i >= 0)
+                ints[i] = v;
+        }
+
+        public void addString(String s) {
+            hll.addString(s);
+            int i = slot(ThreadLocalRandom.current());
+            if (i >= 0)
+                strings[i] = s;
+        }
+
+        /** @return the number of values added */
+        public long count() {
+            return seen;
+        }
+
+        /**
+         * Add the values summarized by another sketch of the same column.
+         * The merged sample takes from each side in proportion to the number
+         * of values it has seen, so it stays uniform.
+         */
+        public void merge(Sketch other) {
+            hll.merge(other.hll);
+            long total = seen + other.seen;
+            if (size + other.size <= SAMPLE_SIZE && size == seen && other.size == other.seen) {
+                for (int k = 0; k < other.size; k++)
+                    append(other, k);
+                seen = total;
+                return;
+            }
+            Random random = ThreadLocalRandom.current();
+            int target = (int) Math.min(SAMPLE_SIZE, total);
+            int fromThis = (int) Math.round((double) target * seen / total);
+            fromThis = Math.min(size, Math.max(target - other.size, fromThis));
+            int fromOther = Math.min(other.size, target - fromThis);
+            // keep a random subset of this sample, then add one of the other
+            shuffle(this, random);
+            size = fromThis;
+            Sketch o = other.copy();
+            shuffle(o, random);
+            for (int k = 0; k < fromOther; k++)
+                append(o, k);
+            seen = total;
+        }
+
+        private Sketch copy() {
+            Sketch c = new Sketch(type);
+            c.ints = ints == null ? null : Arrays.copyOf(ints, size);
+            c.strings = strings == null ? null : Arrays.copyOf(strings, size);
+            c.size = size;
+            c.seen = seen;
+            return c;
+        }
+
+        private static void shuffle(Sketch s, Random random) {
+            for (int k = s.size - 1; k > 0; k--) {
+                int j = random.nextInt(k + 1);
+                if (s.ints != null) {
+                    int t = s.ints[k];
+                    s.ints[k] = s.ints[j];
+                    s.ints[j] = t;
+                } else {
+                    String t = s.strings[k];
+                    s.strings[k] = s.strings[j];
+                    s.strings[j] = t;
+                }
+            }
+        }
+
+        private void append(Sketch src, int k) {
+            if (ints != null) {
+                if (size == ints.length)
+                    ints = Arrays.copyOf(ints, Math.min(SAMPLE_SIZE, Math.max(16, size * 2)));
+                ints[size++] = src.ints[k];
+            } else {
+                if (size == strings.length)
+                    strings = Arrays.copyOf(strings, Math.min(SAMPLE_SIZE, Math.max(16, size * 2)));
+                strings[size++] = src.strings[k];
+            }
+        }
+
+        /**
+         * Build the statistics of the column.
+         *
+         * @param buckets the number of histogram buckets
+         * @param numTuples the estimated number of rows in the table
+         * @param complete true if every row of the table was added to the
+         *            sketches merged into this one, false if only a sample
+         *            of the pages was read
+         */
+        public ColumnStats finish(int buckets, long numTuples, boolean complete) {
+            ColumnStats cs = new ColumnStats(type, hll);
+            int k = size;
+            double scale = k == 0 ? 0.0 : (double) numTuples / k;
+
+            // sort the sample and find its distinct values and their counts
+            Integer[] order = new Integer[k];
+            for (int i = 0; i < k; i++)
+                order[i] = i;
+            if (ints != null)
+                Arrays.sort(order, (a, b) -> Integer.compare(ints[a], ints[b]));
+            else
+                Arrays.sort(order, (a, b) -> strings[a].compareTo(strings[b]));
+            List<Integer> runStart = new ArrayList<>();
+            for (int i = 0; i < k; i++) {
+                if (i == 0 || !sameValue(order[i - 1], order[i]))
+                    runStart.add(i);
+            }
+            int runs = runStart.size();
+            int[] runCount = new int[runs];
+            int singles = 0, minCount = Integer.MAX_VALUE;
+            for (int r = 0; r < runs; r++) {
+                int end = r + 1 < runs ? runStart.get(r + 1) : k;
+                runCount[r] = end - runStart.get(r);
+                minCount = Math.min(minCount, runCount[r]);
+                if (runCount[r] == 1)
+                    singles++;
+            }
+
+            boolean wholeTable = complete && seen == k;
+            double d;
+            if (wholeTable) {
+                d = runs;
+            } else if (complete) {
+                d = Math.max(runs, hll.estimate());
+            } else {
+                // the sketch only saw the sampled pages; scale the values
+                // seen once in the sample up to the table (the GEE estimator)
+                double gee = Math.sqrt((double) numTuples / Math.max(1, k)) * singles + (runs - singles);
+                d = Math.max(Math.max(runs, hll.estimate()), gee);
+            }
+            cs.ndv = Math.min(d, Math.max(numTuples, runs));
+
+            // the most common values: all of them if the sample seems to
+            // hold every value, else those well above the average count
+            boolean[] isMcv = new boolean[runs];
+            if (runs <= MAX_MCVS && (wholeTable || minCount >= 2)) {
+                Arrays.fill(isMcv, true);
+            } else {
+                double average = k / Math.max(1.0, cs.ndv);
+                Integer[] byCount = new Integer[runs];
+                for (int r = 0; r < runs; r++)
+                    byCount[r] = r;
+                Arrays.sort(byCount, (a, b) -> Integer.compare(runCount[b], runCount[a]));
+                for (int n = 0; n < Math.min(MAX_MCVS, runs); n++) {
+                    int r = byCount[n];
+                    if (runCount[r] < 2 || runCount[r] <= 1.25 * average)
+                        break;
+                    isMcv[r] = true;
+                }
+            }
+            int nMcv = 0;
+            for (boolean b : isMcv)
+                nMcv += b ? 1 : 0;
+            cs.mcvCounts = new double[nMcv];
+            if (ints != null)
+                cs.mcvInts = new int[nMcv];
+            else
+                cs.mcvStrings = new String[nMcv];
+            int[] rest = new int[k];
+            int m = 0, j = 0;
+            for (int r = 0; r < runs; r++) {
+                int first = order[runStart.get(r)];
+                if (isMcv[r]) {
+                    if (ints != null)
+                        cs.mcvInts[j] = ints[first];
+                    else
+                        cs.mcvStrings[j] = strings[first];
+                    cs.mcvCounts[j] = runCount[r] * scale;
+                    cs.mcvTotal += cs.mcvCounts[j];
+                    j++;
+                } else {
+                    int code = ints != null ? ints[first] : StringHistogram.stringToInt(strings[first]);
+                    for (int c = 0; c < runCount[r]; c++)
+                        rest[m++] = code;
+                }
+            }
+
+            // equi-depth buckets over the remaining values
+            Arrays.sort(rest, 0, m);
+            int nb = Math.min(buckets, m);
+            cs.bounds = new int[nb == 0 ? 0 : nb + 1];
+            cs.bucketCounts = new double[nb];
+            for (int b = 0; b < nb; b++) {
+                int lo = (int) ((long) b * m / nb);
+                int hi = (int) ((long) (b + 1) * m / nb);
+                cs.bounds[b] = rest[lo];
+                cs.bucketCounts[b] = (hi - lo) * scale;
+                cs.histTotal += cs.bucketCounts[b];
+            }
+            if (nb > 0)
+                cs.bounds[nb] = rest[m - 1];
+            return cs;
+        }
+
+        private boolean sameValue(int a, int b) {
+            return ints != null ? ints[a] == ints[b] : strings[a].equals(strings[b]);
+        }
+    }
+
+    /** @return the type of the column */
+    public Type getType() {
+        return type;
+    }
+
+    /** @return the estimated number of distinct values in the column */
+    public double distinctCount() {
+        if (hllChanged) {
+            ndv = Math.max(ndv, hll.estimate());
+            hllChanged = false;
+        }
+        return Math.min(ndv, Math.max(1.0, mcvTotal + histTotal));
+    }
+
+    /** @return the number of most common values kept */
+    public int numMostCommonValues() {
+        return mcvCounts.length;
+    }
+
+    // the position of the value in the MCV list, as by Arrays.binarySearch
+    private int findInt(int v) {
+        return mcvInts == null ? -1 : Arrays.binarySearch(mcvInts, v);
+    }
+
+    private int findString(String s) {
+        return mcvStrings == null ? -1 : Arrays.binarySearch(mcvStrings, s);
+    }
+
+    private int numBuckets() {
+        return bucketCounts.length;
+    }
+
+    // the histogram rows with a value (or code) below c
+    private double histLess(int c) {
+        int nb = numBuckets();
+        if (nb == 0 || c <= bounds[0])
+            return 0.0;
+        if (c > bounds[nb])
+            return histTotal;
+        int lo = 0, hi = nb - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (bounds[mid] < c)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        double sum = 0;
+        for (int b = 0; b < lo; b++)
+            sum += bucketCounts[b];
+        double frac = (c - (double) bounds[lo]) / ((double) bounds[lo + 1] - bounds[lo] + 1);
+        return sum + bucketCounts[lo] * Math.min(1.0, frac);
+    }
+
+    // the histogram rows equal to a value (or code) c that is not an MCV
+    private double histEquals(int c) {
+        int nb = numBuckets();
+        if (nb == 0 || c < bounds[0] || c > bounds[nb])
+            return 0.0;
+        return histTotal / Math.max(1.0, distinctCount() - mcvCounts.length);
+    }
+
+    private double select(Predicate.Op op, int pos, int code) {
+        double total = mcvTotal + histTotal;
+        if (total <= 0)
+            return 0.0;
+        int below = pos >= 0 ? pos : -(pos + 1);
+        double less = histLess(code);
+        for (int i = 0; i < below; i++)
+            less += mcvCounts[i];
+        double eq = pos >= 0 ? mcvCounts[pos] : histEquals(code);
+        double lt = Math.min(1.0, less / total);
+        double eqSel = Math.min(1.0 - lt, eq / total);
+        double gt = Math.max(0.0, 1.0 - lt - eqSel);
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return eqSel;
+        case NOT_EQUALS:
+            return 1.0 - eqSel;
+        case GREATER_THAN:
+            return gt;
+        case GREATER_THAN_OR_EQ:
+            return gt + eqSel;
+        case LESS_THAN:
+            return lt;
+        case LESS_THAN_OR_EQ:
+            return lt + eqSel;
+        default:
+            throw new IllegalArgumentException("unsupported operator " + op);
+        }
+    }
+
+    /**
+     * @return the estimated fraction of rows whose value satisfies
+     *         <tt>value op v</tt>; the column must hold ints
+     */
+    public double estimateSelectivity(Predicate.Op op, int v) {
+        return select(op, findInt(v), v);
+    }
+
+    /**
+     * @return the estimated fraction of rows whose value satisfies
+     *         <tt>value op s</tt>; the column must hold strings
+     */
+    public double estimateSelectivity(Predicate.Op op, String s) {
+        return select(op, findString(s), StringHistogram.stringToInt(s));
+    }
+
+    /**
+     * @return the chance that two random rows have the same value in this
+     *         column
+     */
+    public double avgSelectivity() {
+        double total = mcvTotal + histTotal;
+        if (total <= 0)
+            return 1.0;
+        double sum = 0;
+        for (double c : mcvCounts)
+            sum += (c / total) * (c / total);
+        double rest = histTotal / total;
+        return sum + rest * rest / Math.max(1.0, distinctCount() - mcvCounts.length);
+    }
+
+    // the bucket a value (or code) falls in; the outer buckets are widened
+    // to take in values beyond them
+    private int bucketFor(int c, boolean widen) {
+        int nb = numBuckets();
+        if (c < bounds[0]) {
+            if (widen)
+                bounds[0] = c;
+            return 0;
+        }
+        if (c > bounds[nb]) {
+            if (widen)
+                bounds[nb] = c;
+            return nb - 1;
+        }
+        int lo = 0, hi = nb - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (bounds[mid] <= c)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private void add(int pos, int code) {
+        hllChanged = true;
+        if (pos >= 0) {
+            mcvCounts[pos]++;
+            mcvTotal++;
+            return;
+        }
+        if (numBuckets() == 0) {
+            bounds = new int[] { code, code };
+            bucketCounts = new double[1];
+        }
+        bucketCounts[bucketFor(code, true)]++;
+        histTotal++;
+    }
+
+    private void remove(int pos, int code) {
+        if (pos >= 0) {
+            if (mcvCounts[pos] >= 1) {
+                mcvCounts[pos]--;
+                mcvTotal--;
+            }
+            return;
+        }
+        if (numBuckets() == 0)
+            return;
+        int b = bucketFor(code, false);
+        if (bucketCounts[b] >= 1) {
+            bucketCounts[b]--;
+            histTotal--;
+        }
+    }
+
+    /** Account for a row with value v added to the column. */
+    public void addValue(int v) {
+        hll.addInt(v);
+        add(findInt(v), v);
+    }
+
+    /** Account for a row with value s added to the column. */
+    public void addValue(String s) {
+        hll.addString(s);
+        add(findString(s), StringHistogram.stringToInt(s));
+    }
+
+    /**
+     * Account for a row with value v removed from the column. The distinct
+     * count is not lowered until the statistics are rebuilt.
+     */
+    public void removeValue(int v) {
+        remove(findInt(v), v);
+    }
+
+    /** Account for a row with value s removed from the column. */
+    public void removeValue(String s) {
+        remove(findString(s), StringHistogram.stringToInt(s));
+    }
+
+    /** Write these statistics to a statistics file. */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeDouble(distinctCount());
+        out.writeInt(mcvCounts.length);
+        for (int i = 0; i < mcvCounts.length; i++) {
+            if (mcvInts != null)
+                out.writeInt(mcvInts[i]);
+            else
+                out.writeUTF(mcvStrings[i]);
+            out.writeDouble(mcvCounts[i]);
+        }
+        out.writeInt(numBuckets());
+        for (int b = 0; b < numBuckets(); b++) {
+            out.writeInt(bounds[b]);
+            out.writeDouble(bucketCounts[b]);
+        }
+        if (numBuckets() > 0)
+            out.writeInt(bounds[numBuckets()]);
+        hll.writeTo(out);
+    }
+
+    /** Read statistics written by {@link #writeTo}. */
+    static ColumnStats readFrom(DataInputStream in) throws IOException {
+        Type type = Type.values()[in.readUnsignedByte()];
+        double ndv = in.readDouble();
+        int nMcv = in.readInt();
+        int[] mcvInts = type == Type.INT_TYPE ? new int[nMcv] : null;
+        String[] mcvStrings = type == Type.INT_TYPE ? null : new String[nMcv];
+        double[] mcvCounts = new double[nMcv];
+        double mcvTotal = 0;
+        for (int i = 0; i < nMcv; i++) {
+            if (mcvInts != null)
+                mcvInts[i] = in.readInt();
+            else
+                mcvStrings[i] = in.readUTF();
+            mcvCounts[i] = in.readDouble();
+            mcvTotal += mcvCounts[i];
+        }
+        int nb = in.readInt();
+        int[] bounds = new int[nb == 0 ? 0 : nb + 1];
+        double[] bucketCounts = new double[nb];
+        double histTotal = 0;
+        for (int b = 0; b < nb; b++) {
+            bounds[b] = in.readInt();
+            bucketCounts[b] = in.readDouble();
+            histTotal += bucketCounts[b];
+        }
+        if (nb > 0)
+            bounds[nb] = in.readInt();
+        ColumnStats cs = new ColumnStats(type, HyperLogLog.readFrom(in));
+        cs.ndv = ndv;
+        cs.mcvInts = mcvInts;
+        cs.mcvStrings = mcvStrings;
+        cs.mcvCounts = mcvCounts;
+        cs.mcvTotal = mcvTotal;
+        cs.bounds = bounds;
+        cs.bucketCounts = bucketCounts;
+        cs.histTotal = histTotal;
+        return cs;
+    }
+
+    public String toString() {
+        return "ColumnStats[ndv=" + Math.round(distinctCount()) + ", mcvs=" + mcvCounts.length
+                + ", buckets=" + numBuckets() + ", rows=" + Math.round(mcvTotal + histTotal) + "]";
+    }
+}
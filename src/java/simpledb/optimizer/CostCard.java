@@ -2,16 +2,22 @@ package simpledb.optimizer;
 import simpledb.optimizer.JoinOptimizer;
 import simpledb.optimizer.LogicalJoinNode;
 
-import java.util.List;
-
 /** Class returned by {@link JoinOptimizer#computeCostAndCardOfSubplan} specifying the
-    cost and cardinality of the optimal plan represented by plan.
+    cost and cardinality of the optimal plan for a set of tables.  The plan itself is
+    a tree: its root joins the plans of {@link #left} and {@link #right}, which are
+    looked up in the same {@link simpledb.execution.PlanCache}.
 */
 public class CostCard {
     /** The cost of the optimal subplan */
     public double cost;
     /** The cardinality of the optimal subplan */
     public int card;
-    /** The optimal subplan */
-    public List<LogicalJoinNode> plan;
+    /** The join at the root of the optimal subplan, or null if it scans a single table */
+    public LogicalJoinNode join;
+    /** The operator that executes join */
+    public JoinAlgorithm algorithm;
+    /** The tables on the outer (t1) side of join, one bit per table */
+    public long left;
+    /** The tables on the inner (t2) side of join, one bit per table */
+    public long right;
 }
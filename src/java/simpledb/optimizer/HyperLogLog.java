@@ -0,0 +1,96 @@
+package simpledb.optimizer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A HyperLogLog sketch, which estimates the number of distinct values added
+ * to it in constant space. Each value is hashed to 64 bits; the first
+ * {@link #PRECISION} bits pick a register, which remembers the longest run
+ * of leading zeros seen in the remaining bits. Sketches built over different
+ * parts of a table can be merged, giving the sketch of the whole table.
+ * <p>
+ * With 2^12 registers the standard error of the estimate is about 1.6%.
+ */
+public class HyperLogLog {
+
+    /** Number of hash bits used to pick a register. */
+    public static final int PRECISION = 12;
+
+    private static final int M = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / M);
+
+    private final byte[] registers = new byte[M];
+
+    /** Add an int value. */
+    public void addInt(int v) {
+        addHash(mix(v));
+    }
+
+    /** Add a string value. */
+    public void addString(String s) {
+        // FNV-1a over the chars, then mixed so the high bits are uniform
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        addHash(mix(h));
+    }
+
+    private void addHash(long hash) {
+        int idx = (int) (hash >>> (64 - PRECISION));
+        long rest = hash << PRECISION;
+        int rho = rest == 0 ? 64 - PRECISION + 1 : Long.numberOfLeadingZeros(rest) + 1;
+        if (rho > registers[idx])
+            registers[idx] = (byte) rho;
+    }
+
+    // the finalizer of MurmurHash3's 64-bit variant
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Add the values of another sketch to this one. */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < M; i++) {
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        }
+    }
+
+    /** @return the estimated number of distinct values added */
+    public double estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double e = ALPHA * M * M / sum;
+        if (e <= 2.5 * M && zeros > 0) {
+            // few values: count the empty registers instead
+            return M * Math.log((double) M / zeros);
+        }
+        return e;
+    }
+
+    /** Write this sketch to a statistics file. */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.write(registers);
+    }
+
+    /** Read a sketch written by {@link #writeTo}. */
+    static HyperLogLog readFrom(DataInputStream in) throws IOException {
+        HyperLogLog h = new HyperLogLog();
+        in.readFully(h.registers);
+        return h;
+    }
+}
@@ -2,44 +2,135 @@ package simpledb.optimizer;
 
 import simpledb.execution.Predicate;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
 /** A class to represent a fixed-width histogram over a single integer-based field.
  */
 public class IntHistogram {
 
+    // introduced the bucket layout: bucket b covers the values in
+    // [min + b * width, min + (b + 1) * width)
+    private final int buckets;
+    private final int min;
+    private final int max;
+    private final double width;
+    private final long[] heights;
+    private long ntups;
+
     /**
      * Create a new IntHistogram.
-     * 
+     *
      * This IntHistogram should maintain a histogram of integer values that it receives.
      * It should split the histogram into "buckets" buckets.
-     * 
+     *
      * The values that are being histogrammed will be provided one-at-a-time through the "addValue()" function.
-     * 
+     *
      * Your implementation should use space and have execution time that are both
-     * constant with respect to the number of values being histogrammed.  For example, you shouldn't 
+     * constant with respect to the number of values being histogrammed.  For example, you shouldn't
      * simply store every value that you see in a sorted list.
-     * 
+     *
      * @param buckets The number of buckets to split the input value into.
      * @param min The minimum integer value that will ever be passed to this class for histogramming
      * @param max The maximum integer value that will ever be passed to this class for histogramming
      */
     public IntHistogram(int buckets, int min, int max) {
     	// some code goes here
+        if (buckets <= 0)
+            throw new IllegalArgumentException("need at least one bucket");
+        if (min > max)
+            throw new IllegalArgumentException("min " + min + " > max " + max);
+        this.buckets = buckets;
+        this.min = min;
+        this.max = max;
+        this.width = ((long) max - min + 1) / (double) buckets;
+        this.heights = new long[buckets];
+    }
+
+    private int bucketOf(int v) {
+        return Math.min(buckets - 1, (int) ((v - (long) min) / width));
+    }
+
+    // the number of distinct integers a bucket can hold, at least one
+    private double valuesPerBucket() {
+        return Math.max(1.0, width);
     }
 
     /**
      * Add a value to the set of values that you are keeping a histogram of.
+     * Values outside [min, max] are counted in the first or last bucket.
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
     	// some code goes here
+        heights[bucketOf(Math.max(min, Math.min(max, v)))]++;
+        ntups++;
+    }
+
+    /**
+     * Remove a value added before from the histogram. Values outside
+     * [min, max] are taken from the first or last bucket.
+     * @param v Value to remove from the histogram
+     */
+    public void removeValue(int v) {
+        int b = bucketOf(Math.max(min, Math.min(max, v)));
+        if (heights[b] > 0) {
+            heights[b]--;
+            ntups--;
+        }
+    }
+
+    /**
+     * Add the counts of another histogram with the same buckets, min and max
+     * to this one, e.g. one built over a different part of the same table.
+     */
+    public void merge(IntHistogram other) {
+        if (other.buckets != buckets || other.min != min || other.max != max)
+            throw new IllegalArgumentException("histograms have different buckets");
+        for (int b = 0; b < buckets; b++)
+            heights[b] += other.heights[b];
+        ntups += other.ntups;
+    }
+
+    /** @return the number of values added to this histogram */
+    public long count() {
+        return ntups;
+    }
+
+    /** @return the smallest value this histogram accepts */
+    public int getMin() {
+        return min;
+    }
+
+    /** @return the largest value this histogram accepts */
+    public int getMax() {
+        return max;
+    }
+
+    // selectivity of "field = v" for v within [min, max]
+    private double equalsSelectivity(int v) {
+        return heights[bucketOf(v)] / valuesPerBucket() / ntups;
+    }
+
+    // selectivity of "field > v" for v within [min, max]
+    private double greaterSelectivity(int v) {
+        int b = bucketOf(v);
+        double right = min + (b + 1) * width;
+        double part = Math.max(0.0, Math.min(1.0, (right - v - 1) / valuesPerBucket()));
+        long above = 0;
+        for (int i = b + 1; i < buckets; i++)
+            above += heights[i];
+        return (heights[b] * part + above) / ntups;
     }
 
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
-     * 
-     * For example, if "op" is "GREATER_THAN" and "v" is 5, 
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
      * return your estimate of the fraction of elements that are greater than 5.
-     * 
+     *
      * @param op Operator
      * @param v Value
      * @return Predicted selectivity of this particular operator and value
@@ -47,13 +138,43 @@ public class IntHistogram {
     public double estimateSelectivity(Predicate.Op op, int v) {
 
     	// some code goes here
-        return -1.0;
+        if (ntups == 0)
+            return 0.0;
+        double eq, gt;
+        if (v < min) {
+            eq = 0.0;
+            gt = 1.0;
+        } else if (v > max) {
+            eq = 0.0;
+            gt = 0.0;
+        } else {
+            eq = equalsSelectivity(v);
+            gt = greaterSelectivity(v);
+        }
+        double lt = Math.max(0.0, 1.0 - eq - gt);
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return eq;
+        case NOT_EQUALS:
+            return 1.0 - eq;
+        case GREATER_THAN:
+            return gt;
+        case GREATER_THAN_OR_EQ:
+            return Math.min(1.0, gt + eq);
+        case LESS_THAN:
+            return lt;
+        case LESS_THAN_OR_EQ:
+            return Math.min(1.0, lt + eq);
+        default:
+            throw new IllegalArgumentException("unsupported operator " + op);
+        }
     }
-    
+
     /**
      * @return
      *     the average selectivity of this histogram.
-     *     
+     *
      *     This is not an indispensable method to implement the basic
      *     join optimization. It may be needed if you want to
      *     implement a more efficient optimization
@@ -61,14 +182,42 @@ public class IntHistogram {
     public double avgSelectivity()
     {
         // some code goes here
-        return 1.0;
+        // the chance that two random values are equal
+        if (ntups == 0)
+            return 1.0;
+        double sum = 0;
+        for (long h : heights) {
+            double f = (double) h / ntups;
+            sum += f * f;
+        }
+        return sum / valuesPerBucket();
+    }
+
+    /** Write this histogram to a statistics file. */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(buckets);
+        out.writeInt(min);
+        out.writeInt(max);
+        out.writeLong(ntups);
+        for (long h : heights)
+            out.writeLong(h);
     }
-    
+
+    /** Read a histogram written by {@link #writeTo}. */
+    static IntHistogram readFrom(DataInputStream in) throws IOException {
+        IntHistogram h = new IntHistogram(in.readInt(), in.readInt(), in.readInt());
+        h.ntups = in.readLong();
+        for (int b = 0; b < h.buckets; b++)
+            h.heights[b] = in.readLong();
+        return h;
+    }
+
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
         // some code goes here
-        return null;
+        return "IntHistogram[min=" + min + ", max=" + max + ", buckets=" + buckets
+                + ", ntups=" + ntups + ", heights=" + Arrays.toString(heights) + "]";
     }
 }
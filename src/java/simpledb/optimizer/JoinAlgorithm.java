@@ -0,0 +1,30 @@
+package simpledb.optimizer;
+
+/**
+ * The physical operators a {@link LogicalJoinNode} can be executed with. See
+ * {@link JoinOptimizer#instantiateJoin}.
+ */
+public enum JoinAlgorithm {
+    /** {@link simpledb.execution.Join}: any predicate */
+    NESTED_LOOP("nested loop"),
+    /** {@link simpledb.execution.HashEquiJoin}: equality only */
+    HASH("hash"),
+    /** {@link simpledb.execution.SortMergeJoin}: equality only */
+    SORT_MERGE("merge"),
+    /**
+     * {@link simpledb.execution.IndexNestedLoopJoin}: equality or range, with
+     * a B+ tree table keyed on the join field as the inner input
+     */
+    INDEX_NESTED_LOOP("index nl");
+
+    private final String label;
+
+    JoinAlgorithm(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
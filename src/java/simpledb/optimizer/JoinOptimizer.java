@@ -3,8 +3,12 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.HashFile;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
+import java.awt.GraphicsEnvironment;
 import java.util.*;
 
 import javax.swing.*;
@@ -16,9 +20,44 @@ import javax.swing.tree.*;
  * logical plan.
  */
 public class JoinOptimizer {
+
+    /**
+     * Default largest number of connected tables whose joins are ordered by
+     * dynamic programming; larger join graphs are ordered greedily.
+     */
+    public static final int DEFAULT_MAX_DP_TABLES = 12;
+
+    /** Largest number of tables a join graph may have; tables are bits of a long. */
+    public static final int MAX_TABLES = 64;
+
+    // cost of inserting a tuple into a hash table, relative to probing it
+    private static final double HASH_BUILD_COST = 2.0;
+
+    // fraction of the cross product a range join keeps
+    private static final double RANGE_JOIN_SELECTIVITY = 0.3;
+
+    private static final JoinAlgorithm[] ALGORITHMS = JoinAlgorithm.values();
+
+    private static volatile int maxDpTables = DEFAULT_MAX_DP_TABLES;
+
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
 
+    // introduced the join graph of the plan being ordered: table i is bit i,
+    // and the tables of each connected component are numbered breadth-first
+    private String[] aliases;
+    private int[] tableCards;
+    private TableStats[] tableStats;
+    // the key field of each table stored in a B+ tree file, or null
+    private String[] indexKeys;
+    // the key field of each table stored in a hash file, or null
+    private String[] hashKeys;
+    private long[] neighbours;
+    private LogicalJoinNode[] edges, swappedEdges;
+    private int[] edgeT1, edgeT2;
+    private boolean[] edgePkey1, edgePkey2;
+    private double[] edgeNdv1, edgeNdv2;
+
     /**
      * Constructor
      * 
@@ -32,6 +71,25 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    /**
+     * @return the largest number of connected tables whose joins
+     *         {@link #orderJoins} orders by dynamic programming
+     */
+    public static int getMaxDpTables() {
+        return maxDpTables;
+    }
+
+    /**
+     * Set the largest number of connected tables whose joins are ordered by
+     * dynamic programming over all bushy plans. Larger join graphs are
+     * ordered by greedy operator ordering, which takes polynomial time.
+     */
+    public static void setMaxDpTables(int tables) {
+        if (tables < 1)
+            throw new IllegalArgumentException("need at least one table: " + tables);
+        maxDpTables = tables;
+    }
+
     /**
      * Return best iterator for computing a given logical join, given the
      * specified statistics, and the provided left and right subplans. Note that
@@ -39,6 +97,11 @@ public class JoinOptimizer {
      * inner/outer here -- because OpIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * The join is executed with the operator {@link #orderJoins} chose for
+     * it. Without a choice, or if the chosen operator cannot execute it, an
+     * equality is executed by a hash join and any other predicate by nested
+     * loops.
      * 
      * @param lj
      *            The join being considered
@@ -73,19 +136,22 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
-
-            try {
-                // dynamically load HashEquiJoin -- if it doesn't exist, just
-                // fall back on regular join
-                Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
-                j = (OpIterator) ct
-                        .newInstance(new Object[] { p, plan1, plan2 });
-            } catch (Exception e) {
-                j = new Join(p, plan1, plan2);
-            }
-        } else {
+        JoinAlgorithm algorithm = lj.algorithm;
+        if (algorithm == null || (algorithm == JoinAlgorithm.INDEX_NESTED_LOOP
+                ? !IndexNestedLoopJoin.canProbe(p, plan2)
+                : !executes(algorithm, lj.p)))
+            algorithm = defaultAlgorithm(lj.p);
+        switch (algorithm) {
+        case HASH:
+            j = new HashEquiJoin(p, plan1, plan2);
+            break;
+        case SORT_MERGE:
+            j = new SortMergeJoin(p, plan1, plan2);
+            break;
+        case INDEX_NESTED_LOOP:
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+            break;
+        default:
             j = new Join(p, plan1, plan2);
         }
 
@@ -101,7 +167,10 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
-     * 
+     * <p>
+     * The cost is that of the operator chosen for j, or of the operator
+     * {@link #instantiateJoin} falls back on if there is no choice. Both
+     * inputs are taken to be unsorted.
      * 
      * @param j
      *            A LogicalJoinNode representing the join operation being
@@ -125,13 +194,112 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
-        } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
         }
+        JoinAlgorithm algorithm = j.algorithm;
+        if (algorithm == null || !executes(algorithm, j.p))
+            algorithm = defaultAlgorithm(j.p);
+        double probeCost = Double.POSITIVE_INFINITY;
+        if (algorithm == JoinAlgorithm.INDEX_NESTED_LOOP) {
+            Integer tableId = p.getTableId(j.t2Alias);
+            if (tableId != null && (j.f2PureName.equals(indexKey(tableId))
+                    || j.p == Predicate.Op.EQUALS && j.f2PureName.equals(hashKey(tableId)))) {
+                Map<String, TableStats> stats = TableStats.getStatsMap();
+                TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+                if (s != null)
+                    probeCost = probeCost(j.p, s, distinctCount(j.t2Alias, j.f2PureName,
+                            stats, p.getTableAliasToIdMapping()));
+            }
+            if (probeCost == Double.POSITIVE_INFINITY)
+                algorithm = defaultAlgorithm(j.p);
+        }
+        return joinCost(algorithm, j.p, card1, card2, cost1, cost2, false, false, probeCost);
+    }
+
+    /**
+     * The cost of executing a join with the given operator.
+     *
+     * @param sorted1
+     *            Is the left-hand input sorted on its join field?
+     * @param sorted2
+     *            Is the right-hand input sorted on its join field?
+     * @param probeCost
+     *            The cost of one lookup in the index of the right-hand table,
+     *            or infinity if it has none on its join field
+     * @return the cost, or infinity if the operator cannot execute the join
+     */
+    private static double joinCost(JoinAlgorithm algorithm, Predicate.Op op,
+            int card1, int card2, double cost1, double cost2,
+            boolean sorted1, boolean sorted2, double probeCost) {
+        if (!executes(algorithm, op))
+            return Double.POSITIVE_INFINITY;
+        switch (algorithm) {
+        case HASH:
+            // HashEquiJoin builds its table over the outer (left) input and
+            // probes it with the inner one; inserting costs more than probing
+            return cost1 + cost2 + HASH_BUILD_COST * card1 + card2;
+        case SORT_MERGE:
+            // each input is sorted unless it comes in order already, and the
+            // merge reads both once
+            return cost1 + cost2 + (sorted1 ? 0 : sortCost(card1))
+                    + (sorted2 ? 0 : sortCost(card2)) + card1 + card2;
+        case INDEX_NESTED_LOOP:
+            // the inner table is never scanned, only probed per outer tuple
+            return cost1 + card1 * probeCost;
+        default:
+            // nested loops scan the inner input once per outer tuple
+            return cost1 + card1 * cost2 + (double) card1 * card2;
+        }
+    }
+
+    // sorting compares each tuple about log2(card) times
+    private static double sortCost(int card) {
+        return card * Math.max(1.0, Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * The cost of looking up the tuples of a table that match one value of
+     * the outer input of an index nested-loop join.
+     *
+     * @param ndv the number of distinct values of the key, or 0 if unknown
+     */
+    private static double probeCost(Predicate.Op op, TableStats s, double ndv) {
+        double matches = op == Predicate.Op.EQUALS
+                ? s.totalTuples() / Math.max(1.0, ndv)
+                : s.totalTuples() * RANGE_JOIN_SELECTIVITY;
+        return s.estimateIndexLookupCost(matches);
+    }
+
+    /** @return true if the operator can execute a join with predicate op */
+    private static boolean executes(JoinAlgorithm algorithm, Predicate.Op op) {
+        switch (algorithm) {
+        case HASH:
+        case SORT_MERGE:
+            return op == Predicate.Op.EQUALS;
+        case INDEX_NESTED_LOOP:
+            return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+        default:
+            return true;
+        }
+    }
+
+    private static JoinAlgorithm defaultAlgorithm(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS ? JoinAlgorithm.HASH : JoinAlgorithm.NESTED_LOOP;
+    }
+
+    /** @return the pure name of the key of the table's B+ tree file, or null */
+    private static String indexKey(int tableId) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile))
+            return null;
+        return f.getTupleDesc().getFieldName(((BTreeFile) f).keyField());
+    }
+
+    /** @return the pure name of the key of the table's hash file, or null */
+    private static String hashKey(int tableId) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof HashFile))
+            return null;
+        return f.getTupleDesc().getFieldName(((HashFile) f).keyField());
     }
 
     /**
@@ -174,46 +342,89 @@ public class JoinOptimizer {
                                                    String field2PureName, int card1, int card2, boolean t1pkey,
                                                    boolean t2pkey, Map<String, TableStats> stats,
                                                    Map<String, Integer> tableAliasToId) {
-        int card = 1;
         // some code goes here
-        return card <= 0 ? 1 : card;
+        double ndv1 = 0, ndv2 = 0;
+        if (joinOp == Predicate.Op.EQUALS && !t1pkey && !t2pkey) {
+            ndv1 = distinctCount(table1Alias, field1PureName, stats, tableAliasToId);
+            ndv2 = distinctCount(table2Alias, field2PureName, stats, tableAliasToId);
+        }
+        return joinCardinality(joinOp, card1, card2, t1pkey, t2pkey, ndv1, ndv2);
     }
 
     /**
-     * Helper method to enumerate all of the subsets of a given size of a
-     * specified vector.
-     * 
-     * @param v
-     *            The vector whose subsets are desired
-     * @param size
-     *            The size of the subsets of interest
-     * @return a set of all subsets of the specified size
+     * Estimate the join cardinality of two inputs, given the number of
+     * distinct values of each join field in its table (0 if unknown). Only
+     * equi-joins on non-key fields use the distinct counts, capped by the
+     * number of rows of their input.
      */
-    public <T> Set<Set<T>> enumerateSubsets(List<T> v, int size) {
-        Set<Set<T>> els = new HashSet<>();
-        els.add(new HashSet<>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = new HashSet<>(s);
-                    if (news.add(t))
-                        newels.add(news);
-                }
+    private static int joinCardinality(Predicate.Op joinOp, int card1, int card2,
+                                       boolean t1pkey, boolean t2pkey, double ndv1, double ndv2) {
+        int card;
+        if (joinOp == Predicate.Op.EQUALS) {
+            if (t1pkey && t2pkey) {
+                card = Math.min(card1, card2);
+            } else if (t1pkey) {
+                card = card2;
+            } else if (t2pkey) {
+                card = card1;
+            } else {
+                // each value of the side with fewer distinct values finds its
+                // matches among the values of the other side
+                double ndv = Math.max(Math.min(ndv1, Math.max(1, card1)),
+                        Math.min(ndv2, Math.max(1, card2)));
+                card = ndv > 0 ? (int) Math.min(Integer.MAX_VALUE, Math.round((double) card1 * card2 / ndv))
+                        : Math.max(card1, card2);
             }
-            els = newels;
+        } else if (joinOp == Predicate.Op.NOT_EQUALS) {
+            card = (int) Math.min(Integer.MAX_VALUE, (long) card1 * card2);
+        } else {
+            // a range join keeps about a third of the cross product
+            card = (int) Math.min(Integer.MAX_VALUE, (double) card1 * card2 * RANGE_JOIN_SELECTIVITY);
         }
+        return card <= 0 ? 1 : card;
+    }
 
-        return els;
-
+    /**
+     * The number of distinct values of a join field in its table, from the
+     * table's statistics.
+     *
+     * @return the estimate, or 0 if there are no statistics for the field
+     */
+    private static double distinctCount(String tableAlias, String fieldPureName,
+                                        Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        Integer tableId = tableAliasToId.get(tableAlias);
+        if (tableId == null)
+            return 0;
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return 0;
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(fieldPureName);
+        } catch (NoSuchElementException e) {
+            return 0;
+        }
+        return s.getDistinctCount(field);
     }
 
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
+     * <p>
+     * The tables and joins form a join graph. A connected graph with at most
+     * {@link #getMaxDpTables()} tables is ordered by DPccp: dynamic
+     * programming over the connected subgraphs, where every
+     * csg-cmp pair (a connected set of tables plus a connected set joined to
+     * it) is enumerated exactly once, without cross products, and both
+     * left-deep and bushy plans are considered. Larger graphs are ordered by
+     * greedy operator ordering, which repeatedly joins the two connected
+     * subplans with the smallest result. Joins with subqueries come last.
+     * <p>
+     * Each join of the plan is costed with every operator that can execute
+     * it, and the cheapest is recorded in its {@link LogicalJoinNode#algorithm}.
+     * A sort-merge join skips sorting an input that is a B+ tree table keyed
+     * on the join field or the output of a plan that keeps that order, and an
+     * index nested-loop join probes a B+ tree table keyed on the join field.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -225,8 +436,10 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A List<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A List<LogicalJoinNode> that stores joins in the order in which
+     *         they should be executed: the joins of each subtree of the plan
+     *         come before the join that combines them, so a bushy plan is
+     *         listed in post-order and a left-deep one from the bottom up.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -237,171 +450,416 @@ public class JoinOptimizer {
             throws ParsingException {
 
         // some code goes here
-        //Replace the following
-        return joins;
+        List<LogicalJoinNode> subplanJoins = new ArrayList<>();
+        List<Long> components = buildJoinGraph(subplanJoins, stats);
+
+        PlanCache pc = new PlanCache();
+        for (int i = 0; i < aliases.length; i++)
+            pc.addPlan(1L << i, scanCostCard(aliases[i], stats, filterSelectivities));
+
+        List<LogicalJoinNode> order = new ArrayList<>();
+        Set<Integer> pending = new LinkedHashSet<>();
+        for (int e = 0; e < edges.length; e++)
+            pending.add(e);
+        for (long component : components) {
+            if (Long.bitCount(component) <= maxDpTables)
+                orderByDynamicProgramming(component, pc);
+            else
+                orderGreedily(component, pc);
+            appendJoins(component, pc, order, pending);
+        }
+        order.addAll(subplanJoins);
+
+        if (explain) {
+            for (long component : components)
+                printJoins(component, pc);
+        }
+        return order;
     }
 
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
+     * Number the tables of the non-subquery joins breadth-first within each
+     * connected component, and record each join as an edge, along with what
+     * its cardinality estimates need to know about the join fields.
+     *
+     * @param subplanJoins receives the joins with subqueries, which are not
+     *            part of the graph
+     * @return the tables of each connected component
+     */
+    private List<Long> buildJoinGraph(List<LogicalJoinNode> subplanJoins,
+            Map<String, TableStats> stats) throws ParsingException {
+        Map<String, List<LogicalJoinNode>> adjacent = new LinkedHashMap<>();
+        List<LogicalJoinNode> graphJoins = new ArrayList<>();
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode) {
+                subplanJoins.add(j);
+                continue;
+            }
+            if (p.getTableId(j.t1Alias) == null)
+                throw new ParsingException("Unknown table " + j.t1Alias);
+            if (p.getTableId(j.t2Alias) == null)
+                throw new ParsingException("Unknown table " + j.t2Alias);
+            graphJoins.add(j);
+            adjacent.computeIfAbsent(j.t1Alias, a -> new ArrayList<>()).add(j);
+            adjacent.computeIfAbsent(j.t2Alias, a -> new ArrayList<>()).add(j);
+        }
+        if (adjacent.size() > MAX_TABLES)
+            throw new ParsingException("Cannot join more than " + MAX_TABLES + " tables");
+
+        Map<String, Integer> index = new HashMap<>();
+        List<Long> components = new ArrayList<>();
+        aliases = new String[adjacent.size()];
+        for (String start : adjacent.keySet()) {
+            if (index.containsKey(start))
+                continue;
+            long component = 0;
+            Deque<String> queue = new ArrayDeque<>();
+            queue.add(start);
+            index.put(start, index.size());
+            while (!queue.isEmpty()) {
+                String alias = queue.remove();
+                int i = index.get(alias);
+                aliases[i] = alias;
+                component |= 1L << i;
+                for (LogicalJoinNode j : adjacent.get(alias)) {
+                    String other = j.t1Alias.equals(alias) ? j.t2Alias : j.t1Alias;
+                    if (!index.containsKey(other)) {
+                        index.put(other, index.size());
+                        queue.add(other);
+                    }
+                }
+            }
+            components.add(component);
+        }
+
+        tableCards = new int[aliases.length];
+        tableStats = new TableStats[aliases.length];
+        indexKeys = new String[aliases.length];
+        hashKeys = new String[aliases.length];
+        for (int i = 0; i < aliases.length; i++) {
+            int tableId = p.getTableId(aliases[i]);
+            TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+            if (s == null)
+                throw new ParsingException("No statistics for table " + aliases[i]);
+            tableCards[i] = s.estimateTableCardinality(1.0);
+            tableStats[i] = s;
+            indexKeys[i] = indexKey(tableId);
+            hashKeys[i] = hashKey(tableId);
+        }
+
+        neighbours = new long[aliases.length];
+        edges = graphJoins.toArray(new LogicalJoinNode[0]);
+        swappedEdges = new LogicalJoinNode[edges.length];
+        edgeT1 = new int[edges.length];
+        edgeT2 = new int[edges.length];
+        edgePkey1 = new boolean[edges.length];
+        edgePkey2 = new boolean[edges.length];
+        edgeNdv1 = new double[edges.length];
+        edgeNdv2 = new double[edges.length];
+        Map<String, Integer> tableAliasToId = p.getTableAliasToIdMapping();
+        for (int e = 0; e < edges.length; e++) {
+            LogicalJoinNode j = edges[e];
+            swappedEdges[e] = j.swapInnerOuter();
+            edgeT1[e] = index.get(j.t1Alias);
+            edgeT2[e] = index.get(j.t2Alias);
+            neighbours[edgeT1[e]] |= 1L << edgeT2[e];
+            neighbours[edgeT2[e]] |= 1L << edgeT1[e];
+            edgePkey1[e] = isPkey(j.t1Alias, j.f1PureName);
+            edgePkey2[e] = isPkey(j.t2Alias, j.f2PureName);
+            edgeNdv1[e] = distinctCount(j.t1Alias, j.f1PureName, stats, tableAliasToId);
+            edgeNdv2[e] = distinctCount(j.t2Alias, j.f2PureName, stats, tableAliasToId);
+        }
+        return components;
+    }
+
+    /**
+     * The plan that reads the table with the given alias, by the access
+     * path {@link LogicalPlan#physicalPlan} chose for it if it has.
+     */
+    private CostCard scanCostCard(String alias, Map<String, TableStats> stats,
+            Map<String, Double> filterSelectivities) throws ParsingException {
+        TableStats s = stats.get(Database.getCatalog().getTableName(p.getTableId(alias)));
+        Double selectivity = filterSelectivities.get(alias);
+        if (selectivity == null)
+            throw new ParsingException("No filter selectivity for table " + alias);
+        CostCard cc = new CostCard();
+        Double scanCost = p.getScanCost(alias);
+        cc.cost = scanCost != null ? scanCost : s.estimateScanCost();
+        cc.card = s.estimateTableCardinality(selectivity);
+        return cc;
+    }
+
+    /** The tables outside s and x that are joined to a table in s. */
+    private long neighbours(long s, long x) {
+        long n = 0;
+        for (long rest = s; rest != 0; rest &= rest - 1)
+            n |= neighbours[Long.numberOfTrailingZeros(rest)];
+        return n & ~s & ~x;
+    }
+
+    /**
+     * Find the best plan for every connected subset of component by DPccp.
+     * The csg-cmp pairs are collected by the size of their union first, so
+     * that the plans of both halves of a pair are final when it is costed.
+     */
+    private void orderByDynamicProgramming(long component, PlanCache pc)
+            throws ParsingException {
+        CsgCmpPairs pairs = new CsgCmpPairs(Long.bitCount(component));
+        for (int i = 63 - Long.numberOfLeadingZeros(component); i >= 0; i--) {
+            long v = 1L << i;
+            if ((component & v) == 0)
+                continue;
+            emitCsg(v, pairs);
+            enumerateCsgRec(v, (v << 1) - 1, pairs);
+        }
+        for (int size = 2; size < pairs.counts.length; size++) {
+            long[] bySize = pairs.pairs[size];
+            for (int k = 0; k < pairs.counts[size]; k += 2) {
+                CostCard cc = computeCostAndCardOfSubplan(bySize[k], bySize[k + 1], pc);
+                long s = bySize[k] | bySize[k + 1];
+                CostCard best = pc.getPlan(s);
+                if (best == null || cc.cost < best.cost)
+                    pc.addPlan(s, cc);
+            }
+        }
+    }
+
+    /** Csg-cmp pairs, grouped by the number of tables they join. */
+    private static final class CsgCmpPairs {
+        final long[][] pairs;
+        final int[] counts;
+
+        CsgCmpPairs(int tables) {
+            pairs = new long[tables + 1][];
+            counts = new int[tables + 1];
+        }
+
+        void add(long s1, long s2) {
+            int size = Long.bitCount(s1 | s2);
+            long[] bySize = pairs[size];
+            if (bySize == null)
+                bySize = pairs[size] = new long[16];
+            else if (counts[size] == bySize.length)
+                bySize = pairs[size] = Arrays.copyOf(bySize, bySize.length * 2);
+            bySize[counts[size]++] = s1;
+            bySize[counts[size]++] = s2;
+        }
+    }
+
+    // grow the connected subgraph s by its neighbours outside x
+    private void enumerateCsgRec(long s, long x, CsgCmpPairs pairs) {
+        long n = neighbours(s, x);
+        if (n == 0)
+            return;
+        // subsets of n in increasing order
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            emitCsg(s | sub, pairs);
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            enumerateCsgRec(s | sub, x | n, pairs);
+    }
+
+    // emit the complements of s1 whose tables are all above its lowest table
+    private void emitCsg(long s1, CsgCmpPairs pairs) {
+        long x = s1 | ((Long.lowestOneBit(s1) << 1) - 1);
+        long n = neighbours(s1, x);
+        for (long rest = n; rest != 0; ) {
+            long v = Long.highestOneBit(rest);
+            rest &= ~v;
+            pairs.add(s1, v);
+            enumerateCmpRec(s1, v, x | (n & ((v << 1) - 1)), pairs);
+        }
+    }
+
+    // grow the complement s2 of s1 by its neighbours outside x
+    private void enumerateCmpRec(long s1, long s2, long x, CsgCmpPairs pairs) {
+        long n = neighbours(s2, x);
+        if (n == 0)
+            return;
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            pairs.add(s1, s2 | sub);
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            enumerateCmpRec(s1, s2 | sub, x | n, pairs);
+    }
+
+    /**
+     * Plan component by greedy operator ordering: start with one subplan
+     * per table, and keep joining the two connected subplans whose join has
+     * the smallest estimated cardinality (then cost) until one is left.
+     */
+    private void orderGreedily(long component, PlanCache pc)
+            throws ParsingException {
+        List<Long> subplans = new ArrayList<>();
+        for (long rest = component; rest != 0; rest &= rest - 1)
+            subplans.add(Long.lowestOneBit(rest));
+        while (subplans.size() > 1) {
+            CostCard best = null;
+            int bestA = -1, bestB = -1;
+            for (int a = 0; a < subplans.size(); a++) {
+                long sa = subplans.get(a);
+                long n = neighbours(sa, 0);
+                for (int b = a + 1; b < subplans.size(); b++) {
+                    if ((n & subplans.get(b)) == 0)
+                        continue;
+                    CostCard cc = computeCostAndCardOfSubplan(sa, subplans.get(b), pc);
+                    if (best == null || cc.card < best.card
+                            || (cc.card == best.card && cc.cost < best.cost)) {
+                        best = cc;
+                        bestA = a;
+                        bestB = b;
+                    }
+                }
+            }
+            long s = subplans.get(bestA) | subplans.get(bestB);
+            pc.addPlan(s, best);
+            subplans.set(bestA, s);
+            subplans.remove(bestB);
+        }
+    }
+
+    /**
+     * This is a helper method that computes the cost and cardinality of
+     * joining the best plans for two disjoint, connected sets of tables,
+     * which have already been computed and stored in PlanCache pc. Both
+     * sides are tried as the outer input, with every join operator.
      * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
+     * @param s1
+     *            one set of tables, one bit per table
+     * @param s2
+     *            the other set of tables; at least one join connects it to s1
      * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
+     *            the PlanCache for this join; should have plans for s1 and s2
      * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
+     *         root join and join operator of the cheapest plan
      * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     *             when no join connects s1 and s2
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            Map<String, TableStats> stats,
-            Map<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        List<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = new HashSet<>(joinSet);
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new ArrayList<>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias != null && isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
-
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
-            }
+    private CostCard computeCostAndCardOfSubplan(long s1, long s2, PlanCache pc)
+            throws ParsingException {
+        CostCard left = pc.getPlan(s1);
+        CostCard right = pc.getPlan(s2);
+
+        int e = joinEdge(s1, s2);
+        if (e < 0)
+            throw new ParsingException("No join connects the tables of a subplan");
+        // orient the join so that its t1 is in s1
+        boolean forward = (s1 & (1L << edgeT1[e])) != 0;
+        LogicalJoinNode j = forward ? edges[e] : swappedEdges[e];
+        LogicalJoinNode j2 = forward ? swappedEdges[e] : edges[e];
+        int t1 = forward ? edgeT1[e] : edgeT2[e];
+        int t2 = forward ? edgeT2[e] : edgeT1[e];
+
+        // a key stays unique unless the joins below multiplied its rows
+        boolean leftPkey = (forward ? edgePkey1[e] : edgePkey2[e]) && left.card <= tableCards[t1];
+        boolean rightPkey = (forward ? edgePkey2[e] : edgePkey1[e]) && right.card <= tableCards[t2];
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias != null && isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+        CostCard cc = new CostCard();
+        cc.card = joinCardinality(j.p, left.card, right.card, leftPkey, rightPkey,
+                forward ? edgeNdv1[e] : edgeNdv2[e], forward ? edgeNdv2[e] : edgeNdv1[e]);
+        cc.cost = Double.POSITIVE_INFINITY;
+        chooseAlgorithm(cc, e, j, s1, s2, pc);
+        chooseAlgorithm(cc, e, j2, s2, s1, pc);
+        return cc;
+    }
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+    /**
+     * Make cc join the best plans for outer and inner with j, whose t1 is in
+     * outer, if some operator does that for less than cc.cost.
+     */
+    private void chooseAlgorithm(CostCard cc, int e, LogicalJoinNode j,
+            long outer, long inner, PlanCache pc) {
+        CostCard left = pc.getPlan(outer);
+        CostCard right = pc.getPlan(inner);
+        boolean sorted1 = false, sorted2 = false;
+        if (j.p == Predicate.Op.EQUALS) {
+            sorted1 = isSortedOn(outer, j.t1Alias, j.f1PureName, pc);
+            sorted2 = isSortedOn(inner, j.t2Alias, j.f2PureName, pc);
+        }
+        boolean forward = j == edges[e];
+        int t2 = forward ? edgeT2[e] : edgeT1[e];
+        double probeCost = Double.POSITIVE_INFINITY;
+        if (inner == 1L << t2 && (j.f2PureName.equals(indexKeys[t2])
+                || j.p == Predicate.Op.EQUALS && j.f2PureName.equals(hashKeys[t2])))
+            probeCost = probeCost(j.p, tableStats[t2], forward ? edgeNdv2[e] : edgeNdv1[e]);
+        for (JoinAlgorithm algorithm : ALGORITHMS) {
+            double cost = joinCost(algorithm, j.p, left.card, right.card, left.cost, right.cost,
+                    sorted1, sorted2, probeCost);
+            if (cost < cc.cost) {
+                cc.cost = cost;
+                cc.join = j;
+                cc.algorithm = algorithm;
+                cc.left = outer;
+                cc.right = inner;
             }
         }
+    }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+    /**
+     * @return true if the best plan for s produces its tuples in order of
+     *         the given field: a B+ tree table keyed on it, a sort-merge join
+     *         on it, or a nested-loop join whose outer input is in that order
+     */
+    private boolean isSortedOn(long s, String alias, String field, PlanCache pc) {
+        CostCard cc = pc.getPlan(s);
+        if (cc.join == null) {
+            int t = Long.numberOfTrailingZeros(s);
+            return aliases[t].equals(alias) && field.equals(indexKeys[t]);
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
-
-        CostCard cc = new CostCard();
+        LogicalJoinNode j = cc.join;
+        switch (cc.algorithm) {
+        case SORT_MERGE:
+            return (j.t1Alias.equals(alias) && j.f1PureName.equals(field))
+                    || (j.t2Alias.equals(alias) && j.f2PureName.equals(field));
+        case NESTED_LOOP:
+        case INDEX_NESTED_LOOP:
+            return isSortedOn(cc.left, alias, field, pc);
+        default:
+            return false;
+        }
+    }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = new ArrayList<>(prevBest);
-        cc.plan.add(j); // prevbest is left -- add new join to end
-        return cc;
+    /**
+     * The first join between two disjoint sets of tables, which is the join
+     * predicate of a plan joining them; any other join between them closes a
+     * cycle and is applied after it.
+     *
+     * @return the index of the join in edges, or -1 if there is none
+     */
+    private int joinEdge(long s1, long s2) {
+        for (int e = 0; e < edges.length; e++) {
+            long t1 = 1L << edgeT1[e], t2 = 1L << edgeT2[e];
+            if (((s1 & t1) != 0 && (s2 & t2) != 0) || ((s1 & t2) != 0 && (s2 & t1) != 0))
+                return e;
+        }
+        return -1;
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * Append the joins of the best plan for s to order in post-order. A join
+     * that closes a cycle follows the first join that brings both of its
+     * tables together.
      */
-    private boolean doesJoin(List<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+    private void appendJoins(long s, PlanCache pc, List<LogicalJoinNode> order,
+            Set<Integer> pending) {
+        CostCard cc = pc.getPlan(s);
+        if (cc.join == null)
+            return;
+        appendJoins(cc.left, pc, order, pending);
+        appendJoins(cc.right, pc, order, pending);
+        LogicalJoinNode j = new LogicalJoinNode(cc.join.t1Alias, cc.join.t2Alias,
+                cc.join.f1PureName, cc.join.f2PureName, cc.join.p);
+        j.algorithm = cc.algorithm;
+        order.add(j);
+        pending.remove(joinEdge(cc.left, cc.right));
+        for (Iterator<Integer> it = pending.iterator(); it.hasNext(); ) {
+            int e = it.next();
+            long tables = (1L << edgeT1[e]) | (1L << edgeT2[e]);
+            if ((s & tables) == tables) {
+                order.add(edges[e]);
+                it.remove();
+            }
         }
-        return false;
     }
 
     /**
@@ -417,42 +875,24 @@ public class JoinOptimizer {
         int tid1 = p.getTableId(tableAlias);
         String pkey1 = Database.getCatalog().getPrimaryKey(tid1);
 
-        return pkey1.equals(field);
-    }
-
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(List<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
+        return field.equals(pkey1);
     }
 
     /**
-     * Helper function to display a Swing window with a tree representation of
-     * the specified list of joins. See {@link #orderJoins}, which may want to
-     * call this when the analyze flag is true.
+     * Helper function to print the best plan for a set of tables, and to
+     * display a Swing window with a tree representation of it. See
+     * {@link #orderJoins}, which calls this when the explain flag is true.
      * 
-     * @param js
-     *            the join plan to visualize
+     * @param s
+     *            the tables joined by the plan
      * @param pc
-     *            the PlanCache accumulated whild building the optimal plan
-     * @param stats
-     *            table statistics for base tables
-     * @param selectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
+     *            the PlanCache accumulated while building the optimal plan
      */
-    private void printJoins(List<LogicalJoinNode> js, PlanCache pc,
-            Map<String, TableStats> stats,
-            Map<String, Double> selectivities) {
+    private void printJoins(long s, PlanCache pc) {
+        DefaultMutableTreeNode root = joinTree(s, pc);
+        printTree(root, "");
+        if (GraphicsEnvironment.isHeadless())
+            return;
 
         JFrame f = new JFrame("Join Plan for " + p.getQuery());
 
@@ -464,81 +904,7 @@ public class JoinOptimizer {
 
         f.setSize(300, 500);
 
-        Map<String, DefaultMutableTreeNode> m = new HashMap<>();
-
-        // int numTabs = 0;
-
-        // int k;
-        DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<>();
-        boolean neither;
-
-        System.out.println(js);
-        for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
-
-            String table1Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t1Alias));
-            String table2Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t2Alias));
-
-            // Double c = pc.getCost(pathSoFar);
-            neither = true;
-
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
-            DefaultMutableTreeNode n = m.get(j.t1Alias);
-            if (n == null) { // never seen this table before
-                n = new DefaultMutableTreeNode(j.t1Alias
-                        + " (Cost = "
-                        + stats.get(table1Name).estimateScanCost()
-                        + ", card = "
-                        + stats.get(table1Name).estimateTableCardinality(
-                                selectivities.get(j.t1Alias)) + ")");
-                root.add(n);
-            } else {
-                // make left child root n
-                root.add(n);
-                neither = false;
-            }
-            m.put(j.t1Alias, root);
-
-            n = m.get(j.t2Alias);
-            if (n == null) { // never seen this table before
-
-                n = new DefaultMutableTreeNode(
-                        j.t2Alias == null ? "Subplan"
-                                : (j.t2Alias
-                                        + " (Cost = "
-                                        + stats.get(table2Name)
-                                                .estimateScanCost()
-                                        + ", card = "
-                                        + stats.get(table2Name)
-                                                .estimateTableCardinality(
-                                                        selectivities
-                                                                .get(j.t2Alias)) + ")"));
-                root.add(n);
-            } else {
-                // make right child root n
-                root.add(n);
-                neither = false;
-            }
-            m.put(j.t2Alias, root);
-
-            // unless this table doesn't join with other tables,
-            // all tables are accessed from root
-            if (!neither) {
-                for (String key : m.keySet()) {
-                    m.put(key, root);
-                }
-            }
-
-            treetop = root;
-        }
-
-        JTree tree = new JTree(treetop);
+        JTree tree = new JTree(root);
         JScrollPane treeView = new JScrollPane(tree);
 
         tree.setShowsRootHandles(true);
@@ -558,12 +924,28 @@ public class JoinOptimizer {
             tree.expandRow(i);
         }
 
-        if (js.size() == 0) {
-            f.add(new JLabel("No joins in plan."));
-        }
-
         f.pack();
 
     }
 
+    // the plan for s as a tree whose nodes describe joins and scans
+    private DefaultMutableTreeNode joinTree(long s, PlanCache pc) {
+        CostCard cc = pc.getPlan(s);
+        String label = cc.join == null ? aliases[Long.numberOfTrailingZeros(s)]
+                : "Join " + cc.join + " [" + cc.algorithm + "]";
+        DefaultMutableTreeNode node = new DefaultMutableTreeNode(label
+                + " (Cost = " + cc.cost + ", card = " + cc.card + ")");
+        if (cc.join != null) {
+            node.add(joinTree(cc.left, pc));
+            node.add(joinTree(cc.right, pc));
+        }
+        return node;
+    }
+
+    private static void printTree(DefaultMutableTreeNode node, String indent) {
+        System.out.println(indent + node.getUserObject());
+        for (int i = 0; i < node.getChildCount(); i++)
+            printTree((DefaultMutableTreeNode) node.getChildAt(i), indent + "  ");
+    }
+
 }
@@ -25,6 +25,9 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The operator chosen to execute the join, or null to choose by the predicate alone */
+    public JoinAlgorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -4,6 +4,12 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.HashFile;
+import simpledb.index.HashScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.index.SecondaryIndexScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -22,7 +28,9 @@ import java.io.File;
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
  * {@link JoinOptimizer} to order joins optimally and to select the
- * best implementations for joins.
+ * best implementations for joins, and reads B+ tree and hash tables through
+ * their index, and heap file tables through their secondary indexes, when
+ * that is cheaper than a scan.
  */
 public class LogicalPlan {
     private List<LogicalJoinNode> joins;
@@ -30,6 +38,8 @@ public class LogicalPlan {
     private final List<LogicalFilterNode> filters;
     private final Map<String, OpIterator> subplanMap;
     private final Map<String,Integer> tableMap;
+    // the estimated cost of reading each table with its chosen access path
+    private final Map<String,Double> scanCosts;
 
     private final List<LogicalSelectListNode> selectList;
     private String groupByField = null;
@@ -48,6 +58,7 @@ public class LogicalPlan {
         tables = new ArrayList<>();
         subplanMap = new HashMap<>();
         tableMap = new HashMap<>();
+        scanCosts = new HashMap<>();
 
         selectList = new ArrayList<>();
         this.query = "";
@@ -274,6 +285,261 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Choose how to read a table. A B+ tree file is read through its index
+     * when the predicates on its key select few enough tuples that going
+     * down the tree and reading their leaves costs less than scanning the
+     * whole table: an equality looks up one key, and range predicates
+     * bound the scan from below and above. The predicates the index scan
+     * answers are removed from preds; the rest are left to filters. A heap
+     * file is read through one of its secondary indexes when that is cheaper
+     * (see {@link #chooseSecondaryIndex}), and a hash file through its index
+     * when there is an equality predicate on its key.
+     *
+     * @param scan a sequential scan of the table
+     * @param preds the predicates on the table's fields
+     * @param s the statistics of the table, or null if there are none
+     * @param used the fields of the table the query uses, or null for all
+     * @return the scan, or an index scan if that is cheaper
+     */
+    private OpIterator chooseAccessPath(TransactionId t, SeqScan scan, List<Predicate> preds,
+                                        TableStats s, Set<Integer> used) {
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (s == null)
+            return scan;
+        double scanCost = s.estimateScanCost() + s.totalTuples();
+        scanCosts.put(scan.getAlias(), scanCost);
+        if (file instanceof HeapFile)
+            return chooseSecondaryIndex(t, scan, preds, s, scanCost, used);
+        if (file instanceof HashFile)
+            return chooseHashLookup(t, scan, preds, s, scanCost);
+        if (!(file instanceof BTreeFile))
+            return scan;
+
+        int key = ((BTreeFile) file).keyField();
+        Predicate eq = null, lower = null, upper = null;
+        double eqSel = 1.0, lowerSel = 1.0, upperSel = 1.0;
+        for (Predicate p : preds) {
+            if (p.getField() != key)
+                continue;
+            double sel = s.estimateSelectivity(key, p.getOp(), p.getOperand());
+            switch (p.getOp()) {
+            case EQUALS:
+                if (eq == null || sel < eqSel) {
+                    eq = p;
+                    eqSel = sel;
+                }
+                break;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                if (lower == null || sel < lowerSel) {
+                    lower = p;
+                    lowerSel = sel;
+                }
+                break;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                if (upper == null || sel < upperSel) {
+                    upper = p;
+                    upperSel = sel;
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        // the tuples between the bounds are those below the upper one that
+        // are not at or below the lower one
+        double rangeSel = Math.max(0.0, lowerSel + upperSel - 1.0);
+        if (eq != null && eqSel <= rangeSel) {
+            lower = eq;
+            upper = null;
+            rangeSel = eqSel;
+        } else if (lower == null && upper == null) {
+            return scan;
+        }
+
+        double indexCost = s.estimateIndexLookupCost(rangeSel * s.totalTuples());
+        if (indexCost >= scanCost)
+            return scan;
+        scanCosts.put(scan.getAlias(), indexCost);
+        preds.remove(lower);
+        preds.remove(upper);
+        IndexPredicate ipred = lower == null ? null : new IndexPredicate(lower.getOp(), lower.getOperand());
+        if (upper == null)
+            return new BTreeScan(t, scan.getTableId(), scan.getAlias(), ipred);
+        return new BTreeScan(t, scan.getTableId(), scan.getAlias(), ipred,
+                new IndexPredicate(upper.getOp(), upper.getOperand()));
+    }
+
+    /**
+     * Choose whether to read a hash file through its index: a lookup reads
+     * the bucket of one key, so it needs an equality predicate on the key.
+     * The most selective one is removed from preds.
+     *
+     * @param scanCost the estimated cost of scanning the table
+     * @return the scan, or a hash lookup if that is cheaper
+     */
+    private OpIterator chooseHashLookup(TransactionId t, SeqScan scan, List<Predicate> preds,
+                                        TableStats s, double scanCost) {
+        int key = ((HashFile) Database.getCatalog().getDatabaseFile(scan.getTableId())).keyField();
+        Predicate eq = null;
+        double eqSel = 1.0;
+        for (Predicate p : preds) {
+            if (p.getField() != key || p.getOp() != Predicate.Op.EQUALS)
+                continue;
+            double sel = s.estimateSelectivity(key, p.getOp(), p.getOperand());
+            if (eq == null || sel < eqSel) {
+                eq = p;
+                eqSel = sel;
+            }
+        }
+        if (eq == null)
+            return scan;
+        double indexCost = s.estimateIndexLookupCost(eqSel * s.totalTuples());
+        if (indexCost >= scanCost)
+            return scan;
+        scanCosts.put(scan.getAlias(), indexCost);
+        preds.remove(eq);
+        return new HashScan(t, scan.getTableId(), scan.getAlias(),
+                new IndexPredicate(eq.getOp(), eq.getOperand()));
+    }
+
+    /**
+     * Choose the cheapest secondary index to read a heap file through, if
+     * any is cheaper than scanning it. An index search reads the entries
+     * that match the equality predicates on a prefix of its key fields and
+     * the range predicates on the next one. The entries are then filtered by
+     * every predicate on a field they hold, and the tuple of each entry left
+     * is read from the table, unless the index covers all the fields the
+     * query uses: then the entries alone answer it, even with no predicate
+     * to search for. The predicates the chosen index scan answers are
+     * removed from preds.
+     *
+     * @param scanCost the estimated cost of scanning the table
+     * @param used the fields of the table the query uses, or null for all
+     * @return the scan, or a scan through an index if that is cheaper
+     */
+    private OpIterator chooseSecondaryIndex(TransactionId t, SeqScan scan, List<Predicate> preds,
+                                            TableStats s, double scanCost, Set<Integer> used) {
+        SecondaryIndex best = null;
+        boolean bestCovers = false;
+        double bestCost = scanCost;
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(scan.getTableId())) {
+            boolean covers = used != null && index.covers(used);
+            double searchSel = 1.0;
+            boolean bounded = false;
+            for (int key : index.getKeyFields()) {
+                boolean hasEq = false;
+                double eqSel = 1.0, lowerSel = 1.0, upperSel = 1.0;
+                for (Predicate p : preds) {
+                    if (p.getField() != key)
+                        continue;
+                    double sel = s.estimateSelectivity(key, p.getOp(), p.getOperand());
+                    switch (p.getOp()) {
+                    case EQUALS:
+                        hasEq = true;
+                        eqSel = Math.min(eqSel, sel);
+                        break;
+                    case GREATER_THAN:
+                    case GREATER_THAN_OR_EQ:
+                        lowerSel = Math.min(lowerSel, sel);
+                        break;
+                    case LESS_THAN:
+                    case LESS_THAN_OR_EQ:
+                        upperSel = Math.min(upperSel, sel);
+                        break;
+                    default:
+                        break;
+                    }
+                }
+                if (hasEq) {
+                    searchSel *= eqSel;
+                    bounded = true;
+                    continue;
+                }
+                double rangeSel = Math.max(0.0, lowerSel + upperSel - 1.0);
+                if (rangeSel < 1.0) {
+                    searchSel *= rangeSel;
+                    bounded = true;
+                }
+                break;
+            }
+            if (!bounded && !covers)
+                continue;
+
+            double matchSel = 1.0;
+            for (Predicate p : preds) {
+                if (index.entryField(p.getField()) >= 0)
+                    matchSel *= s.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+            }
+            double fetches = covers ? 0 : Math.min(searchSel, matchSel) * s.totalTuples();
+            double cost = s.estimateSecondaryIndexCost(index, searchSel * s.totalTuples(), fetches);
+            if (cost < bestCost) {
+                best = index;
+                bestCovers = covers;
+                bestCost = cost;
+            }
+        }
+        if (best == null)
+            return scan;
+
+        scanCosts.put(scan.getAlias(), bestCost);
+        List<Predicate> answered = new ArrayList<>();
+        for (Predicate p : preds) {
+            if (best.entryField(p.getField()) >= 0)
+                answered.add(p);
+        }
+        preds.removeAll(answered);
+        return new SecondaryIndexScan(t, best, scan.getAlias(), answered, bestCovers);
+    }
+
+    /**
+     * @return the fields of the table with the given alias that the query
+     *         uses anywhere, or null if it selects all of them
+     */
+    private Set<Integer> usedFields(String alias, TupleDesc td) {
+        List<String> names = new ArrayList<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*") && si.aggOp == null)
+                return null;
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        if (hasAgg) {
+            names.add(aggField);
+            names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+
+        Set<Integer> fields = new HashSet<>();
+        for (String name : names) {
+            if (name == null || !name.startsWith(alias + "."))
+                continue;
+            try {
+                fields.add(td.fieldNameToIndex(name.substring(alias.length() + 1)));
+            } catch (NoSuchElementException e) {
+                // not a field of the table, such as *
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @return the estimated cost of reading the table with the given alias
+     *         by the access path {@link #physicalPlan} chose for it, or null
+     *         if no access path has been chosen
+     */
+    Double getScanCost(String alias) {
+        return scanCosts.get(alias);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -292,6 +558,7 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        Map<String,List<Predicate>> tablePredicates = new HashMap<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -306,6 +573,7 @@ public class LogicalPlan {
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
+            tablePredicates.put(table.alias, new ArrayList<>());
 
         }
 
@@ -335,7 +603,7 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            tablePredicates.get(lf.tableAlias).add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -344,6 +612,18 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        scanCosts.clear();
+        for (Map.Entry<String, List<Predicate>> e : tablePredicates.entrySet()) {
+            String alias = e.getKey();
+            List<Predicate> preds = e.getValue();
+            SeqScan scan = (SeqScan) subplanMap.get(alias);
+            Set<Integer> used = usedFields(alias, Database.getCatalog().getTupleDesc(scan.getTableId()));
+            OpIterator subplan = chooseAccessPath(t, scan, preds, statsMap.get(scan.getTableName()), used);
+            for (Predicate p : preds)
+                subplan = new Filter(p, subplan);
+            subplanMap.put(alias, subplan);
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -367,6 +647,26 @@ public class LogicalPlan {
 
             plan1 = subplanMap.get(t1name);
 
+            if (!isSubqueryJoin && t1name.equals(t2name)) {
+                // both tables are already joined in plan1, so this join
+                // closes a cycle and only filters the rows of plan1
+                if (plan1 == null)
+                    throw new ParsingException("Unknown table in WHERE clause " + lj.t1Alias);
+                int f1, f2;
+                try {
+                    f1 = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + lj.f1QuantifiedName);
+                }
+                try {
+                    f2 = plan1.getTupleDesc().fieldNameToIndex(lj.f2QuantifiedName);
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + lj.f2QuantifiedName);
+                }
+                subplanMap.put(t1name, new JoinFilter(new JoinPredicate(f1, lj.p, f2), plan1));
+                continue;
+            }
+
             if (isSubqueryJoin) {
                 plan2 = ((LogicalSubplanJoinNode) lj).subPlan;
                 if (plan2 == null)
@@ -4,7 +4,13 @@ import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
 
+import simpledb.common.Database;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.HashFile;
+import simpledb.index.HashScan;
+import simpledb.index.SecondaryIndexScan;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
 
@@ -12,10 +18,15 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String MERGE_JOIN = "⨝(merge)";
+    static final String INDEX_JOIN = "⨝(index nl)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "index scan";
+    static final String INDEX_ONLY_SCAN = "index-only scan";
+    static final String HASH_SCAN = "hash scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
@@ -29,7 +40,7 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (joinSymbol(o) != null) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -42,6 +53,29 @@ public class QueryPlanVisualizer {
         return 2;
     }
 
+    // the symbol of a join operator, or null if o is not a join
+    private static String joinSymbol(Operator o) {
+        if (o instanceof Join)
+            return JOIN;
+        if (o instanceof HashEquiJoin)
+            return HASH_JOIN;
+        if (o instanceof SortMergeJoin)
+            return MERGE_JOIN;
+        if (o instanceof IndexNestedLoopJoin)
+            return INDEX_JOIN;
+        return null;
+    }
+
+    private static JoinPredicate joinPredicate(Operator o) {
+        if (o instanceof Join)
+            return ((Join) o).getJoinPredicate();
+        if (o instanceof HashEquiJoin)
+            return ((HashEquiJoin) o).getJoinPredicate();
+        if (o instanceof SortMergeJoin)
+            return ((SortMergeJoin) o).getJoinPredicate();
+        return ((IndexNestedLoopJoin) o).getJoinPredicate();
+    }
+
     private static class SubTreeDescriptor {
         int width;
         int upBarPosition;
@@ -67,24 +101,61 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
-//            TupleDesc td = s.getTupleDesc();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof BTreeScan
+                || queryPlan instanceof SecondaryIndexScan || queryPlan instanceof HashScan) {
+            String scanText = SCAN;
+            String tableName, alias, range = "";
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else if (queryPlan instanceof SecondaryIndexScan) {
+                SecondaryIndexScan s = (SecondaryIndexScan) queryPlan;
+                scanText = s.isIndexOnly() ? INDEX_ONLY_SCAN : INDEX_SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                range = "," + s.getIndex().getName();
+                TupleDesc td = Database.getCatalog().getTupleDesc(s.getTableId());
+                for (Predicate p : s.getPredicates())
+                    range += "," + td.getFieldName(p.getField()) + p.getOp() + p.getOperand();
+            } else if (queryPlan instanceof HashScan) {
+                HashScan s = (HashScan) queryPlan;
+                scanText = HASH_SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                IndexPredicate ipred = s.getIndexPredicate();
+                if (ipred != null) {
+                    String key = Database.getCatalog().getTupleDesc(s.getTableId()).getFieldName(
+                            ((HashFile) Database.getCatalog().getDatabaseFile(s.getTableId())).keyField());
+                    range = "," + key + ipred.getOp() + ipred.getField();
+                }
+            } else {
+                BTreeScan s = (BTreeScan) queryPlan;
+                scanText = INDEX_SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                TupleDesc td = s.getTupleDesc();
+                String key = td.getFieldName(((BTreeFile) Database.getCatalog()
+                        .getDatabaseFile(s.getTableId())).keyField());
+                for (IndexPredicate ipred : new IndexPredicate[] {
+                        s.getIndexPredicate(), s.getUpperBound() }) {
+                    if (ipred != null)
+                        range += "," + key + ipred.getOp() + ipred.getField();
+                }
+            }
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
+                    .format("%1$s(%2$s)", scanText, tableName + alias + range);
+            if (scanText.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
+                        - scanText.length() / 2;
             } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
+                thisNode.upBarPosition = currentStartPosition + scanText.length()
                         / 2;
                 thisNode.textStartPosition = currentStartPosition;
             }
@@ -109,18 +180,18 @@ public class QueryPlanVisualizer {
             Operator plan = (Operator) queryPlan;
             OpIterator[] children = plan.getChildren();
 
-            if (plan instanceof Join) {
-                Join j = (Join) plan;
-                TupleDesc td = j.getTupleDesc();
-                JoinPredicate jp = j.getJoinPredicate();
+            String joinSymbol = joinSymbol(plan);
+            if (joinSymbol != null) {
+                TupleDesc td = plan.getTupleDesc();
+                JoinPredicate jp = joinPredicate(plan);
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", joinSymbol,
+                        field1 + jp.getOperator() + field2,plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = JOIN.length() / 2;
+                if (joinSymbol.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = joinSymbol.length() / 2;
 
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + adjustDepth + 3, children[0],
@@ -130,35 +201,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - JOIN.length() / 2;
-                thisNode.width = Math.max(
-                        left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = left;
-                thisNode.rightChild = right;
-                thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
-                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[0],
-                        currentStartPosition, upBarShift);
-                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[1],
-                        currentStartPosition + left.width + SPACE.length(), 0);
-                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - joinSymbol.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -219,6 +262,28 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof JoinFilter) {
+                JoinFilter f = (JoinFilter) plan;
+                JoinPredicate jp = f.getJoinPredicate();
+                TupleDesc td = children[0].getTupleDesc();
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT,
+                        td.getFieldName(jp.getField1()) + jp.getOperator()
+                                + td.getFieldName(jp.getField2()),
+                        f.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (SELECT.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = SELECT.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - SELECT.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof OrderBy) {
                 OrderBy o = (OrderBy) plan;
                 thisNode.text = String.format(
@@ -2,6 +2,10 @@ package simpledb.optimizer;
 
 import simpledb.execution.Predicate;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * A class to represent a fixed-width histogram over a single String-based
  * field.
@@ -22,11 +26,15 @@ public class StringHistogram {
         hist = new IntHistogram(buckets, minVal(), maxVal());
     }
 
+    private StringHistogram(IntHistogram hist) {
+        this.hist = hist;
+    }
+
     /**
      * Convert a string to an integer, with the property that if the return
      * value(s1) < return value(s2), then s1 < s2
      */
-    private int stringToInt(String s) {
+    static int stringToInt(String s) {
         int i;
         int v = 0;
         for (i = 3; i >= 0; i--) {
@@ -52,12 +60,12 @@ public class StringHistogram {
     }
 
     /** @return the maximum value indexed by the histogram */
-    int maxVal() {
+    static int maxVal() {
         return stringToInt("zzzz");
     }
 
     /** @return the minimum value indexed by the histogram */
-    int minVal() {
+    static int minVal() {
         return stringToInt("");
     }
 
@@ -67,6 +75,29 @@ public class StringHistogram {
         hist.addValue(val);
     }
 
+    /** Remove a value added before from the histogram */
+    public void removeValue(String s) {
+        hist.removeValue(stringToInt(s));
+    }
+
+    /**
+     * Add the counts of another histogram with the same number of buckets
+     * to this one.
+     */
+    public void merge(StringHistogram other) {
+        hist.merge(other.hist);
+    }
+
+    /** Write this histogram to a statistics file. */
+    void writeTo(DataOutputStream out) throws IOException {
+        hist.writeTo(out);
+    }
+
+    /** Read a histogram written by {@link #writeTo}. */
+    static StringHistogram readFrom(DataInputStream in) throws IOException {
+        return new StringHistogram(IntHistogram.readFrom(in));
+    }
+
     /**
      * Estimate the selectivity (as a double between 0 and 1) of the specified
      * predicate over the specified string
@@ -1,23 +1,56 @@
 package simpledb.optimizer;
 
+import simpledb.common.Catalog;
 import simpledb.common.Database;
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.HashFile;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.*;
-import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
- * query. 
- * 
+ * query.
+ *
  * This class is not needed in implementing lab1 and lab2.
+ * <p>
+ * Each field is described by a {@link ColumnStats}: its most common values,
+ * an equi-depth histogram and a distinct-value estimate.
+ * <p>
+ * Statistics are built on the common fork-join pool: the tables are built in
+ * parallel, and so are page ranges of each table, whose partial histograms
+ * are merged. Instead of reading the whole table, a build may read a random
+ * sample of its pages (see {@link #setDefaultSampleRate(double)}); counts are then
+ * scaled up to the size of the table.
+ * <p>
+ * {@link #computeStatistics()} keeps the statistics in a file next to the
+ * catalog file (see {@link #statsFileFor(String)}). On the next start only
+ * tables whose data file changed size or modification time are read again.
+ * <p>
+ * The BufferPool reports every inserted and deleted tuple (see
+ * {@link #tupleInserted(int, Tuple)}), which updates the row count, the range
+ * of each int field and the histograms. Once the number of changes since the
+ * last build passes the staleness threshold (see
+ * {@link #setStalenessThreshold(double)}), the table is sampled again in the
+ * background and the new statistics replace the old ones in the stats map.
  */
 public class TableStats {
 
@@ -25,6 +58,27 @@ public class TableStats {
 
     static final int IOCOSTPERPAGE = 1000;
 
+    /** Suffix appended to the catalog file name to name the statistics file. */
+    public static final String STATS_FILE_SUFFIX = ".stats";
+
+    /** Fewest pages a sampled build reads, unless the table has fewer. */
+    public static final int MIN_SAMPLE_PAGES = 16;
+
+    // number of pages below which a build task does not split further
+    static final int PAGES_PER_TASK = 32;
+
+    private static final int STATS_FILE_MAGIC = 0x53544154;
+    private static final int STATS_FILE_VERSION = 2;
+
+    /** Fewest changes to a table that make its statistics stale. */
+    public static final long MIN_STALE_CHANGES = 500;
+
+    // fraction of the pages read by new TableStats, 1.0 for a full scan
+    private static volatile double sampleRate = 1.0;
+
+    // fraction of the rows a table may change by before it is sampled again
+    private static volatile double stalenessThreshold = 0.2;
+
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
     }
@@ -32,7 +86,7 @@ public class TableStats {
     public static void setTableStats(String tablename, TableStats stats) {
         statsMap.put(tablename, stats);
     }
-    
+
     public static void setStatsMap(Map<String,TableStats> s)
     {
         try {
@@ -49,18 +103,186 @@ public class TableStats {
         return statsMap;
     }
 
+    /** @return the fraction of pages read when building statistics */
+    public static double getDefaultSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Set the fraction of pages read when building statistics; 1.0, the
+     * default, reads every page.
+     */
+    public static void setDefaultSampleRate(double rate) {
+        if (!(rate > 0 && rate <= 1))
+            throw new IllegalArgumentException("sample rate must be in (0, 1]: " + rate);
+        sampleRate = rate;
+    }
+
+    /**
+     * @return the fraction of a table's rows that may be inserted or deleted
+     *         before its statistics are rebuilt
+     */
+    public static double getStalenessThreshold() {
+        return stalenessThreshold;
+    }
+
+    /**
+     * Set the fraction of a table's rows that may be inserted or deleted
+     * before its statistics are rebuilt in the background; at least
+     * {@link #MIN_STALE_CHANGES} changes are always allowed.
+     */
+    public static void setStalenessThreshold(double threshold) {
+        if (!(threshold > 0))
+            throw new IllegalArgumentException("staleness threshold must be positive: " + threshold);
+        stalenessThreshold = threshold;
+    }
+
+    // the statistics of the specified table, if there are any
+    private static TableStats statsFor(int tableId) {
+        String name = Database.getCatalog().getTableName(tableId);
+        if (name == null)
+            return null;
+        TableStats s = statsMap.get(name);
+        return s != null && s.tableid == tableId ? s : null;
+    }
+
+    /**
+     * Called by the BufferPool after a tuple has been inserted into a table.
+     */
+    public static void tupleInserted(int tableId, Tuple t) {
+        TableStats s = statsFor(tableId);
+        if (s != null)
+            s.changed(t, true);
+    }
+
+    /**
+     * Called by the BufferPool after a tuple has been deleted from a table.
+     */
+    public static void tupleDeleted(int tableId, Tuple t) {
+        TableStats s = statsFor(tableId);
+        if (s != null)
+            s.changed(t, false);
+    }
+
+    /** @return the statistics file kept next to the specified catalog file */
+    public static File statsFileFor(String catalogFile) {
+        return new File(catalogFile + STATS_FILE_SUFFIX);
+    }
+
+    /**
+     * Compute statistics for every table in the catalog, reusing those saved
+     * next to the catalog file for tables that have not changed.
+     */
     public static void computeStatistics() {
-        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        String catalogFile = Database.getCatalog().getCatalogFile();
+        computeStatistics(catalogFile == null ? null : statsFileFor(catalogFile));
+    }
 
-        System.out.println("Computing table stats.");
+    /**
+     * Compute statistics for every table in the catalog.
+     *
+     * @param statsFile the file to load saved statistics from and to save
+     *            the new ones to, or null to build everything from scratch
+     */
+    public static void computeStatistics(File statsFile) {
+        Catalog catalog = Database.getCatalog();
+        Map<String, TableStats> saved = Collections.emptyMap();
+        if (statsFile != null && statsFile.exists()) {
+            try {
+                saved = loadStatistics(statsFile);
+            } catch (IOException e) {
+                System.out.println("Ignoring unreadable statistics file " + statsFile + ": " + e.getMessage());
+            }
+        }
+
+        List<ForkJoinTask<Void>> builds = new ArrayList<>();
+        Iterator<Integer> tableIt = catalog.tableIdIterator();
+        int total = 0;
         while (tableIt.hasNext()) {
-            int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            final int tableid = tableIt.next();
+            final String name = catalog.getTableName(tableid);
+            total++;
+            TableStats s = saved.get(name);
+            if (s != null && s.isCurrent()) {
+                setTableStats(name, s);
+                continue;
+            }
+            builds.add(ForkJoinTask.adapt(() -> setTableStats(name, new TableStats(tableid, IOCOSTPERPAGE)), null));
+        }
+
+        System.out.println("Computing table stats for " + builds.size() + " of " + total + " tables.");
+        ForkJoinTask.invokeAll(builds);
+        if (statsFile != null) {
+            try {
+                saveStatistics(statsFile);
+            } catch (IOException e) {
+                System.out.println("Could not save statistics to " + statsFile + ": " + e.getMessage());
+            }
         }
         System.out.println("Done.");
     }
 
+    /**
+     * Write the statistics of the tables in the catalog that are backed by a
+     * file. The file is replaced atomically.
+     */
+    public static void saveStatistics(File statsFile) throws IOException {
+        Catalog catalog = Database.getCatalog();
+        List<TableStats> toSave = new ArrayList<>();
+        Iterator<Integer> tableIt = catalog.tableIdIterator();
+        while (tableIt.hasNext()) {
+            int tableid = tableIt.next();
+            TableStats s = statsMap.get(catalog.getTableName(tableid));
+            if (s != null && s.tableid == tableid && s.dataFile != null)
+                toSave.add(s);
+        }
+
+        File tmp = new File(statsFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(STATS_FILE_MAGIC);
+            out.writeInt(STATS_FILE_VERSION);
+            out.writeInt(toSave.size());
+            for (TableStats s : toSave)
+                s.writeTo(out, catalog.getTableName(s.tableid));
+        }
+        Files.move(tmp.toPath(), statsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a statistics file written by {@link #saveStatistics(File)}.
+     * Entries for tables that are not in the catalog are skipped.
+     *
+     * @return the statistics by table name
+     */
+    public static Map<String, TableStats> loadStatistics(File statsFile) throws IOException {
+        Catalog catalog = Database.getCatalog();
+        Map<String, TableStats> result = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(statsFile)))) {
+            if (in.readInt() != STATS_FILE_MAGIC)
+                throw new IOException("not a statistics file");
+            int version = in.readInt();
+            if (version != STATS_FILE_VERSION)
+                throw new IOException("unsupported statistics file version " + version);
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String name = in.readUTF();
+                int tableid;
+                try {
+                    tableid = catalog.getTableId(name);
+                } catch (NoSuchElementException e) {
+                    tableid = -1;
+                }
+                TableStats s = new TableStats(tableid, in);
+                if (tableid != -1)
+                    result.put(name, s);
+            }
+        }
+        return result;
+    }
+
     /**
      * Number of bins for the histogram. Feel free to increase this value over
      * 100, though our tests assume that you have at least 100 bins in your
@@ -68,10 +290,35 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    // bytes of the child page number in a B+ tree internal entry
+    private static final int INDEX_POINTER_SIZE = 4;
+
+    // introduced the statistics of one table
+    private final int tableid;
+    private final int ioCostPerPage;
+    private final TupleDesc td;
+    private int numPages;
+    private long numTuples;
+    // the range of each int field seen so far
+    private final int[] min;
+    private final int[] max;
+    // per field, the most common values, histogram and distinct count
+    private final ColumnStats[] columns;
+    // the fraction of pages read, and the data file as it was when reading began
+    private final double rate;
+    private final String dataFile;
+    private final long fileLength;
+    private final long fileModified;
+    // tuples inserted or deleted since the build, and whether a rebuild
+    // has been started
+    private final long builtTuples;
+    private long changes;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
-     * 
+     *
      * @param tableid
      *            The table over which to compute statistics
      * @param ioCostPerPage
@@ -79,6 +326,16 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
+        this(tableid, ioCostPerPage, sampleRate);
+    }
+
+    /**
+     * Create a new TableStats object from a sample of the table's pages.
+     *
+     * @param rate the fraction of pages to read, in (0, 1]; at least
+     *            {@link #MIN_SAMPLE_PAGES} pages are read
+     */
+    public TableStats(int tableid, int ioCostPerPage, double rate) {
         // For this function, you'll have to get the
         // DbFile for the table in question,
         // then scan through its tuples and calculate
@@ -87,37 +344,446 @@ public class TableStats {
         // necessarily have to (for example) do everything
         // in a single scan of the table.
         // some code goes here
+        if (!(rate > 0 && rate <= 1))
+            throw new IllegalArgumentException("sample rate must be in (0, 1]: " + rate);
+        this.tableid = tableid;
+        this.ioCostPerPage = ioCostPerPage;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        this.td = file.getTupleDesc();
+        File f = dataFileOf(file);
+        this.dataFile = f == null ? null : f.getAbsolutePath();
+        this.fileLength = f == null ? -1 : f.length();
+        this.fileModified = f == null ? -1 : f.lastModified();
+        this.columns = new ColumnStats[td.numFields()];
+
+        Sketches sketches;
+        if (file instanceof HeapFile) {
+            HeapFile hf = (HeapFile) file;
+            this.numPages = hf.numPages();
+            int[] pages = samplePages(numPages, rate);
+            this.rate = numPages == 0 ? 1.0 : (double) pages.length / numPages;
+            sketches = new PageTask<>(hf, pages, 0, pages.length, () -> new Sketches(td)).invoke();
+        } else {
+            this.numPages = numPagesOf(file);
+            this.rate = 1.0;
+            sketches = new Sketches(td);
+            scan(sketches);
+        }
+        this.numTuples = Math.round(sketches.count / this.rate);
+        this.builtTuples = numTuples;
+        this.min = sketches.min;
+        this.max = sketches.max;
+        for (int i = 0; i < td.numFields(); i++)
+            columns[i] = sketches.columns[i].finish(NUM_HIST_BINS, numTuples, this.rate >= 1.0);
+    }
+
+    // read a saved entry; the table name has been read already
+    private TableStats(int tableid, DataInputStream in) throws IOException {
+        this.tableid = tableid;
+        this.dataFile = in.readUTF();
+        this.fileLength = in.readLong();
+        this.fileModified = in.readLong();
+        this.ioCostPerPage = in.readInt();
+        this.rate = in.readDouble();
+        this.numPages = in.readInt();
+        this.numTuples = in.readLong();
+        int n = in.readInt();
+        Type[] types = new Type[n];
+        this.columns = new ColumnStats[n];
+        this.min = new int[n];
+        this.max = new int[n];
+        for (int i = 0; i < n; i++) {
+            min[i] = in.readInt();
+            max[i] = in.readInt();
+            columns[i] = ColumnStats.readFrom(in);
+            types[i] = columns[i].getType();
+        }
+        this.td = new TupleDesc(types);
+        this.builtTuples = numTuples;
+    }
+
+    private synchronized void writeTo(DataOutputStream out, String name) throws IOException {
+        out.writeUTF(name);
+        out.writeUTF(dataFile);
+        out.writeLong(fileLength);
+        out.writeLong(fileModified);
+        out.writeInt(ioCostPerPage);
+        out.writeDouble(rate);
+        out.writeInt(numPages);
+        out.writeLong(numTuples);
+        out.writeInt(td.numFields());
+        for (int i = 0; i < td.numFields(); i++) {
+            out.writeInt(min[i]);
+            out.writeInt(max[i]);
+            columns[i].writeTo(out);
+        }
+    }
+
+    /**
+     * Account for a tuple inserted into or deleted from the table.
+     */
+    private synchronized void changed(Tuple t, boolean inserted) {
+        numTuples = inserted ? numTuples + 1 : Math.max(0, numTuples - 1);
+        if (inserted) {
+            int perPage = Math.max(1, (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1));
+            numPages = (int) Math.max(numPages, (numTuples + perPage - 1) / perPage);
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                int v = t.getInt(i);
+                if (inserted) {
+                    min[i] = Math.min(min[i], v);
+                    max[i] = Math.max(max[i], v);
+                    columns[i].addValue(v);
+                } else {
+                    columns[i].removeValue(v);
+                }
+            } else if (inserted) {
+                columns[i].addValue(t.getString(i));
+            } else {
+                columns[i].removeValue(t.getString(i));
+            }
+        }
+        changes++;
+        if (changes > Math.max(MIN_STALE_CHANGES, stalenessThreshold * builtTuples))
+            refresh();
+    }
+
+    /**
+     * Sample the table again on the common fork-join pool, and replace these
+     * statistics with the new ones unless they have been replaced already.
+     * At most one rebuild runs per TableStats.
+     */
+    private void refresh() {
+        final String name = Database.getCatalog().getTableName(tableid);
+        if (name == null || !refreshing.compareAndSet(false, true))
+            return;
+        ForkJoinPool.commonPool().execute(() -> {
+            try {
+                TableStats fresh = new TableStats(tableid, ioCostPerPage, sampleRate);
+                statsMap.replace(name, this, fresh);
+            } catch (RuntimeException e) {
+                // e.g. a page read while it was being written; try again
+                // after the next change
+                refreshing.set(false);
+            }
+        });
+    }
+
+    /** @return the number of tuples inserted or deleted since these statistics were built */
+    public synchronized long getChangeCount() {
+        return changes;
+    }
+
+    /** @return true if a background rebuild of these statistics has been started */
+    public boolean isRefreshing() {
+        return refreshing.get();
+    }
+
+    /** @return the smallest value seen in the specified int field */
+    public synchronized int getMin(int field) {
+        return min[field];
+    }
+
+    /** @return the largest value seen in the specified int field */
+    public synchronized int getMax(int field) {
+        return max[field];
+    }
+
+    /**
+     * @return true if these statistics were built from the table's data file
+     *         as it is now: same path, length and modification time, and the
+     *         same field types
+     */
+    boolean isCurrent() {
+        if (tableid == -1 || dataFile == null)
+            return false;
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(tableid);
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+        File f = dataFileOf(file);
+        if (f == null || !f.getAbsolutePath().equals(dataFile))
+            return false;
+        if (f.length() != fileLength || f.lastModified() != fileModified)
+            return false;
+        TupleDesc current = file.getTupleDesc();
+        if (current.numFields() != td.numFields())
+            return false;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (current.getFieldType(i) != td.getFieldType(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static File dataFileOf(DbFile file) {
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).getFile();
+        if (file instanceof BTreeFile)
+            return ((BTreeFile) file).getFile();
+        if (file instanceof HashFile)
+            return ((HashFile) file).getFile();
+        return null;
+    }
+
+    private static int numPagesOf(DbFile file) {
+        if (file instanceof BTreeFile)
+            return ((BTreeFile) file).numPages();
+        if (file instanceof HashFile)
+            return ((HashFile) file).numPages();
+        File f = dataFileOf(file);
+        return f == null ? 0 : (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Choose the pages a build reads: all of them, or a uniform random
+     * sample of about rate * numPages pages, chosen by reservoir sampling and
+     * returned in file order so they are read sequentially.
+     */
+    static int[] samplePages(int numPages, double rate) {
+        int k = Math.min(numPages, Math.max(MIN_SAMPLE_PAGES, (int) Math.ceil(rate * numPages)));
+        int[] pages = new int[k];
+        for (int i = 0; i < k; i++)
+            pages[i] = i;
+        if (k == numPages)
+            return pages;
+        Random random = ThreadLocalRandom.current();
+        for (int i = k; i < numPages; i++) {
+            int j = random.nextInt(i + 1);
+            if (j < k)
+                pages[j] = i;
+        }
+        Arrays.sort(pages);
+        return pages;
+    }
+
+    // feed the whole table to acc through the file's iterator
+    private void scan(Accumulator<?> acc) {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, tableid);
+        TupleBatch batch = new TupleBatch(td);
+        try {
+            scan.open();
+            while (scan.hasNext()) {
+                batch.appendTuple(scan.next());
+                if (batch.isFull()) {
+                    acc.add(batch);
+                    batch.clear();
+                }
+            }
+            acc.add(batch);
+        } catch (DbException | TransactionAbortedException e) {
+            throw new RuntimeException("could not scan table " + tableid, e);
+        } finally {
+            scan.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Something computed over the rows of a table, one batch at a time, that
+     * can be computed over parts of the table separately and then merged.
+     */
+    private abstract static class Accumulator<A extends Accumulator<A>> {
+        abstract void add(TupleBatch batch);
+
+        abstract void merge(A other);
+    }
+
+    /**
+     * The number of rows, the range of each int field and a sketch of the
+     * values of each field.
+     */
+    private static class Sketches extends Accumulator<Sketches> {
+        final TupleDesc td;
+        final int[] min;
+        final int[] max;
+        final ColumnStats.Sketch[] columns;
+        long count;
+
+        Sketches(TupleDesc td) {
+            this.td = td;
+            this.min = new int[td.numFields()];
+            this.max = new int[td.numFields()];
+            this.columns = new ColumnStats.Sketch[td.numFields()];
+            Arrays.fill(min, Integer.MAX_VALUE);
+            Arrays.fill(max, Integer.MIN_VALUE);
+            for (int i = 0; i < td.numFields(); i++)
+                columns[i] = new ColumnStats.Sketch(td.getFieldType(i));
+        }
+
+        void add(TupleBatch batch) {
+            int n = batch.numRows();
+            count += n;
+            for (int i = 0; i < td.numFields(); i++) {
+                ColumnStats.Sketch sketch = columns[i];
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    TupleBatch.IntColumn col = batch.intColumn(i);
+                    int lo = min[i], hi = max[i];
+                    for (int k = 0; k < n; k++) {
+                        int v = col.get(batch.row(k));
+                        if (v < lo)
+                            lo = v;
+                        if (v > hi)
+                            hi = v;
+                        sketch.addInt(v);
+                    }
+                    min[i] = lo;
+                    max[i] = hi;
+                } else {
+                    TupleBatch.StringColumn col = batch.stringColumn(i);
+                    for (int k = 0; k < n; k++)
+                        sketch.addString(col.getString(batch.row(k)));
+                }
+            }
+        }
+
+        void merge(Sketches other) {
+            count += other.count;
+            for (int i = 0; i < min.length; i++) {
+                min[i] = Math.min(min[i], other.min[i]);
+                max[i] = Math.max(max[i], other.max[i]);
+                columns[i].merge(other.columns[i]);
+            }
+        }
+    }
+
+    /**
+     * Computes an accumulator over some pages of a heap file, splitting the
+     * pages in halves until there are at most {@link #PAGES_PER_TASK}. Pages
+     * are read from the file rather than through the buffer pool, so a build
+     * takes no locks and does not evict the pages of running queries.
+     */
+    private static class PageTask<A extends Accumulator<A>> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+
+        private final HeapFile file;
+        private final int[] pages;
+        private final int lo, hi;
+        private final Supplier<A> factory;
+
+        PageTask(HeapFile file, int[] pages, int lo, int hi, Supplier<A> factory) {
+            this.file = file;
+            this.pages = pages;
+            this.lo = lo;
+            this.hi = hi;
+            this.factory = factory;
+        }
+
+        @Override
+        protected A compute() {
+            if (hi - lo > PAGES_PER_TASK) {
+                int mid = (lo + hi) >>> 1;
+                PageTask<A> right = new PageTask<>(file, pages, mid, hi, factory);
+                right.fork();
+                A result = new PageTask<>(file, pages, lo, mid, factory).compute();
+                result.merge(right.join());
+                return result;
+            }
+            A acc = factory.get();
+            TupleBatch batch = new TupleBatch(file.getTupleDesc());
+            for (int i = lo; i < hi; i++) {
+                HeapPage page = (HeapPage) file.readPage(new HeapPageId(file.getId(), pages[i]));
+                batch.clear();
+                page.appendTo(batch);
+                acc.add(batch);
+            }
+            return acc;
+        }
     }
 
     /**
      * Estimates the cost of sequentially scanning the file, given that the cost
      * to read a page is costPerPageIO. You can assume that there are no seeks
      * and that no pages are in the buffer pool.
-     * 
+     *
      * Also, assume that your hard drive can only read entire pages at once, so
      * if the last page of the table only has one tuple on it, it's just as
      * expensive to read as a full page. (Most real hard drives can't
      * efficiently address regions smaller than a page at a time.)
-     * 
+     *
      * @return The estimated cost of scanning the table.
      */
-    public double estimateScanCost() {
+    public synchronized double estimateScanCost() {
         // some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of finding the tuples that match one key through
+     * the table's index. For a B+ tree that is a page per internal level on
+     * the way down, the leaf pages that hold the matches, and one unit per
+     * matching tuple. A hash file reads the pages of one bucket instead,
+     * usually a single page; its meta page is read by every lookup, so it
+     * stays in the buffer pool and is not counted. A hash file can only look
+     * up keys equal to a value.
+     *
+     * @param matches
+     *            The estimated number of tuples the lookup finds
+     * @return The estimated cost of the lookup, or infinity if the table is
+     *         not a B+ tree or hash file
+     */
+    public synchronized double estimateIndexLookupCost(double matches) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (file instanceof HashFile) {
+            int tuplesPerPage = Math.max(1, BufferPool.getPageSize() / td.getSize());
+            return Math.ceil(Math.max(1, matches) / tuplesPerPage) * ioCostPerPage + matches;
+        }
+        if (!(file instanceof BTreeFile))
+            return Double.POSITIVE_INFINITY;
+        int pageSize = BufferPool.getPageSize();
+        // an internal entry is a key and a page number
+        int keySize = td.getFieldType(((BTreeFile) file).keyField()).getLen();
+        int fanout = Math.max(2, pageSize / (keySize + INDEX_POINTER_SIZE));
+        int tuplesPerLeaf = Math.max(1, pageSize / td.getSize());
+        double internal = numPages <= 1 ? 0 : Math.ceil(Math.log(numPages) / Math.log(fanout));
+        double leaves = Math.ceil(Math.max(1, matches) / tuplesPerLeaf);
+        return (internal + leaves) * ioCostPerPage + matches;
+    }
+
+    /**
+     * Estimates the cost of a lookup in a secondary index of the table: a
+     * page per internal level of the index on the way down, the leaf pages
+     * that hold the entries the search reads, one unit per entry, and a page
+     * read per tuple fetched from the table. An index-only lookup fetches no
+     * tuple.
+     *
+     * @param index
+     *            An index of the table
+     * @param entries
+     *            The estimated number of entries the search reads
+     * @param fetches
+     *            The estimated number of tuples read from the table
+     * @return The estimated cost of the lookup
+     */
+    public synchronized double estimateSecondaryIndexCost(SecondaryIndex index, double entries,
+                                                          double fetches) {
+        int pageSize = BufferPool.getPageSize();
+        TupleDesc entryTd = index.getEntryDesc();
+        int keySize = entryTd.getFieldType(0).getLen();
+        int fanout = Math.max(2, pageSize / (keySize + INDEX_POINTER_SIZE));
+        int entriesPerLeaf = Math.max(1, pageSize / entryTd.getSize());
+        double leafPages = Math.ceil((double) numTuples / entriesPerLeaf);
+        double internal = leafPages <= 1 ? 0 : Math.ceil(Math.log(leafPages) / Math.log(fanout));
+        double leaves = Math.ceil(Math.max(1, entries) / entriesPerLeaf);
+        return (internal + leaves + fetches) * ioCostPerPage + entries;
     }
 
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
-     * 
+     *
      * @param selectivityFactor
      *            The selectivity of any predicates over the table
      * @return The estimated cardinality of the scan with the specified
      *         selectivityFactor
      */
-    public int estimateTableCardinality(double selectivityFactor) {
+    public synchronized int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
-        return 0;
+        return (int) Math.round(numTuples * selectivityFactor);
     }
 
     /**
@@ -130,15 +796,25 @@ public class TableStats {
      * tuple, of which we do not know the value of the field, return the
      * expected selectivity. You may estimate this value from the histograms.
      * */
-    public double avgSelectivity(int field, Predicate.Op op) {
+    public synchronized double avgSelectivity(int field, Predicate.Op op) {
         // some code goes here
-        return 1.0;
+        double eq = columns[field].avgSelectivity();
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return eq;
+        case NOT_EQUALS:
+            return 1.0 - eq;
+        default:
+            // a range predicate keeps about half of the table
+            return 0.5;
+        }
     }
 
     /**
      * Estimate the selectivity of predicate <tt>field op constant</tt> on the
      * table.
-     * 
+     *
      * @param field
      *            The field over which the predicate ranges
      * @param op
@@ -148,17 +824,31 @@ public class TableStats {
      * @return The estimated selectivity (fraction of tuples that satisfy) the
      *         predicate
      */
-    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+    public synchronized double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // some code goes here
-        return 1.0;
+        if (constant.getType() == Type.INT_TYPE)
+            return columns[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        return columns[field].estimateSelectivity(op, ((StringField) constant).getValue());
+    }
+
+    /**
+     * @return the estimated number of distinct values of the specified field
+     */
+    public synchronized double getDistinctCount(int field) {
+        return columns[field].distinctCount();
     }
 
     /**
      * return the total number of tuples in this table
      * */
-    public int totalTuples() {
+    public synchronized int totalTuples() {
         // some code goes here
-        return 0;
+        return (int) Math.min(Integer.MAX_VALUE, numTuples);
+    }
+
+    /** @return the fraction of the table's pages these statistics were built from */
+    public double getSampleRate() {
+        return rate;
     }
 
 }
@@ -4,12 +4,23 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.TableStats;
+import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -20,6 +31,25 @@ import java.util.concurrent.ConcurrentHashMap;
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
  * 
+ * The page table is split into shards keyed by PageId hash. Each shard has
+ * its own frames, replacement policy and latch, and concurrent misses on the
+ * same page are coalesced into a single read from disk.
+ *
+ * The frames are a budget of the whole pool, not split between the shards.
+ * Once the pool is full, a shard evicts one of its own clean pages to make
+ * room. If all its pages are dirty, it borrows a frame by evicting a clean
+ * page of another shard. So no transaction fails for lack of frames while
+ * any page in the pool is clean, however its pages hash.
+ *
+ * The lock order is BufferPool, then LogFile, then a shard: checkpoints and
+ * rollbacks flush and discard pages while holding the LogFile's monitor, so
+ * the pool never calls into the LogFile while it holds a shard's monitor.
+ * Dirty pages are collected under the shard, logged outside of it, and
+ * written under it again if they are still cached and dirty.
+ *
+ * Locks are taken through a {@link LockManager} before the page table is
+ * touched, and are held until the transaction completes.
+ * 
  * @Threadsafe, all fields are final
  */
 public class BufferPool {
@@ -33,10 +63,43 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    // introduced the attribute pageCache to store all the cached Pages in a ConcurrentHashMap
-    private ConcurrentHashMap<PageId, Page> pageCache;
+    /** Replacement policy used when none is given to the constructor. */
+    public static final ReplacementPolicy.Kind DEFAULT_POLICY = ReplacementPolicy.Kind.LRU;
+
+    /** Upper bound on the number of shards chosen by default. */
+    public static final int MAX_DEFAULT_SHARDS = 16;
+
+    /** Pools are only split once every shard gets at least this many frames. */
+    static final int MIN_PAGES_PER_SHARD = 256;
+
+    // the page table is partitioned by PageId hash; each shard has its own
+    // frames, replacement state and latch, so misses on different shards
+    // proceed in parallel
+    private final Shard[] shards;
+    // page-level shared/exclusive locks for strict two-phase locking
+    private final LockManager lockManager = new LockManager();
+    // reads pages ahead of sequential and leaf-chain scans
+    private final Prefetcher prefetcher = new Prefetcher(this);
     // introduced the attribute pageNum to specify the maximum number of pages
-    private int pageLimit;
+    private final int pageLimit;
+    // frames in use over all shards, counting cached pages and reads in flight
+    private final AtomicInteger usedFrames = new AtomicInteger();
+
+    /**
+     * One partition of the page table. All fields are guarded by the shard's
+     * monitor; disk reads happen outside of it.
+     */
+    private static final class Shard {
+        final Map<PageId, Page> frames = new HashMap<>();
+        // reads in flight; later requests for the same page wait on the future
+        final Map<PageId, CompletableFuture<Page>> pendingReads = new HashMap<>();
+        final ReplacementPolicy policy;
+
+        // capacity is the shard's share of the pool, which it may exceed
+        Shard(int capacity, ReplacementPolicy.Kind policyKind) {
+            this.policy = policyKind.create(capacity);
+        }
+    }
     
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -44,9 +107,143 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, DEFAULT_POLICY);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts pages
+     * according to the specified replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policyKind the replacement policy to use
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policyKind) {
+        this(numPages, policyKind, defaultShardCount(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, split into
+     * numShards independently latched shards.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policyKind the replacement policy to use in every shard
+     * @param numShards the number of shards; the replacement policies are
+     *        sized for an even share of the pages each, but the shards draw
+     *        their frames from a budget of the whole pool
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policyKind, int numShards) {
         // some code goes here
-    	this.pageCache = new ConcurrentHashMap<PageId, Page>();
-    	this.pageLimit = numPages;    	
+        if (numShards < 1 || numShards > numPages) {
+            throw new IllegalArgumentException("need between 1 and " + numPages + " shards, got " + numShards);
+        }
+    	this.pageLimit = numPages;
+    	this.shards = new Shard[numShards];
+    	for (int i = 0; i < numShards; i++) {
+    	    int capacity = numPages / numShards + (i < numPages % numShards ? 1 : 0);
+    	    shards[i] = new Shard(capacity, policyKind);
+    	}
+    }
+
+    /**
+     * @return the number of shards used for a pool of numPages pages when the
+     *         caller does not ask for a specific number
+     */
+    public static int defaultShardCount(int numPages) {
+        return Math.max(1, Math.min(MAX_DEFAULT_SHARDS, numPages / MIN_PAGES_PER_SHARD));
+    }
+
+    /** @return the maximum number of pages in this buffer pool */
+    public int getNumPages() {
+        return pageLimit;
+    }
+
+    /** @return the read-ahead machinery that feeds this pool */
+    public Prefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /** @return the number of pages admitted by read-ahead, over all shards */
+    public long getPrefetchCount() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.policy.getPrefetchCount();
+        }
+        return total;
+    }
+
+    /** @return the number of prefetched pages that were later requested, over all shards */
+    public long getPrefetchHitCount() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.policy.getPrefetchHitCount();
+        }
+        return total;
+    }
+
+    /** @return the number of prefetched pages evicted before being requested, over all shards */
+    public long getWastedPrefetchCount() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.policy.getWastedPrefetchCount();
+        }
+        return total;
+    }
+
+    /** @return the number of shards the page table is split into */
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    /**
+     * @return the replacement policy of every shard, in shard order; each
+     *         exposes the hit/miss/eviction counters of its shard
+     */
+    public List<ReplacementPolicy> getReplacementPolicies() {
+        List<ReplacementPolicy> policies = new ArrayList<>();
+        for (Shard shard : shards) {
+            policies.add(shard.policy);
+        }
+        return policies;
+    }
+
+    /** @return the number of page requests served from the pool, over all shards */
+    public long getHitCount() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.policy.getHitCount();
+        }
+        return total;
+    }
+
+    /** @return the number of page requests that had to read from disk, over all shards */
+    public long getMissCount() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.policy.getMissCount();
+        }
+        return total;
+    }
+
+    /** @return the number of pages evicted, over all shards */
+    public long getEvictionCount() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.policy.getEvictionCount();
+        }
+        return total;
+    }
+
+    /** Reset the hit/miss/eviction counters of every shard. */
+    public void resetCounters() {
+        for (Shard shard : shards) {
+            shard.policy.resetCounters();
+        }
+    }
+
+    private Shard shardFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return shards[(h & 0x7fffffff) % shards.length];
     }
     
     public static int getPageSize() {
@@ -81,22 +278,158 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-    	Page requestedPage;
-    	
-    	if (pageCache.containsKey(pid)) {
-    		requestedPage = pageCache.get(pid);
-    	} else {
-    		// first check if the buffer pool is full
-    		if (pageCache.size() == pageLimit) {
-    			throw new DbException(""); // not yet implement evictPage()
-    		}
-    		// add page to buffer pool
-    	    requestedPage = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);    	    
-    	    pageCache.put(pid, requestedPage);
-    	    
-    	}
-    	
-        return requestedPage;
+        try {
+            lockManager.acquire(tid, pid, perm);
+        } catch (DeadlockException e) {
+            throw new TransactionAbortedException();
+        }
+        return getUnlockedPage(pid);
+    }
+
+    /**
+     * Retrieve the specified page without locking it. The caller must keep
+     * writers away from the page while reading it some other way, as
+     * {@link simpledb.index.BTreeFile} does with its page latches; otherwise
+     * this is the same as {@link #getPage}.
+     *
+     * @param pid the ID of the requested page
+     */
+    public Page getUnlockedPage(PageId pid) throws DbException {
+        Shard shard = shardFor(pid);
+        CompletableFuture<Page> pending = null;
+        boolean reader = false;
+
+        while (pending == null) {
+            synchronized (shard) {
+                Page page = shard.frames.get(pid);
+                if (page != null) {
+                    shard.policy.recordHit(pid);
+                    return page;
+                }
+                pending = shard.pendingReads.get(pid);
+                // reserve a frame for the read, counting reads still in flight
+                if (pending == null && reserveFrame(shard)) {
+                    pending = new CompletableFuture<>();
+                    shard.pendingReads.put(pid, pending);
+                    reader = true;
+                }
+            }
+            if (pending == null) {
+                evictElsewhere(shard);
+            }
+        }
+
+        if (!reader) {
+            // another thread is already reading this page; share its result
+            Page page = awaitRead(pending);
+            synchronized (shard) {
+                shard.policy.recordHit(pid);
+            }
+            return page;
+        }
+
+        Page page;
+        try {
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        } catch (RuntimeException e) {
+            synchronized (shard) {
+                if (shard.pendingReads.remove(pid, pending)) {
+                    usedFrames.decrementAndGet();
+                }
+            }
+            pending.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (shard) {
+            // the page may have been discarded while we were reading it, in
+            // which case what we read may already be stale
+            if (shard.pendingReads.remove(pid, pending)) {
+                if (page != null) {
+                    shard.frames.put(pid, page);
+                    shard.policy.recordMiss(pid);
+                } else {
+                    usedFrames.decrementAndGet();
+                }
+            }
+        }
+        pending.complete(page);
+        return page;
+    }
+
+    /**
+     * Read the specified page into the pool ahead of any request for it. No
+     * lock is taken: the page is only admitted if it is not cached yet, so
+     * what is read from disk is the last committed version. Pages that are
+     * cached already are returned without counting as a hit.
+     * <p>
+     * Read-ahead never forces its way in: if no clean page of the page's
+     * shard can be evicted, or another thread is reading the page already,
+     * nothing is read.
+     *
+     * @param pid the ID of the page to read
+     * @return the page, or null if it was not read
+     */
+    public Page prefetchPage(PageId pid) {
+        Shard shard = shardFor(pid);
+        CompletableFuture<Page> pending;
+        synchronized (shard) {
+            Page page = shard.frames.get(pid);
+            if (page != null || shard.pendingReads.containsKey(pid)) {
+                return page;
+            }
+            if (!reserveFrame(shard)) {
+                return null;
+            }
+            pending = new CompletableFuture<>();
+            shard.pendingReads.put(pid, pending);
+        }
+
+        Page page;
+        try {
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        } catch (RuntimeException e) {
+            synchronized (shard) {
+                if (shard.pendingReads.remove(pid, pending)) {
+                    usedFrames.decrementAndGet();
+                }
+            }
+            pending.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (shard) {
+            if (shard.pendingReads.remove(pid, pending)) {
+                if (page != null) {
+                    shard.frames.put(pid, page);
+                    shard.policy.recordPrefetch(pid);
+                } else {
+                    usedFrames.decrementAndGet();
+                }
+            }
+        }
+        pending.complete(page);
+        return page;
+    }
+
+    private static Page awaitRead(CompletableFuture<Page> pending) throws DbException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return pending.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new DbException("page read failed: " + e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     /**
@@ -110,7 +443,7 @@ public class BufferPool {
      */
     public  void unsafeReleasePage(TransactionId tid, PageId pid) {
         // some code goes here
-        // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -120,14 +453,18 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid) {
         // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
+    }
+
+    /** @return the lock manager that grants this pool's page locks */
+    public LockManager getLockManager() {
+        return lockManager;
     }
 
     /**
@@ -139,7 +476,51 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
-        // not necessary for lab1|lab2
+        try {
+            if (commit) {
+                flushPages(tid);
+                // the committed state is the before image of the next transaction
+                for (PageId pid : lockManager.getLockedPages(tid)) {
+                    Shard shard = shardFor(pid);
+                    synchronized (shard) {
+                        Page page = shard.frames.get(pid);
+                        if (page != null) {
+                            page.setBeforeImage();
+                        }
+                    }
+                }
+            } else {
+                // NO STEAL: nothing tid wrote has reached disk, so dropping
+                // its dirty pages restores the committed state. So does
+                // dropping the pages it locked exclusively, which an insert or
+                // delete aborted halfway may have changed without marking them
+                Set<PageId> written = new HashSet<>();
+                for (PageId pid : lockManager.getLockedPages(tid)) {
+                    if (lockManager.holdsExclusiveLock(tid, pid)) {
+                        written.add(pid);
+                    }
+                }
+                for (Shard shard : shards) {
+                    synchronized (shard) {
+                        List<PageId> dirtied = new ArrayList<>();
+                        for (Page page : shard.frames.values()) {
+                            if (tid.equals(page.isDirty()) || written.contains(page.getId())) {
+                                dirtied.add(page.getId());
+                            }
+                        }
+                        for (PageId pid : dirtied) {
+                            shard.frames.remove(pid);
+                            shard.policy.recordRemoval(pid);
+                        }
+                        usedFrames.addAndGet(-dirtied.size());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("could not complete transaction " + tid, e);
+        } finally {
+            lockManager.releaseAll(tid);
+        }
     }
 
     /**
@@ -152,6 +533,8 @@ public class BufferPool {
      * their markDirty bit, and adds versions of any pages that have 
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
+     * The table's statistics are updated (see {@link TableStats#tupleInserted}),
+     * and the tuple is added to its secondary indexes.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -160,7 +543,12 @@ public class BufferPool {
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        installDirtyPages(tid, file.insertTuple(tid, t));
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            installDirtyPages(tid, index.insertEntry(tid, t));
+        }
+        TableStats.tupleInserted(tableId, t);
     }
 
     /**
@@ -172,6 +560,8 @@ public class BufferPool {
      * their markDirty bit, and adds versions of any pages that have 
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
+     * The table's statistics are updated (see {@link TableStats#tupleDeleted}),
+     * and the tuple is removed from its secondary indexes.
      *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
@@ -179,7 +569,36 @@ public class BufferPool {
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        // not necessary for lab1
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        installDirtyPages(tid, file.deleteTuple(tid, t));
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            installDirtyPages(tid, index.deleteEntry(tid, t));
+        }
+        TableStats.tupleDeleted(tableId, t);
+    }
+
+    // mark the pages modified by tid dirty and make them the cached versions
+    private void installDirtyPages(TransactionId tid, List<Page> pages) throws DbException {
+        for (Page page : pages) {
+            page.markDirty(true, tid);
+            PageId pid = page.getId();
+            Shard shard = shardFor(pid);
+            while (true) {
+                synchronized (shard) {
+                    if (shard.frames.containsKey(pid)) {
+                        shard.frames.put(pid, page);
+                        break;
+                    }
+                    if (reserveFrame(shard)) {
+                        shard.frames.put(pid, page);
+                        shard.policy.recordMiss(pid);
+                        break;
+                    }
+                }
+                evictElsewhere(shard);
+            }
+        }
     }
 
     /**
@@ -187,10 +606,21 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
-        // not necessary for lab1
-
+        List<Page> pages = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (Page page : shard.frames.values()) {
+                    if (page.isDirty() != null) {
+                        pages.add(page);
+                    }
+                }
+            }
+        }
+        for (Page page : pages) {
+            writeDirtyPage(page);
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -201,34 +631,161 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
-        // not necessary for lab1
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            // a read in flight must not install its (possibly stale) result
+            if (shard.pendingReads.remove(pid) != null) {
+                usedFrames.decrementAndGet();
+            }
+            if (shard.frames.remove(pid) != null) {
+                shard.policy.recordRemoval(pid);
+                usedFrames.decrementAndGet();
+            }
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
-        // not necessary for lab1
+        Shard shard = shardFor(pid);
+        Page page;
+        synchronized (shard) {
+            page = shard.frames.get(pid);
+        }
+        if (page != null && page.isDirty() != null) {
+            writeDirtyPage(page);
+        }
+    }
+
+    // log the update record of a dirty page and write the page. The log is
+    // called into with no shard monitor held: checkpoint and rollback hold
+    // the LogFile's monitor while they take shard monitors
+    private void writeDirtyPage(Page page) throws IOException {
+        TransactionId dirtier = page.isDirty();
+        if (dirtier == null) {
+            return;
+        }
+        // write-ahead: the update record must be on disk before the page
+        LogFile log = Database.getLogFile();
+        if (log != null) {
+            log.logWrite(dirtier, page.getBeforeImage(), page);
+            log.force();
+        }
+        writeLoggedPage(page, dirtier);
+    }
+
+    // write a page whose update record is on disk, unless it was dropped
+    // from the pool or changed hands since the record was written
+    private void writeLoggedPage(Page page, TransactionId dirtier) throws IOException {
+        PageId pid = page.getId();
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            if (shard.frames.get(pid) == page && dirtier.equals(page.isDirty())) {
+                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+                page.markDirty(false, null);
+            }
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
+     * The update records of all the pages are logged first and forced
+     * together, sharing the force with other committing transactions, and
+     * without holding any shard's monitor while the log is written.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        List<Page> pages = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (Page page : shard.frames.values()) {
+                    if (tid.equals(page.isDirty())) {
+                        pages.add(page);
+                    }
+                }
+            }
+        }
+        if (pages.isEmpty()) {
+            return;
+        }
+        // write-ahead: the update records must be on disk before the pages
+        LogFile log = Database.getLogFile();
+        if (log != null) {
+            for (Page page : pages) {
+                log.logWrite(tid, page.getBeforeImage(), page);
+            }
+            log.forceShared();
+        }
+        // tid holds the pages' locks, so they are still the cached versions
+        for (Page page : pages) {
+            writeLoggedPage(page, tid);
+        }
+    }
+
+    /**
+     * Reserve a frame for a page of the specified shard, evicting one of the
+     * shard's clean pages if the pool is full.
+     * The caller must hold the shard's monitor.
+     *
+     * @return false if the pool is full and every page of the shard is dirty
+     */
+    private boolean reserveFrame(Shard shard) {
+        while (true) {
+            int used = usedFrames.get();
+            if (used < pageLimit) {
+                if (usedFrames.compareAndSet(used, used + 1)) {
+                    return true;
+                }
+            } else if (!evictPage(shard)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Evict a clean page of any shard but the specified one, which could not
+     * make room for its own pages. The frame freed goes back to the pool's
+     * budget, so the caller reserves it again and may lose it to another
+     * thread. The caller must not hold any shard's monitor.
+     */
+    private void evictElsewhere(Shard full) throws DbException {
+        for (Shard shard : shards) {
+            if (shard == full) {
+                continue;
+            }
+            synchronized (shard) {
+                if (evictPage(shard)) {
+                    return;
+                }
+            }
+        }
+        throw new DbException("all pages in the buffer pool are dirty");
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Only clean pages are discarded, so nothing needs to be written.
+     * The caller must hold the shard's monitor.
+     *
+     * @return false if every page of the shard is dirty
      */
-    private synchronized  void evictPage() throws DbException {
+    private boolean evictPage(Shard shard) {
         // some code goes here
-        // not necessary for lab1
+        // dirty pages are never evicted (NO STEAL), so only clean pages are candidates
+        PageId victim = shard.policy.evict(pid -> {
+            Page p = shard.frames.get(pid);
+            return p != null && p.isDirty() == null;
+        });
+        if (victim == null) {
+            return false;
+        }
+        shard.frames.remove(victim);
+        usedFrames.decrementAndGet();
+        return true;
     }
 
-}
\ No newline at end of file
+}
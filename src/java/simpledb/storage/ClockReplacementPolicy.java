@@ -0,0 +1,86 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Second-chance CLOCK replacement. Resident pages sit in a circular array of
+ * frames, each with a reference bit that is set on every hit. The clock hand
+ * sweeps the frames, clearing reference bits, and evicts the first evictable
+ * page whose bit is already clear.
+ */
+public class ClockReplacementPolicy extends ReplacementPolicy {
+
+    private final List<PageId> frames = new ArrayList<>();
+    private final List<Boolean> referenced = new ArrayList<>();
+    private final Map<PageId, Integer> frameOf = new HashMap<>();
+    private final ArrayDeque<Integer> freeFrames = new ArrayDeque<>();
+    private int hand = 0;
+
+    @Override
+    public Kind getKind() {
+        return Kind.CLOCK;
+    }
+
+    @Override
+    protected void onHit(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null)
+            referenced.set(frame, true);
+    }
+
+    @Override
+    protected void onAdmit(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            onHit(pid);
+            return;
+        }
+        int frame;
+        if (!freeFrames.isEmpty()) {
+            frame = freeFrames.poll();
+            frames.set(frame, pid);
+            referenced.set(frame, true);
+        } else {
+            frame = frames.size();
+            frames.add(pid);
+            referenced.add(true);
+        }
+        frameOf.put(pid, frame);
+    }
+
+    @Override
+    protected void onRemove(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames.set(frame, null);
+            referenced.set(frame, false);
+            freeFrames.add(frame);
+        }
+    }
+
+    @Override
+    protected PageId chooseVictim(Predicate<PageId> evictable) {
+        int n = frames.size();
+        if (n == 0)
+            return null;
+        // two full sweeps: the first may only clear reference bits
+        for (int i = 0; i < 2 * n; i++) {
+            int frame = hand;
+            hand = (hand + 1) % n;
+            PageId pid = frames.get(frame);
+            if (pid == null || !evictable.test(pid))
+                continue;
+            if (referenced.get(frame)) {
+                referenced.set(frame, false);
+                continue;
+            }
+            onRemove(pid);
+            return pid;
+        }
+        return null;
+    }
+}
@@ -8,7 +8,11 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
-import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -17,6 +21,12 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Pages are read and written through a {@link FileChannel} that stays open
+ * for the lifetime of the HeapFile. In memory-mapped mode, reads are served
+ * from a read-only mapping of the file, with no read call per page; the
+ * mapping is extended when the file grows. Each page copies its slice of the
+ * mapping when it is read, so it does not change when the file is written.
  * 
  * @see HeapPage#HeapPage
  * @author Sam Madden
@@ -25,6 +35,18 @@ public class HeapFile implements DbFile {
 	// introduced variables to store File file and TupleDesc tupleDesc
 	private File file;
 	private TupleDesc tupleDesc;
+	private final boolean memoryMapped;
+
+	// opened on first use and kept open; guarded by this
+	private FileChannel channel;
+	// the mapping is split into segments of SEGMENT_PAGES pages each, since
+	// a single MappedByteBuffer cannot exceed 2GB; guarded by this
+	private final Map<Integer, MappedByteBuffer> segments = new HashMap<>();
+	// the page size the segments were mapped with
+	private int mappedPageSize;
+
+	/** Number of pages covered by one mapped segment of the file. */
+	static final int SEGMENT_PAGES = 1 << 16;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -34,9 +56,99 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally serving
+     * page reads from a memory mapping of the file.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            whether reads should go through a MappedByteBuffer
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         // some code goes here
     	this.file = f;
     	this.tupleDesc = td;
+    	this.memoryMapped = memoryMapped;
+    }
+
+    /** @return true if page reads are served from a memory mapping of the file */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    // returns the open channel, opening it first if necessary
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            RandomAccessFile raf;
+            try {
+                raf = new RandomAccessFile(file, "rw");
+            } catch (FileNotFoundException e) {
+                // read-only files can still be scanned
+                raf = new RandomAccessFile(file, "r");
+            }
+            channel = raf.getChannel();
+            segments.clear();
+        }
+        return channel;
+    }
+
+    /** An operation on the channel of a HeapFile. */
+    private interface ChannelOp<T> {
+        T apply(FileChannel ch) throws IOException;
+    }
+
+    // runs op on the open channel. A thread interrupted during I/O on the
+    // channel, such as a parallel scan worker being stopped, closes it for
+    // everyone, so op is retried on a reopened channel unless this thread is
+    // the one that was interrupted
+    private <T> T onChannel(ChannelOp<T> op) throws IOException {
+        while (true) {
+            try {
+                return op.apply(channel());
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                if (Thread.currentThread().isInterrupted())
+                    throw e;
+            }
+        }
+    }
+
+    // returns the mapped segment holding page pgNo, mapping or extending it
+    // if the page lies beyond what is mapped so far
+    private synchronized MappedByteBuffer segment(int pgNo, int pageSize) throws IOException {
+        if (pageSize != mappedPageSize) {
+            segments.clear();
+            mappedPageSize = pageSize;
+        }
+        int seg = pgNo / SEGMENT_PAGES;
+        long start = (long) seg * SEGMENT_PAGES * pageSize;
+        long needed = (long) (pgNo % SEGMENT_PAGES + 1) * pageSize;
+        MappedByteBuffer buf = segments.get(seg);
+        if (buf == null || buf.capacity() < needed) {
+            FileChannel ch = channel();
+            long length = Math.min((long) SEGMENT_PAGES * pageSize, ch.size() - start);
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, start, length);
+            segments.put(seg, buf);
+        }
+        return buf;
+    }
+
+    /**
+     * Closes the underlying channel and drops the mapping. The file is
+     * reopened on the next access.
+     */
+    public synchronized void close() throws IOException {
+        segments.clear();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
     }
 
     /**
@@ -81,31 +193,50 @@ public class HeapFile implements DbFile {
      */
     public Page readPage(PageId pid){
         // some code goes here
-        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-            int offset = BufferPool.getPageSize() * pid.getPageNumber();
-            byte[] data = new byte[BufferPool.getPageSize()];
-            
-            // if the offset exceeds the file length
-            if (offset < 0 || offset >= this.file.length()) {
-                throw new IllegalArgumentException("Page does not exist");
-            }
-            
-            raf.seek(offset);
-            raf.readFully(data);
-            raf.close();
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) pageSize * pid.getPageNumber();
+        try {
+            return onChannel(ch -> {
+                if (pid.getPageNumber() < 0 || offset + pageSize > ch.size()) {
+                    throw new IllegalArgumentException("page " + pid.getPageNumber() + " does not exist in " + file);
+                }
 
-            return new HeapPage((HeapPageId) pid, data);
-            
-        } catch (Exception e) {}
-        
-        return null;
-        
+                ByteBuffer data;
+                if (memoryMapped) {
+                    // a private view of the mapping, so concurrent reads do not
+                    // share a position
+                    ByteBuffer view = segment(pid.getPageNumber(), pageSize).duplicate();
+                    int start = (pid.getPageNumber() % SEGMENT_PAGES) * pageSize;
+                    view.position(start);
+                    view.limit(start + pageSize);
+                    data = view.slice();
+                } else {
+                    data = ByteBuffer.allocate(pageSize);
+                    while (data.hasRemaining()) {
+                        if (ch.read(data, offset + data.position()) < 0) {
+                            throw new EOFException("unexpected end of " + file);
+                        }
+                    }
+                    data.flip();
+                }
+                return new HeapPage((HeapPageId) pid, data);
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
-        // not necessary for lab1
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        long offset = (long) BufferPool.getPageSize() * page.getId().getPageNumber();
+        onChannel(ch -> {
+            while (data.hasRemaining()) {
+                ch.write(data, offset + data.position());
+            }
+            return null;
+        });
     }
 
     /**
@@ -113,23 +244,64 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-    	return (int) Math.ceil(this.file.length() / BufferPool.getPageSize());
+        try {
+            return (int) (onChannel(FileChannel::size) / BufferPool.getPageSize());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     // see DbFile.java for javadocs
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        return null;
-        // not necessary for lab1
+        BufferPool bufferPool = Database.getBufferPool();
+        ArrayList<Page> modified = new ArrayList<>();
+        for (int i = 0; i < numPages(); i++) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            boolean alreadyLocked = bufferPool.holdsLock(tid, pid);
+            // look for room under a shared lock, so that full pages are not
+            // locked exclusively for the rest of the transaction
+            HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_ONLY);
+            if (page.getNumEmptySlots() == 0) {
+                if (!alreadyLocked) {
+                    bufferPool.unsafeReleasePage(tid, pid);
+                }
+                continue;
+            }
+            page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                page.insertTuple(t);
+                modified.add(page);
+                return modified;
+            }
+        }
+
+        // every page is full: append an empty one and insert through the pool
+        HeapPageId pid;
+        synchronized (this) {
+            pid = new HeapPageId(getId(), numPages());
+            writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+        }
+        HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        modified.add(page);
+        return modified;
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        return null;
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple is not a member of this file");
+        }
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        ArrayList<Page> modified = new ArrayList<>();
+        modified.add(page);
+        return modified;
     }
 
     private class HeapFileIterator implements DbFileIterator {
@@ -156,8 +328,7 @@ public class HeapFile implements DbFile {
     			return;
     		}
             
-    		heapPageIterator = ((HeapPage) Database.getBufferPool().getPage(tid,
-    				new HeapPageId(getId(), currentPage), Permissions.READ_ONLY)).iterator();
+    		heapPageIterator = pageIterator(currentPage);
     		
     		// if current page has no more tuples, change heapPageIterator to next page's iterator
     		if (!heapPageIterator.hasNext()) {
@@ -166,6 +337,14 @@ public class HeapFile implements DbFile {
     		
     	}
     	
+    	// fetch a page for the scan, letting the prefetcher read ahead
+    	private Iterator<Tuple> pageIterator(int pgNo) throws DbException, TransactionAbortedException {
+    		HeapPageId pid = new HeapPageId(getId(), pgNo);
+    		BufferPool bufferPool = Database.getBufferPool();
+    		bufferPool.getPrefetcher().accessed(pid, numPages());
+    		return ((HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_ONLY)).iterator();
+    	}
+    	
     	// function to help get the next page's iterator
     	private void UseNextPageIterator() throws DbException, TransactionAbortedException {
     		// if current headPageIterator has reached the end of the page
@@ -176,9 +355,7 @@ public class HeapFile implements DbFile {
     			// if the new currentPage number is valid
     			if (currentPage < numPages()) {
     				// update heapPageIterator with the new iterator for the new currentPage
-    				heapPageIterator = ((HeapPage) Database.getBufferPool().getPage(tid,
-    						new HeapPageId(getId(), currentPage),
-    						Permissions.READ_ONLY)).iterator();
+    				heapPageIterator = pageIterator(currentPage);
     			} else {
     				break;
     			}
@@ -3,16 +3,24 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
+import simpledb.common.Type;
 import simpledb.common.Catalog;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
 import java.lang.Math;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Pages are decoded lazily: the page keeps the raw bytes it was read from and
+ * only turns a slot into a Tuple when the slot is first visited by
+ * {@link #iterator()} or fetched with {@link #getTuple(int)}. Slots that are
+ * never modified are copied back verbatim by {@link #getPageData()}.
  *
  * @see HeapFile
  * @see BufferPool
@@ -23,11 +31,23 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
+    // decoded or inserted tuples; null for empty slots and for used slots
+    // that have not been decoded from raw yet
     final Tuple[] tuples;
     final int numSlots;
-
+    // the page as read from disk, positioned at the start of the page; never
+    // shared with the file, so later writes to the file do not show through
+    private final ByteBuffer raw;
+    // slots whose contents no longer match raw
+    private final BitSet modified;
+
+    // the page before its first modification, captured copy-on-write; null
+    // while the page is unmodified since the last setBeforeImage()
     byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    private final Object oldDataLock = new Object();
+
+    // introduced the transaction that last dirtied this page, null if clean
+    private volatile TransactionId dirtier;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -43,30 +63,53 @@ public class HeapPage implements Page {
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
+     * <p>
+     * The page decodes its slots lazily from a copy of data, so the caller
+     * may reuse the array afterwards.
+     *
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data.clone()));
+    }
+
+    /**
+     * Create a HeapPage directly from a buffer holding the page as laid out
+     * on disk, e.g. a slice of a memory-mapped HeapFile. The page is decoded
+     * from the buffer's position onwards with absolute reads, so the buffer's
+     * position and limit are left untouched.
+     * <p>
+     * A direct buffer, such as a slice of a mapping, is copied once into a
+     * buffer private to the page: slots are decoded lazily, and must not see
+     * the file being written after the page was read. Any other buffer is
+     * taken over by the page and must not be modified by the caller afterwards.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        if (data.isDirect()) {
+            ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+            copy.put(data.duplicate());
+            copy.flip();
+            this.raw = copy;
+        } else {
+            this.raw = data.slice();
+        }
 
-        // allocate and read the header slots of this page
+        // allocate and read the header slots of this page; tuples are
+        // decoded on demand
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+        try {
+            raw.duplicate().get(header);
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("page " + id + " is shorter than its header");
+        }
         
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
-
-        setBeforeImage();
+        modified = new BitSet(numSlots);
     }
 
     /** Retrieve the number of tuples on this page.
@@ -95,6 +138,9 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
+            // not modified since the last before image was taken
+            if (oldDataRef == null)
+                oldDataRef = getPageData();
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -107,7 +153,18 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        // the current contents become the before image; they are only
+        // copied once the page is about to change again
+        oldData = null;
+        }
+    }
+
+    // copy-on-write: remember the page as it is before the first change
+    private void captureBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        if (oldData == null)
+            oldData = getPageData();
         }
     }
 
@@ -120,39 +177,68 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Decode the tuple stored in the specified slot from the raw page bytes.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    private Tuple decodeSlot(int slotId) throws NoSuchElementException {
+        Tuple t;
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
+            t = new Tuple(td, raw, header.length + slotId * td.getSize());
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+        t.setRecordId(new RecordId(pid, slotId));
+        return t;
+    }
 
+    /**
+     * Returns the tuple in the specified slot, decoding it if this is the
+     * first time the slot is accessed.
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    public Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId))
+            return null;
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            // racing readers may both decode the slot; either result is fine
+            t = decodeSlot(slotId);
+            tuples[slotId] = t;
+        }
         return t;
     }
 
+    /**
+     * Append the tuples in use on this page to a batch. Slots that have not
+     * been decoded yet are copied straight from the raw page bytes into the
+     * batch's columns, without creating Tuple or Field objects.
+     */
+    public void appendTo(TupleBatch batch) {
+        int tupleSize = td.getSize();
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            Tuple t = tuples[i];
+            if (t != null) {
+                batch.appendTuple(t);
+                continue;
+            }
+            int offset = header.length + i * tupleSize;
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                if (type == Type.INT_TYPE) {
+                    batch.intColumn(j).append(raw.getInt(offset));
+                } else {
+                    int len = Math.max(0, Math.min(Type.STRING_LEN, raw.getInt(offset)));
+                    batch.stringColumn(j).append(raw, offset + 4, len);
+                }
+                offset += type.getLen();
+            }
+            batch.addRow(new RecordId(pid, i));
+        }
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -166,63 +252,38 @@ public class HeapPage implements Page {
      */
     public byte[] getPageData() {
         int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        byte[] data = new byte[len];
+
+        // start from the bytes read from disk; slots that were never
+        // modified are thereby already in place
+        ByteBuffer src = raw.duplicate();
+        src.get(data, 0, Math.min(len, src.remaining()));
 
-        // create the tuples
+        // the header
+        System.arraycopy(header, 0, data, 0, header.length);
+
+        // the tuples
+        int tupleSize = td.getSize();
         for (int i=0; i<tuples.length; i++) {
+            int offset = header.length + i * tupleSize;
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
+                Arrays.fill(data, offset, offset + tupleSize, (byte) 0);
                 continue;
             }
+            if (!modified.get(i))
+                continue;
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            // modified slot; tuples are kept in their on-disk format
+            tuples[i].writeTo(data, offset);
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        int used = header.length + tupleSize * tuples.length;
+        Arrays.fill(data, used, len, (byte) 0);
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return data;
     }
 
     /**
@@ -248,7 +309,18 @@ public class HeapPage implements Page {
      */
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on page " + pid);
+        }
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of page " + pid + " is already empty");
+        }
+        captureBeforeImage();
+        markSlotUsed(slot, false);
+        tuples[slot] = null;
+        modified.set(slot);
     }
 
     /**
@@ -260,7 +332,24 @@ public class HeapPage implements Page {
      */
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
-        // not necessary for lab1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tuple descriptor does not match the page");
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                captureBeforeImage();
+                markSlotUsed(i, true);
+                // the page keeps its own copy, so that changes to the
+                // caller's tuple do not reach the page, and the other way round
+                Tuple stored = t.copy();
+                stored.setRecordId(new RecordId(pid, i));
+                t.setRecordId(stored.getRecordId());
+                tuples[i] = stored;
+                modified.set(i);
+                return;
+            }
+        }
+        throw new DbException("page " + pid + " is full");
     }
 
     /**
@@ -269,7 +358,7 @@ public class HeapPage implements Page {
      */
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
-	// not necessary for lab1
+        this.dirtier = dirty ? tid : null;
     }
 
     /**
@@ -277,8 +366,7 @@ public class HeapPage implements Page {
      */
     public TransactionId isDirty() {
         // some code goes here
-	// Not necessary for lab1
-        return null;      
+        return this.dirtier;
     }
 
     /**
@@ -286,15 +374,12 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-    	int totalEmptySlots = 0;
-    	
-    	for (int i = 0; i < this.numSlots; i++) {
-    		if (!this.isSlotUsed(i)) {
-    			totalEmptySlots += 1;
-    		}
+    	int usedSlots = 0;
+    	for (byte b : header) {
+    		usedSlots += Integer.bitCount(b & 0xff);
     	}
-    	
-        return totalEmptySlots;
+        // bits past the last slot are never set
+        return this.numSlots - usedSlots;
     }
 
     /**
@@ -313,7 +398,11 @@ public class HeapPage implements Page {
      */
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
-        // not necessary for lab1
+        if (value) {
+            header[i / 8] |= (byte) (1 << (i % 8));
+        } else {
+            header[i / 8] &= (byte) ~(1 << (i % 8));
+        }
     }
 
     /**
@@ -322,16 +411,46 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        ArrayList<Tuple> newTuples = new ArrayList<>();
-        for (int i = 0; i<tuples.length; i++){
-            if (isSlotUsed(i)){
-                newTuples.add(tuples[i]);
+        // iterate over the slots that are in use now, decoding each one as
+        // the iterator reaches it
+        final byte[] used = header.clone();
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                for (int i = from; i < numSlots; i++) {
+                    if ((used[i / 8] >> (i % 8) & 1) == 1)
+                        return i;
+                }
+                return numSlots;
             }
-        }
 
-        Iterator<Tuple> tupleIterator = newTuples.iterator();
-        return tupleIterator;
+            @Override
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                int slot = next;
+                next = advance(slot + 1);
+                Tuple t = tuples[slot];
+                if (t == null) {
+                    t = decodeSlot(slot);
+                    // the slot may have been emptied since the iterator was created
+                    if (isSlotUsed(slot))
+                        tuples[slot] = t;
+                }
+                return t;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
 }
-
@@ -50,9 +50,9 @@ public class HeapPageId implements PageId {
         // some code goes here
         // Integer a = new Integer(1);
         // Integer hashTableId = tableId;
-        int hashTableId = Integer.toString(tableId).hashCode();
-        int hashPageNo = Integer.toString(tableId).hashCode();
-        return hashTableId + hashPageNo; 
+        // the page number has to take part, otherwise every page of a table
+        // lands in the same hash bucket (and the same BufferPool shard)
+        return 31 * tableId + pgNo;
         // throw new UnsupportedOperationException("implement this");
     }
 
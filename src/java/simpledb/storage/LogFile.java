@@ -6,8 +6,11 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.lang.reflect.*;
+import java.util.concurrent.TimeUnit;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -36,6 +39,19 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<u> Group commit: </u>
+<p>
+
+logCommit does not force the log itself. Committing transactions append
+their record, queue it and wait, and a flusher thread forces the log once
+for all the records queued so far, waking every waiter whose record it
+covered. {@link #forceShared} waits for the same flusher, so the UPDATE
+records a committing transaction writes for its pages share forces too. The flusher may wait up to {@link #setMaxCommitDelayMicros} for
+more commits to join a batch, unless {@link #setMaxCommitBatch} commits
+are already queued. The queue is protected by its own lock, taken after
+(never before) the lock on the LogFile, so committers do not block log
+writes while they wait.
 */
 
 /**
@@ -55,8 +71,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, DELTA, BEGIN,
+and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -65,6 +81,16 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li>DELTA records log the same change as an UPDATE record, but only
+the byte ranges of the page that differ between the two images.  They
+consist of the page id (id class name, an integer count and the
+integers of the serialized id), the integer page size, an integer count
+of ranges, and for each range an integer offset, an integer length, the
+before bytes and the after bytes.  logWrite() writes a DELTA record
+unless it would not be smaller than the UPDATE record.  Installing
+either image of a range is idempotent, so recovery can redo and undo
+them without knowing which had reached the page on disk.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
@@ -84,17 +110,49 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    // changed ranges this close together are logged as one, since each
+    // range costs an offset and a length
+    static final int MERGE_GAP = 2 * INT_SIZE;
+
     long currentOffset = -1;//protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    /** Default time the flusher waits for more commits to join a batch. */
+    public static final long DEFAULT_MAX_COMMIT_DELAY_MICROS = 0;
+    /** Default number of queued commits after which the flusher stops waiting. */
+    public static final int DEFAULT_MAX_COMMIT_BATCH = 64;
+    /** Number of recent commit latencies kept for percentiles. */
+    static final int LATENCY_SAMPLES = 4096;
+    // how long an idle flusher thread lingers before exiting
+    private static final long FLUSHER_IDLE_MILLIS = 1000;
+
+    // records appended so far; protected by this
+    private long appendedSeq = 0;
+
+    // group commit state, protected by commitLock
+    private final Object commitLock = new Object();
+    private final ArrayDeque<Long> queuedCommits = new ArrayDeque<>();
+    private long durableSeq = 0;
+    private long failedSeq = 0;
+    // the last record someone is waiting to be forced
+    private long requestedSeq = 0;
+    private IOException flushError;
+    private Thread flusher;
+    private volatile long maxCommitDelayMicros = DEFAULT_MAX_COMMIT_DELAY_MICROS;
+    private volatile int maxCommitBatch = DEFAULT_MAX_COMMIT_BATCH;
+    private long commitCount, flushCount, maxBatchSize, forceCount;
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -127,6 +185,7 @@ public class LogFile {
     // the log.
     void preAppend() throws IOException {
         totalRecords++;
+        appendedSeq++;
         if(recoveryUndecided){
             recoveryUndecided = false;
             raf.seek(0);
@@ -171,21 +230,242 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  The force is shared with the other
+        transactions committing at the same time; this returns once
+        the record is on disk.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long start = System.nanoTime();
+        long seq;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            raf.writeInt(COMMIT_RECORD);
+            raf.writeLong(tid.getId());
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            tidToFirstLogRecord.remove(tid.getId());
+            seq = appendedSeq;
+            synchronized (commitLock) {
+                queuedCommits.add(seq);
+            }
+        }
+        if (Thread.holdsLock(this)) {
+            // the flusher could not get in while we wait
+            force();
+        } else {
+            awaitDurable(seq);
+        }
+        synchronized (commitLock) {
+            latencies[latencyCount++ % LATENCY_SAMPLES] = System.nanoTime() - start;
+        }
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /**
+     * Force the log to disk up to the last record appended so far. The
+     * force is shared with the commits and other forces going on at the
+     * same time; this returns once the records are on disk.
+     */
+    public void forceShared() throws IOException {
+        if (Thread.holdsLock(this)) {
+            // the flusher could not get in while we wait
+            force();
+            return;
+        }
+        long seq;
+        synchronized (this) {
+            seq = appendedSeq;
+        }
+        awaitDurable(seq);
+    }
+
+    // wait for the flusher to force the record seq to disk
+    private void awaitDurable(long seq) throws IOException {
+        synchronized (commitLock) {
+            requestedSeq = Math.max(requestedSeq, seq);
+            if (flusher == null) {
+                flusher = new Thread(this::flushCommits, "log-flusher");
+                flusher.setDaemon(true);
+                flusher.start();
+            }
+            commitLock.notifyAll();
+            boolean interrupted = false;
+            while (durableSeq < seq) {
+                if (failedSeq >= seq)
+                    throw new IOException("could not force log: " + flushError.getMessage());
+                try {
+                    commitLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    // body of the flusher thread: force the log for batches of queued
+    // commits, and exit once idle
+    private void flushCommits() {
+        while (true) {
+            synchronized (commitLock) {
+                try {
+                    long idleUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSHER_IDLE_MILLIS);
+                    while (requestedSeq <= Math.max(durableSeq, failedSeq)) {
+                        long left = idleUntil - System.nanoTime();
+                        if (left <= 0) {
+                            flusher = null;
+                            return;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(commitLock, left);
+                    }
+                    // let more commits join the batch
+                    long flushAt = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(maxCommitDelayMicros);
+                    while (queuedCommits.size() < maxCommitBatch) {
+                        long left = flushAt - System.nanoTime();
+                        if (left <= 0)
+                            break;
+                        TimeUnit.NANOSECONDS.timedWait(commitLock, left);
+                    }
+                } catch (InterruptedException e) {
+                    // flush what is queued
+                }
+            }
+            long target;
+            FileChannel channel;
+            synchronized (this) {
+                target = appendedSeq;
+                channel = raf.getChannel();
+            }
+            try {
+                try {
+                    // appends may go on during the force
+                    channel.force(true);
+                } catch (ClosedChannelException e) {
+                    // the log was truncated and reopened meanwhile
+                    synchronized (this) {
+                        raf.getChannel().force(true);
+                    }
+                }
+                markDurable(target);
+            } catch (IOException e) {
+                synchronized (commitLock) {
+                    flushError = e;
+                    failedSeq = Math.max(failedSeq, target);
+                    while (!queuedCommits.isEmpty() && queuedCommits.peek() <= target)
+                        queuedCommits.poll();
+                    commitLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    // the log was forced and the records up to seq are on disk; wake their
+    // committers
+    private void markDurable(long seq) {
+        synchronized (commitLock) {
+            forceCount++;
+            if (seq <= durableSeq)
+                return;
+            durableSeq = seq;
+            int batch = 0;
+            while (!queuedCommits.isEmpty() && queuedCommits.peek() <= seq) {
+                queuedCommits.poll();
+                batch++;
+            }
+            if (batch > 0) {
+                commitCount += batch;
+                flushCount++;
+                maxBatchSize = Math.max(maxBatchSize, batch);
+            }
+            commitLock.notifyAll();
+        }
+    }
+
+    /** @return how long the flusher waits for more commits to join a batch */
+    public long getMaxCommitDelayMicros() {
+        return maxCommitDelayMicros;
+    }
+
+    /**
+     * Set how long the flusher waits for more commits to join a batch; a
+     * longer delay means fewer forces but slower commits.  0, the default,
+     * batches only the commits that queue up during the previous force.
+     */
+    public void setMaxCommitDelayMicros(long micros) {
+        if (micros < 0)
+            throw new IllegalArgumentException("commit delay must not be negative");
+        maxCommitDelayMicros = micros;
+    }
+
+    /** @return the number of queued commits after which the flusher stops waiting */
+    public int getMaxCommitBatch() {
+        return maxCommitBatch;
+    }
+
+    /** Set the number of queued commits after which the flusher stops waiting. */
+    public void setMaxCommitBatch(int commits) {
+        if (commits < 1)
+            throw new IllegalArgumentException("commit batch must be positive");
+        maxCommitBatch = commits;
+    }
+
+    /** @return the number of commits acknowledged by a force of the log */
+    public long getCommitCount() {
+        synchronized (commitLock) {
+            return commitCount;
+        }
+    }
+
+    /** @return the number of forces of the log that acknowledged commits */
+    public long getCommitFlushCount() {
+        synchronized (commitLock) {
+            return flushCount;
+        }
+    }
+
+    /** @return the number of times the log was forced to disk */
+    public long getForceCount() {
+        synchronized (commitLock) {
+            return forceCount;
+        }
+    }
+
+    /** @return the average number of commits acknowledged by a force */
+    public double getAverageCommitBatch() {
+        synchronized (commitLock) {
+            return flushCount == 0 ? 0 : (double) commitCount / flushCount;
+        }
+    }
+
+    /** @return the largest number of commits acknowledged by one force */
+    public long getMaxCommitBatchSize() {
+        synchronized (commitLock) {
+            return maxBatchSize;
+        }
+    }
+
+    /**
+     * @return the p-th percentile (0 to 100) of the latency of the last
+     *         {@link #LATENCY_SAMPLES} commits, in microseconds, or 0 if
+     *         there were none
+     */
+    public long getCommitLatencyPercentile(double p) {
+        if (p < 0 || p > 100)
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        long[] sorted;
+        synchronized (commitLock) {
+            sorted = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+        }
+        if (sorted.length == 0)
+            return 0;
+        Arrays.sort(sorted);
+        int i = (int) Math.ceil(p / 100 * sorted.length) - 1;
+        return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, i)]);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -209,6 +489,18 @@ public class LogFile {
            after page data
            start offset
         */
+        byte[] beforeData = before.getPageData();
+        byte[] afterData = after.getPageData();
+        if (before.getClass() == after.getClass() && beforeData.length == afterData.length) {
+            byte[] delta = deltaRecord(tid.getId(), after.getId(), beforeData, afterData, false);
+            if (delta != null) {
+                raf.write(delta);
+                currentOffset = raf.getFilePointer();
+                Debug.log("DELTA OFFSET = " + currentOffset);
+                return;
+            }
+        }
+
         raf.writeInt(UPDATE_RECORD);
         raf.writeLong(tid.getId());
 
@@ -220,6 +512,64 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /**
+     * @return the byte ranges where two page images differ, as {offset,
+     *         length} pairs; ranges less than {@link #MERGE_GAP} bytes
+     *         apart are merged
+     */
+    static List<int[]> changedRanges(byte[] before, byte[] after) {
+        List<int[]> ranges = new ArrayList<>();
+        int i = 0;
+        while (i < before.length) {
+            if (before[i] == after[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1; // exclusive end of the differing bytes
+            for (i = end; i < before.length && i - end < MERGE_GAP; i++) {
+                if (before[i] != after[i])
+                    end = i + 1;
+            }
+            ranges.add(new int[]{start, end - start});
+            i = end;
+        }
+        return ranges;
+    }
+
+    // the whole DELTA record of a change, or null if an UPDATE record
+    // would not be larger, unless always is set
+    private byte[] deltaRecord(long tid, PageId pid, byte[] before, byte[] after, boolean always)
+            throws IOException {
+        List<int[]> ranges = changedRanges(before, after);
+        long rangeBytes = 0;
+        for (int[] r : ranges)
+            rangeBytes += 2 * INT_SIZE + 2L * r[1];
+        if (rangeBytes >= 2L * before.length && !always)
+            return null;
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream((int) rangeBytes + 64);
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeInt(DELTA_RECORD);
+        out.writeLong(tid);
+        out.writeUTF(pid.getClass().getName());
+        int[] pageInfo = pid.serialize();
+        out.writeInt(pageInfo.length);
+        for (int j : pageInfo)
+            out.writeInt(j);
+        out.writeInt(before.length);
+        out.writeInt(ranges.size());
+        for (int[] r : ranges) {
+            out.writeInt(r[0]);
+            out.writeInt(r[1]);
+            out.write(before, r[0], r[1]);
+            out.write(after, r[0], r[1]);
+        }
+        out.writeLong(currentOffset);
+        out.flush();
+        return buf.toByteArray();
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
@@ -288,6 +638,177 @@ public class LogFile {
 
     }
 
+    PageId readPageId(RandomAccessFile raf) throws IOException {
+        String idClassName = raf.readUTF();
+        try {
+            Constructor<?>[] idConsts = Class.forName(idClassName).getDeclaredConstructors();
+            int numIdArgs = raf.readInt();
+            Object[] idArgs = new Object[numIdArgs];
+            for (int i = 0; i < numIdArgs; i++) {
+                idArgs[i] = raf.readInt();
+            }
+            return (PageId) idConsts[0].newInstance(idArgs);
+        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
+            throw new IOException("could not read page id: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A page image read back from the log, without decoding it into a page
+     * of its own class; only used to install the image in its file.
+     */
+    private static class PageImage implements Page {
+        private final PageId pid;
+        private final byte[] data;
+
+        PageImage(PageId pid, byte[] data) {
+            this.pid = pid;
+            this.data = data;
+        }
+
+        public PageId getId() {
+            return pid;
+        }
+
+        public TransactionId isDirty() {
+            return null;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+        }
+
+        public byte[] getPageData() {
+            return data;
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
+    }
+
+    // read page data written by writePageData as a page image
+    private PageImage readPageImage(RandomAccessFile raf) throws IOException {
+        raf.readUTF(); // page class name
+        PageId pid = readPageId(raf);
+        byte[] data = new byte[raf.readInt()];
+        raf.readFully(data);
+        return new PageImage(pid, data);
+    }
+
+    // skip the body of a record of the specified type, up to its start offset
+    private void skipRecordBody(RandomAccessFile raf, int type) throws IOException {
+        switch (type) {
+        case UPDATE_RECORD:
+            readPageImage(raf);
+            readPageImage(raf);
+            break;
+        case DELTA_RECORD:
+            readPageId(raf);
+            raf.readInt();
+            int ranges = raf.readInt();
+            while (ranges-- > 0) {
+                raf.readInt();
+                int length = raf.readInt();
+                raf.seek(raf.getFilePointer() + 2L * length);
+            }
+            break;
+        case CHECKPOINT_RECORD:
+            int numXactions = raf.readInt();
+            raf.seek(raf.getFilePointer() + 2L * LONG_SIZE * numXactions);
+            break;
+        }
+    }
+
+    /**
+     * Install the before (undo) or after (redo) image of the UPDATE or
+     * DELTA record at offset in the page's file, and drop the page from the
+     * buffer pool.
+     *
+     * @return the page as it was on disk, and as installed
+     */
+    private PageImage[] installImage(long offset, boolean redo) throws IOException {
+        raf.seek(offset);
+        int type = raf.readInt();
+        raf.readLong();
+        PageImage image;
+        if (type == UPDATE_RECORD) {
+            PageImage before = readPageImage(raf);
+            PageImage after = readPageImage(raf);
+            image = redo ? after : before;
+        } else {
+            PageId pid = readPageId(raf);
+            byte[] data = pageOnDisk(pid, raf.readInt());
+            int ranges = raf.readInt();
+            while (ranges-- > 0) {
+                int start = raf.readInt();
+                int length = raf.readInt();
+                if (redo)
+                    raf.skipBytes(length);
+                raf.readFully(data, start, length);
+                if (!redo)
+                    raf.skipBytes(length);
+            }
+            image = new PageImage(pid, data);
+        }
+        PageImage old = new PageImage(image.pid, pageOnDisk(image.pid, image.data.length));
+        Database.getCatalog().getDatabaseFile(image.pid.getTableId()).writePage(image);
+        Database.getBufferPool().discardPage(image.pid);
+        return new PageImage[]{old, image};
+    }
+
+    /**
+     * Undo the changes logged at the specified offsets, newest first.  Each
+     * undo is logged as a DELTA record of the same transaction, so that
+     * recovery, which repeats history, repeats the undo as well before a
+     * later transaction's change to the same bytes.
+     */
+    private void undo(List<Long> changes) throws IOException {
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            long offset = changes.get(i);
+            raf.seek(offset + INT_SIZE);
+            long tid = raf.readLong();
+            PageImage[] images = installImage(offset, false);
+            raf.seek(currentOffset);
+            preAppend();
+            raf.write(deltaRecord(tid, images[1].pid, images[0].data, images[1].data, true));
+            currentOffset = raf.getFilePointer();
+        }
+    }
+
+    // the bytes of a page in its file, or zeros if the page was never
+    // written
+    private byte[] pageOnDisk(PageId pid, int pageSize) {
+        try {
+            return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid).getPageData();
+        } catch (IllegalArgumentException e) {
+            return new byte[pageSize];
+        }
+    }
+
+    /**
+     * @return the offsets of the UPDATE and DELTA records from offset to
+     *         the end of the log, of the specified transaction or of all of
+     *         them if tid is null
+     */
+    private List<Long> changeRecords(long offset, Long tid) throws IOException {
+        List<Long> changes = new ArrayList<>();
+        long end = raf.length();
+        raf.seek(offset);
+        while (raf.getFilePointer() < end) {
+            long start = raf.getFilePointer();
+            int type = raf.readInt();
+            long recordTid = raf.readLong();
+            if ((type == UPDATE_RECORD || type == DELTA_RECORD) && (tid == null || tid == recordTid))
+                changes.add(start);
+            skipRecordBody(raf, type);
+            raf.readLong();
+        }
+        return changes;
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -350,6 +871,39 @@ public class LogFile {
         logTruncate();
     }
 
+    /** Return the offset of the first log record recovery needs, given the
+        last checkpoint: the first record of the oldest transaction that
+        was still active at the checkpoint, or the checkpoint itself.  The
+        checkpoint flushed every page, so the changes logged before it are
+        on disk, and only those of the active transactions may need to be
+        undone.
+
+        @param cpLoc The offset of the last checkpoint record
+    */
+    private long firstNeededRecord(long cpLoc) throws IOException {
+        raf.seek(cpLoc);
+        int cpType = raf.readInt();
+        @SuppressWarnings("unused")
+        long cpTid = raf.readLong();
+
+        if (cpType != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
+
+        long minLogRecord = cpLoc;
+        int numOutstanding = raf.readInt();
+
+        for (int i = 0; i < numOutstanding; i++) {
+            @SuppressWarnings("unused")
+            long tid = raf.readLong();
+            long firstLogRecord = raf.readLong();
+            if (firstLogRecord < minLogRecord) {
+                minLogRecord = firstLogRecord;
+            }
+        }
+        return minLogRecord;
+    }
+
     /** Truncate any unneeded portion of the log to reduce its space
         consumption */
     public synchronized void logTruncate() throws IOException {
@@ -360,25 +914,7 @@ public class LogFile {
         long minLogRecord = cpLoc;
 
         if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+            minLogRecord = firstNeededRecord(cpLoc);
         }
 
         // we can truncate everything before minLogRecord
@@ -403,11 +939,14 @@ public class LogFile {
 
                 switch (type) {
                 case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
+                case DELTA_RECORD:
+                    // no offsets inside, copy the body as it is
+                    long bodyStart = raf.getFilePointer();
+                    skipRecordBody(raf, type);
+                    byte[] body = new byte[(int) (raf.getFilePointer() - bodyStart)];
+                    raf.seek(bodyStart);
+                    raf.readFully(body);
+                    logNew.write(body);
                     break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
@@ -460,6 +999,11 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    throw new NoSuchElementException("transaction " + tid.getId() + " has no log records");
+                undo(changeRecords(first, tid.getId()));
+                raf.seek(currentOffset);
             }
         }
     }
@@ -481,12 +1025,63 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        Recovery reads the log from the last checkpoint on, or from the
+        first record of a transaction that was active at the checkpoint.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                if (raf.length() < LONG_SIZE)
+                    return;
+
+                // nothing before the last checkpoint's oldest active
+                // transaction needs to be redone or undone
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                long start = cpLoc == NO_CHECKPOINT_ID ? LONG_SIZE : firstNeededRecord(cpLoc);
+
+                // transactions that neither committed nor aborted lose;
+                // aborted ones logged their undo already
+                Set<Long> losers = new LinkedHashSet<>();
+                long end = raf.length();
+                raf.seek(start);
+                while (raf.getFilePointer() < end) {
+                    int type = raf.readInt();
+                    long tid = raf.readLong();
+                    if (type == COMMIT_RECORD || type == ABORT_RECORD)
+                        losers.remove(tid);
+                    else if (type != CHECKPOINT_RECORD)
+                        losers.add(tid);
+                    skipRecordBody(raf, type);
+                    raf.readLong();
+                }
+
+                // repeat history, then undo the losers newest first
+                List<Long> changes = changeRecords(start, null);
+                for (long offset : changes)
+                    installImage(offset, true);
+                List<Long> loserChanges = new ArrayList<>();
+                for (long offset : changes) {
+                    raf.seek(offset + INT_SIZE);
+                    if (losers.contains(raf.readLong()))
+                        loserChanges.add(offset);
+                }
+                currentOffset = end;
+                undo(loserChanges);
+
+                // the losers are aborted now
+                raf.seek(currentOffset);
+                for (long tid : losers) {
+                    preAppend();
+                    raf.writeInt(ABORT_RECORD);
+                    raf.writeLong(tid);
+                    raf.writeLong(currentOffset);
+                    currentOffset = raf.getFilePointer();
+                }
+                tidToFirstLogRecord.clear();
+                force();
             }
          }
     }
@@ -534,6 +1129,21 @@ public class LogFile {
                     }
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
+                    break;
+                case DELTA_RECORD:
+                    System.out.println(" (DELTA)");
+                    PageId pid = readPageId(raf);
+                    System.out.println("table id " + pid.getTableId() + ", page number " + pid.getPageNumber()
+                            + ", page size " + raf.readInt());
+                    int ranges = raf.readInt();
+                    while (ranges-- > 0) {
+                        int rangeStart = raf.readInt();
+                        int length = raf.readInt();
+                        System.out.println(raf.getFilePointer() + ": bytes " + rangeStart + " TO "
+                                + (rangeStart + length));
+                        raf.skipBytes(2 * length);
+                    }
+                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
                     break;
                 case UPDATE_RECORD:
                     System.out.println(" (UPDATE)");
@@ -569,6 +1179,7 @@ public class LogFile {
 
     public  synchronized void force() throws IOException {
         raf.getChannel().force(true);
+        markDurable(appendedSeq);
     }
 
 }
@@ -0,0 +1,48 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Least-recently-used replacement. Resident pages are kept in an
+ * access-ordered LinkedHashMap, so the eldest entry is always the page that
+ * was touched least recently.
+ */
+public class LruReplacementPolicy extends ReplacementPolicy {
+
+    private final LinkedHashMap<PageId, Boolean> pages = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Override
+    public Kind getKind() {
+        return Kind.LRU;
+    }
+
+    @Override
+    protected void onHit(PageId pid) {
+        pages.get(pid);
+    }
+
+    @Override
+    protected void onAdmit(PageId pid) {
+        pages.put(pid, Boolean.TRUE);
+    }
+
+    @Override
+    protected void onRemove(PageId pid) {
+        pages.remove(pid);
+    }
+
+    @Override
+    protected PageId chooseVictim(Predicate<PageId> evictable) {
+        Iterator<PageId> it = pages.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
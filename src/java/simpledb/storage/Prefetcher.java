@@ -0,0 +1,205 @@
+package simpledb.storage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Prefetcher reads pages into a BufferPool ahead of the scans that will ask
+ * for them, on a small pool of background threads.
+ * <p>
+ * Two kinds of read-ahead are supported:
+ * <ul>
+ * <li>Sequential read-ahead for heap files scanned in page order. Each access is
+ * reported through {@link #accessed}; once a file has been read sequentially
+ * for {@link #SEQUENTIAL_THRESHOLD} pages, the next {@link #getWindow()} pages
+ * are fetched, topping the window up as the scan advances.</li>
+ * <li>Chain read-ahead for B+ tree leaf scans, where the next page is only
+ * known from the current one's sibling pointer. {@link #followChain} walks up
+ * to a window of pages along such a chain.</li>
+ * </ul>
+ * Prefetched pages are read without locks and only admitted when the page is
+ * not cached yet, so they never replace a newer version in the pool; the scan
+ * still locks each page when it actually asks for it. Prefetch hits and
+ * wasted prefetches are counted by the pool's replacement policies.
+ *
+ * @see BufferPool#prefetchPage
+ */
+public class Prefetcher {
+
+    /** Number of consecutive pages after which a scan counts as sequential. */
+    public static final int SEQUENTIAL_THRESHOLD = 2;
+
+    /** Default number of pages read ahead. */
+    public static final int DEFAULT_WINDOW = 8;
+
+    /** Number of background threads doing the reads. */
+    static final int NUM_THREADS = 2;
+
+    /** Read-ahead state of a file that is being scanned. */
+    private static final class Stream {
+        int lastPage = -1;
+        int runLength = 0;
+        // highest page number read ahead so far
+        int prefetchedUpTo = -1;
+    }
+
+    private final BufferPool bufferPool;
+    private final ThreadPoolExecutor executor;
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private volatile int window = DEFAULT_WINDOW;
+    private volatile boolean enabled = true;
+    // tasks submitted and not finished yet; notified when it drops to zero
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * @param bufferPool the pool pages are read into
+     */
+    public Prefetcher(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.executor = new ThreadPoolExecutor(NUM_THREADS, NUM_THREADS, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "simpledb-prefetch");
+                    t.setDaemon(true);
+                    return t;
+                });
+        // idle pools, e.g. of buffer pools that were replaced, do not keep threads
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** @return the number of pages read ahead of a scan */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Set the number of pages read ahead of a scan; 0 turns read-ahead off.
+     */
+    public void setWindow(int window) {
+        if (window < 0)
+            throw new IllegalArgumentException("negative prefetch window " + window);
+        this.window = window;
+    }
+
+    /** @return true if read-ahead is on */
+    public boolean isEnabled() {
+        return enabled && window > 0;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // a window larger than a quarter of the pool would evict pages before
+    // the scan reaches them
+    private int effectiveWindow() {
+        return Math.min(window, Math.max(1, bufferPool.getNumPages() / 4));
+    }
+
+    /**
+     * Report that a scan is about to read the specified page of a file, and
+     * read ahead if the file is being read sequentially.
+     *
+     * @param pid the page being read
+     * @param numPages the number of pages in the file
+     */
+    public void accessed(PageId pid, int numPages) {
+        if (!isEnabled())
+            return;
+        int pgNo = pid.getPageNumber();
+        Stream s = streams.computeIfAbsent(pid.getTableId(), k -> new Stream());
+        int from, to;
+        synchronized (s) {
+            if (pgNo == s.lastPage + 1) {
+                s.runLength++;
+            } else if (pgNo != s.lastPage) {
+                s.runLength = 1;
+                s.prefetchedUpTo = pgNo;
+            }
+            s.lastPage = pgNo;
+            if (s.runLength < SEQUENTIAL_THRESHOLD)
+                return;
+
+            int w = effectiveWindow();
+            // top the window up once half of it has been consumed
+            if (s.prefetchedUpTo - pgNo > w / 2)
+                return;
+            from = Math.max(s.prefetchedUpTo, pgNo) + 1;
+            to = Math.min(numPages - 1, pgNo + w);
+            if (from > to)
+                return;
+            s.prefetchedUpTo = to;
+        }
+
+        final int tableId = pid.getTableId();
+        final int first = from, last = to;
+        submit(() -> {
+            for (int i = first; i <= last; i++) {
+                bufferPool.prefetchPage(new HeapPageId(tableId, i));
+            }
+        });
+    }
+
+    /**
+     * Read ahead along a chain of pages, such as the leaves of a B+ tree,
+     * starting at the specified page.
+     *
+     * @param first the first page to read, or null
+     * @param next returns the id of the page that follows a page, or null at
+     *        the end of the chain
+     * @return the number of pages that will be read ahead at most
+     */
+    public int followChain(PageId first, Function<Page, PageId> next) {
+        if (!isEnabled() || first == null)
+            return 0;
+        final int w = effectiveWindow();
+        submit(() -> {
+            PageId pid = first;
+            for (int i = 0; i < w && pid != null; i++) {
+                Page p = bufferPool.prefetchPage(pid);
+                if (p == null)
+                    break;
+                pid = next.apply(p);
+            }
+        });
+        return w;
+    }
+
+    private void submit(Runnable task) {
+        pending.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // read-ahead is only a hint; the scan reports real errors
+                // when it reads the page itself
+            } finally {
+                if (pending.decrementAndGet() == 0) {
+                    synchronized (pending) {
+                        pending.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    /** Forget the sequential-access state of every file. */
+    public void reset() {
+        streams.clear();
+    }
+
+    /**
+     * Wait until all read-ahead issued so far has completed. Used by tests.
+     */
+    public void awaitQuiescence() throws InterruptedException {
+        synchronized (pending) {
+            while (pending.get() > 0) {
+                pending.wait();
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package simpledb.storage;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool should give up when it
+ * needs room for a new one. The BufferPool reports every hit, every page it
+ * admits after a miss and every page it drops for other reasons (e.g. via
+ * {@link BufferPool#discardPage}); the policy answers with a victim when asked.
+ * <p>
+ * Each policy instance also keeps its own hit/miss/eviction counters so that
+ * different policies can be compared on the same workload.
+ * <p>
+ * Pages read ahead of time by the {@link Prefetcher} are admitted through
+ * {@link #recordPrefetch}. The first request for such a page counts as a
+ * prefetch hit but leaves the page where it was admitted, so read-ahead does
+ * not make pages look more popular than they are. A prefetched page that
+ * leaves the pool before anyone asked for it counts as a wasted prefetch.
+ * <p>
+ * Policies are not thread safe on their own; the BufferPool calls them while
+ * holding the latch that protects its page table.
+ *
+ * @see BufferPool
+ */
+public abstract class ReplacementPolicy {
+
+    /** The replacement policies that can be plugged into a BufferPool. */
+    public enum Kind {
+        /** Least recently used. */
+        LRU,
+        /** Second-chance CLOCK, an LRU approximation with O(1) hits. */
+        CLOCK,
+        /** Scan-resistant 2Q (probationary FIFO, protected LRU and a ghost list). */
+        TWO_QUEUE;
+
+        /**
+         * Create a new policy of this kind for a pool of the given size.
+         *
+         * @param capacity the number of pages the policy will be managing
+         */
+        public ReplacementPolicy create(int capacity) {
+            switch (this) {
+            case LRU:
+                return new LruReplacementPolicy();
+            case CLOCK:
+                return new ClockReplacementPolicy();
+            case TWO_QUEUE:
+                return new TwoQueueReplacementPolicy(capacity);
+            default:
+                throw new IllegalStateException("impossible to reach here");
+            }
+        }
+    }
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong prefetchHits = new AtomicLong();
+    private final AtomicLong wastedPrefetches = new AtomicLong();
+
+    // prefetched pages that have not been requested yet
+    private final Set<PageId> unusedPrefetches = new HashSet<>();
+
+    /**
+     * Record that a page already in the pool was requested again.
+     *
+     * @param pid the id of the requested page
+     */
+    public final void recordHit(PageId pid) {
+        hits.incrementAndGet();
+        if (unusedPrefetches.remove(pid)) {
+            prefetchHits.incrementAndGet();
+            return;
+        }
+        onHit(pid);
+    }
+
+    /**
+     * Record that a page was read ahead of any request and admitted to the
+     * pool.
+     *
+     * @param pid the id of the admitted page
+     */
+    public final void recordPrefetch(PageId pid) {
+        prefetches.incrementAndGet();
+        unusedPrefetches.add(pid);
+        onAdmit(pid);
+    }
+
+    /**
+     * Record that a page was read from disk and admitted to the pool.
+     *
+     * @param pid the id of the admitted page
+     */
+    public final void recordMiss(PageId pid) {
+        misses.incrementAndGet();
+        onAdmit(pid);
+    }
+
+    /**
+     * Record that a page left the pool without being chosen as a victim, for
+     * example because it was discarded by the recovery code.
+     *
+     * @param pid the id of the page that left the pool
+     */
+    public final void recordRemoval(PageId pid) {
+        if (unusedPrefetches.remove(pid))
+            wastedPrefetches.incrementAndGet();
+        onRemove(pid);
+    }
+
+    /**
+     * Choose a page to evict and forget about it.
+     *
+     * @param evictable tells the policy which resident pages may be evicted
+     *                  (e.g., pages that are not dirty)
+     * @return the id of the victim, or null if no resident page is evictable
+     */
+    public final PageId evict(Predicate<PageId> evictable) {
+        PageId victim = chooseVictim(evictable);
+        if (victim != null) {
+            evictions.incrementAndGet();
+            if (unusedPrefetches.remove(victim))
+                wastedPrefetches.incrementAndGet();
+        }
+        return victim;
+    }
+
+    /** @return the number of requests that were served from the pool */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** @return the number of requests that had to read the page from disk */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** @return the number of pages this policy has evicted */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /** @return the number of pages admitted by read-ahead */
+    public long getPrefetchCount() {
+        return prefetches.get();
+    }
+
+    /** @return the number of prefetched pages that were later requested */
+    public long getPrefetchHitCount() {
+        return prefetchHits.get();
+    }
+
+    /** @return the number of prefetched pages that left the pool unrequested */
+    public long getWastedPrefetchCount() {
+        return wastedPrefetches.get();
+    }
+
+    /** @return the fraction of requests served from the pool, or 0 if there were none */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /** Reset the hit/miss/eviction and prefetch counters to zero. */
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        prefetches.set(0);
+        prefetchHits.set(0);
+        wastedPrefetches.set(0);
+    }
+
+    /** @return the kind of this policy */
+    public abstract Kind getKind();
+
+    /** Called when a resident page is requested again. */
+    protected abstract void onHit(PageId pid);
+
+    /** Called when a page is admitted to the pool. */
+    protected abstract void onAdmit(PageId pid);
+
+    /** Called when a resident page leaves the pool without being evicted. */
+    protected abstract void onRemove(PageId pid);
+
+    /**
+     * Pick a victim among the resident pages accepted by evictable and remove
+     * it from the policy's bookkeeping.
+     *
+     * @return the id of the victim, or null if there is none
+     */
+    protected abstract PageId chooseVictim(Predicate<PageId> evictable);
+
+    public String toString() {
+        return getKind() + " [hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + ", prefetches=" + getPrefetchCount()
+                + ", prefetchHits=" + getPrefetchHitCount()
+                + ", wastedPrefetches=" + getWastedPrefetchCount() + "]";
+    }
+}
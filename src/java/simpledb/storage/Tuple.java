@@ -1,21 +1,39 @@
 package simpledb.storage;
 
+import simpledb.common.Type;
+
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The values are not kept as Field objects. A tuple stores all of its
+ * values in a single byte array, laid out as on a heap page (see
+ * {@link TupleDesc#getOffset(int)}), preceded by one bit per field telling
+ * whether the field has been set. The typed accessors such as
+ * {@link #getInt(int)} read the array directly; {@link #getField(int)} wraps
+ * a value in a Field the first time it is asked for, so Field-based callers
+ * keep working.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private TupleDesc td;
     private RecordId recordId;
-    private ArrayList<Field> list = new ArrayList<>();
+    // introduced a bitmap of the fields that have been set, followed by
+    // the values in their on-disk format
+    private final byte[] data;
+    private final int bitmapLen;
+    // the Field wrappers handed out so far, allocated on first use
+    private transient Field[] fields;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -27,6 +45,32 @@ public class Tuple implements Serializable {
         // some code goes here
         this.td = td;
         this.recordId = null;
+        this.bitmapLen = (td.numFields() + 7) / 8;
+        this.data = new byte[bitmapLen + td.getSize()];
+    }
+
+    /**
+     * Create a tuple from its on-disk form, as written by
+     * {@link #writeTo(byte[], int)}. All fields are set.
+     *
+     * @param td the schema of the tuple
+     * @param buf the buffer holding the tuple
+     * @param offset the absolute position of the tuple in buf
+     * @throws IllegalArgumentException if a string length is out of range
+     */
+    public Tuple(TupleDesc td, ByteBuffer buf, int offset) {
+        this(td);
+        ByteBuffer src = buf.duplicate();
+        src.position(offset);
+        src.get(data, bitmapLen, td.getSize());
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                int len = readInt(pos(i));
+                if (len < 0 || len > Type.STRING_LEN)
+                    throw new IllegalArgumentException("bad string length " + len);
+            }
+        }
+        setAll();
     }
 
     /**
@@ -59,6 +103,42 @@ public class Tuple implements Serializable {
         this.recordId = rid;
     }
 
+    // position of the value of field i in data
+    private int pos(int i) {
+        return bitmapLen + td.getOffset(i);
+    }
+
+    private boolean isSet(int i) {
+        return (data[i >> 3] & (1 << (i & 7))) != 0;
+    }
+
+    private void markSet(int i) {
+        data[i >> 3] |= (byte) (1 << (i & 7));
+    }
+
+    private void setAll() {
+        for (int i = 0; i < td.numFields(); i++)
+            markSet(i);
+    }
+
+    private int readInt(int p) {
+        return (data[p] << 24) | ((data[p + 1] & 0xff) << 16)
+                | ((data[p + 2] & 0xff) << 8) | (data[p + 3] & 0xff);
+    }
+
+    private void writeInt(int p, int v) {
+        data[p] = (byte) (v >>> 24);
+        data[p + 1] = (byte) (v >>> 16);
+        data[p + 2] = (byte) (v >>> 8);
+        data[p + 3] = (byte) v;
+    }
+
+    private void checkType(int i, Type expected) {
+        if (td.getFieldType(i) != expected)
+            throw new IllegalArgumentException("field " + i + " is of type "
+                    + td.getFieldType(i) + ", not " + expected);
+    }
+
     /**
      * Change the value of the ith field of this tuple.
      *
@@ -69,8 +149,15 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-        list.add(i, f);
-
+        if (f == null) {
+            data[i >> 3] &= (byte) ~(1 << (i & 7));
+        } else if (f instanceof IntField) {
+            setInt(i, ((IntField) f).getValue());
+        } else {
+            setString(i, ((StringField) f).getValue());
+        }
+        if (fields != null)
+            fields[i] = f;
     }
 
     /**
@@ -81,7 +168,180 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here;
-        return list.get(i);
+        if (i < 0 || i >= td.numFields())
+            throw new NoSuchElementException("no field " + i);
+        if (!isSet(i))
+            return null;
+        if (fields == null)
+            fields = new Field[td.numFields()];
+        Field f = fields[i];
+        if (f == null) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                f = new IntField(readInt(pos(i)));
+            else
+                f = new StringField(getString(i), Type.STRING_LEN);
+            fields[i] = f;
+        }
+        return f;
+    }
+
+    /**
+     * @return the value of the ith field, which must be an int field
+     */
+    public int getInt(int i) {
+        checkType(i, Type.INT_TYPE);
+        return readInt(pos(i));
+    }
+
+    /**
+     * Change the value of the ith field, which must be an int field.
+     */
+    public void setInt(int i, int v) {
+        checkType(i, Type.INT_TYPE);
+        writeInt(pos(i), v);
+        markSet(i);
+        if (fields != null)
+            fields[i] = null;
+    }
+
+    /**
+     * @return the value of the ith field, which must be a string field,
+     *         decoded as ISO-8859-1
+     */
+    public String getString(int i) {
+        checkType(i, Type.STRING_TYPE);
+        int p = pos(i);
+        return new String(data, p + 4, stringLength(p), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Change the value of the ith field, which must be a string field.
+     * Values longer than {@link Type#STRING_LEN} are truncated, as by
+     * {@link StringField}. Each char is stored as its low byte, which is
+     * ISO-8859-1 for the chars it can encode.
+     */
+    public void setString(int i, String s) {
+        checkType(i, Type.STRING_TYPE);
+        int p = pos(i);
+        int len = Math.min(s.length(), Type.STRING_LEN);
+        writeInt(p, len);
+        // one byte per char, as written by StringField.serialize
+        for (int k = 0; k < len; k++)
+            data[p + 4 + k] = (byte) s.charAt(k);
+        Arrays.fill(data, p + 4 + len, p + 4 + Type.STRING_LEN, (byte) 0);
+        markSet(i);
+        if (fields != null)
+            fields[i] = null;
+    }
+
+    // the length of the string at position p, clamped to the valid range
+    private int stringLength(int p) {
+        return Math.max(0, Math.min(Type.STRING_LEN, readInt(p)));
+    }
+
+    /**
+     * Append the value of the ith field, which must be a string field, to a
+     * string column without creating a String.
+     */
+    public void appendStringTo(int i, TupleBatch.StringColumn col) {
+        int p = pos(i);
+        col.append(data, p + 4, stringLength(p));
+    }
+
+    /**
+     * @return the hash of the ith field, which must be a string field; the
+     *         same as {@link TupleBatch.StringColumn#hash} of the value
+     */
+    public int hashString(int i) {
+        int p = pos(i);
+        return TupleBatch.StringColumn.hash(data, p + 4, stringLength(p));
+    }
+
+    /**
+     * @return true if the ith field, which must be a string field, holds the
+     *         value in the specified row of col
+     */
+    public boolean stringEquals(int i, TupleBatch.StringColumn col, int row) {
+        int p = pos(i);
+        return col.equalsBytes(row, data, p + 4, stringLength(p));
+    }
+
+    /**
+     * Set the ith field, which must be a string field, from len bytes of src.
+     */
+    void setStringBytes(int i, byte[] src, int off, int len) {
+        int p = pos(i);
+        len = Math.min(len, Type.STRING_LEN);
+        writeInt(p, len);
+        System.arraycopy(src, off, data, p + 4, len);
+        Arrays.fill(data, p + 4 + len, p + 4 + Type.STRING_LEN, (byte) 0);
+        markSet(i);
+        if (fields != null)
+            fields[i] = null;
+    }
+
+    /**
+     * Copy the value of field srcField of src, which must have the same type,
+     * into field i of this tuple.
+     */
+    public void copyField(int i, Tuple src, int srcField) {
+        Type type = td.getFieldType(i);
+        if (src.td.getFieldType(srcField) != type)
+            throw new IllegalArgumentException("field types differ");
+        if (!src.isSet(srcField))
+            throw new IllegalArgumentException("field " + srcField + " is not set");
+        System.arraycopy(src.data, src.pos(srcField), data, pos(i), type.getLen());
+        markSet(i);
+        if (fields != null)
+            fields[i] = src.fields == null ? null : src.fields[srcField];
+    }
+
+    /**
+     * @return a tuple of schema td holding the fields of t1 followed by the
+     *         fields of t2; td must be the merge of their TupleDescs
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(td);
+        int n1 = t1.td.numFields();
+        int size1 = t1.td.getSize();
+        System.arraycopy(t1.data, t1.bitmapLen, t.data, t.bitmapLen, size1);
+        System.arraycopy(t2.data, t2.bitmapLen, t.data, t.bitmapLen + size1, t2.td.getSize());
+        for (int i = 0; i < n1; i++) {
+            if (t1.isSet(i))
+                t.markSet(i);
+        }
+        for (int i = 0; i < t2.td.numFields(); i++) {
+            if (t2.isSet(i))
+                t.markSet(n1 + i);
+        }
+        return t;
+    }
+
+    /**
+     * @return a tuple with the schema and values of this one, which is not
+     *         stored on any page
+     */
+    public Tuple copy() {
+        Tuple t = new Tuple(td);
+        System.arraycopy(data, 0, t.data, 0, data.length);
+        return t;
+    }
+
+    /**
+     * Write the fields of this tuple in their on-disk format, i.e.
+     * {@link TupleDesc#getSize()} bytes as written by the fields' serialize
+     * methods. Fields that are not set are written as zeros.
+     *
+     * @param dest the array to write to
+     * @param offset the position in dest to start writing at
+     */
+    public void writeTo(byte[] dest, int offset) {
+        System.arraycopy(data, bitmapLen, dest, offset, td.getSize());
+        for (int i = 0; i < td.numFields(); i++) {
+            if (!isSet(i))
+                Arrays.fill(dest, offset + td.getOffset(i),
+                        offset + td.getOffset(i) + td.getFieldType(i).getLen(), (byte) 0);
+        }
     }
 
     /**
@@ -94,7 +354,18 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         // some code goes here
-        throw new UnsupportedOperationException("Implement this");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (i > 0)
+                sb.append('\t');
+            if (!isSet(i))
+                sb.append("null");
+            else if (td.getFieldType(i) == Type.INT_TYPE)
+                sb.append(getInt(i));
+            else
+                sb.append(getString(i));
+        }
+        return sb.toString();
     }
 
     /**
@@ -104,7 +375,21 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        return list.iterator();
+        return new Iterator<Field>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < td.numFields();
+            }
+
+            @Override
+            public Field next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getField(i++);
+            }
+        };
     }
 
     /**
@@ -113,6 +398,9 @@ public class Tuple implements Serializable {
     public void resetTupleDesc(TupleDesc td)
     {
         // some code goes here
-        td = null;
+        // the values stay where they are, so the layout must not change
+        if (!td.equals(this.td))
+            throw new IllegalArgumentException("incompatible TupleDesc " + td);
+        this.td = td;
     }
 }
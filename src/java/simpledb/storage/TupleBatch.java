@@ -0,0 +1,436 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds a batch of rows in columnar form; it is the unit of work
+ * exchanged by the batch operators (see
+ * {@link simpledb.execution.BatchOpIterator}).
+ * <p>
+ * Integer columns are stored in an <code>int[]</code>. String columns are
+ * stored as the concatenation of their bytes plus an array of offsets, so no
+ * {@link Field} or String objects are created unless a value is asked for as
+ * one.
+ * <p>
+ * A batch may carry a selection vector: a list of the physical rows that are
+ * still active, in ascending order. Filters narrow the selection instead of
+ * copying the surviving rows, so consumers must visit rows through
+ * {@link #numRows()} and {@link #row(int)}.
+ * <p>
+ * Rows are appended column by column, followed by a call to
+ * {@link #addRow(RecordId)}. A batch grows past its nominal capacity if
+ * needed; {@link #isFull()} tells producers when to hand it on.
+ */
+public class TupleBatch {
+
+    /** Number of rows in a batch unless specified otherwise. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** One column of a batch. */
+    public abstract static class Column {
+        int size = 0;
+
+        /** @return the type of the values in this column */
+        public abstract Type getType();
+
+        /** @return the value in the specified row as a Field */
+        public abstract Field getField(int row);
+
+        /** Append the value in row of src, which must have the same type. */
+        public abstract void appendFrom(Column src, int row);
+
+        /** Append the value of the specified field. */
+        public abstract void appendField(Field f);
+
+        /** @return a hash of the value in the specified row */
+        public abstract int hash(int row);
+
+        /** @return true if the value in row equals the value in otherRow of other */
+        public abstract boolean equalsAt(int row, Column other, int otherRow);
+
+        /** @return a new, empty column of the same type */
+        public abstract Column emptyCopy(int capacity);
+
+        /** @return the number of values in this column */
+        public int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        static Column create(Type type, int capacity) {
+            switch (type) {
+            case INT_TYPE:
+                return new IntColumn(capacity);
+            case STRING_TYPE:
+                return new StringColumn(capacity);
+            default:
+                throw new IllegalArgumentException("unsupported type " + type);
+            }
+        }
+    }
+
+    /** A column of ints. */
+    public static final class IntColumn extends Column {
+        private int[] values;
+
+        public IntColumn(int capacity) {
+            values = new int[Math.max(1, capacity)];
+        }
+
+        @Override
+        public Type getType() {
+            return Type.INT_TYPE;
+        }
+
+        /** @return the value in the specified row */
+        public int get(int row) {
+            return values[row];
+        }
+
+        /** Append a value. */
+        public void append(int v) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, values.length * 2);
+            values[size++] = v;
+        }
+
+        @Override
+        public Field getField(int row) {
+            return new IntField(values[row]);
+        }
+
+        @Override
+        public void appendFrom(Column src, int row) {
+            append(((IntColumn) src).values[row]);
+        }
+
+        @Override
+        public void appendField(Field f) {
+            append(((IntField) f).getValue());
+        }
+
+        @Override
+        public int hash(int row) {
+            int h = values[row] * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        @Override
+        public boolean equalsAt(int row, Column other, int otherRow) {
+            return values[row] == ((IntColumn) other).values[otherRow];
+        }
+
+        @Override
+        public Column emptyCopy(int capacity) {
+            return new IntColumn(capacity);
+        }
+    }
+
+    /** A column of strings, stored as bytes with one offset per row. */
+    public static final class StringColumn extends Column {
+        // the value in row i is bytes[offsets[i] .. offsets[i+1])
+        private int[] offsets;
+        private byte[] bytes;
+
+        public StringColumn(int capacity) {
+            offsets = new int[Math.max(1, capacity) + 1];
+            bytes = new byte[Math.max(1, capacity) * 16];
+        }
+
+        @Override
+        public Type getType() {
+            return Type.STRING_TYPE;
+        }
+
+        /** @return the length in bytes of the value in the specified row */
+        public int length(int row) {
+            return offsets[row + 1] - offsets[row];
+        }
+
+        /** @return the value in the specified row, decoded as ISO-8859-1 */
+        public String getString(int row) {
+            return new String(bytes, offsets[row], length(row), StandardCharsets.ISO_8859_1);
+        }
+
+        private void reserve(int len) {
+            if (size + 1 == offsets.length)
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            int end = offsets[size] + len;
+            if (end > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(end, bytes.length * 2));
+        }
+
+        /** Append len bytes of src starting at off. */
+        public void append(byte[] src, int off, int len) {
+            reserve(len);
+            System.arraycopy(src, off, bytes, offsets[size], len);
+            offsets[size + 1] = offsets[size] + len;
+            size++;
+        }
+
+        /** Append len bytes of src starting at its absolute position off. */
+        public void append(ByteBuffer src, int off, int len) {
+            reserve(len);
+            ByteBuffer dup = src.duplicate();
+            dup.position(off);
+            dup.get(bytes, offsets[size], len);
+            offsets[size + 1] = offsets[size] + len;
+            size++;
+        }
+
+        /**
+         * Append a value, one byte per char as {@link Tuple#setString} and
+         * StringField.serialize store it, so that rows and batches hash and
+         * compare the same bytes.
+         */
+        public void append(String s) {
+            int len = s.length();
+            reserve(len);
+            for (int k = 0; k < len; k++)
+                bytes[offsets[size] + k] = (byte) s.charAt(k);
+            offsets[size + 1] = offsets[size] + len;
+            size++;
+        }
+
+        @Override
+        public Field getField(int row) {
+            return new StringField(getString(row), Type.STRING_LEN);
+        }
+
+        @Override
+        public void appendFrom(Column src, int row) {
+            StringColumn s = (StringColumn) src;
+            append(s.bytes, s.offsets[row], s.length(row));
+        }
+
+        @Override
+        public void appendField(Field f) {
+            append(((StringField) f).getValue());
+        }
+
+        @Override
+        public int hash(int row) {
+            return hash(bytes, offsets[row], length(row));
+        }
+
+        // the hash of a value, wherever its bytes are
+        static int hash(byte[] src, int off, int len) {
+            int h = 1;
+            for (int i = off; i < off + len; i++)
+                h = 31 * h + src[i];
+            return h ^ (h >>> 16);
+        }
+
+        // true if the value in row is the len bytes of src starting at off
+        boolean equalsBytes(int row, byte[] src, int off, int len) {
+            if (length(row) != len)
+                return false;
+            int a = offsets[row];
+            for (int i = 0; i < len; i++) {
+                if (bytes[a + i] != src[off + i])
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equalsAt(int row, Column other, int otherRow) {
+            StringColumn o = (StringColumn) other;
+            int len = length(row);
+            if (len != o.length(otherRow))
+                return false;
+            int a = offsets[row], b = o.offsets[otherRow];
+            for (int i = 0; i < len; i++) {
+                if (bytes[a + i] != o.bytes[b + i])
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public Column emptyCopy(int capacity) {
+            return new StringColumn(capacity);
+        }
+
+        @Override
+        void clear() {
+            super.clear();
+            offsets[0] = 0;
+        }
+    }
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final Column[] columns;
+    private int size = 0;
+    // the record ids of the rows, allocated once a row has one
+    private RecordId[] recordIds;
+    // active rows, or null if all rows are active
+    private int[] selection;
+    private int selected;
+
+    /**
+     * Create an empty batch of {@link #DEFAULT_CAPACITY} rows.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td the schema of the rows
+     * @param capacity the number of rows after which the batch is full
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.columns = new Column[td.numFields()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = Column.create(td.getFieldType(i), capacity);
+    }
+
+    // a view over the columns of another batch
+    private TupleBatch(TupleDesc td, int capacity, Column[] columns, int size,
+                       RecordId[] recordIds, int[] selection, int selected) {
+        this.td = td;
+        this.capacity = capacity;
+        this.columns = columns;
+        this.size = size;
+        this.recordIds = recordIds;
+        this.selection = selection;
+        this.selected = selected;
+    }
+
+    /** @return the schema of the rows in this batch */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of physical rows, including rows not selected */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if the batch has reached its nominal capacity */
+    public boolean isFull() {
+        return size >= capacity;
+    }
+
+    /** @return the number of active rows */
+    public int numRows() {
+        return selection == null ? size : selected;
+    }
+
+    /** @return the physical row number of the k-th active row */
+    public int row(int k) {
+        return selection == null ? k : selection[k];
+    }
+
+    /**
+     * Restrict the active rows to the first n entries of sel, which must be
+     * physical row numbers in ascending order. The array is not copied.
+     */
+    public void setSelection(int[] sel, int n) {
+        this.selection = sel;
+        this.selected = n;
+    }
+
+    /** @return the specified column */
+    public Column column(int i) {
+        return columns[i];
+    }
+
+    /** @return the specified column, which must hold ints */
+    public IntColumn intColumn(int i) {
+        return (IntColumn) columns[i];
+    }
+
+    /** @return the specified column, which must hold strings */
+    public StringColumn stringColumn(int i) {
+        return (StringColumn) columns[i];
+    }
+
+    /**
+     * Finish a row whose values have been appended to every column.
+     *
+     * @param rid the record id of the row, or null
+     */
+    public void addRow(RecordId rid) {
+        if (rid != null) {
+            if (recordIds == null)
+                recordIds = new RecordId[Math.max(capacity, size + 1)];
+            else if (size >= recordIds.length)
+                recordIds = Arrays.copyOf(recordIds, recordIds.length * 2);
+            recordIds[size] = rid;
+        }
+        size++;
+    }
+
+    /** @return the record id of the specified physical row, or null */
+    public RecordId getRecordId(int row) {
+        return recordIds == null || row >= recordIds.length ? null : recordIds[row];
+    }
+
+    /** Append the fields of t as a new row. */
+    public void appendTuple(Tuple t) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] instanceof IntColumn)
+                ((IntColumn) columns[i]).append(t.getInt(i));
+            else
+                t.appendStringTo(i, (StringColumn) columns[i]);
+        }
+        addRow(t.getRecordId());
+    }
+
+    /** Append physical row of src, which must have the same column types. */
+    public void appendRow(TupleBatch src, int row) {
+        for (int i = 0; i < columns.length; i++)
+            columns[i].appendFrom(src.columns[i], row);
+        addRow(src.getRecordId(row));
+    }
+
+    /** @return physical row of this batch as a Tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] instanceof IntColumn) {
+                t.setInt(i, ((IntColumn) columns[i]).get(row));
+            } else {
+                StringColumn c = (StringColumn) columns[i];
+                t.setStringBytes(i, c.bytes, c.offsets[row], c.length(row));
+            }
+        }
+        t.setRecordId(getRecordId(row));
+        return t;
+    }
+
+    /**
+     * @return a batch with the specified columns of this one, sharing their
+     *         storage and the selection
+     */
+    public TupleBatch project(int[] fields, TupleDesc projected) {
+        Column[] cols = new Column[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            cols[i] = columns[fields[i]];
+        return new TupleBatch(projected, capacity, cols, size, recordIds, selection, selected);
+    }
+
+    /** Remove all rows and the selection so the batch can be refilled. */
+    public void clear() {
+        for (Column c : columns)
+            c.clear();
+        size = 0;
+        selection = null;
+        selected = 0;
+        if (recordIds != null)
+            Arrays.fill(recordIds, null);
+    }
+}
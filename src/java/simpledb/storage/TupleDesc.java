@@ -12,6 +12,8 @@ public class TupleDesc implements Serializable {
 	
 	// introduced the attribute tdItems which is an ArrayList that stores all the TDItems
 	private ArrayList<TDItem> tdItems = new ArrayList<TDItem>();
+	// introduced the byte offset of each field within a tuple, computed on first use
+	private transient int[] offsets;
 
     /**
      * A help class to facilitate organizing the information of each field
@@ -174,7 +176,29 @@ public class TupleDesc implements Serializable {
      */
     public int getSize() {
         // some code goes here
-        return 4 * tdItems.size();
+        int size = 0;
+        for (TDItem item : tdItems) {
+            size += item.fieldType.getLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return the offset (in bytes) of the ith field from the start of a
+     *         tuple of this TupleDesc in its on-disk format
+     */
+    public int getOffset(int i) {
+        int[] offs = offsets;
+        if (offs == null) {
+            offs = new int[tdItems.size()];
+            int offset = 0;
+            for (int j = 0; j < offs.length; j++) {
+                offs[j] = offset;
+                offset += tdItems.get(j).fieldType.getLen();
+            }
+            offsets = offs;
+        }
+        return offs[i];
     }
 
     /**
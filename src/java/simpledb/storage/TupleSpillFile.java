@@ -0,0 +1,151 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * TupleSpillFile is a temporary file that operators write tuples to when
+ * they run out of memory, such as the partitions of a hash join.
+ * <p>
+ * The file is written once, sequentially, and can then be read back any
+ * number of times. Tuples are stored in their on-disk format (see
+ * {@link Tuple#writeTo}), packed into pages of {@link BufferPool#getPageSize()}
+ * bytes; a page holds as many whole tuples as fit, and the last page is
+ * padded with zeros. The file is deleted by {@link #delete()}, or when the
+ * JVM exits.
+ */
+public class TupleSpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private final int tupleSize;
+    private final int pageSize;
+    private final int tuplesPerPage;
+
+    private OutputStream out;
+    private final byte[] page;
+    private int inPage = 0;
+    private long count = 0;
+    private long pagesWritten = 0;
+
+    /**
+     * Create an empty spill file for tuples of the specified schema.
+     */
+    public TupleSpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.tupleSize = td.getSize();
+        this.pageSize = Math.max(BufferPool.getPageSize(), tupleSize);
+        this.tuplesPerPage = pageSize / tupleSize;
+        this.page = new byte[pageSize];
+        this.file = File.createTempFile("simpledb-spill", ".tmp");
+        this.file.deleteOnExit();
+        this.out = new FileOutputStream(file);
+    }
+
+    /** @return the schema of the tuples in this file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Append a tuple to the file.
+     *
+     * @throws IllegalStateException if the file has been read already
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null)
+            throw new IllegalStateException("spill file is closed for writing");
+        t.writeTo(page, inPage * tupleSize);
+        count++;
+        if (++inPage == tuplesPerPage)
+            writePage();
+    }
+
+    private void writePage() throws IOException {
+        Arrays.fill(page, inPage * tupleSize, pageSize, (byte) 0);
+        out.write(page);
+        pagesWritten++;
+        inPage = 0;
+    }
+
+    /**
+     * Write out the last page and close the file for writing. Called
+     * implicitly by {@link #reader()}.
+     */
+    public void finish() throws IOException {
+        if (out == null)
+            return;
+        if (inPage > 0)
+            writePage();
+        out.close();
+        out = null;
+    }
+
+    /** @return the number of tuples in the file */
+    public long size() {
+        return count;
+    }
+
+    /** @return the number of bytes written to disk so far */
+    public long bytesWritten() {
+        return pagesWritten * pageSize;
+    }
+
+    /**
+     * @return a reader over the tuples of the file, in the order they were
+     *         added
+     */
+    public Reader reader() throws IOException {
+        finish();
+        return new Reader();
+    }
+
+    /** Delete the file. */
+    public void delete() {
+        try {
+            finish();
+        } catch (IOException e) {
+            // the file is deleted anyway
+        }
+        file.delete();
+    }
+
+    /** Sequential reader over the tuples of a spill file. */
+    public class Reader implements Closeable {
+        private final InputStream in;
+        private final byte[] buf = new byte[pageSize];
+        private final ByteBuffer wrapped = ByteBuffer.wrap(buf);
+        private long read = 0;
+        private int pos = tuplesPerPage;
+
+        private Reader() throws IOException {
+            this.in = new FileInputStream(file);
+        }
+
+        /**
+         * @return the next tuple, or null at the end of the file
+         */
+        public Tuple next() throws IOException {
+            if (read == count)
+                return null;
+            if (pos == tuplesPerPage) {
+                int off = 0;
+                while (off < pageSize) {
+                    int n = in.read(buf, off, pageSize - off);
+                    if (n < 0)
+                        throw new EOFException("spill file " + file + " is truncated");
+                    off += n;
+                }
+                pos = 0;
+            }
+            read++;
+            return new Tuple(td, wrapped, tupleSize * pos++);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Scan-resistant 2Q replacement.
+ * <p>
+ * Newly admitted pages enter a probationary FIFO queue (A1in). A page that is
+ * re-read shortly after being evicted from probation (it is still remembered
+ * in the A1out ghost list) is promoted to the protected LRU queue (Am). Hits
+ * on a page that is still on probation leave it where it is: they are mostly
+ * correlated references, such as HeapFile.insertTuple reading a page shared
+ * and then exclusive, or a B+ tree descent re-reading the page it latched,
+ * and say nothing about whether the page will be used again later. Victims
+ * are taken from the probationary queue as long as it holds more than its
+ * share of the pool, so a large sequential scan, which touches each page a
+ * few times in a row, only cycles pages through A1in and cannot push
+ * frequently used pages such as B+ tree internal nodes out of Am.
+ */
+public class TwoQueueReplacementPolicy extends ReplacementPolicy {
+
+    /** Fraction of the pool reserved for probationary pages. */
+    static final double PROBATION_FRACTION = 0.25;
+
+    /** Number of evicted page ids remembered, as a fraction of the pool size. */
+    static final double GHOST_FRACTION = 0.5;
+
+    private final int probationLimit;
+    private final int ghostLimit;
+
+    // A1in: insertion ordered (FIFO)
+    private final LinkedHashMap<PageId, Boolean> probation = new LinkedHashMap<>();
+    // Am: access ordered (LRU)
+    private final LinkedHashMap<PageId, Boolean> protectedPages = new LinkedHashMap<>(16, 0.75f, true);
+    // A1out: ids only, insertion ordered
+    private final LinkedHashMap<PageId, Boolean> ghosts = new LinkedHashMap<>();
+
+    /**
+     * @param capacity the number of pages in the pool this policy manages
+     */
+    public TwoQueueReplacementPolicy(int capacity) {
+        this.probationLimit = Math.max(1, (int) (capacity * PROBATION_FRACTION));
+        this.ghostLimit = Math.max(1, (int) (capacity * GHOST_FRACTION));
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.TWO_QUEUE;
+    }
+
+    @Override
+    protected void onHit(PageId pid) {
+        // a page on probation stays in its FIFO position
+        protectedPages.get(pid);
+    }
+
+    @Override
+    protected void onAdmit(PageId pid) {
+        if (ghosts.remove(pid) != null) {
+            protectedPages.put(pid, Boolean.TRUE);
+        } else {
+            probation.put(pid, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    protected void onRemove(PageId pid) {
+        probation.remove(pid);
+        protectedPages.remove(pid);
+    }
+
+    @Override
+    protected PageId chooseVictim(Predicate<PageId> evictable) {
+        PageId victim;
+        if (probation.size() > probationLimit || protectedPages.isEmpty()) {
+            victim = evictFrom(probation, evictable);
+            if (victim == null)
+                victim = evictFrom(protectedPages, evictable);
+        } else {
+            victim = evictFrom(protectedPages, evictable);
+            if (victim == null)
+                victim = evictFrom(probation, evictable);
+        }
+        return victim;
+    }
+
+    private PageId evictFrom(LinkedHashMap<PageId, Boolean> queue, Predicate<PageId> evictable) {
+        Iterator<PageId> it = queue.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                if (queue == probation)
+                    remember(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    private void remember(PageId pid) {
+        ghosts.put(pid, Boolean.TRUE);
+        if (ghosts.size() > ghostLimit) {
+            Iterator<PageId> it = ghosts.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    /** @return true if the page is resident in the protected (frequently used) queue */
+    public boolean isProtected(PageId pid) {
+        return protectedPages.containsKey(pid);
+    }
+}
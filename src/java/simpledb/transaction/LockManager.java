@@ -0,0 +1,307 @@
+package simpledb.transaction;
+
+import simpledb.common.DeadlockException;
+import simpledb.common.Permissions;
+import simpledb.storage.PageId;
+
+import java.util.*;
+
+/**
+ * LockManager grants page-level shared (READ_ONLY) and exclusive (READ_WRITE)
+ * locks to transactions, as required for strict two-phase locking.
+ * <p>
+ * Each page has a FIFO queue of waiting requests. A request is granted once
+ * it is compatible with the current holders and with every request queued
+ * ahead of it, so writers are not starved by a stream of readers. A
+ * transaction holding the only shared lock on a page may upgrade it to an
+ * exclusive lock; upgrades are queued ahead of all other waiters.
+ * <p>
+ * Deadlocks are detected instead of timed out: whenever a transaction has to
+ * wait, the wait-for graph reachable from it is searched for a cycle, and if
+ * there is one the request is withdrawn and {@link DeadlockException} is
+ * thrown, so the requesting transaction can abort straight away. Several
+ * threads of one transaction, such as the workers of a parallel scan, may
+ * wait at the same time; the transaction then waits for everything any of
+ * its requests waits for.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** A (possibly not yet granted) lock request of one transaction on one page. */
+    private static class LockRequest {
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        final boolean upgrade;
+
+        LockRequest(TransactionId tid, PageId pid, Permissions perm, boolean upgrade) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            this.upgrade = upgrade;
+        }
+    }
+
+    /** The holders and the queue of waiters of a single page. */
+    private static class LockState {
+        final Set<TransactionId> sharedHolders = new LinkedHashSet<>();
+        TransactionId exclusiveHolder = null;
+        final LinkedList<LockRequest> waiters = new LinkedList<>();
+
+        boolean isFree() {
+            return sharedHolders.isEmpty() && exclusiveHolder == null && waiters.isEmpty();
+        }
+    }
+
+    // all fields are guarded by this
+    private final Map<PageId, LockState> locks = new HashMap<>();
+    private final Map<TransactionId, Set<PageId>> pagesHeld = new HashMap<>();
+    // the requests each blocked transaction is waiting on, one per waiting thread
+    private final Map<TransactionId, Set<LockRequest>> waitingFor = new HashMap<>();
+
+    /**
+     * Acquire a lock on the specified page for the specified transaction,
+     * blocking until it is granted.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws DeadlockException if waiting for the lock would deadlock; the
+     *         request is withdrawn and the caller should abort tid
+     * @throws TransactionAbortedException if the thread is interrupted while
+     *         waiting
+     */
+    public synchronized void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws DeadlockException, TransactionAbortedException {
+        LockState state = locks.computeIfAbsent(pid, k -> new LockState());
+        if (holds(state, tid, perm)) {
+            return;
+        }
+
+        boolean upgrade = state.sharedHolders.contains(tid);
+        LockRequest request = new LockRequest(tid, pid, perm, upgrade);
+        if (upgrade) {
+            state.waiters.addFirst(request);
+        } else {
+            state.waiters.addLast(request);
+        }
+
+        try {
+            while (!grantable(state, request)) {
+                waitingFor.computeIfAbsent(tid, k -> new HashSet<>()).add(request);
+                if (hasCycle(tid)) {
+                    throw new DeadlockException();
+                }
+                wait();
+            }
+            grant(state, tid, pid, perm);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } finally {
+            Set<LockRequest> waiting = waitingFor.get(tid);
+            if (waiting != null && waiting.remove(request) && waiting.isEmpty()) {
+                waitingFor.remove(tid);
+            }
+            state.waiters.remove(request);
+            // a withdrawn request may have been the only thing on the page
+            if (state.isFree()) {
+                locks.remove(pid);
+            }
+            // whatever happened to this request, others may now be able to go
+            notifyAll();
+        }
+    }
+
+    /**
+     * Acquire a lock on the specified page for the specified transaction if
+     * that is possible without waiting. A request that would have to wait is
+     * not queued.
+     *
+     * @return true if tid now holds the lock
+     */
+    public synchronized boolean tryAcquire(TransactionId tid, PageId pid, Permissions perm) {
+        LockState state = locks.computeIfAbsent(pid, k -> new LockState());
+        if (holds(state, tid, perm)) {
+            return true;
+        }
+        LockRequest request = new LockRequest(tid, pid, perm, state.sharedHolders.contains(tid));
+        // not being queued, the request is checked against every waiter
+        if (grantable(state, request)) {
+            grant(state, tid, pid, perm);
+            return true;
+        }
+        if (state.isFree()) {
+            locks.remove(pid);
+        }
+        return false;
+    }
+
+    /**
+     * Release the lock that tid holds on pid, if any.
+     */
+    public synchronized void release(TransactionId tid, PageId pid) {
+        LockState state = locks.get(pid);
+        if (state == null) {
+            return;
+        }
+        state.sharedHolders.remove(tid);
+        if (tid.equals(state.exclusiveHolder)) {
+            state.exclusiveHolder = null;
+        }
+        if (state.isFree()) {
+            locks.remove(pid);
+        }
+        Set<PageId> held = pagesHeld.get(tid);
+        if (held != null) {
+            held.remove(pid);
+            if (held.isEmpty()) {
+                pagesHeld.remove(tid);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Release every lock held by tid.
+     */
+    public synchronized void releaseAll(TransactionId tid) {
+        Set<PageId> held = pagesHeld.remove(tid);
+        if (held == null) {
+            return;
+        }
+        for (PageId pid : held) {
+            LockState state = locks.get(pid);
+            if (state == null) {
+                continue;
+            }
+            state.sharedHolders.remove(tid);
+            if (tid.equals(state.exclusiveHolder)) {
+                state.exclusiveHolder = null;
+            }
+            if (state.isFree()) {
+                locks.remove(pid);
+            }
+        }
+        notifyAll();
+    }
+
+    /** @return true if tid holds any lock on pid */
+    public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
+        Set<PageId> held = pagesHeld.get(tid);
+        return held != null && held.contains(pid);
+    }
+
+    /** @return true if tid holds an exclusive lock on pid */
+    public synchronized boolean holdsExclusiveLock(TransactionId tid, PageId pid) {
+        LockState state = locks.get(pid);
+        return state != null && tid.equals(state.exclusiveHolder);
+    }
+
+    /** @return the transaction holding an exclusive lock on pid, or null if there is none */
+    public synchronized TransactionId getExclusiveHolder(PageId pid) {
+        LockState state = locks.get(pid);
+        return state == null ? null : state.exclusiveHolder;
+    }
+
+    /** @return a snapshot of the pages tid holds locks on */
+    public synchronized Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> held = pagesHeld.get(tid);
+        return held == null ? Collections.<PageId>emptySet() : new HashSet<>(held);
+    }
+
+    // ------------------------------------------------------------------
+
+    private static boolean holds(LockState state, TransactionId tid, Permissions perm) {
+        if (tid.equals(state.exclusiveHolder)) {
+            return true;
+        }
+        return perm == Permissions.READ_ONLY && state.sharedHolders.contains(tid);
+    }
+
+    private static boolean conflicts(Permissions a, Permissions b) {
+        return a == Permissions.READ_WRITE || b == Permissions.READ_WRITE;
+    }
+
+    /** A request is granted once it fits the holders and everything queued ahead of it. */
+    private static boolean grantable(LockState state, LockRequest request) {
+        if (request.upgrade) {
+            return state.exclusiveHolder == null && state.sharedHolders.size() == 1;
+        }
+        if (state.exclusiveHolder != null) {
+            return false;
+        }
+        if (request.perm == Permissions.READ_WRITE && !state.sharedHolders.isEmpty()) {
+            return false;
+        }
+        for (LockRequest ahead : state.waiters) {
+            if (ahead == request) {
+                break;
+            }
+            if (conflicts(ahead.perm, request.perm)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grant(LockState state, TransactionId tid, PageId pid, Permissions perm) {
+        if (perm == Permissions.READ_WRITE) {
+            state.sharedHolders.remove(tid);
+            state.exclusiveHolder = tid;
+        } else {
+            state.sharedHolders.add(tid);
+        }
+        pagesHeld.computeIfAbsent(tid, k -> new HashSet<>()).add(pid);
+    }
+
+    /**
+     * @return the transactions that the blocked transaction tid waits for:
+     *         for each of its waiting requests, the conflicting holders of
+     *         the request's page and the conflicting requests queued ahead
+     *         of it
+     */
+    private Set<TransactionId> waitsFor(TransactionId tid) {
+        Set<TransactionId> result = new HashSet<>();
+        Set<LockRequest> waiting = waitingFor.get(tid);
+        if (waiting == null) {
+            return result;
+        }
+        for (LockRequest own : waiting) {
+            LockState state = locks.get(own.pid);
+            if (state.exclusiveHolder != null) {
+                result.add(state.exclusiveHolder);
+            }
+            if (own.perm == Permissions.READ_WRITE) {
+                result.addAll(state.sharedHolders);
+            }
+            for (LockRequest ahead : state.waiters) {
+                if (ahead == own) {
+                    break;
+                }
+                if (conflicts(ahead.perm, own.perm)) {
+                    result.add(ahead.tid);
+                }
+            }
+        }
+        result.remove(tid);
+        return result;
+    }
+
+    /** Depth-first search of the wait-for graph for a path from start back to itself. */
+    private boolean hasCycle(TransactionId start) {
+        Set<TransactionId> visited = new HashSet<>();
+        Deque<TransactionId> stack = new ArrayDeque<>(waitsFor(start));
+        while (!stack.isEmpty()) {
+            TransactionId t = stack.pop();
+            if (t.equals(start)) {
+                return true;
+            }
+            if (visited.add(t)) {
+                stack.addAll(waitsFor(t));
+            }
+        }
+        return false;
+    }
+}
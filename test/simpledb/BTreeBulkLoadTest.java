@@ -0,0 +1,183 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeBulkLoadTest extends SimpleDbTestBase {
+	private TransactionId tid;
+
+	@Before
+	public void setUp() {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/** Iterates over a list of tuples. */
+	private static DbFileIterator iterator(final List<Tuple> tuples) {
+		return new AbstractDbFileIterator() {
+			private Iterator<Tuple> it;
+
+			public void open() {
+				it = tuples.iterator();
+			}
+
+			public void rewind() {
+				open();
+			}
+
+			protected Tuple readNext() {
+				return it != null && it.hasNext() ? it.next() : null;
+			}
+		};
+	}
+
+	/**
+	 * Unsorted tuples with duplicate keys load into a valid tree that
+	 * returns them in key order and finds every one of them.
+	 */
+	@Test
+	public void loadIntKeys() throws Exception {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 30000, 5000, null, null);
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(File.createTempFile("bulkload", ".dat").getAbsolutePath(), 2, 1);
+		BTreeBulkLoader loader = new BTreeBulkLoader(bf);
+		loader.load(hf.iterator(tid));
+		assertEquals(30000, loader.getNumTuples());
+		assertTrue(loader.getHeight() >= 2);
+
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		List<Tuple> tuples = TestUtil.scanFile(bf.iterator(tid));
+		assertEquals(30000, tuples.size());
+		List<Integer> heapKeys = new ArrayList<>();
+		for (Tuple t : TestUtil.scanFile(hf.iterator(tid)))
+			heapKeys.add(t.getInt(1));
+		Collections.sort(heapKeys);
+		for (int i = 0; i < tuples.size(); i++)
+			assertEquals((int) heapKeys.get(i), tuples.get(i).getInt(1));
+
+		int key = heapKeys.get(heapKeys.size() / 2);
+		int expected = Collections.frequency(heapKeys, key);
+		assertEquals(expected, TestUtil.scanFile(bf.indexIterator(tid,
+				new IndexPredicate(Op.EQUALS, new IntField(key)))).size());
+	}
+
+	@Test
+	public void loadStringKeys() throws Exception {
+		TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+		List<Tuple> tuples = new ArrayList<>();
+		Random r = new Random(7);
+		for (int i = 0; i < 5000; i++) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new StringField("key" + r.nextInt(3000), Type.STRING_LEN));
+			t.setField(1, new IntField(i));
+			tuples.add(t);
+		}
+		BTreeFile bf = TestUtil.emptyBTreeFile(td, 0);
+		bf.bulkLoad(iterator(tuples));
+
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		List<Tuple> loaded = TestUtil.scanFile(bf.iterator(tid));
+		assertEquals(5000, loaded.size());
+		for (int i = 1; i < loaded.size(); i++)
+			assertTrue(loaded.get(i - 1).getString(0).compareTo(loaded.get(i).getString(0)) <= 0);
+		String key = tuples.get(0).getString(0);
+		int expected = 0;
+		for (Tuple t : tuples)
+			expected += t.getString(0).equals(key) ? 1 : 0;
+		assertEquals(expected, TestUtil.scanFile(bf.indexIterator(tid,
+				new IndexPredicate(Op.EQUALS, tuples.get(0).getField(0)))).size());
+	}
+
+	/** Lower fill factors leave more room in each page, and inserts still work. */
+	@Test
+	public void fillFactor() throws Exception {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+		BTreeBulkLoader full = new BTreeBulkLoader(TestUtil.emptyBTreeFile(hf.getTupleDesc(), 0));
+		full.setFillFactor(1.0);
+		full.load(hf.iterator(tid));
+		BTreeFile bf = TestUtil.emptyBTreeFile(hf.getTupleDesc(), 0);
+		BTreeBulkLoader half = new BTreeBulkLoader(bf);
+		half.setFillFactor(0.5);
+		half.load(hf.iterator(tid));
+		assertTrue(half.getNumLeafPages() >= 2 * full.getNumLeafPages() - 1);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		int leaves = half.getNumLeafPages();
+		for (int i = 0; i < 100; i++)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i, 2));
+		assertEquals(leaves + half.getNumInternalPages(), bf.numPages());
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(20100, TestUtil.scanFile(bf.iterator(tid)).size());
+	}
+
+	/** The sort spills to disk when the input exceeds its memory budget. */
+	@Test
+	public void externalSort() throws Exception {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+		BTreeFile bf = TestUtil.emptyBTreeFile(hf.getTupleDesc(), 0);
+		BTreeBulkLoader loader = new BTreeBulkLoader(bf);
+		loader.setMemoryBudget(64 << 10);
+		loader.load(hf.iterator(tid));
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(20000, TestUtil.scanFile(bf.iterator(tid)).size());
+	}
+
+	@Test
+	public void smallInputs() throws Exception {
+		TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE});
+		BTreeFile empty = TestUtil.emptyBTreeFile(td, 0);
+		empty.bulkLoad(iterator(new ArrayList<>()));
+		assertEquals(1, empty.numPages());
+		assertTrue(TestUtil.scanFile(empty.iterator(tid)).isEmpty());
+
+		BTreeFile one = TestUtil.emptyBTreeFile(td, 0);
+		one.bulkLoad(iterator(Collections.singletonList(BTreeUtility.getBTreeTuple(5, 2))));
+		assertEquals(1, one.numPages());
+		assertEquals(1, TestUtil.scanFile(one.iterator(tid)).size());
+	}
+
+	@Test
+	public void rejectsNonEmptyTree() throws Exception {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 100, null, null, 0);
+		try {
+			bf.bulkLoad(iterator(new ArrayList<>()));
+			fail("loaded into a non-empty tree");
+		} catch (DbException e) {
+			// expected
+		}
+		try {
+			new BTreeBulkLoader(bf).setFillFactor(0);
+			fail("accepted an empty fill factor");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoadTest.class);
+	}
+}
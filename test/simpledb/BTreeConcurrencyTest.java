@@ -0,0 +1,123 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tests the latching of B+ tree descents, and inserts and deletes running in
+ * many threads at once.
+ */
+public class BTreeConcurrencyTest extends SimpleDbTestBase {
+	private TransactionId tid;
+
+	@Before
+	public void setUp() {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/** A search only keeps the leaves it reads locked. */
+	@Test
+	public void searchLocksOnlyLeaves() throws Exception {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10000, null, null, 0);
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(100)));
+		it.open();
+		while (it.hasNext())
+			it.next();
+		it.close();
+
+		Set<PageId> locked = Database.getBufferPool().getLockManager().getLockedPages(tid);
+		assertFalse(locked.isEmpty());
+		for (PageId pid : locked)
+			assertEquals(BTreePageId.LEAF, ((BTreePageId) pid).pgcateg());
+	}
+
+	/**
+	 * Inserts lock the path from the root only to split a leaf, and then
+	 * keep only the pages they change.
+	 */
+	@Test
+	public void exclusiveDescentOnlyToSplit() throws Exception {
+		// the leaves of a new tree are full, so the first insert splits one
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 20000, null, null, 0);
+		BufferPool pool = Database.getBufferPool();
+		int pages = bf.numPages();
+		pool.insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(5, 2));
+		assertEquals(pages + 1, bf.numPages());
+		assertEquals(1, bf.getExclusiveDescentCount());
+		assertFalse(pool.holdsLock(tid, BTreeRootPtrPage.getId(bf.getId())));
+		for (PageId pid : pool.getLockManager().getLockedPages(tid))
+			assertTrue(pool.getLockManager().holdsExclusiveLock(tid, pid));
+		pool.transactionComplete(tid);
+
+		// the leaf split has room for the next one
+		tid = new TransactionId();
+		pool.insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(5, 2));
+		assertEquals(pages + 1, bf.numPages());
+		assertEquals(1, bf.getExclusiveDescentCount());
+		for (PageId pid : pool.getLockManager().getLockedPages(tid))
+			assertEquals(BTreePageId.LEAF, ((BTreePageId) pid).pgcateg());
+		pool.transactionComplete(tid);
+		// no latch outlives the insert that took it
+		assertEquals(0, bf.getLatchCount());
+
+		tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+	}
+
+	/** Many threads insert and delete at once, and the tree stays consistent. */
+	@Test
+	public void concurrentInsertsAndDeletes() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 20000, null, tuples, 0);
+		Database.resetBufferPool(1000);
+		BlockingQueue<List<Integer>> queue = new ArrayBlockingQueue<>(30000);
+		queue.addAll(tuples);
+
+		BTreeConcurrencyBenchmark.Result result = BTreeConcurrencyBenchmark.run(bf, queue, 8, 40, 42);
+		assertEquals(8 * 40, result.operations);
+		assertTrue(result.exclusiveDescents > 0);
+		assertEquals(0, bf.getLatchCount());
+
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+		List<List<Integer>> expected = new ArrayList<>(queue);
+		List<List<Integer>> actual = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext())
+			actual.add(BTreeUtility.tupleToList(it.next()));
+		it.close();
+		Comparator<List<Integer>> order = Comparator.<List<Integer>, Integer>comparing(l -> l.get(0))
+				.thenComparing(l -> l.get(1));
+		expected.sort(order);
+		actual.sort(order);
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeConcurrencyTest.class);
+	}
+}
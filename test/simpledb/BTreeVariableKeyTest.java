@@ -0,0 +1,250 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tests B+ trees keyed on strings, whose internal pages store truncated,
+ * prefix-compressed keys of variable length.
+ */
+public class BTreeVariableKeyTest extends SimpleDbTestBase {
+	private static final TupleDesc TD = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+	private static final String PREFIX = "https://example.com/customers/";
+
+	private TransactionId tid;
+
+	@Before
+	public void setUp() {
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+		BufferPool.resetPageSize();
+	}
+
+	private static StringField key(String s) {
+		return new StringField(s, Type.STRING_LEN);
+	}
+
+	private static Tuple tuple(String s, int i) {
+		Tuple t = new Tuple(TD);
+		t.setField(0, key(s));
+		t.setField(1, new IntField(i));
+		return t;
+	}
+
+	private void commit() {
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+	}
+
+	// the number of internal and leaf pages of the tree
+	private int[] countPages(BTreeFile bf) throws Exception {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		int[] counts = new int[2];
+		Deque<BTreePageId> pending = new ArrayDeque<>();
+		pending.add(rootPtr.getRootId());
+		while (!pending.isEmpty()) {
+			BTreePageId pid = pending.poll();
+			if (pid.pgcateg() == BTreePageId.LEAF) {
+				counts[1]++;
+				continue;
+			}
+			counts[0]++;
+			BTreeInternalPage page = (BTreeInternalPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+			Iterator<BTreeEntry> it = page.iterator();
+			BTreeEntry e = it.next();
+			pending.add(e.getLeftChild());
+			pending.add(e.getRightChild());
+			while (it.hasNext())
+				pending.add(it.next().getRightChild());
+		}
+		return counts;
+	}
+
+	@Test
+	public void separator() {
+		assertEquals(key("b"), BTreeInternalPage.separator(key("apple"), key("banana")));
+		assertEquals(key("abd"), BTreeInternalPage.separator(key("abc"), key("abd")));
+		assertEquals(key("abc"), BTreeInternalPage.separator(key("ab"), key("abcdef")));
+		assertEquals(key("same"), BTreeInternalPage.separator(key("same"), key("same")));
+		assertEquals(new IntField(7), BTreeInternalPage.separator(new IntField(3), new IntField(7)));
+	}
+
+	/** Keys are stored with their length and without their common prefix. */
+	@Test
+	public void pageLayout() throws Exception {
+		BTreeFile bf = TestUtil.emptyBTreeFile(TD, 0);
+		BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL);
+		BTreeInternalPage page = new BTreeInternalPage(pid, BTreePage.createEmptyPageData(), 0);
+		assertTrue(page.isVariableLength());
+		int fixedEntries = page.getCapacity() / (Type.STRING_TYPE.getLen() + 4);
+
+		int n = 0;
+		while (page.hasRoomFor(key(PREFIX + String.format("%06d", n + 1)))) {
+			page.insertEntry(new BTreeEntry(key(PREFIX + String.format("%06d", n + 1)),
+					new BTreePageId(bf.getId(), n + 2, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), n + 3, BTreePageId.LEAF)));
+			n++;
+		}
+		// a full page holds several times the entries of fixed-width keys
+		assertTrue(n > 5 * fixedEntries);
+		assertEquals(n, page.getNumEntries());
+
+		BTreeInternalPage copy = new BTreeInternalPage(pid, page.getPageData(), 0);
+		assertArrayEquals(page.getPageData(), copy.getPageData());
+		Iterator<BTreeEntry> it = copy.iterator();
+		for (int i = 1; i <= n; i++) {
+			BTreeEntry e = it.next();
+			assertEquals(key(PREFIX + String.format("%06d", i)), e.getKey());
+			assertEquals(i + 2, e.getRightChild().getPageNumber());
+		}
+		assertFalse(it.hasNext());
+
+		// a key without the common prefix takes more space on the page
+		try {
+			copy.insertEntry(new BTreeEntry(key("a"), new BTreePageId(bf.getId(), 2, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), 1, BTreePageId.LEAF)));
+			fail("inserted a key that does not fit");
+		} catch (DbException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Inserts and deletes keep a valid tree, with far fewer internal pages
+	 * than fixed-width keys would take.
+	 */
+	@Test
+	public void insertAndDelete() throws Exception {
+		BTreeFile bf = TestUtil.emptyBTreeFile(TD, 0);
+		List<Tuple> tuples = insertRandom(bf, 6000, 23);
+
+		// fixed-width keys fit about 30 entries per page, which takes an internal
+		// level below the root for more than 200 leaves
+		int[] pages = countPages(bf);
+		assertTrue(pages[1] > 200);
+		assertEquals(1, pages[0]);
+
+		deleteMost(bf, tuples, 8);
+	}
+
+	/**
+	 * Small pages give the tree internal levels below the root, whose pages
+	 * split, merge and redistribute variable-length keys.
+	 */
+	@Test
+	public void deepTree() throws Exception {
+		BufferPool.setPageSize(2048);
+		Database.resetBufferPool(1000);
+		BTreeFile bf = TestUtil.emptyBTreeFile(TD, 0);
+		List<Tuple> tuples = insertRandom(bf, 8000, 31);
+		int[] before = countPages(bf);
+		deleteMost(bf, tuples, 64);
+		int[] after = countPages(bf);
+		assertTrue(before[0] > 2);
+		assertTrue(after[0] < before[0]);
+	}
+
+	// inserts random keys, checks the tree, and returns its tuples in order
+	private List<Tuple> insertRandom(BTreeFile bf, int n, long seed) throws Exception {
+		Random r = new Random(seed);
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			String s = PREFIX + r.nextInt(1000000) + "/orders";
+			keys.add(s);
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(s, i));
+			if (i % 1000 == 999)
+				commit();
+		}
+		commit();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		List<Tuple> tuples = TestUtil.scanFile(bf.iterator(tid));
+		assertEquals(keys.size(), tuples.size());
+		Collections.sort(keys);
+		for (int i = 0; i < keys.size(); i++)
+			assertEquals(keys.get(i), tuples.get(i).getString(0));
+		String probe = keys.get(keys.size() / 3);
+		assertEquals(Collections.frequency(keys, probe), TestUtil.scanFile(bf.indexIterator(tid,
+				new IndexPredicate(Op.EQUALS, key(probe)))).size());
+		return tuples;
+	}
+
+	// deletes all but one of every keepEvery tuples, merging and redistributing pages
+	private void deleteMost(BTreeFile bf, List<Tuple> tuples, int keepEvery) throws Exception {
+		for (int i = 0; i < tuples.size(); i++) {
+			if (i % keepEvery != 0)
+				Database.getBufferPool().deleteTuple(tid, tuples.get(i));
+			if (i % 1000 == 999)
+				commit();
+		}
+		commit();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals((tuples.size() + keepEvery - 1) / keepEvery, TestUtil.scanFile(bf.iterator(tid)).size());
+	}
+
+	/** The bulk loader fills internal pages by space. */
+	@Test
+	public void bulkLoad() throws Exception {
+		List<Tuple> tuples = new ArrayList<>();
+		Random r = new Random(5);
+		for (int i = 0; i < 40000; i++)
+			tuples.add(tuple(PREFIX + r.nextInt(10000000), i));
+		BTreeFile bf = TestUtil.emptyBTreeFile(TD, 0);
+		BTreeBulkLoader loader = new BTreeBulkLoader(bf);
+		loader.load(new AbstractDbFileIterator() {
+			private Iterator<Tuple> it;
+
+			public void open() {
+				it = tuples.iterator();
+			}
+
+			public void rewind() {
+				open();
+			}
+
+			protected Tuple readNext() {
+				return it != null && it.hasNext() ? it.next() : null;
+			}
+		});
+		// fixed-width keys would take about one internal page per 27 leaves
+		assertTrue(loader.getNumLeafPages() > 1000);
+		assertTrue(loader.getNumInternalPages() < loader.getNumLeafPages() / 60);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(tuples.size(), TestUtil.scanFile(bf.iterator(tid)).size());
+
+		for (int i = 0; i < 100; i++)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(PREFIX + i, -i));
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(tuples.size() + 100, TestUtil.scanFile(bf.iterator(tid)).size());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeVariableKeyTest.class);
+	}
+}
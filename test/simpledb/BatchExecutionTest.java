@@ -0,0 +1,204 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+    /** Interface to build the same plan twice, once for each mode. */
+    private interface PlanBuilder {
+        OpIterator build(TransactionId tid);
+    }
+
+    private static List<String> run(OpIterator plan) throws Exception {
+        List<String> rows = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext())
+            rows.add(plan.next().toString());
+        plan.close();
+        return rows;
+    }
+
+    /**
+     * Runs a plan in both modes and checks that they produce the same rows,
+     * in any order.
+     */
+    private static List<String> assertSameResults(PlanBuilder builder) throws Exception {
+        TransactionId tid = new TransactionId();
+        List<String> expected = run(builder.build(tid));
+        OpIterator batchPlan = BatchPlanner.plan(builder.build(tid));
+        assertTrue(batchPlan instanceof BatchToTupleIterator);
+        List<String> actual = run(batchPlan);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+        return actual;
+    }
+
+    @Test public void scanAndFilter() throws Exception {
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, null);
+        List<String> rows = assertSameResults(tid -> new Filter(
+                new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30)),
+                new SeqScan(tid, f.getId(), "t")));
+        assertFalse(rows.isEmpty());
+    }
+
+    @Test public void project() throws Exception {
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null, null);
+        assertSameResults(tid -> new Project(Arrays.asList(2, 0),
+                new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50)),
+                        new SeqScan(tid, f.getId(), "t"))));
+    }
+
+    @Test public void hashJoin() throws Exception {
+        final HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 3000, 200, null, null);
+        final HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 2000, 200, null, null);
+        // more than one output batch per probe batch
+        List<String> rows = assertSameResults(tid -> new HashEquiJoin(
+                new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b")));
+        assertTrue(rows.size() > TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    @Test public void aggregate() throws Exception {
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, null);
+        for (final Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+            assertEquals(1, assertSameResults(tid -> new Aggregate(
+                    new SeqScan(tid, f.getId(), "t"), 1, Aggregator.NO_GROUPING, op)).size());
+            assertSameResults(tid -> new Aggregate(
+                    new SeqScan(tid, f.getId(), "t"), 1, 0, op));
+        }
+    }
+
+    /**
+     * String columns are decoded into the batch, filtered, joined on and
+     * grouped by.
+     */
+    @Test public void strings() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE},
+                new String[]{"id", "name"});
+        File file = File.createTempFile("batch", ".dat");
+        file.deleteOnExit();
+        final HeapFile f = new HeapFile(file, td);
+        Database.getCatalog().addTable(f, "batch_strings");
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1500; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("name" + (i % 37), Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(1500, assertSameResults(t -> new SeqScan(t, f.getId(), "s")).size());
+        assertSameResults(t -> new Filter(
+                new Predicate(1, Predicate.Op.LIKE, new StringField("name1", Type.STRING_LEN)),
+                new SeqScan(t, f.getId(), "s")));
+        assertEquals(37, assertSameResults(t -> new Aggregate(
+                new SeqScan(t, f.getId(), "s"), 0, 1, Aggregator.Op.SUM)).size());
+        assertSameResults(t -> new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 1),
+                new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(40)),
+                        new SeqScan(t, f.getId(), "a")),
+                new SeqScan(t, f.getId(), "b")));
+    }
+
+    /**
+     * Operators without a batch implementation keep running a tuple at a
+     * time between batch operators.
+     */
+    @Test public void mixedPlan() throws Exception {
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, null);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = BatchPlanner.plan(new OrderBy(0, true,
+                new Filter(new Predicate(1, Predicate.Op.EQUALS, new IntField(7)),
+                        new SeqScan(tid, f.getId(), "t"))));
+        assertTrue(plan instanceof OrderBy);
+        assertTrue(((OrderBy) plan).getChildren()[0] instanceof BatchToTupleIterator);
+
+        List<String> rows = run(plan);
+        Database.getBufferPool().transactionComplete(tid);
+        List<String> sorted = new ArrayList<>(rows);
+        Collections.sort(sorted, (a, b) -> Integer.compare(
+                Integer.parseInt(a.split("\t")[0]), Integer.parseInt(b.split("\t")[0])));
+        assertEquals(sorted, rows);
+    }
+
+    /**
+     * A batch can be consumed column-wise, and the selection vector of a
+     * filter only leaves matching rows.
+     */
+    @Test public void batchInterface() throws Exception {
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(2, 4000, 10, null, null);
+        TransactionId tid = new TransactionId();
+        BatchOpIterator it = new BatchFilter(new Predicate(0, Predicate.Op.EQUALS, new IntField(3)),
+                new BatchSeqScan(new SeqScan(tid, f.getId(), "t")));
+        it.open();
+        int batches = 0, rows = 0;
+        TupleBatch b;
+        while ((b = it.nextBatch()) != null) {
+            batches++;
+            for (int k = 0; k < b.numRows(); k++) {
+                assertEquals(3, b.intColumn(0).get(b.row(k)));
+                assertNotNull(b.getRecordId(b.row(k)));
+                rows++;
+            }
+        }
+        assertTrue(batches >= 4000 / TupleBatch.DEFAULT_CAPACITY);
+
+        it.rewind();
+        int again = 0;
+        while ((b = it.nextBatch()) != null)
+            again += b.numRows();
+        assertEquals(rows, again);
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Query runs its plan in batches when asked to.
+     */
+    @Test public void queryExecutionMode() throws Exception {
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, 50, null, null);
+        TransactionId tid = new TransactionId();
+        Query q = new Query(new Aggregate(new SeqScan(tid, f.getId(), "t"), 1, 0,
+                Aggregator.Op.COUNT), tid);
+        q.setExecutionMode(Query.ExecutionMode.BATCH);
+        q.start();
+        assertTrue(q.getPhysicalPlan() instanceof BatchToTupleIterator);
+        int total = 0;
+        while (q.hasNext())
+            total += ((IntField) q.next().getField(1)).getValue();
+        q.close();
+        assertEquals(1000, total);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
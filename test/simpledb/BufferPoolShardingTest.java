@@ -0,0 +1,187 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolShardingTest extends SimpleDbTestBase {
+
+    /** A HeapFile that counts and slows down its page reads. */
+    private static class SlowHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private SlowHeapFile file;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        file = new SlowHeapFile(f.getFile(), Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * The pool is split into the requested number of shards, each with its
+     * own replacement policy.
+     */
+    @Test public void shardCapacity() throws Exception {
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).getNumShards());
+        assertEquals(BufferPool.MAX_DEFAULT_SHARDS, BufferPool.defaultShardCount(1 << 20));
+
+        BufferPool bp = new BufferPool(10, ReplacementPolicy.Kind.LRU, 4);
+        assertEquals(4, bp.getNumShards());
+        assertEquals(4, bp.getReplacementPolicies().size());
+    }
+
+    /**
+     * Threads that miss on the same page at the same time share a single
+     * read from disk.
+     */
+    @Test public void concurrentMissesCoalesce() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        final PageId pid = new HeapPageId(file.getId(), 0);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Page> seen = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    Page p = bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+                    synchronized (seen) {
+                        seen.add(p);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+
+        assertEquals(1, file.reads.get());
+        assertEquals(8, seen.size());
+        for (Page p : seen)
+            assertSame(seen.get(0), p);
+        assertEquals(1, bp.getMissCount());
+        assertEquals(7, bp.getHitCount());
+    }
+
+    /**
+     * Once the pool is full, every shard evicts its own clean pages to make
+     * room, and the pool never holds more than its capacity.
+     */
+    @Test public void shardsEvictIndependently() throws Exception {
+        BufferPool bp = new BufferPool(8, ReplacementPolicy.Kind.CLOCK, 4);
+        file.reads.set(0);
+        int numPages = file.numPages();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < numPages; i++)
+            bp.getPage(tid, new HeapPageId(file.getId(), i), Permissions.READ_ONLY);
+        assertEquals(numPages, file.reads.get());
+        assertEquals(numPages, bp.getMissCount());
+        assertTrue(bp.getEvictionCount() >= numPages - 8);
+    }
+
+    /**
+     * A shard whose pages are all dirty borrows frames from the other shards,
+     * so a transaction can dirty as many pages as the pool holds, however
+     * they hash.
+     */
+    @Test public void fullShardBorrowsFrames() throws Exception {
+        // find the shard most of the file's pages hash into
+        BufferPool probe = new BufferPool(8, ReplacementPolicy.Kind.LRU, 4);
+        List<List<PageId>> byShard = new ArrayList<>();
+        for (int s = 0; s < 4; s++)
+            byShard.add(new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < file.numPages(); i++) {
+            PageId pid = new HeapPageId(file.getId(), i);
+            probe.getPage(tid, pid, Permissions.READ_ONLY);
+            List<ReplacementPolicy> policies = probe.getReplacementPolicies();
+            for (int s = 0; s < 4; s++) {
+                if (policies.get(s).getMissCount() > 0)
+                    byShard.get(s).add(pid);
+            }
+            probe.resetCounters();
+        }
+        List<PageId> crowded = byShard.get(0);
+        for (List<PageId> pids : byShard) {
+            if (pids.size() > crowded.size())
+                crowded = pids;
+        }
+        assertTrue(crowded.size() > 2);
+
+        // dirty more pages of that shard than its share, then fill the pool
+        BufferPool bp = new BufferPool(8, ReplacementPolicy.Kind.LRU, 4);
+        List<PageId> dirty = new ArrayList<>(crowded);
+        for (int i = 0; dirty.size() < 8; i++) {
+            PageId pid = new HeapPageId(file.getId(), i);
+            if (!dirty.contains(pid))
+                dirty.add(pid);
+        }
+        for (PageId pid : dirty.subList(0, 8))
+            bp.getPage(tid, pid, Permissions.READ_WRITE).markDirty(true, tid);
+
+        for (int i = 0; i < file.numPages(); i++) {
+            PageId pid = new HeapPageId(file.getId(), i);
+            if (!dirty.contains(pid)) {
+                try {
+                    bp.getPage(tid, pid, Permissions.READ_ONLY);
+                    fail("expected the pool to be full of dirty pages");
+                } catch (DbException expected) {
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolShardingTest.class);
+    }
+}
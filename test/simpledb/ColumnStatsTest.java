@@ -0,0 +1,127 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate.Op;
+import simpledb.optimizer.ColumnStats;
+import simpledb.optimizer.HyperLogLog;
+
+public class ColumnStatsTest {
+
+    /**
+     * A heavy hitter goes to the most common values, so it and the rare
+     * values both get sensible equality estimates.
+     */
+    @Test public void skewedValues() {
+        ColumnStats.Sketch sketch = new ColumnStats.Sketch(Type.INT_TYPE);
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++)
+            sketch.addInt(i % 2 == 0 ? 7 : random.nextInt(10000));
+        ColumnStats cs = sketch.finish(100, 20000, true);
+
+        assertTrue(cs.numMostCommonValues() >= 1);
+        assertEquals(0.5, cs.estimateSelectivity(Op.EQUALS, 7), 0.02);
+        assertTrue(cs.estimateSelectivity(Op.EQUALS, 5000) < 0.001);
+        assertEquals(0.0, cs.estimateSelectivity(Op.EQUALS, 20000), 0.0001);
+        // all of the heavy hitter and half of the rest
+        assertEquals(0.75, cs.estimateSelectivity(Op.LESS_THAN, 5000), 0.05);
+        assertEquals(0.25, cs.estimateSelectivity(Op.GREATER_THAN, 5000), 0.05);
+        assertEquals(1.0, cs.estimateSelectivity(Op.LESS_THAN_OR_EQ, 10000), 0.001);
+        // 10000 draws from 10000 values hit about 1 - 1/e of them
+        assertEquals(6322, cs.distinctCount(), 300);
+    }
+
+    /**
+     * Strings that share their first four characters are told apart.
+     */
+    @Test public void stringValues() {
+        ColumnStats.Sketch sketch = new ColumnStats.Sketch(Type.STRING_TYPE);
+        for (int i = 0; i < 1000; i++)
+            sketch.addString(i % 10 < 3 ? "abcdX" : "abcdY");
+        ColumnStats cs = sketch.finish(100, 1000, true);
+
+        assertEquals(2, cs.distinctCount(), 0.001);
+        assertEquals(0.3, cs.estimateSelectivity(Op.EQUALS, "abcdX"), 0.001);
+        assertEquals(0.7, cs.estimateSelectivity(Op.EQUALS, "abcdY"), 0.001);
+        assertEquals(0.0, cs.estimateSelectivity(Op.EQUALS, "abcdZ"), 0.001);
+        assertEquals(0.3, cs.estimateSelectivity(Op.LESS_THAN, "abcdY"), 0.001);
+    }
+
+    /**
+     * Sketches of parts of a column merge into a sketch of the whole.
+     */
+    @Test public void mergedSketches() {
+        ColumnStats.Sketch left = new ColumnStats.Sketch(Type.INT_TYPE);
+        ColumnStats.Sketch right = new ColumnStats.Sketch(Type.INT_TYPE);
+        for (int i = 0; i < 30000; i++)
+            left.addInt(i);
+        for (int i = 0; i < 90000; i++)
+            right.addInt(30000 + i);
+        left.merge(right);
+        assertEquals(120000, left.count());
+        ColumnStats cs = left.finish(100, 120000, true);
+
+        assertEquals(120000, cs.distinctCount(), 120000 * 0.05);
+        // the merged sample keeps the proportions of the parts
+        assertEquals(0.25, cs.estimateSelectivity(Op.LESS_THAN, 30000), 0.03);
+        assertEquals(0.5, cs.estimateSelectivity(Op.GREATER_THAN_OR_EQ, 60000), 0.03);
+    }
+
+    /**
+     * HyperLogLog stays within a few percent, and merging takes the union.
+     */
+    @Test public void hyperLogLog() {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        for (int i = 0; i < 100000; i++) {
+            a.addInt(i);
+            b.addInt(i + 50000);
+        }
+        assertEquals(100000, a.estimate(), 5000);
+        a.merge(b);
+        assertEquals(150000, a.estimate(), 7500);
+
+        HyperLogLog small = new HyperLogLog();
+        for (int i = 0; i < 1000; i++)
+            small.addString("value" + (i % 100));
+        assertEquals(100, small.estimate(), 3);
+    }
+
+    /**
+     * Added values beyond the histogram widen its outer buckets; removed
+     * values are taken out of their bucket again.
+     */
+    @Test public void incrementalUpdates() {
+        ColumnStats.Sketch sketch = new ColumnStats.Sketch(Type.INT_TYPE);
+        for (int i = 0; i < 1000; i++)
+            sketch.addInt(i);
+        ColumnStats cs = sketch.finish(10, 1000, true);
+        assertEquals(0.0, cs.estimateSelectivity(Op.GREATER_THAN, 1000), 0.001);
+
+        for (int i = 0; i < 1000; i++)
+            cs.addValue(2000 + i);
+        assertTrue(cs.estimateSelectivity(Op.GREATER_THAN, 1000) > 0.4);
+        assertEquals(2000, cs.distinctCount(), 100);
+
+        for (int i = 0; i < 1000; i++)
+            cs.removeValue(2000 + i);
+        // the widened bucket keeps its bounds, but not the rows
+        assertTrue(cs.estimateSelectivity(Op.GREATER_THAN, 1000) < 0.15);
+        assertEquals(0.5, cs.estimateSelectivity(Op.LESS_THAN, 500), 0.05);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnStatsTest.class);
+    }
+}
@@ -0,0 +1,226 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+    private static final int COMMITS_PER_THREAD = 50;
+
+    private File file;
+    private LogFile log;
+
+    @Before public void setUp() throws Exception {
+        file = File.createTempFile("groupcommit", ".log");
+        file.deleteOnExit();
+        log = new LogFile(file);
+    }
+
+    @After public void tearDown() {
+        file.delete();
+    }
+
+    private void commitConcurrently() throws Exception {
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    for (int j = 0; j < COMMITS_PER_THREAD; j++) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        log.logCommit(tid);
+                    }
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads)
+            t.join();
+        if (failure.get() != null)
+            throw failure.get();
+    }
+
+    @Test public void singleCommit() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        assertEquals(1, log.getCommitCount());
+        assertEquals(1, log.getCommitFlushCount());
+        assertEquals(2, log.getTotalRecords());
+    }
+
+    /**
+     * Concurrent commits share forces of the log when the flusher waits for
+     * them, and every commit is acknowledged exactly once.
+     */
+    @Test public void batchesConcurrentCommits() throws Exception {
+        log.setMaxCommitDelayMicros(2000);
+        log.setMaxCommitBatch(THREADS);
+        commitConcurrently();
+        assertEquals(THREADS * COMMITS_PER_THREAD, log.getCommitCount());
+        assertTrue(log.getCommitFlushCount() < log.getCommitCount());
+        assertTrue(log.getAverageCommitBatch() > 1);
+        assertTrue(log.getMaxCommitBatchSize() <= THREADS);
+        assertEquals(2 * THREADS * COMMITS_PER_THREAD, log.getTotalRecords());
+    }
+
+    @Test public void latencyPercentiles() throws Exception {
+        assertEquals(0, log.getCommitLatencyPercentile(50));
+        commitConcurrently();
+        long p50 = log.getCommitLatencyPercentile(50);
+        long p99 = log.getCommitLatencyPercentile(99);
+        assertTrue(p50 <= p99);
+        assertTrue(p99 <= log.getCommitLatencyPercentile(100));
+        assertTrue(log.getCommitLatencyPercentile(100) > 0);
+    }
+
+    /** A force of the log also acknowledges commits waiting for one. */
+    @Test public void commitWhileHoldingLog() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        synchronized (log) {
+            log.logCommit(tid);
+        }
+        assertEquals(1, log.getCommitCount());
+    }
+
+    /**
+     * Transaction.commit forces the log once for the update records of all
+     * the pages the transaction dirtied and once for its commit record, not
+     * once per page; concurrent commits share these forces.
+     */
+    @Test public void transactionCommitsShareForces() throws Exception {
+        final int TABLES = 4, TXNS = 10;
+        List<HeapFile> tables = new ArrayList<>();
+        for (int i = 0; i < THREADS * TABLES; i++)
+            tables.add(SystemTestUtil.createRandomHeapFile(2, 1, null, null));
+        LogFile dbLog = Database.getLogFile();
+
+        long before = dbLog.getForceCount();
+        for (int i = 0; i < TXNS; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            for (HeapFile hf : tables.subList(0, TABLES))
+                Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(i, 2));
+            t.commit();
+        }
+        assertEquals(2 * TXNS, dbLog.getForceCount() - before);
+
+        // each thread writes its own tables, so that the threads do not wait for locks
+        dbLog.setMaxCommitDelayMicros(2000);
+        dbLog.setMaxCommitBatch(THREADS);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        before = dbLog.getForceCount();
+        for (int i = 0; i < THREADS; i++) {
+            final List<HeapFile> own = tables.subList(i * TABLES, (i + 1) * TABLES);
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int j = 0; j < TXNS; j++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        for (HeapFile hf : own)
+                            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(j, 2));
+                        t.commit();
+                    }
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        if (failure.get() != null)
+            throw failure.get();
+        assertTrue(dbLog.getForceCount() - before < 2 * THREADS * TXNS);
+    }
+
+    /**
+     * Checkpoints flush pages while holding the log, and commits log their
+     * pages while flushing them; running both at once must not deadlock.
+     */
+    @Test(timeout = 60000) public void checkpointDuringCommits() throws Exception {
+        final HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1, null, null);
+        final LogFile dbLog = Database.getLogFile();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread committer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 100; i++) {
+                    Transaction t = new Transaction();
+                    t.start();
+                    Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(i, 2));
+                    t.commit();
+                }
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        Thread checkpointer = new Thread(() -> {
+            try {
+                while (committer.isAlive()) {
+                    dbLog.logCheckpoint();
+                    // let the committer get at the log between checkpoints
+                    Thread.sleep(1);
+                }
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        committer.start();
+        checkpointer.start();
+        committer.join();
+        checkpointer.join();
+        if (failure.get() != null)
+            throw failure.get();
+    }
+
+    @Test public void settings() {
+        try {
+            log.setMaxCommitDelayMicros(-1);
+            fail("negative delay accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            log.setMaxCommitBatch(0);
+            fail("empty batch accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(LogFile.DEFAULT_MAX_COMMIT_DELAY_MICROS, log.getMaxCommitDelayMicros());
+        assertEquals(LogFile.DEFAULT_MAX_COMMIT_BATCH, log.getMaxCommitBatch());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
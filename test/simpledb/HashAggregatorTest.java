@@ -0,0 +1,158 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.Aggregator;
+import simpledb.execution.IntegerAggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.StringAggregator;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the open-addressing group tables of IntegerAggregator and
+ * StringAggregator, and their spilling once the groups exceed the memory
+ * budget.
+ */
+public class HashAggregatorTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+    private static final int GROUPS = 3000;
+    private static final long SMALL_BUDGET = 1000;
+
+    private static final TupleDesc INTS = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE});
+    private static final TupleDesc STRINGS = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+
+    private static Tuple tuple(TupleDesc td, int key, int value) {
+        Tuple t = new Tuple(td);
+        if (td == STRINGS)
+            t.setField(0, new StringField("group" + key, Type.STRING_LEN));
+        else
+            t.setField(0, new IntField(key));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    private static void fill(Aggregator agg, TupleDesc td) {
+        Random r = new Random(42);
+        for (int i = 0; i < ROWS; i++)
+            agg.mergeTupleIntoGroup(tuple(td, r.nextInt(GROUPS), r.nextInt(1000) - 500));
+    }
+
+    /** @return the aggregate of each group, checking each group appears once */
+    private static Map<String, Integer> results(OpIterator it) throws Exception {
+        Map<String, Integer> m = new HashMap<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertNull(m.put(t.getField(0).toString(), t.getInt(1)));
+        }
+        return m;
+    }
+
+    private static Map<String, Integer> results(Aggregator agg) throws Exception {
+        OpIterator it = agg.iterator();
+        it.open();
+        Map<String, Integer> m = results(it);
+        it.close();
+        return m;
+    }
+
+    /** Expected aggregates, computed with plain maps. */
+    private static Map<String, Integer> expected(TupleDesc td, Aggregator.Op op) {
+        Map<String, long[]> acc = new HashMap<>();
+        Random r = new Random(42);
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = tuple(td, r.nextInt(GROUPS), r.nextInt(1000) - 500);
+            long[] a = acc.computeIfAbsent(t.getField(0).toString(),
+                    k -> new long[]{0, 0, Long.MAX_VALUE, Long.MIN_VALUE});
+            int v = t.getInt(1);
+            a[0]++;
+            a[1] += v;
+            a[2] = Math.min(a[2], v);
+            a[3] = Math.max(a[3], v);
+        }
+        Map<String, Integer> m = new HashMap<>();
+        for (Map.Entry<String, long[]> e : acc.entrySet()) {
+            long[] a = e.getValue();
+            long v = op == Aggregator.Op.COUNT ? a[0] : op == Aggregator.Op.SUM ? a[1]
+                    : op == Aggregator.Op.MIN ? a[2] : op == Aggregator.Op.MAX ? a[3] : a[1] / a[0];
+            m.put(e.getKey(), (int) v);
+        }
+        return m;
+    }
+
+    @Test public void inMemory() throws Exception {
+        for (TupleDesc td : new TupleDesc[]{INTS, STRINGS}) {
+            IntegerAggregator agg = new IntegerAggregator(0, td.getFieldType(0), 1, Aggregator.Op.SUM);
+            fill(agg, td);
+            assertEquals(expected(td, Aggregator.Op.SUM), results(agg));
+            assertEquals(0, agg.getSpilledTuples());
+        }
+    }
+
+    /**
+     * Groups beyond the budget are spilled and aggregated partition by
+     * partition, giving the same results.
+     */
+    @Test public void spillIntegerGroups() throws Exception {
+        for (TupleDesc td : new TupleDesc[]{INTS, STRINGS}) {
+            for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX,
+                    Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+                IntegerAggregator agg = new IntegerAggregator(0, td.getFieldType(0), 1, op);
+                agg.setMemoryBudget(SMALL_BUDGET);
+                fill(agg, td);
+                assertTrue(agg.getSpilledTuples() > 0);
+                assertEquals(expected(td, op), results(agg));
+            }
+        }
+    }
+
+    @Test public void spillStringGroups() throws Exception {
+        StringAggregator agg = new StringAggregator(1, Type.STRING_TYPE, 0, Aggregator.Op.COUNT);
+        agg.setMemoryBudget(SMALL_BUDGET);
+        Random r = new Random(42);
+        for (int i = 0; i < ROWS; i++) {
+            // group by the string, in field 1
+            Tuple t = tuple(STRINGS, r.nextInt(GROUPS), r.nextInt(1000) - 500);
+            Tuple swapped = new Tuple(new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE}));
+            swapped.setField(0, t.getField(1));
+            swapped.setField(1, t.getField(0));
+            agg.mergeTupleIntoGroup(swapped);
+        }
+        assertTrue(agg.getSpilledTuples() > 0);
+        assertEquals(expected(STRINGS, Aggregator.Op.COUNT), results(agg));
+    }
+
+    /** Spilled partitions are aggregated again on rewind. */
+    @Test public void rewindSpilled() throws Exception {
+        IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+        agg.setMemoryBudget(SMALL_BUDGET);
+        fill(agg, INTS);
+        OpIterator it = agg.iterator();
+        it.open();
+        for (int i = 0; i < GROUPS / 2; i++)
+            it.next();
+        it.rewind();
+        assertEquals(expected(INTS, Aggregator.Op.SUM), results(it));
+        it.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashAggregatorTest.class);
+    }
+}
@@ -0,0 +1,123 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    private HashEquiJoin join(TransactionId tid, HeapFile f1, HeapFile f2, long budget) {
+        HashEquiJoin j = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b"));
+        j.setMemoryBudget(budget);
+        return j;
+    }
+
+    /**
+     * A build side that fits in memory is not spilled.
+     */
+    @Test public void inMemory() throws Exception {
+        List<List<Integer>> left = new ArrayList<>(), right = new ArrayList<>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, left);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 1000, 500, null, right);
+        TransactionId tid = new TransactionId();
+        HashEquiJoin j = join(tid, f1, f2, HashEquiJoin.DEFAULT_MEMORY_BUDGET);
+        j.open();
+        assertEquals(TestUtil.expectedJoin(left, right, 0, Predicate.Op.EQUALS, 0), TestUtil.sortedRows(j));
+        HashEquiJoin.JoinStats stats = j.getStats();
+        assertEquals(2000, stats.getBuildTuples());
+        assertEquals(1000, stats.getProbeTuples());
+        assertEquals(0, stats.getSpilledPartitions());
+        assertEquals(0, stats.getSpillBytes());
+        j.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * With a small budget some partitions spill and are joined afterwards;
+     * the rest stay resident.
+     */
+    @Test public void hybridSpill() throws Exception {
+        List<List<Integer>> left = new ArrayList<>(), right = new ArrayList<>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 5000, 2000, null, left);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 3000, 2000, null, right);
+        TransactionId tid = new TransactionId();
+        // room for about half of the build side
+        HashEquiJoin j = join(tid, f1, f2, 2500 * 56);
+        j.open();
+        List<String> expected = TestUtil.expectedJoin(left, right, 0, Predicate.Op.EQUALS, 0);
+        assertEquals(expected, TestUtil.sortedRows(j));
+        HashEquiJoin.JoinStats stats = j.getStats();
+        assertTrue(stats.getSpilledPartitions() > 0);
+        assertTrue(stats.getSpilledPartitions() < HashEquiJoin.NUM_PARTITIONS);
+        assertTrue(stats.getSpilledBuildTuples() > 0);
+        assertTrue(stats.getSpilledProbeTuples() > 0);
+        assertTrue(stats.getSpillBytes() > 0);
+        assertEquals(expected.size(), stats.getResultTuples());
+
+        // rewinding runs the whole join again
+        j.rewind();
+        assertEquals(expected, TestUtil.sortedRows(j));
+        j.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Partitions that are still too large after spilling are partitioned again.
+     */
+    @Test public void recursivePartitioning() throws Exception {
+        List<List<Integer>> left = new ArrayList<>(), right = new ArrayList<>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 5000, 5000, null, left);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 2000, 5000, null, right);
+        TransactionId tid = new TransactionId();
+        HashEquiJoin j = join(tid, f1, f2, 100 * 56);
+        j.open();
+        assertEquals(TestUtil.expectedJoin(left, right, 0, Predicate.Op.EQUALS, 0), TestUtil.sortedRows(j));
+        assertTrue(j.getStats().getRepartitions() > 0);
+        assertTrue(j.getStats().getMaxDepth() >= 1);
+        j.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A partition made of a single key cannot be split by hashing and is
+     * joined in chunks.
+     */
+    @Test public void duplicateKeys() throws Exception {
+        Map<Integer, Integer> spec = new HashMap<>();
+        spec.put(0, 7);
+        List<List<Integer>> left = new ArrayList<>(), right = new ArrayList<>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 1000, spec, left);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 30, spec, right);
+        TransactionId tid = new TransactionId();
+        HashEquiJoin j = join(tid, f1, f2, 100 * 56);
+        j.open();
+        List<String> rows = TestUtil.sortedRows(j);
+        assertEquals(30000, rows.size());
+        assertEquals(TestUtil.expectedJoin(left, right, 0, Predicate.Op.EQUALS, 0), rows);
+        assertEquals(1, j.getStats().getChunkedPartitions());
+        j.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
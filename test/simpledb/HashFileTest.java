@@ -0,0 +1,303 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate.Op;
+import simpledb.execution.SeqScan;
+import simpledb.index.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tests linear hashing files: their addressing, splits, lookups and deletes,
+ * and the optimizer's use of them.
+ */
+public class HashFileTest extends SimpleDbTestBase {
+	private static final TupleDesc TD = Utility.getTupleDesc(2, "c");
+
+	private TransactionId tid;
+	private HashFile hf;
+	// the number of tuples inserted with each key
+	private Map<Integer, Integer> counts;
+
+	@Before
+	public void setUp() throws Exception {
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+		File f = File.createTempFile("hash", ".dat");
+		f.deleteOnExit();
+		f.delete();
+		hf = new HashFile(f, 0, TD, 2);
+		Database.getCatalog().addTable(hf, "h");
+		counts = new HashMap<>();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private void commit() {
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+	}
+
+	// insert n tuples with random keys below maxKey, committing as it goes
+	private void insertRandom(int n, int maxKey, long seed) throws Exception {
+		Random r = new Random(seed);
+		for (int i = 0; i < n; i++) {
+			int key = r.nextInt(maxKey);
+			Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{key, i}));
+			counts.merge(key, 1, Integer::sum);
+			if (i % 1000 == 999)
+				commit();
+		}
+		commit();
+	}
+
+	private List<Tuple> scan(DbFileIterator it) throws Exception {
+		List<Tuple> tuples = new ArrayList<>();
+		it.open();
+		while (it.hasNext())
+			tuples.add(it.next());
+		it.close();
+		return tuples;
+	}
+
+	private List<Tuple> lookup(int key) throws Exception {
+		return scan(hf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key))));
+	}
+
+	private HashMetaPage meta() throws Exception {
+		return (HashMetaPage) Database.getBufferPool().getPage(tid, HashMetaPage.getId(hf.getId()),
+				Permissions.READ_ONLY);
+	}
+
+	/** Buckets split in order, and each group of buckets is a contiguous range of pages. */
+	@Test
+	public void addressing() throws Exception {
+		HashMetaPage meta = new HashMetaPage(new HashPageId(hf.getId(), 0), HashMetaPage.createPageData(3));
+		assertEquals(3, meta.getNumBuckets());
+		assertEquals(2, meta.bucketOf(8));
+		assertEquals(3, meta.getPrimaryPageNo(2));
+
+		meta.addGroup(10);
+		meta.advanceSplit();
+		// bucket 0 has been split into buckets 0 and 3
+		assertEquals(4, meta.getNumBuckets());
+		assertEquals(3, meta.bucketOf(9));
+		assertEquals(0, meta.bucketOf(6));
+		assertEquals(2, meta.bucketOf(8));
+		assertEquals(10, meta.getPrimaryPageNo(3));
+		meta.advanceSplit();
+		meta.advanceSplit();
+		assertEquals(1, meta.getLevel());
+		assertEquals(0, meta.getNext());
+		assertEquals(12, meta.getPrimaryPageNo(5));
+
+		HashMetaPage copy = new HashMetaPage(meta.getId(), meta.getPageData());
+		assertArrayEquals(meta.getPageData(), copy.getPageData());
+		assertEquals(6, copy.getNumBuckets());
+		assertEquals(2, copy.getNumGroups());
+		assertEquals(12, copy.getPrimaryPageNo(5));
+	}
+
+	/** The file grows by splits, and every key is found in its bucket. */
+	@Test
+	public void insertsAndLookups() throws Exception {
+		insertRandom(12000, 4000, 1);
+		// the 2 initial buckets hold about 1000 tuples
+		assertTrue(meta().getNumBuckets() >= 16);
+		assertEquals(12000, scan(hf.iterator(tid)).size());
+		for (int key = 0; key < 4000; key += 7) {
+			List<Tuple> found = lookup(key);
+			assertEquals((int) counts.getOrDefault(key, 0), found.size());
+			for (Tuple t : found)
+				assertEquals(new IntField(key), t.getField(0));
+		}
+
+		// the file reads back the same from disk
+		commit();
+		Database.getBufferPool().flushAllPages();
+		Database.resetBufferPool(1000);
+		assertEquals(12000, scan(hf.iterator(tid)).size());
+		assertEquals((int) counts.getOrDefault(42, 0), lookup(42).size());
+	}
+
+	/** A lookup in a cold buffer pool reads the meta page and about one bucket page. */
+	@Test
+	public void lookupReadsAboutOnePage() throws Exception {
+		insertRandom(20000, 1000000, 2);
+		commit();
+		Database.getBufferPool().flushAllPages();
+		Database.resetBufferPool(1000);
+
+		List<Integer> keys = new ArrayList<>(counts.keySet()).subList(0, 200);
+		lookup(keys.get(0));
+		long before = Database.getBufferPool().getMissCount();
+		for (int key : keys.subList(1, keys.size()))
+			assertEquals((int) counts.get(key), lookup(key).size());
+		double pagesPerLookup = (double) (Database.getBufferPool().getMissCount() - before) / (keys.size() - 1);
+		assertTrue("read " + pagesPerLookup + " pages per lookup", pagesPerLookup < 1.5);
+	}
+
+	/** Deleted tuples are no longer found, and the file keeps working. */
+	@Test
+	public void deletes() throws Exception {
+		insertRandom(5000, 500, 3);
+		int deleted = 0;
+		for (Tuple t : scan(hf.iterator(tid))) {
+			if (t.getField(1).hashCode() % 2 == 0) {
+				Database.getBufferPool().deleteTuple(tid, t);
+				counts.merge(((IntField) t.getField(0)).getValue(), -1, Integer::sum);
+				deleted++;
+			}
+		}
+		commit();
+		assertEquals(5000 - deleted, scan(hf.iterator(tid)).size());
+		for (int key = 0; key < 500; key += 3) {
+			List<Tuple> found = lookup(key);
+			assertEquals((int) counts.getOrDefault(key, 0), found.size());
+			for (Tuple t : found)
+				assertEquals(1, t.getField(1).hashCode() % 2);
+		}
+
+		insertRandom(5000, 500, 4);
+		assertEquals(10000 - deleted, scan(hf.iterator(tid)).size());
+		assertEquals((int) counts.getOrDefault(7, 0), lookup(7).size());
+	}
+
+	/** Aborting a transaction undoes the splits it made. */
+	@Test
+	public void abortUndoesSplits() throws Exception {
+		insertRandom(3000, 300, 7);
+		int buckets = meta().getNumBuckets();
+		commit();
+		Random r = new Random(8);
+		for (int i = 0; i < 3000; i++)
+			Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{r.nextInt(300), -i}));
+		assertTrue(meta().getNumBuckets() > buckets);
+		Database.getBufferPool().transactionComplete(tid, false);
+		tid = new TransactionId();
+
+		assertEquals(buckets, meta().getNumBuckets());
+		assertEquals(3000, scan(hf.iterator(tid)).size());
+		for (int key = 0; key < 300; key += 5)
+			assertEquals((int) counts.getOrDefault(key, 0), lookup(key).size());
+		insertRandom(3000, 300, 9);
+		assertEquals(6000, scan(hf.iterator(tid)).size());
+	}
+
+	/** A hash scan can be reopened to look up another key. */
+	@Test
+	public void scanReopensWithAnotherKey() throws Exception {
+		insertRandom(3000, 100, 5);
+		HashScan scan = new HashScan(tid, hf.getId(), "h", new IndexPredicate(Op.EQUALS, new IntField(3)));
+		assertEquals("h.c0", scan.getTupleDesc().getFieldName(0));
+		scan.open();
+		int n = 0;
+		while (scan.hasNext()) {
+			assertEquals(new IntField(3), scan.next().getField(0));
+			n++;
+		}
+		assertEquals((int) counts.getOrDefault(3, 0), n);
+
+		scan.rewind(new IndexPredicate(Op.EQUALS, new IntField(50)));
+		n = 0;
+		while (scan.hasNext()) {
+			assertEquals(new IntField(50), scan.next().getField(0));
+			n++;
+		}
+		scan.close();
+		assertEquals((int) counts.getOrDefault(50, 0), n);
+
+		// other comparisons read every bucket
+		scan.open(new IndexPredicate(Op.LESS_THAN, new IntField(10)));
+		n = 0;
+		while (scan.hasNext()) {
+			assertTrue(scan.next().getField(0).compare(Op.LESS_THAN, new IntField(10)));
+			n++;
+		}
+		scan.close();
+		int expected = 0;
+		for (int key = 0; key < 10; key++)
+			expected += counts.getOrDefault(key, 0);
+		assertEquals(expected, n);
+	}
+
+	/** The optimizer looks up equalities on the key, and probes the file in joins. */
+	@Test
+	public void optimizerUsesIndex() throws Exception {
+		insertRandom(20000, 5000, 6);
+		Map<String, TableStats> stats = new HashMap<>();
+		stats.put("h", new TableStats(hf.getId(), 1));
+		assertTrue(stats.get("h").estimateIndexLookupCost(4) < stats.get("h").estimateScanCost() / 10);
+
+		LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM h WHERE h.c0 = 17;");
+		OpIterator it = lp.physicalPlan(tid, stats, false);
+		HashScan scan = TestUtil.findOperator(it, HashScan.class);
+		assertNotNull(scan);
+		assertNull(TestUtil.findOperator(it, SeqScan.class));
+		int n = 0;
+		it.open();
+		while (it.hasNext()) {
+			assertEquals(new IntField(17), it.next().getField(0));
+			n++;
+		}
+		it.close();
+		assertEquals((int) counts.getOrDefault(17, 0), n);
+
+		lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM h WHERE h.c0 > 17;");
+		it = lp.physicalPlan(tid, stats, false);
+		assertNull(TestUtil.findOperator(it, HashScan.class));
+		assertNotNull(TestUtil.findOperator(it, SeqScan.class));
+
+		SeqScan inner = new SeqScan(tid, hf.getId(), "h");
+		assertTrue(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Op.EQUALS, 0), inner));
+		assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Op.LESS_THAN, 0), inner));
+		assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Op.EQUALS, 1), inner));
+	}
+
+	@Test
+	public void rejectsBadArguments() throws Exception {
+		File f = File.createTempFile("hash", ".dat");
+		f.deleteOnExit();
+		try {
+			new HashFile(f, 2, TD);
+			fail("accepted key field 2");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new HashFile(f, 0, TD, 0);
+			fail("accepted no buckets");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(HashFileTest.class);
+	}
+}
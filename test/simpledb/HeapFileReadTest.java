@@ -125,6 +125,71 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.readPage() past the end of the file
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void readMissingPage() {
+        hf.readPage(new HeapPageId(hf.getId(), 1));
+    }
+
+    /**
+     * A memory-mapped HeapFile reads the same pages as the channel-backed
+     * one, and sees pages appended after the file was first mapped.
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520, null, null);
+        HeapFile mapped = new HeapFile(twoPageFile.getFile(), td, true);
+        assertTrue(mapped.isMemoryMapped());
+        assertEquals(2, mapped.numPages());
+
+        for (int i = 0; i < 2; i++) {
+            HeapPageId pid = new HeapPageId(twoPageFile.getId(), i);
+            assertArrayEquals(twoPageFile.readPage(pid).getPageData(),
+                    mapped.readPage(pid).getPageData());
+        }
+
+        HeapPageId appended = new HeapPageId(twoPageFile.getId(), 2);
+        HeapPage page = new HeapPage(appended, HeapPage.createEmptyPageData());
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(7));
+        t.setField(1, new IntField(8));
+        page.insertTuple(t);
+        twoPageFile.writePage(page);
+
+        assertEquals(3, mapped.numPages());
+        HeapPage read = (HeapPage) mapped.readPage(appended);
+        assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+        assertArrayEquals(page.getPageData(), read.getPageData());
+        mapped.close();
+    }
+
+    /**
+     * A page read from the mapping keeps the contents it was read with when
+     * the file is written afterwards, even in slots not decoded yet.
+     */
+    @Test
+    public void memoryMappedPageIsStable() throws Exception {
+        HeapFile onePageFile = SystemTestUtil.createRandomHeapFile(2, 20, null, null);
+        HeapFile mapped = new HeapFile(onePageFile.getFile(), td, true);
+        HeapPageId pid = new HeapPageId(onePageFile.getId(), 0);
+        HeapPage read = (HeapPage) mapped.readPage(pid);
+        byte[] before = onePageFile.readPage(pid).getPageData();
+
+        onePageFile.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+
+        int count = 0;
+        Iterator<Tuple> it = read.iterator();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(20, count);
+        assertArrayEquals(before, read.getPageData());
+        mapped.close();
+    }
+
     /**
      * JUnit suite target
      */
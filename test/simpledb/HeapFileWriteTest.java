@@ -7,7 +7,10 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
+import simpledb.execution.Insert;
+import simpledb.execution.SeqScan;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
@@ -90,6 +93,46 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Inserting the tuples of a scan of one table into another leaves the
+     * tuples of the first table where they are.
+     */
+    @Test public void insertFromScanOfAnotherTable() throws Exception {
+        HeapFile source = SystemTestUtil.createRandomHeapFile(2, 3, null, null);
+        Insert insert = new Insert(tid, new SeqScan(tid, source.getId()), empty.getId());
+        insert.open();
+        assertEquals(new IntField(3), insert.next().getField(0));
+        insert.close();
+
+        DbFileIterator it = source.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(source.getId(), it.next().getRecordId().getPageId().getTableId());
+            count++;
+        }
+        it.close();
+        assertEquals(3, count);
+
+        it = empty.iterator(tid);
+        it.open();
+        count = 0;
+        while (it.hasNext()) {
+            assertEquals(empty.getId(), it.next().getRecordId().getPageId().getTableId());
+            count++;
+        }
+        it.close();
+        assertEquals(3, count);
+
+        // the page keeps its own copy of an inserted tuple
+        Tuple t = Utility.getHeapTuple(7, 2);
+        empty.insertTuple(tid, t);
+        t.setField(0, new IntField(8));
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(),
+                Permissions.READ_ONLY);
+        assertEquals(new IntField(7), p.getTuple(t.getRecordId().getTupleNumber()).getField(0));
+    }
+
     /**
      * JUnit suite target
      */
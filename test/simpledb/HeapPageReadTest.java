@@ -13,6 +13,7 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -123,6 +124,22 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Writes to the array a page was created from, after the page was
+     * created, do not change the page.
+     */
+    @Test public void copiesData() throws Exception {
+        byte[] data = EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Arrays.fill(data, (byte) 0);
+
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+        Iterator<Tuple> it = page.iterator();
+        for (int row = 0; row < 20; row++)
+            assertEquals(EXAMPLE_VALUES[row][0], ((IntField) it.next().getField(0)).getValue());
+        assertFalse(it.hasNext());
+    }
+
     /**
      * JUnit suite target
      */
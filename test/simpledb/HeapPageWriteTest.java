@@ -131,6 +131,50 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * A page serializes back to the bytes it was read from, and modified
+     * slots are written from their tuples.
+     */
+    @Test public void pageDataRoundTrip() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        Tuple addition = Utility.getHeapTuple(42, 2);
+        page.insertTuple(addition);
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> a = page.iterator();
+        Iterator<Tuple> b = copy.iterator();
+        while (a.hasNext()) {
+            assertTrue(b.hasNext());
+            assertTrue(TestUtil.compareTuples(a.next(), b.next()));
+        }
+        assertFalse(b.hasNext());
+    }
+
+    /**
+     * The before image is the page as of the last setBeforeImage(), and is
+     * captured when the page is first modified.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        assertEquals(free - 2, page.getBeforeImage().getNumEmptySlots());
+        page.deleteTuple(page.iterator().next());
+        assertEquals(free - 2, page.getBeforeImage().getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,105 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.Filter;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    /**
+     * Each outer tuple probes the B+ tree once, and finds the tuples with its
+     * key among many duplicates.
+     */
+    @Test public void equiJoin() throws Exception {
+        List<List<Integer>> left = new ArrayList<>();
+        List<List<Integer>> right = new ArrayList<>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 300, 200, null, left);
+        BTreeFile f2 = BTreeUtility.createRandomBTreeFile(2, 5000, 200, null, right, 0);
+        TransactionId tid = new TransactionId();
+        OpIterator inner = new SeqScan(tid, f2.getId(), "b");
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        assertTrue(IndexNestedLoopJoin.canProbe(p, inner));
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(p, new SeqScan(tid, f1.getId(), "a"), inner);
+
+        j.open();
+        assertEquals(TestUtil.expectedJoin(left, right, 1, Predicate.Op.EQUALS, 0), TestUtil.sortedRows(j));
+        assertEquals(300, j.getNumProbes());
+        j.rewind();
+        assertEquals(TestUtil.expectedJoin(left, right, 1, Predicate.Op.EQUALS, 0), TestUtil.sortedRows(j));
+        j.close();
+    }
+
+    /**
+     * Range predicates probe the tree for a range of keys, and the filters
+     * above the inner scan are applied to the tuples found.
+     */
+    @Test public void filteredRangeJoin() throws Exception {
+        List<List<Integer>> left = new ArrayList<>();
+        List<List<Integer>> right = new ArrayList<>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 40, 1000, null, left);
+        BTreeFile f2 = BTreeUtility.createRandomBTreeFile(2, 2000, 1000, null, right, 0);
+        TransactionId tid = new TransactionId();
+        OpIterator inner = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300)),
+                new SeqScan(tid, f2.getId(), "b"));
+        List<List<Integer>> filtered = new ArrayList<>();
+        for (List<Integer> r : right) {
+            if (r.get(1) < 300)
+                filtered.add(r);
+        }
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ }) {
+            IndexNestedLoopJoin j = new IndexNestedLoopJoin(new JoinPredicate(0, op, 0),
+                    new SeqScan(tid, f1.getId(), "a"), inner);
+            j.open();
+            assertEquals(TestUtil.expectedJoin(left, filtered, 0, op, 0), TestUtil.sortedRows(j));
+            j.close();
+        }
+    }
+
+    /**
+     * Only a scan of a B+ tree keyed on the join field can be probed.
+     */
+    @Test public void canProbe() throws Exception {
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, 10, null, null, 1);
+        TransactionId tid = new TransactionId();
+        OpIterator heapScan = new SeqScan(tid, heap.getId(), "a");
+        OpIterator treeScan = new SeqScan(tid, tree.getId(), "b");
+        assertTrue(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.EQUALS, 1), treeScan));
+        assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.EQUALS, 0), treeScan));
+        assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 1), treeScan));
+        assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.EQUALS, 1), heapScan));
+        try {
+            new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1), treeScan, heapScan);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
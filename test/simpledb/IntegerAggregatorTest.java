@@ -130,6 +130,35 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test that SC_AVG over the output of SUM_COUNT on two halves of the
+   * input gives the average of the whole input
+   */
+  @Test public void sumCountAndScAvg() throws Exception {
+    scan1.open();
+    IntegerAggregator first = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM_COUNT);
+    IntegerAggregator second = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM_COUNT);
+    for (int i = 0; scan1.hasNext(); i++)
+      (i % 2 == 0 ? first : second).mergeTupleIntoGroup(scan1.next());
+
+    OpIterator it = first.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+        new int[] { 1, 8, 2, 3, 4, 1, 5, 7, 1 }), it);
+
+    IntegerAggregator merged = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SC_AVG);
+    for (IntegerAggregator partial : new IntegerAggregator[] { first, second }) {
+      it = partial.iterator();
+      it.open();
+      while (it.hasNext())
+        merged.mergeTupleIntoGroup(it.next());
+    }
+    it = merged.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 4, 3, 4, 5, 7 }), it);
+  }
+
   /**
    * Test IntegerAggregator.iterator() for OpIterator behaviour
    */
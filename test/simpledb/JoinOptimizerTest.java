@@ -11,9 +11,18 @@ import org.junit.Test;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.JoinFilter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
 import simpledb.execution.Predicate;
+import simpledb.execution.SortMergeJoin;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinAlgorithm;
 import simpledb.optimizer.JoinOptimizer;
 import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.BufferPool;
 import simpledb.storage.HeapFile;
@@ -629,4 +638,357 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Create tables r0, r1, ... of random sizes with two columns of random
+     * values, and statistics for them.
+     */
+    private Map<String, TableStats> createRandomTables(Random random, int n,
+            List<List<List<Integer>>> contents) throws IOException {
+        Map<String, TableStats> stats = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            List<List<Integer>> tuples = new ArrayList<>();
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2,
+                    10 + random.nextInt(1000), 10 + random.nextInt(500), null,
+                    tuples, "c");
+            Database.getCatalog().addTable(f, "r" + i);
+            stats.put("r" + i, new TableStats(f.getId(), 1 + random.nextInt(50)));
+            if (contents != null)
+                contents.add(tuples);
+        }
+        return stats;
+    }
+
+    /** The text of a query joining r0, r1, ... on the given joins. */
+    private static String joinQuery(int n, List<LogicalJoinNode> nodes) {
+        StringBuilder sb = new StringBuilder("SELECT * FROM r0");
+        for (int i = 1; i < n; i++)
+            sb.append(", r").append(i);
+        for (int i = 0; i < nodes.size(); i++) {
+            LogicalJoinNode j = nodes.get(i);
+            sb.append(i == 0 ? " WHERE " : " AND ").append(j.f1QuantifiedName)
+                    .append(" = ").append(j.f2QuantifiedName);
+        }
+        return sb.append(";").toString();
+    }
+
+    /**
+     * The estimated cost of executing the joins in the given order, checking
+     * that each join combines two different subplans.
+     */
+    private static double planCost(JoinOptimizer jo, List<LogicalJoinNode> order,
+            Map<String, TableStats> stats) {
+        Map<String, double[]> subplans = new HashMap<>();
+        for (LogicalJoinNode j : order) {
+            for (String alias : new String[] { j.t1Alias, j.t2Alias }) {
+                TableStats s = stats.get(alias);
+                subplans.putIfAbsent(alias, new double[] { s.estimateScanCost(),
+                        s.estimateTableCardinality(1.0) });
+            }
+        }
+        double[] plan = null;
+        for (LogicalJoinNode j : order) {
+            double[] left = subplans.get(j.t1Alias);
+            double[] right = subplans.get(j.t2Alias);
+            Assert.assertNotSame(left, right);
+            plan = new double[] {
+                    jo.estimateJoinCost(j, (int) left[1], (int) right[1], left[0], right[0]),
+                    jo.estimateJoinCardinality(j, (int) left[1], (int) right[1], false, false, stats) };
+            for (Map.Entry<String, double[]> e : subplans.entrySet()) {
+                if (e.getValue() == left || e.getValue() == right)
+                    e.setValue(plan);
+            }
+        }
+        return plan[0];
+    }
+
+    /**
+     * The estimated cost of the best bushy plan without cross products,
+     * found by trying every split of every subset of the tables.
+     */
+    private static double exhaustiveCost(JoinOptimizer jo, int n,
+            List<LogicalJoinNode> nodes, Map<String, TableStats> stats) {
+        double[] cost = new double[1 << n];
+        int[] card = new int[1 << n];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < n; i++) {
+            cost[1 << i] = stats.get("r" + i).estimateScanCost();
+            card[1 << i] = stats.get("r" + i).estimateTableCardinality(1.0);
+        }
+        for (int s = 1; s < 1 << n; s++) {
+            for (int s1 = (s - 1) & s; s1 > 0; s1 = (s1 - 1) & s) {
+                int s2 = s & ~s1;
+                if (cost[s1] == Double.POSITIVE_INFINITY || cost[s2] == Double.POSITIVE_INFINITY)
+                    continue;
+                for (LogicalJoinNode j : nodes) {
+                    int t1 = 1 << Integer.parseInt(j.t1Alias.substring(1));
+                    int t2 = 1 << Integer.parseInt(j.t2Alias.substring(1));
+                    if ((s1 & t1) == 0 || (s2 & t2) == 0)
+                        continue;
+                    double c = Math.min(
+                            jo.estimateJoinCost(j, card[s1], card[s2], cost[s1], cost[s2]),
+                            jo.estimateJoinCost(j.swapInnerOuter(), card[s2], card[s1], cost[s2], cost[s1]));
+                    if (c < cost[s]) {
+                        cost[s] = c;
+                        card[s] = jo.estimateJoinCardinality(j, card[s1], card[s2], false, false, stats);
+                    }
+                }
+            }
+        }
+        return cost[(1 << n) - 1];
+    }
+
+    /**
+     * The dynamic programming enumerator finds the cheapest bushy plan for
+     * random tree-shaped join graphs.
+     */
+    @Test
+    public void dynamicProgrammingFindsBestPlanTest() throws IOException,
+            ParsingException {
+        final int n = 7;
+        Random random = new Random(42);
+        Map<String, TableStats> stats = createRandomTables(random, n, null);
+        for (int round = 0; round < 20; round++) {
+            List<LogicalJoinNode> nodes = new ArrayList<>();
+            for (int i = 1; i < n; i++) {
+                nodes.add(new LogicalJoinNode("r" + random.nextInt(i), "r" + i,
+                        "c" + random.nextInt(2), "c" + random.nextInt(2),
+                        Predicate.Op.EQUALS));
+            }
+            Collections.shuffle(nodes, random);
+            JoinOptimizer jo = new JoinOptimizer(new Parser().generateLogicalPlan(
+                    new TransactionId(), joinQuery(n, nodes)), nodes);
+            List<LogicalJoinNode> result = jo.orderJoins(stats, filterSelectivities(n), false);
+
+            Assert.assertEquals(nodes.size(), result.size());
+            double best = exhaustiveCost(jo, n, nodes, stats);
+            Assert.assertEquals(best, planCost(jo, result, stats), best * 1e-9);
+        }
+    }
+
+    private static Map<String, Double> filterSelectivities(int n) {
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        for (int i = 0; i < n; i++)
+            filterSelectivities.put("r" + i, 1.0);
+        return filterSelectivities;
+    }
+
+    /**
+     * A 15-way star join is above the dynamic programming limit and is
+     * ordered greedily, within a few milliseconds.
+     */
+    @Test
+    public void greedyStarJoinTest() throws IOException, ParsingException {
+        final int n = 15;
+        Random random = new Random(7);
+        Map<String, TableStats> stats = createRandomTables(random, n, null);
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        for (int i = 1; i < n; i++)
+            nodes.add(new LogicalJoinNode("r0", "r" + i, "c" + (i % 2), "c0", Predicate.Op.EQUALS));
+        JoinOptimizer jo = new JoinOptimizer(new Parser().generateLogicalPlan(
+                new TransactionId(), joinQuery(n, nodes)), nodes);
+        Assert.assertTrue(n > JoinOptimizer.getMaxDpTables());
+
+        List<LogicalJoinNode> result = jo.orderJoins(stats, filterSelectivities(n), false);
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++)
+            result = jo.orderJoins(stats, filterSelectivities(n), false);
+        long millis = (System.nanoTime() - start) / 10 / 1000000;
+
+        Assert.assertEquals(nodes.size(), result.size());
+        Assert.assertTrue(planCost(jo, result, stats) < Double.POSITIVE_INFINITY);
+        Assert.assertTrue("planning took " + millis + " ms", millis < 50);
+    }
+
+    /**
+     * Plans found by dynamic programming and by the greedy fallback,
+     * including bushy ones, return the rows of the join.
+     */
+    @Test
+    public void orderedJoinsExecuteTest() throws Exception {
+        final int n = 5;
+        Random random = new Random(3);
+        List<List<List<Integer>>> contents = new ArrayList<>();
+        Map<String, TableStats> stats = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            List<List<Integer>> tuples = new ArrayList<>();
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10 + random.nextInt(30),
+                    8, null, tuples, "c");
+            Database.getCatalog().addTable(f, "r" + i);
+            stats.put("r" + i, new TableStats(f.getId(), 1));
+            contents.add(tuples);
+        }
+        // a chain r0 - r1 - ... on c0 = c1
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        for (int i = 1; i < n; i++)
+            nodes.add(new LogicalJoinNode("r" + (i - 1), "r" + i, "c0", "c1", Predicate.Op.EQUALS));
+        long expected = 0;
+        for (List<Integer> t : contents.get(0))
+            expected += chainMatches(contents, 1, t.get(0));
+
+        int maxDpTables = JoinOptimizer.getMaxDpTables();
+        try {
+            for (int limit : new int[] { maxDpTables, 1 }) {
+                JoinOptimizer.setMaxDpTables(limit);
+                TransactionId tid = new TransactionId();
+                LogicalPlan lp = new Parser().generateLogicalPlan(tid, joinQuery(n, nodes));
+                OpIterator it = lp.physicalPlan(tid, stats, false);
+                it.open();
+                long rows = 0;
+                while (it.hasNext()) {
+                    it.next();
+                    rows++;
+                }
+                it.close();
+                Database.getBufferPool().transactionComplete(tid);
+                Assert.assertEquals(expected, rows);
+            }
+        } finally {
+            JoinOptimizer.setMaxDpTables(maxDpTables);
+        }
+    }
+
+    /**
+     * A join that closes a cycle between three tables filters the rows of
+     * the plan that already joins them.
+     */
+    @Test
+    public void cyclicJoinExecutesTest() throws Exception {
+        final int n = 3;
+        Random random = new Random(11);
+        List<List<List<Integer>>> contents = new ArrayList<>();
+        Map<String, TableStats> stats = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            List<List<Integer>> tuples = new ArrayList<>();
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 30 + random.nextInt(30),
+                    4, null, tuples, "c");
+            Database.getCatalog().addTable(f, "r" + i);
+            stats.put("r" + i, new TableStats(f.getId(), 1));
+            contents.add(tuples);
+        }
+        // a cycle r0 - r1 - r2 - r0 on c0 = c1
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            nodes.add(new LogicalJoinNode("r" + i, "r" + ((i + 1) % n), "c0", "c1", Predicate.Op.EQUALS));
+        long expected = 0;
+        for (List<Integer> a : contents.get(0)) {
+            for (List<Integer> b : contents.get(1)) {
+                for (List<Integer> c : contents.get(2)) {
+                    if (a.get(0).equals(b.get(1)) && b.get(0).equals(c.get(1))
+                            && c.get(0).equals(a.get(1)))
+                        expected++;
+                }
+            }
+        }
+        Assert.assertTrue(expected > 0);
+
+        int maxDpTables = JoinOptimizer.getMaxDpTables();
+        try {
+            for (int limit : new int[] { maxDpTables, 1 }) {
+                JoinOptimizer.setMaxDpTables(limit);
+                TransactionId tid = new TransactionId();
+                LogicalPlan lp = new Parser().generateLogicalPlan(tid, joinQuery(n, nodes));
+                OpIterator it = lp.physicalPlan(tid, stats, false);
+                Assert.assertTrue(containsOperator(it, JoinFilter.class));
+                Assert.assertEquals(expected, countRows(it));
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        } finally {
+            JoinOptimizer.setMaxDpTables(maxDpTables);
+        }
+    }
+
+    // the number of ways to extend a chain that reached table i with value c0
+    private static long chainMatches(List<List<List<Integer>>> contents, int i, int c0) {
+        if (i == contents.size())
+            return 1;
+        long matches = 0;
+        for (List<Integer> t : contents.get(i)) {
+            if (t.get(1) == c0)
+                matches += chainMatches(contents, i + 1, t.get(0));
+        }
+        return matches;
+    }
+
+    /**
+     * A small outer table probes the B+ tree of a large one instead of
+     * scanning it, and two B+ trees keyed on the join field are merged
+     * without sorting. The chosen operators run and return every match.
+     */
+    @Test
+    public void joinAlgorithmChoiceTest() throws Exception {
+        List<List<Integer>> small = new ArrayList<>();
+        HeapFile s = SystemTestUtil.createRandomHeapFile(2, 20, 5000, null, small, "c");
+        Database.getCatalog().addTable(s, "s");
+        List<List<Integer>> big = new ArrayList<>();
+        BTreeFile b = BTreeUtility.createRandomBTreeFile(2, 20000, 5000, null, big, 0);
+        Database.getCatalog().addTable(BTreeUtility.openBTreeFile(2, "c", b.getFile(), 0), "big");
+        List<List<Integer>> other = new ArrayList<>();
+        BTreeFile o = BTreeUtility.createRandomBTreeFile(2, 20000, 5000, null, other, 0);
+        Database.getCatalog().addTable(BTreeUtility.openBTreeFile(2, "c", o.getFile(), 0), "other");
+        Map<String, TableStats> stats = new HashMap<>();
+        for (String name : new String[] { "s", "big", "other" })
+            stats.put(name, new TableStats(Database.getCatalog().getTableId(name), 1));
+        Map<String, Double> filterSelectivities = new HashMap<>();
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM s, big WHERE s.c0 = big.c0;");
+        filterSelectivities.put("s", 1.0);
+        filterSelectivities.put("big", 1.0);
+        List<LogicalJoinNode> order = new JoinOptimizer(lp, Collections.singletonList(
+                new LogicalJoinNode("s", "big", "c0", "c0", Predicate.Op.EQUALS)))
+                .orderJoins(stats, filterSelectivities, false);
+        Assert.assertEquals(JoinAlgorithm.INDEX_NESTED_LOOP, order.get(0).algorithm);
+        Assert.assertEquals("big", order.get(0).t2Alias);
+        OpIterator it = lp.physicalPlan(tid, stats, false);
+        Assert.assertTrue(containsOperator(it, IndexNestedLoopJoin.class));
+        Assert.assertEquals(matches(small, big), countRows(it));
+
+        lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM big, other WHERE big.c0 = other.c0;");
+        filterSelectivities.put("other", 1.0);
+        order = new JoinOptimizer(lp, Collections.singletonList(
+                new LogicalJoinNode("big", "other", "c0", "c0", Predicate.Op.EQUALS)))
+                .orderJoins(stats, filterSelectivities, false);
+        Assert.assertEquals(JoinAlgorithm.SORT_MERGE, order.get(0).algorithm);
+        it = lp.physicalPlan(tid, stats, false);
+        Assert.assertTrue(containsOperator(it, SortMergeJoin.class));
+        Assert.assertEquals(matches(big, other), countRows(it));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static boolean containsOperator(OpIterator it, Class<?> c) {
+        if (c.isInstance(it))
+            return true;
+        if (it instanceof Operator) {
+            for (OpIterator child : ((Operator) it).getChildren()) {
+                if (child != null && containsOperator(child, c))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static long countRows(OpIterator it) throws Exception {
+        it.open();
+        long rows = 0;
+        while (it.hasNext()) {
+            it.next();
+            rows++;
+        }
+        it.close();
+        return rows;
+    }
+
+    // the number of pairs of tuples with equal first fields
+    private static long matches(List<List<Integer>> left, List<List<Integer>> right) {
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (List<Integer> t : right)
+            counts.merge(t.get(0), 1, Integer::sum);
+        long matches = 0;
+        for (List<Integer> t : left)
+            matches += counts.getOrDefault(t.get(0), 0);
+        return matches;
+    }
 }
@@ -0,0 +1,208 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.DeadlockException;
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionId;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private LockManager lm;
+    private TransactionId tid1;
+    private TransactionId tid2;
+    private PageId p0;
+    private PageId p1;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        lm = new LockManager();
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+    }
+
+    /**
+     * Starts a thread that acquires a lock and reports how it ended.
+     */
+    private Thread grab(final TransactionId tid, final PageId pid, final Permissions perm,
+                        final AtomicReference<Object> outcome, final CountDownLatch done) {
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquire(tid, pid, perm);
+                outcome.set(Boolean.TRUE);
+            } catch (Exception e) {
+                outcome.set(e);
+            }
+            done.countDown();
+        });
+        t.start();
+        return t;
+    }
+
+    /**
+     * Shared locks are compatible, and a lone shared holder can upgrade.
+     */
+    @Test public void sharedAndUpgrade() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid2, p0, Permissions.READ_ONLY);
+        assertTrue(lm.holdsLock(tid1, p0));
+        assertTrue(lm.holdsLock(tid2, p0));
+
+        lm.release(tid2, p0);
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.holdsExclusiveLock(tid1, p0));
+        // an exclusive lock covers later shared requests
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        assertTrue(lm.holdsExclusiveLock(tid1, p0));
+
+        lm.releaseAll(tid1);
+        assertFalse(lm.holdsLock(tid1, p0));
+        assertTrue(lm.getLockedPages(tid1).isEmpty());
+    }
+
+    /**
+     * A blocked request is granted once the conflicting lock is released.
+     */
+    @Test public void waitsForRelease() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        AtomicReference<Object> outcome = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        grab(tid2, p0, Permissions.READ_ONLY, outcome, done);
+
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        lm.releaseAll(tid1);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(Boolean.TRUE, outcome.get());
+        assertTrue(lm.holdsLock(tid2, p0));
+    }
+
+    /**
+     * Two transactions that wait for each other are detected as soon as the
+     * cycle closes; no timeout is involved.
+     */
+    @Test public void deadlockDetectedImmediately() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid2, p1, Permissions.READ_WRITE);
+
+        AtomicReference<Object> outcome = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        grab(tid1, p1, Permissions.READ_ONLY, outcome, done);
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+
+        long start = System.currentTimeMillis();
+        try {
+            lm.acquire(tid2, p0, Permissions.READ_ONLY);
+            fail("expected a deadlock");
+        } catch (DeadlockException expected) {
+        }
+        assertTrue(System.currentTimeMillis() - start < 100);
+
+        // the victim aborts and the survivor proceeds
+        lm.releaseAll(tid2);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(Boolean.TRUE, outcome.get());
+    }
+
+    /**
+     * Two shared holders that both try to upgrade deadlock.
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid2, p0, Permissions.READ_ONLY);
+
+        AtomicReference<Object> outcome = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        grab(tid1, p0, Permissions.READ_WRITE, outcome, done);
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+
+        try {
+            lm.acquire(tid2, p0, Permissions.READ_WRITE);
+            fail("expected a deadlock");
+        } catch (DeadlockException expected) {
+        }
+        lm.releaseAll(tid2);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(lm.holdsExclusiveLock(tid1, p0));
+    }
+
+    /**
+     * Two threads of one transaction, such as parallel scan workers, wait at
+     * the same time; when one of them is granted its lock, the other one's
+     * wait still closes a cycle.
+     */
+    @Test public void siblingWaitsStayInGraph() throws Exception {
+        PageId p2 = new HeapPageId(1, 2);
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid2, p1, Permissions.READ_WRITE);
+        lm.acquire(tid2, p2, Permissions.READ_WRITE);
+
+        AtomicReference<Object> first = new AtomicReference<>();
+        CountDownLatch firstDone = new CountDownLatch(1);
+        grab(tid1, p1, Permissions.READ_ONLY, first, firstDone);
+        AtomicReference<Object> second = new AtomicReference<>();
+        CountDownLatch secondDone = new CountDownLatch(1);
+        grab(tid1, p2, Permissions.READ_ONLY, second, secondDone);
+        assertFalse(firstDone.await(100, TimeUnit.MILLISECONDS));
+        assertFalse(secondDone.await(100, TimeUnit.MILLISECONDS));
+
+        lm.release(tid2, p2);
+        assertTrue(secondDone.await(1, TimeUnit.SECONDS));
+        assertEquals(Boolean.TRUE, second.get());
+
+        // tid1 still waits for tid2 on p1
+        try {
+            lm.acquire(tid2, p0, Permissions.READ_ONLY);
+            fail("expected a deadlock");
+        } catch (DeadlockException expected) {
+        }
+        lm.releaseAll(tid2);
+        assertTrue(firstDone.await(1, TimeUnit.SECONDS));
+        assertEquals(Boolean.TRUE, first.get());
+    }
+
+    /**
+     * Waiting writers are not starved by readers that arrive after them.
+     */
+    @Test public void fifoQueue() throws Exception {
+        TransactionId tid3 = new TransactionId();
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+
+        AtomicReference<Object> writer = new AtomicReference<>();
+        CountDownLatch writerDone = new CountDownLatch(1);
+        grab(tid2, p0, Permissions.READ_WRITE, writer, writerDone);
+        assertFalse(writerDone.await(100, TimeUnit.MILLISECONDS));
+
+        AtomicReference<Object> reader = new AtomicReference<>();
+        CountDownLatch readerDone = new CountDownLatch(1);
+        grab(tid3, p0, Permissions.READ_ONLY, reader, readerDone);
+        assertFalse(readerDone.await(100, TimeUnit.MILLISECONDS));
+
+        lm.releaseAll(tid1);
+        assertTrue(writerDone.await(1, TimeUnit.SECONDS));
+        assertFalse(readerDone.await(100, TimeUnit.MILLISECONDS));
+        lm.releaseAll(tid2);
+        assertTrue(readerDone.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
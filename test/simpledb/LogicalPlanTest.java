@@ -0,0 +1,116 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class LogicalPlanTest extends SimpleDbTestBase {
+
+    private List<List<Integer>> tuples;
+    private Map<String, TableStats> stats;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 20000, 5000, null, tuples, 0);
+        Database.getCatalog().addTable(BTreeUtility.openBTreeFile(2, "c", f.getFile(), 0), "t");
+        stats = new HashMap<>();
+        stats.put("t", new TableStats(Database.getCatalog().getTableId("t"), 1));
+    }
+
+    private static long countRows(OpIterator it) throws Exception {
+        it.open();
+        long rows = 0;
+        while (it.hasNext()) {
+            it.next();
+            rows++;
+        }
+        it.close();
+        return rows;
+    }
+
+    private long countMatching(int lo, int hi, int maxField1) {
+        long rows = 0;
+        for (List<Integer> t : tuples) {
+            if (t.get(0) >= lo && t.get(0) <= hi && t.get(1) < maxField1)
+                rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * A selective equality predicate on the key reads the B+ tree through its
+     * index instead of scanning it.
+     */
+    @Test public void equalityUsesIndex() throws Exception {
+        int key = tuples.get(0).get(0);
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM t WHERE t.c0 = " + key + ";");
+        OpIterator it = lp.physicalPlan(tid, stats, false);
+        BTreeScan scan = TestUtil.findOperator(it, BTreeScan.class);
+        assertNotNull(scan);
+        assertNull(scan.getUpperBound());
+        assertNull(TestUtil.findOperator(it, SeqScan.class));
+        assertEquals(countMatching(key, key, Integer.MAX_VALUE), countRows(it));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A range bounded on both sides becomes one index scan that stops at the
+     * upper bound, and predicates on other fields are still filtered.
+     */
+    @Test public void rangeUsesBoundedIndexScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM t WHERE t.c0 >= 100 AND t.c0 <= 140 AND t.c1 < 2500;");
+        OpIterator it = lp.physicalPlan(tid, stats, false);
+        BTreeScan scan = TestUtil.findOperator(it, BTreeScan.class);
+        assertNotNull(scan);
+        assertNotNull(scan.getIndexPredicate());
+        assertNotNull(scan.getUpperBound());
+        assertEquals(countMatching(100, 140, 2500), countRows(it));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Predicates the index cannot answer leave the table to a sequential scan.
+     */
+    @Test public void otherFieldKeepsSeqScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM t WHERE t.c1 = 7;");
+        OpIterator it = lp.physicalPlan(tid, stats, false);
+        assertNotNull(TestUtil.findOperator(it, SeqScan.class));
+        assertNull(TestUtil.findOperator(it, BTreeScan.class));
+        long expected = 0;
+        for (List<Integer> t : tuples) {
+            if (t.get(1) == 7)
+                expected++;
+        }
+        assertEquals(expected, countRows(it));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogicalPlanTest.class);
+    }
+}
@@ -0,0 +1,107 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    private static List<List<Integer>> drain(OpIterator it) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        return rows;
+    }
+
+    /** The expected result: a stable sort of the input on field 0. */
+    private static List<List<Integer>> sorted(List<List<Integer>> tuples, boolean asc, int limit) {
+        List<List<Integer>> copy = new ArrayList<>(tuples);
+        Comparator<List<Integer>> cmp = Comparator.comparing(l -> l.get(0));
+        copy.sort(asc ? cmp : cmp.reversed());
+        return limit == OrderBy.NO_LIMIT ? copy : copy.subList(0, Math.min(limit, copy.size()));
+    }
+
+    private void check(int rows, long budget, boolean asc, int limit, int expectedMinRuns,
+                       boolean expectTopN) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        // few distinct keys, so stability matters
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, 300, null, tuples);
+        TransactionId tid = new TransactionId();
+        OrderBy ob = new OrderBy(0, asc, new SeqScan(tid, f.getId(), "t"), limit);
+        ob.setMemoryBudget(budget);
+        ob.open();
+        List<List<Integer>> expected = sorted(tuples, asc, limit);
+        assertEquals(expected, drain(ob));
+        assertTrue(ob.getNumRuns() >= expectedMinRuns);
+        assertEquals(expectTopN, ob.usedTopN());
+
+        ob.rewind();
+        assertEquals(expected, drain(ob));
+        ob.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void inMemory() throws Exception {
+        check(3000, OrderBy.DEFAULT_MEMORY_BUDGET, true, OrderBy.NO_LIMIT, 0, false);
+        check(3000, OrderBy.DEFAULT_MEMORY_BUDGET, false, OrderBy.NO_LIMIT, 0, false);
+    }
+
+    /**
+     * Tuples that do not fit in the budget are sorted in runs and merged.
+     */
+    @Test public void externalSort() throws Exception {
+        // about 500 tuples per run
+        check(10000, 500 * 56, true, OrderBy.NO_LIMIT, 20, false);
+        check(10000, 500 * 56, false, OrderBy.NO_LIMIT, 20, false);
+    }
+
+    /**
+     * More runs than the fan-in need several merge passes.
+     */
+    @Test public void multiPassMerge() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, tuples);
+        TransactionId tid = new TransactionId();
+        OrderBy ob = new OrderBy(0, true, new SeqScan(tid, f.getId(), "t"));
+        // a fan-in of 2: ten tuples per run
+        ob.setMemoryBudget(10 * 56);
+        ob.open();
+        assertEquals(sorted(tuples, true, OrderBy.NO_LIMIT), drain(ob));
+        assertEquals(2000, ob.getNumRuns());
+        assertTrue(ob.getNumMergePasses() >= 10);
+        ob.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A limit that fits in memory is served from a bounded heap; one that
+     * does not falls back to the external sort.
+     */
+    @Test public void topN() throws Exception {
+        check(10000, 500 * 56, true, 100, 0, true);
+        check(10000, 500 * 56, false, 1, 0, true);
+        check(10000, 500 * 56, true, 0, 0, true);
+        check(10000, 500 * 56, true, 2000, 2, false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,227 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ParallelExecutionTest extends SimpleDbTestBase {
+
+    private static final int DEGREE = 4;
+
+    /** Interface to build the same plan twice, once serial and once parallel. */
+    private interface PlanBuilder {
+        OpIterator build(TransactionId tid);
+    }
+
+    private static List<String> run(OpIterator plan) throws Exception {
+        List<String> rows = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext())
+            rows.add(plan.next().toString());
+        plan.close();
+        return rows;
+    }
+
+    /**
+     * Runs a plan serially and in parallel and checks that both produce the
+     * same rows, in any order.
+     */
+    private static List<String> assertSameResults(PlanBuilder builder, Class<?> parallelRoot)
+            throws Exception {
+        TransactionId tid = new TransactionId();
+        List<String> expected = run(builder.build(tid));
+        OpIterator parallelPlan = ParallelPlanner.plan(builder.build(tid), DEGREE);
+        assertTrue(parallelRoot.isInstance(parallelPlan));
+        List<String> actual = run(parallelPlan);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+        return actual;
+    }
+
+    /**
+     * Every tuple of the file is read by exactly one of the workers, however
+     * the morsels fall.
+     */
+    @Test public void scanAndFilter() throws Exception {
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(3, 30000, 100, null, null);
+        assertTrue(f.numPages() > DEGREE * ParallelSeqScan.DEFAULT_MORSEL_PAGES);
+        List<String> rows = assertSameResults(tid -> new Filter(
+                new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30)),
+                new SeqScan(tid, f.getId(), "t")), Exchange.class);
+        assertFalse(rows.isEmpty());
+    }
+
+    @Test public void project() throws Exception {
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(3, 10000, 100, null, null);
+        assertSameResults(tid -> new Project(Arrays.asList(2, 0),
+                new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50)),
+                        new SeqScan(tid, f.getId(), "t"))), Exchange.class);
+    }
+
+    /**
+     * Partial aggregates of the workers merge into the serial result, for
+     * every operator, with and without grouping.
+     */
+    @Test public void aggregate() throws Exception {
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, null);
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+            assertSameResults(tid -> new Aggregate(new SeqScan(tid, f.getId(), "t"), 1, 0, op),
+                    ParallelAggregate.class);
+            List<String> rows = assertSameResults(tid -> new Aggregate(
+                    new SeqScan(tid, f.getId(), "t"), 1, Aggregator.NO_GROUPING, op),
+                    ParallelAggregate.class);
+            assertEquals(1, rows.size());
+        }
+    }
+
+    @Test public void aggregateKeepsNames() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, 10, null, null);
+        TransactionId tid = new TransactionId();
+        Aggregate serial = new Aggregate(new SeqScan(tid, f.getId(), "t"), 1, 0, Aggregator.Op.AVG);
+        TupleDesc td = serial.getTupleDesc();
+        OpIterator parallel = ParallelPlanner.plan(serial, DEGREE);
+        assertEquals(td.getFieldName(0), parallel.getTupleDesc().getFieldName(0));
+        assertEquals(td.getFieldName(1), parallel.getTupleDesc().getFieldName(1));
+        parallel.open();
+        assertEquals(td.getFieldName(1), parallel.next().getTupleDesc().getFieldName(1));
+        parallel.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void hashJoin() throws Exception {
+        final HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 6000, 2000, null, null);
+        final HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 8000, 2000, null, null);
+        List<String> rows = assertSameResults(tid -> new HashEquiJoin(
+                new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(1500)),
+                        new SeqScan(tid, f1.getId(), "a")),
+                new SeqScan(tid, f2.getId(), "b")), ParallelHashEquiJoin.class);
+        assertFalse(rows.isEmpty());
+    }
+
+    /**
+     * Operators that cannot run in parallel keep running on the caller,
+     * reading parallel pipelines below them.
+     */
+    @Test public void serialParent() throws Exception {
+        final HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, null);
+        final HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 200, 100, null, null);
+        assertSameResults(tid -> new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN, 1),
+                new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b")), Join.class);
+    }
+
+    @Test public void rewind() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 100, null, null);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = ParallelPlanner.plan(new SeqScan(tid, f.getId(), "t"), DEGREE);
+        plan.open();
+        for (int i = 0; i < 5000; i++)
+            plan.next();
+        plan.rewind();
+        int rows = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            rows++;
+        }
+        plan.close();
+        assertEquals(20000, rows);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Closing an exchange whose workers are blocked on a full queue stops
+     * them, and it can be opened again afterwards.
+     */
+    @Test(timeout = 20000) public void closeStopsBlockedWorkers() throws Exception {
+        OpIterator[] branches = new OpIterator[DEGREE];
+        for (int i = 0; i < DEGREE; i++)
+            branches[i] = new TestUtil.MockScan(0, 100000, 1);
+        Exchange exchange = new Exchange(branches);
+        exchange.open();
+        for (int i = 0; i < 10; i++)
+            exchange.next();
+        exchange.close();
+
+        assertEquals(DEGREE * 100000, run(exchange).size());
+    }
+
+    /**
+     * A branch that fails stops the exchange and its exception is rethrown
+     * to the caller.
+     */
+    @Test(timeout = 20000) public void failingBranch() throws Exception {
+        OpIterator failing = new TestUtil.MockScan(0, 100, 1) {
+            @Override
+            public Tuple next() {
+                throw new IllegalStateException("broken branch");
+            }
+        };
+        Exchange exchange = new Exchange(new TestUtil.MockScan(0, 100000, 1), failing);
+        exchange.open();
+        try {
+            while (exchange.hasNext())
+                exchange.next();
+            fail("expected the branch's exception");
+        } catch (IllegalStateException expected) {
+        }
+        exchange.close();
+    }
+
+    /**
+     * Query picks a degree from the size of the scanned tables when asked to.
+     */
+    @Test public void queryParallelism() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 100, 50, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2,
+                ParallelPlanner.PAGES_PER_WORKER * 4 * 500, 50, null, null);
+        TransactionId tid = new TransactionId();
+        assertEquals(1, ParallelPlanner.chooseDegree(new SeqScan(tid, small.getId(), "s")));
+        assertEquals(Math.min(ParallelPlanner.getMaxDegree(), big.numPages()
+                        / ParallelPlanner.PAGES_PER_WORKER),
+                ParallelPlanner.chooseDegree(new SeqScan(tid, big.getId(), "b")));
+
+        int maxDegree = ParallelPlanner.getMaxDegree();
+        ParallelPlanner.setMaxDegree(2);
+        try {
+            Query q = new Query(new Aggregate(new SeqScan(tid, big.getId(), "b"), 1,
+                    Aggregator.NO_GROUPING, Aggregator.Op.COUNT), tid);
+            q.setParallelism(Query.AUTO_PARALLELISM);
+            q.start();
+            assertTrue(q.getPhysicalPlan() instanceof ParallelAggregate);
+            assertEquals(2, ((ParallelAggregate) q.getPhysicalPlan()).getDegree());
+            assertEquals(ParallelPlanner.PAGES_PER_WORKER * 4 * 500, q.next().getInt(0));
+            assertFalse(q.hasNext());
+            q.close();
+        } finally {
+            ParallelPlanner.setMaxDegree(maxDegree);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelExecutionTest.class);
+    }
+}
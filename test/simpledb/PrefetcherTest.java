@@ -0,0 +1,115 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Prefetcher;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PrefetcherTest extends SimpleDbTestBase {
+
+    private static int scan(DbFileIterator it) throws Exception {
+        int count = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * A sequential heap file scan reads ahead, and the pages it reads ahead
+     * are the ones it asks for next.
+     */
+    @Test public void sequentialScanReadsAhead() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        BufferPool bp = Database.resetBufferPool(100);
+        Prefetcher prefetcher = bp.getPrefetcher();
+        TransactionId tid = new TransactionId();
+
+        assertEquals(20000, scan(f.iterator(tid)));
+        prefetcher.awaitQuiescence();
+
+        assertTrue(bp.getPrefetchCount() > 0);
+        assertTrue(bp.getPrefetchHitCount() > 0);
+        // the first pages are read before the scan looks sequential, and
+        // read-ahead can lose the race against the scan
+        assertTrue(bp.getMissCount() < f.numPages());
+        assertEquals(0, bp.getWastedPrefetchCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * With read-ahead switched off every page is a demand miss.
+     */
+    @Test public void disabled() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        BufferPool bp = Database.resetBufferPool(100);
+        bp.getPrefetcher().setEnabled(false);
+        TransactionId tid = new TransactionId();
+
+        assertEquals(5000, scan(f.iterator(tid)));
+        assertEquals(0, bp.getPrefetchCount());
+        assertEquals(f.numPages(), bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Prefetched pages that are evicted before they are requested count as
+     * wasted.
+     */
+    @Test public void wastedPrefetch() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+
+        assertNotNull(bp.prefetchPage(new HeapPageId(f.getId(), 0)));
+        assertEquals(1, bp.getPrefetchCount());
+        for (int i = 1; i <= 4; i++)
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        assertEquals(1, bp.getWastedPrefetchCount());
+        assertEquals(0, bp.getPrefetchHitCount());
+
+        // a prefetch of a cached page reads nothing
+        assertNotNull(bp.prefetchPage(new HeapPageId(f.getId(), 4)));
+        assertEquals(1, bp.getPrefetchCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A B+ tree scan reads ahead along the leaf chain.
+     */
+    @Test public void leafChainReadAhead() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 20000, null, null, 0);
+        BufferPool bp = Database.resetBufferPool(200);
+        TransactionId tid = new TransactionId();
+
+        assertEquals(20000, scan(bf.iterator(tid)));
+        bp.getPrefetcher().awaitQuiescence();
+        assertTrue(bp.getPrefetchCount() > 0);
+        assertTrue(bp.getPrefetchHitCount() > 0);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PrefetcherTest.class);
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.storage.TwoQueueReplacementPolicy;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * LRU evicts the page that was touched least recently.
+     */
+    @Test public void lruEvictsLeastRecentlyUsed() {
+        ReplacementPolicy lru = ReplacementPolicy.Kind.LRU.create(3);
+        lru.recordMiss(pid(0));
+        lru.recordMiss(pid(1));
+        lru.recordMiss(pid(2));
+        lru.recordHit(pid(0));
+
+        assertEquals(pid(1), lru.evict(p -> true));
+        assertEquals(pid(2), lru.evict(p -> true));
+        assertEquals(pid(0), lru.evict(p -> true));
+        assertNull(lru.evict(p -> true));
+    }
+
+    /**
+     * CLOCK gives referenced pages a second chance and skips pages that may
+     * not be evicted.
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy clock = ReplacementPolicy.Kind.CLOCK.create(3);
+        clock.recordMiss(pid(0));
+        clock.recordMiss(pid(1));
+        clock.recordMiss(pid(2));
+
+        // all reference bits are set, so the first sweep clears them and the
+        // second one evicts the first evictable frame
+        assertEquals(pid(1), clock.evict(p -> !p.equals(pid(0))));
+        // pid(3) takes the free frame; every resident page is referenced
+        // again, so the hand goes all the way round once more
+        clock.recordMiss(pid(3));
+        clock.recordHit(pid(2));
+        assertEquals(pid(2), clock.evict(p -> true));
+    }
+
+    /**
+     * 2Q evicts pages on probation first, oldest first.
+     */
+    @Test public void twoQueueEvictsProbationFirst() {
+        TwoQueueReplacementPolicy twoQ = new TwoQueueReplacementPolicy(8);
+        twoQ.recordMiss(pid(0));
+        assertEquals(pid(0), twoQ.evict(p -> true));
+        twoQ.recordMiss(pid(0));
+        assertTrue(twoQ.isProtected(pid(0)));
+
+        for (int i = 1; i < 8; i++)
+            twoQ.recordMiss(pid(i));
+        // victims come from probation, oldest first, until it is back
+        // within its share (a quarter of the pool)
+        for (int i = 1; i < 6; i++)
+            assertEquals(pid(i), twoQ.evict(p -> true));
+        assertEquals(pid(0), twoQ.evict(p -> true));
+    }
+
+    /**
+     * A page read again shortly after being evicted from probation goes
+     * straight to the protected queue.
+     */
+    @Test public void twoQueueGhostHit() {
+        TwoQueueReplacementPolicy twoQ = new TwoQueueReplacementPolicy(4);
+        twoQ.recordMiss(pid(0));
+        assertEquals(pid(0), twoQ.evict(p -> true));
+        twoQ.recordMiss(pid(0));
+        assertTrue(twoQ.isProtected(pid(0)));
+    }
+
+    /**
+     * Hits on a page that is still on probation, such as a shared read
+     * followed by an exclusive one, do not promote it.
+     */
+    @Test public void twoQueueIgnoresCorrelatedHits() {
+        TwoQueueReplacementPolicy twoQ = new TwoQueueReplacementPolicy(4);
+        twoQ.recordMiss(pid(0));
+        twoQ.recordHit(pid(0));
+        twoQ.recordHit(pid(0));
+        assertFalse(twoQ.isProtected(pid(0)));
+        twoQ.recordMiss(pid(1));
+        assertEquals(pid(0), twoQ.evict(p -> true));
+    }
+
+    /**
+     * Hit, miss and eviction counters.
+     */
+    @Test public void counters() {
+        ReplacementPolicy lru = ReplacementPolicy.Kind.LRU.create(2);
+        lru.recordMiss(pid(0));
+        lru.recordHit(pid(0));
+        lru.recordHit(pid(0));
+        lru.evict(p -> true);
+        assertEquals(2, lru.getHitCount());
+        assertEquals(1, lru.getMissCount());
+        assertEquals(1, lru.getEvictionCount());
+        assertEquals(2.0 / 3, lru.getHitRatio(), 1e-9);
+        lru.resetCounters();
+        assertEquals(0, lru.getHitCount());
+    }
+
+    /**
+     * A table larger than the pool can be scanned, and with 2Q a big scan does
+     * not flush pages that are used over and over.
+     */
+    @Test public void scanResistance() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        int numPages = f.numPages();
+        assertTrue(numPages > 20);
+
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            BufferPool bp = Database.resetBufferPool(10, kind);
+            TransactionId tid = new TransactionId();
+            // fill the pool, then read the hot page again after it has left it
+            PageId hot = new HeapPageId(f.getId(), 0);
+            bp.getPage(tid, hot, Permissions.READ_ONLY);
+            for (int i = 1; i <= 10; i++)
+                bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+            bp.getPage(tid, hot, Permissions.READ_ONLY);
+            bp.resetCounters();
+
+            for (int i = 11; i < numPages; i++)
+                bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+            bp.getPage(tid, hot, Permissions.READ_ONLY);
+
+            assertEquals(numPages - 11 + (bp.getHitCount() == 1 ? 0 : 1),
+                    bp.getEvictionCount());
+            if (kind == ReplacementPolicy.Kind.TWO_QUEUE)
+                assertEquals(1, bp.getHitCount());
+            else if (kind == ReplacementPolicy.Kind.LRU)
+                assertEquals(0, bp.getHitCount());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,304 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.execution.SeqScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.index.SecondaryIndexScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tests secondary indexes over heap files: their lookups, their upkeep by
+ * the buffer pool, and the optimizer's use of them.
+ */
+public class SecondaryIndexTest extends SimpleDbTestBase {
+	private TransactionId tid;
+	private HeapFile hf;
+	private List<List<Integer>> tuples;
+
+	@Before
+	public void setUp() throws Exception {
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+		tuples = new ArrayList<>();
+		File f = SystemTestUtil.createRandomHeapFileUnopened(3, 20000, 100, null, tuples);
+		hf = Utility.openHeapFile(3, "c", f);
+		Database.getCatalog().addTable(hf, "t");
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private SecondaryIndex createIndex(HeapFile table, int[] keyFields, int[] includedFields) throws Exception {
+		File f = File.createTempFile("index", ".dat");
+		f.deleteOnExit();
+		SecondaryIndex index = new SecondaryIndex("idx" + Arrays.toString(keyFields), f, table,
+				keyFields, includedFields);
+		Database.getCatalog().addIndex(index);
+		index.build(tid);
+		return index;
+	}
+
+	private static List<List<Integer>> rows(OpIterator it) throws Exception {
+		List<List<Integer>> rows = new ArrayList<>();
+		it.open();
+		while (it.hasNext())
+			rows.add(SystemTestUtil.tupleToList(it.next()));
+		it.close();
+		return rows;
+	}
+
+	private List<List<Integer>> matching(List<Predicate> preds) throws Exception {
+		List<List<Integer>> rows = new ArrayList<>();
+		DbFileIterator it = hf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			boolean matches = true;
+			for (Predicate p : preds)
+				matches = matches && p.filter(t);
+			if (matches)
+				rows.add(SystemTestUtil.tupleToList(t));
+		}
+		it.close();
+		return rows;
+	}
+
+	private static void assertSameRows(List<List<Integer>> expected, List<List<Integer>> actual) {
+		Comparator<List<Integer>> order = (a, b) -> {
+			for (int i = 0; i < a.size(); i++) {
+				int c = Integer.compare(a.get(i), b.get(i));
+				if (c != 0)
+					return c;
+			}
+			return 0;
+		};
+		expected = new ArrayList<>(expected);
+		actual = new ArrayList<>(actual);
+		expected.sort(order);
+		actual.sort(order);
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void encodingPreservesOrder() {
+		List<Field> fields = new ArrayList<>();
+		for (int v : new int[]{Integer.MIN_VALUE, -70000, -1, 0, 1, 255, 70000, Integer.MAX_VALUE})
+			fields.add(new IntField(v));
+		for (Field a : fields) {
+			for (Field b : fields) {
+				int expected = Integer.compare(((IntField) a).getValue(), ((IntField) b).getValue());
+				assertEquals(expected, Integer.signum(SecondaryIndex.encode(a).compareTo(SecondaryIndex.encode(b))));
+			}
+		}
+		String[] strings = {"", "\u0000", "\u0000a", "\u0001", "\u0002", "a", "a\u0000", "ab", "b"};
+		for (String a : strings) {
+			for (String b : strings) {
+				String ea = SecondaryIndex.encode(new StringField(a, Type.STRING_LEN)) + "ffffffff";
+				String eb = SecondaryIndex.encode(new StringField(b, Type.STRING_LEN)) + "00000000";
+				// the first field decides, whatever follows it
+				if (!a.equals(b))
+					assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(ea.compareTo(eb)));
+			}
+		}
+	}
+
+	/**
+	 * A composite index answers equalities on a prefix of its key and ranges
+	 * on the next field, and returns the tuples in key order.
+	 */
+	@Test
+	public void compositeLookups() throws Exception {
+		SecondaryIndex index = createIndex(hf, new int[]{1, 0}, new int[0]);
+		int v = tuples.get(0).get(1);
+		List<List<Predicate>> lookups = Arrays.asList(
+				Collections.singletonList(new Predicate(1, Op.EQUALS, new IntField(v))),
+				Arrays.asList(new Predicate(1, Op.EQUALS, new IntField(v)),
+						new Predicate(0, Op.GREATER_THAN, new IntField(20)),
+						new Predicate(0, Op.LESS_THAN_OR_EQ, new IntField(60))),
+				Arrays.asList(new Predicate(1, Op.EQUALS, new IntField(v)),
+						new Predicate(0, Op.EQUALS, new IntField(tuples.get(0).get(0)))),
+				Arrays.asList(new Predicate(1, Op.GREATER_THAN_OR_EQ, new IntField(90)),
+						new Predicate(0, Op.LESS_THAN, new IntField(10))),
+				Collections.singletonList(new Predicate(0, Op.EQUALS, new IntField(3))));
+		for (List<Predicate> preds : lookups) {
+			List<List<Integer>> rows = rows(new SecondaryIndexScan(tid, index, "t", preds, false));
+			assertFalse(rows.isEmpty());
+			assertSameRows(matching(preds), rows);
+			for (int i = 1; i < rows.size(); i++) {
+				List<Integer> a = rows.get(i - 1), b = rows.get(i);
+				assertTrue(a.get(1) < b.get(1) || (a.get(1).equals(b.get(1)) && a.get(0) <= b.get(0)));
+			}
+		}
+	}
+
+	/** Inserts and deletes through the buffer pool keep the index up to date. */
+	@Test
+	public void maintainedByBufferPool() throws Exception {
+		SecondaryIndex index = createIndex(hf, new int[]{0}, new int[]{2});
+		Random r = new Random(11);
+		for (int i = 0; i < 500; i++) {
+			Tuple t = new Tuple(hf.getTupleDesc());
+			for (int j = 0; j < 3; j++)
+				t.setField(j, new IntField(r.nextInt(100)));
+			Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+		}
+		List<Tuple> deleted = new ArrayList<>();
+		DbFileIterator it = hf.iterator(tid);
+		it.open();
+		for (int i = 0; it.hasNext(); i++) {
+			Tuple t = it.next();
+			if (i % 3 == 0)
+				deleted.add(t);
+		}
+		it.close();
+		for (Tuple t : deleted)
+			Database.getBufferPool().deleteTuple(tid, t);
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		assertEquals(matching(new ArrayList<>()).size(),
+				rows(new SecondaryIndexScan(tid, index, "t", new ArrayList<>(), true)).size());
+		for (int key : new int[]{0, 17, 99}) {
+			List<Predicate> preds = Collections.singletonList(new Predicate(0, Op.EQUALS, new IntField(key)));
+			assertSameRows(matching(preds), rows(new SecondaryIndexScan(tid, index, "t", preds, false)));
+		}
+	}
+
+	/**
+	 * Composite keys longer than a string field are truncated, and lookups
+	 * on them still find exactly the matching tuples.
+	 */
+	@Test
+	public void truncatedKeys() throws Exception {
+		TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE},
+				new String[]{"url", "n"});
+		File f = File.createTempFile("table", ".dat");
+		f.deleteOnExit();
+		HeapFile table = new HeapFile(f, td);
+		Database.getCatalog().addTable(table, "urls");
+		SecondaryIndex index = createIndex(table, new int[]{0, 1}, new int[0]);
+
+		StringBuilder base = new StringBuilder();
+		while (base.length() < 120)
+			base.append("/segment");
+		Random r = new Random(3);
+		List<Tuple> inserted = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new StringField(base + "/" + r.nextInt(3), Type.STRING_LEN));
+			t.setField(1, new IntField(r.nextInt(50)));
+			Database.getBufferPool().insertTuple(tid, table.getId(), t);
+			inserted.add(t);
+		}
+		for (int i = 0; i < inserted.size(); i += 4)
+			Database.getBufferPool().deleteTuple(tid, inserted.get(i));
+
+		StringField url = new StringField(base + "/1", Type.STRING_LEN);
+		List<Predicate> preds = Arrays.asList(new Predicate(0, Op.EQUALS, url),
+				new Predicate(1, Op.GREATER_THAN_OR_EQ, new IntField(10)),
+				new Predicate(1, Op.LESS_THAN, new IntField(20)));
+		int expected = 0;
+		for (int i = 0; i < inserted.size(); i++) {
+			Tuple t = inserted.get(i);
+			if (i % 4 != 0 && t.getField(0).equals(url) && t.getInt(1) >= 10 && t.getInt(1) < 20)
+				expected++;
+		}
+		OpIterator it = new SecondaryIndexScan(tid, index, "urls", preds, true);
+		int found = 0;
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			assertEquals(url, t.getField(0));
+			assertTrue(t.getInt(1) >= 10 && t.getInt(1) < 20);
+			found++;
+		}
+		it.close();
+		assertTrue(expected > 0);
+		assertEquals(expected, found);
+	}
+
+	/** A query the index covers is answered from the index alone. */
+	@Test
+	public void coveredQueryReadsOnlyIndex() throws Exception {
+		createIndex(hf, new int[]{1}, new int[]{2});
+		Map<String, TableStats> stats = new HashMap<>();
+		stats.put("t", new TableStats(hf.getId(), 1));
+		LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT t.c2 FROM t WHERE t.c1 = 7;");
+		OpIterator it = lp.physicalPlan(tid, stats, false);
+		SecondaryIndexScan scan = TestUtil.findOperator(it, SecondaryIndexScan.class);
+		assertNotNull(scan);
+		assertTrue(scan.isIndexOnly());
+		assertNull(TestUtil.findOperator(it, SeqScan.class));
+
+		List<List<Integer>> expected = new ArrayList<>();
+		for (List<Integer> row : matching(Collections.singletonList(new Predicate(1, Op.EQUALS, new IntField(7)))))
+			expected.add(Collections.singletonList(row.get(2)));
+		assertSameRows(expected, rows(it));
+	}
+
+	/**
+	 * A selective predicate reads the tuples through an index that does not
+	 * cover the query, and an unselective one scans the table.
+	 */
+	@Test
+	public void uncoveredQueryFetchesTuples() throws Exception {
+		createIndex(hf, new int[]{1}, new int[0]);
+		Map<String, TableStats> stats = new HashMap<>();
+		stats.put("t", new TableStats(hf.getId(), 1));
+		LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM t WHERE t.c1 = 7 AND t.c0 < 50;");
+		OpIterator it = lp.physicalPlan(tid, stats, false);
+		SecondaryIndexScan scan = TestUtil.findOperator(it, SecondaryIndexScan.class);
+		assertNotNull(scan);
+		assertFalse(scan.isIndexOnly());
+		assertSameRows(matching(Arrays.asList(new Predicate(1, Op.EQUALS, new IntField(7)),
+				new Predicate(0, Op.LESS_THAN, new IntField(50)))), rows(it));
+
+		lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM t WHERE t.c1 > 5;");
+		it = lp.physicalPlan(tid, stats, false);
+		assertNull(TestUtil.findOperator(it, SecondaryIndexScan.class));
+		assertNotNull(TestUtil.findOperator(it, SeqScan.class));
+	}
+
+	@Test
+	public void rejectsBadFields() throws Exception {
+		File f = File.createTempFile("index", ".dat");
+		f.deleteOnExit();
+		for (int[] key : new int[][]{{}, {3}, {0, 0}}) {
+			try {
+				new SecondaryIndex("bad", f, hf, key, new int[0]);
+				fail("accepted key fields " + Arrays.toString(key));
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(SecondaryIndexTest.class);
+	}
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.SortMergeJoin;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    /**
+     * Unsorted inputs with many duplicate keys on both sides are sorted and
+     * joined into every matching pair, in order of the key.
+     */
+    @Test public void duplicateKeys() throws Exception {
+        List<List<Integer>> left = new ArrayList<>();
+        List<List<Integer>> right = new ArrayList<>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 2000, 50, null, left);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(3, 1500, 50, null, right);
+        TransactionId tid = new TransactionId();
+        SortMergeJoin j = new SortMergeJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 2),
+                new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b"));
+        assertTrue(j.sortsChild1());
+        assertTrue(j.sortsChild2());
+        assertEquals(5, j.getTupleDesc().numFields());
+
+        j.open();
+        List<String> rows = new ArrayList<>();
+        int last = Integer.MIN_VALUE;
+        while (j.hasNext()) {
+            Tuple t = j.next();
+            assertTrue(t.getInt(1) >= last);
+            last = t.getInt(1);
+            rows.add(t.toString());
+        }
+        Collections.sort(rows);
+        assertEquals(TestUtil.expectedJoin(left, right, 1, Predicate.Op.EQUALS, 2), rows);
+
+        j.rewind();
+        assertEquals(TestUtil.expectedJoin(left, right, 1, Predicate.Op.EQUALS, 2), TestUtil.sortedRows(j));
+        j.close();
+    }
+
+    /**
+     * Inputs that come in order of their join field are merged without
+     * being sorted again.
+     */
+    @Test public void sortedInputs() throws Exception {
+        List<List<Integer>> left = new ArrayList<>();
+        List<List<Integer>> right = new ArrayList<>();
+        BTreeFile f1 = BTreeUtility.createRandomBTreeFile(2, 3000, 500, null, left, 0);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 1000, 500, null, right);
+        TransactionId tid = new TransactionId();
+        OpIterator sorted2 = new OrderBy(1, true, new SeqScan(tid, f2.getId(), "b"));
+        SortMergeJoin j = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, f1.getId(), "a"), sorted2);
+        assertFalse(j.sortsChild1());
+        assertFalse(j.sortsChild2());
+        assertTrue(SortMergeJoin.isSortedOn(j, 0));
+        assertTrue(SortMergeJoin.isSortedOn(j, 3));
+        assertFalse(SortMergeJoin.isSortedOn(j, 1));
+
+        j.open();
+        assertEquals(TestUtil.expectedJoin(left, right, 0, Predicate.Op.EQUALS, 1), TestUtil.sortedRows(j));
+        j.close();
+    }
+
+    /**
+     * Only equality predicates can be merged.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rangePredicate() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        TransactionId tid = new TransactionId();
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                new SeqScan(tid, f.getId(), "a"), new SeqScan(tid, f.getId(), "b"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -10,14 +11,19 @@ import org.junit.Assert;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Utility;
 import simpledb.execution.Predicate;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.Field;
 import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
 import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
 public class TableStatsTest extends SimpleDbTestBase {
 	public static final int IO_COST = 71;
@@ -160,4 +166,121 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/**
+	 * A build from a sample of the pages scales the counts up to the table
+	 */
+	@Test public void sampledStatisticsTest() throws IOException {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(1, 992*100, 32, null, null);
+		Assert.assertEquals(100, hf.numPages());
+		String name = SystemTestUtil.getUUID();
+		Database.getCatalog().addTable(hf, name);
+		TableStats s = new TableStats(Database.getCatalog().getTableId(name), IO_COST, 0.2);
+
+		Assert.assertEquals(0.2, s.getSampleRate(), 0.001);
+		// every page is full, so the estimate is exact
+		Assert.assertEquals(992*100, s.totalTuples());
+		Assert.assertEquals(100.0 * IO_COST, s.estimateScanCost(), 0.001);
+		Assert.assertEquals(1.0/32.0, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(16)), 0.015);
+		Assert.assertEquals(0.5, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(16)), 0.1);
+	}
+
+	/**
+	 * Saved statistics are reused for unchanged tables and rebuilt for tables
+	 * whose file changed
+	 */
+	@Test public void persistedStatisticsTest() throws IOException {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(1, 992*40, 32, null, null);
+		String name = SystemTestUtil.getUUID();
+		Database.getCatalog().addTable(hf, name);
+		File statsFile = File.createTempFile("tablestats", TableStats.STATS_FILE_SUFFIX);
+		statsFile.deleteOnExit();
+		Assert.assertTrue(statsFile.delete());
+
+		try {
+			TableStats.computeStatistics(statsFile);
+			Assert.assertTrue(statsFile.exists());
+			Assert.assertEquals(10200, TableStats.getTableStats(tableName).totalTuples());
+			Assert.assertEquals(992*40, TableStats.getTableStats(name).totalTuples());
+
+			// grow one table, and sample from now on, so rebuilt statistics can be told apart
+			for (int i = 0; i < 10; i++)
+				hf.writePage(new HeapPage(new HeapPageId(hf.getId(), hf.numPages()), HeapPage.createEmptyPageData()));
+			TableStats.setDefaultSampleRate(0.5);
+			TableStats.computeStatistics(statsFile);
+
+			TableStats unchanged = TableStats.getTableStats(tableName);
+			Assert.assertEquals(1.0, unchanged.getSampleRate(), 0.001);
+			Assert.assertEquals(10200, unchanged.totalTuples());
+			Assert.assertEquals(0.5, unchanged.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(16)), 0.1);
+
+			TableStats changed = TableStats.getTableStats(name);
+			Assert.assertEquals(0.5, changed.getSampleRate(), 0.001);
+			// 50 pages now, against 100 for the other table
+			Assert.assertEquals(0.5, changed.estimateScanCost() / unchanged.estimateScanCost(), 0.001);
+		} finally {
+			TableStats.setDefaultSampleRate(1.0);
+			statsFile.delete();
+		}
+	}
+
+	/**
+	 * Inserts and deletes through the BufferPool update the statistics
+	 */
+	@Test public void incrementalStatisticsTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		TableStats.setTableStats(this.tableName, s);
+		Assert.assertTrue(s.getMax(0) < 32);
+
+		TransactionId tid = new TransactionId();
+		List<Tuple> inserted = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			Tuple t = Utility.getHeapTuple(100, 10);
+			Database.getBufferPool().insertTuple(tid, this.tableId, t);
+			inserted.add(t);
+		}
+		Assert.assertEquals(10300, s.totalTuples());
+		Assert.assertEquals(100, s.getMax(0));
+		Assert.assertEquals(0, s.getMin(0));
+
+		for (int i = 0; i < 40; i++)
+			Database.getBufferPool().deleteTuple(tid, inserted.get(i));
+		Database.getBufferPool().transactionComplete(tid);
+		Assert.assertEquals(10260, s.totalTuples());
+		Assert.assertEquals(140, s.getChangeCount());
+		Assert.assertFalse(s.isRefreshing());
+		Assert.assertSame(s, TableStats.getTableStats(this.tableName));
+		Assert.assertEquals(1.0/32.0, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(16)), 0.015);
+	}
+
+	/**
+	 * Enough changes make the statistics stale, and they are rebuilt in the
+	 * background
+	 */
+	@Test public void staleStatisticsAreRebuiltTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		TableStats.setTableStats(this.tableName, s);
+		double threshold = TableStats.getStalenessThreshold();
+		TableStats.setStalenessThreshold(0.01);
+		try {
+			// commit each insert so the rebuild, which reads the file, sees it
+			for (int i = 0; i <= TableStats.MIN_STALE_CHANGES; i++) {
+				TransactionId tid = new TransactionId();
+				Database.getBufferPool().insertTuple(tid, this.tableId, Utility.getHeapTuple(i, 10));
+				Database.getBufferPool().transactionComplete(tid);
+			}
+			Assert.assertTrue(s.isRefreshing());
+
+			long deadline = System.currentTimeMillis() + 10000;
+			while (TableStats.getTableStats(this.tableName) == s && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			TableStats fresh = TableStats.getTableStats(this.tableName);
+			Assert.assertNotSame(s, fresh);
+			Assert.assertEquals(0, fresh.getChangeCount());
+			Assert.assertTrue(fresh.totalTuples() >= 10200 + TableStats.MIN_STALE_CHANGES);
+			Assert.assertTrue(fresh.getMax(0) >= (int) TableStats.MIN_STALE_CHANGES - 1);
+		} finally {
+			TableStats.setStalenessThreshold(threshold);
+		}
+	}
 }
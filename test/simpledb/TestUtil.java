@@ -2,6 +2,9 @@ package simpledb;
 
 import simpledb.common.*;
 import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -168,6 +171,84 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return the remaining tuples of an open OpIterator, as strings, sorted
+     */
+    public static List<String> sortedRows(OpIterator it)
+        throws DbException, TransactionAbortedException {
+        List<String> rows = new ArrayList<>();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * @return the result of joining the rows of left and right on left field
+     *   f1 op right field f2, computed with nested loops over the lists, as
+     *   sorted strings like those of {@link #sortedRows}
+     */
+    public static List<String> expectedJoin(List<List<Integer>> left, List<List<Integer>> right,
+                                            int f1, Predicate.Op op, int f2) {
+        List<String> rows = new ArrayList<>();
+        for (List<Integer> l : left) {
+            for (List<Integer> r : right) {
+                if (!new IntField(l.get(f1)).compare(op, new IntField(r.get(f2))))
+                    continue;
+                StringBuilder sb = new StringBuilder();
+                for (Integer v : l)
+                    sb.append(sb.length() > 0 ? "\t" : "").append(v);
+                for (Integer v : r)
+                    sb.append('\t').append(v);
+                rows.add(sb.toString());
+            }
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * @return the first operator of class c in the plan rooted at it, searched
+     *   depth first, or null if there is none
+     */
+    public static <T> T findOperator(OpIterator it, Class<T> c) {
+        if (c.isInstance(it))
+            return c.cast(it);
+        if (it instanceof Operator) {
+            for (OpIterator child : ((Operator) it).getChildren()) {
+                T found = child == null ? null : findOperator(child, c);
+                if (found != null)
+                    return found;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a new BTreeFile with no pages, keyed on keyField, added to the
+     *   catalog
+     */
+    public static BTreeFile emptyBTreeFile(TupleDesc td, int keyField) throws IOException {
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        BTreeFile bf = new BTreeFile(f, keyField, td);
+        Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+        return bf;
+    }
+
+    /**
+     * @return all the tuples of a DbFileIterator, which is opened and closed
+     */
+    public static List<Tuple> scanFile(DbFileIterator it)
+        throws DbException, TransactionAbortedException {
+        List<Tuple> tuples = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
     /**
      * @return a byte array containing the contents of the file 'path'
      */
@@ -1,11 +1,18 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
 
+import simpledb.common.Type;
 import simpledb.common.Utility;
+
+import java.nio.ByteBuffer;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 
@@ -59,6 +66,94 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for the typed accessors, which share their storage with
+     * getField() and setField()
+     */
+    @Test public void typedAccessors() {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+        Tuple tup = new Tuple(td);
+        assertNull(tup.getField(1));
+
+        tup.setInt(0, -5);
+        tup.setString(1, "hello");
+        tup.setField(2, new IntField(Integer.MAX_VALUE));
+        assertEquals(new IntField(-5), tup.getField(0));
+        assertEquals(new StringField("hello", Type.STRING_LEN), tup.getField(1));
+        assertEquals(Integer.MAX_VALUE, tup.getInt(2));
+        // the wrapper is created once
+        assertSame(tup.getField(1), tup.getField(1));
+
+        tup.setString(1, "bye");
+        assertEquals("bye", tup.getString(1));
+        assertEquals(new StringField("bye", Type.STRING_LEN), tup.getField(1));
+        assertEquals("-5\tbye\t" + Integer.MAX_VALUE, tup.toString());
+    }
+
+    /**
+     * The typed getters check the field type like the setters, and rows and
+     * batches store, hash and compare non-ASCII strings the same way
+     */
+    @Test public void typedAccessorsCheckTypeAndEncoding() {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        Tuple tup = new Tuple(td);
+        tup.setInt(0, 1);
+        String s = "caf\u00e9 \u00fcber";
+        tup.setString(1, s);
+        try {
+            tup.getInt(1);
+            fail("expected a type error");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            tup.getString(0);
+            fail("expected a type error");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertEquals(s, tup.getString(1));
+        TupleBatch.StringColumn col = new TupleBatch.StringColumn(1);
+        col.append(s);
+        assertEquals(s, col.getString(0));
+        assertEquals(col.hash(0), tup.hashString(1));
+        assertTrue(tup.stringEquals(1, col, 0));
+    }
+
+    /**
+     * Unit test for Tuple.writeTo() and the on-disk constructor
+     */
+    @Test public void onDiskFormat() {
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+        Tuple tup = new Tuple(td);
+        tup.setString(0, "abc");
+        tup.setInt(1, 42);
+
+        byte[] data = new byte[td.getSize() + 10];
+        tup.writeTo(data, 10);
+        Tuple copy = new Tuple(td, ByteBuffer.wrap(data), 10);
+        assertEquals("abc", copy.getString(0));
+        assertEquals(42, copy.getInt(1));
+        assertEquals(tup.toString(), copy.toString());
+        assertEquals(Type.STRING_LEN + 4, td.getOffset(1));
+    }
+
+    /**
+     * Unit test for Tuple.merge() and Tuple.copyField()
+     */
+    @Test public void mergeAndCopy() {
+        Tuple t1 = Utility.getHeapTuple(new int[]{1, 2, 3});
+        Tuple t2 = Utility.getHeapTuple(new int[]{4, 5});
+        TupleDesc td = TupleDesc.merge(t1.getTupleDesc(), t2.getTupleDesc());
+        Tuple t = Tuple.merge(td, t1, t2);
+        assertEquals("1\t2\t3\t4\t5", t.toString());
+
+        Tuple p = new Tuple(Utility.getTupleDesc(2));
+        p.copyField(0, t, 4);
+        p.copyField(1, t, 0);
+        assertEquals(new IntField(5), p.getField(0));
+        assertEquals(1, p.getInt(1));
+    }
+
     /**
      * JUnit suite target
      */
@@ -284,6 +284,47 @@ public class BTreeScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** Test that a scan between two bounds stops at the upper one */
+    @Test public void testBoundedRange() throws Exception {
+        final int LEAF_PAGES = 30;
+
+        List<List<Integer>> tuples = new ArrayList<>();
+        int keyField = 0;
+        BTreeFile f = BTreeUtility.createBTreeFile(2, LEAF_PAGES*502, null, tuples, keyField);
+        TupleDesc td = Utility.getTupleDesc(2);
+        InstrumentedBTreeFile table = new InstrumentedBTreeFile(f.getFile(), keyField, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        int low = 100 + r.nextInt(400), high = low + 500;
+        List<List<Integer>> tuplesFiltered = new ArrayList<>();
+        for (List<Integer> tup : tuples) {
+            if (tup.get(keyField) > low && tup.get(keyField) <= high)
+                tuplesFiltered.add(tup);
+        }
+
+        TransactionId tid = new TransactionId();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        BTreeScan scan = new BTreeScan(tid, f.getId(), "table",
+                new IndexPredicate(Op.GREATER_THAN, new IntField(low)),
+                new IndexPredicate(Op.LESS_THAN_OR_EQ, new IntField(high)));
+        SystemTestUtil.matchTuples(scan, tuplesFiltered);
+        // root pointer page + root + the (at most 2) leaves holding the
+        // range + possibly the next one; nothing is read ahead past the bound
+        assertTrue(table.readCount <= 5);
+
+        // an upper bound alone starts at the first leaf
+        tuplesFiltered.clear();
+        for (List<Integer> tup : tuples) {
+            if (tup.get(keyField) < low)
+                tuplesFiltered.add(tup);
+        }
+        scan = new BTreeScan(tid, f.getId(), "table", null,
+                new IndexPredicate(Op.LESS_THAN, new IntField(low)));
+        SystemTestUtil.matchTuples(scan, tuplesFiltered);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(BTreeScanTest.class);
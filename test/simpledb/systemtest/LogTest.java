@@ -435,6 +435,50 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestDeltaRecordSize()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // flushing a one-tuple change logs the changed bytes, not the
+        // before and after images of the page
+        Transaction t = new Transaction();
+        t.start();
+        insertRow(hf1, t, 3);
+        long before = new File("log").length();
+        Database.getBufferPool().flushAllPages();
+        long logged = new File("log").length() - before;
+        assertTrue("logged " + logged + " bytes", logged < BufferPool.getPageSize() / 10);
+        t.commit();
+    }
+
+    @Test public void TestAbortCrashCommitCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 is undone by recovery, then T2 reuses its slot and commits;
+        // a second recovery must not undo T1 over T2
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 14);
+        Database.getBufferPool().flushAllPages(); // XXX defeat NO-STEAL-based abort
+
+        crash();
+
+        doInsert(hf1, 15, -1);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 14, false);
+        look(hf1, t, 15, true);
+        t.commit();
+    }
 
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {